@@ -1,12 +1,17 @@
 package org.andresoviedo.app.model3D.demo;
 
 import android.net.Uri;
+import android.opengl.Matrix;
 import android.os.SystemClock;
 import android.util.Log;
 import android.widget.Toast;
 
-import org.andresoviedo.android_3d_model_engine.animation.Animator;
+import org.andresoviedo.android_3d_model_engine.animation.AnimationScheduler;
+import org.andresoviedo.android_3d_model_engine.animation.SceneSnapshot;
+import org.andresoviedo.android_3d_model_engine.animation.Simulation;
 import org.andresoviedo.android_3d_model_engine.collision.CollisionDetection;
+import org.andresoviedo.android_3d_model_engine.collision.PickingBuffer;
+import org.andresoviedo.android_3d_model_engine.collision.SceneBvh;
 import org.andresoviedo.android_3d_model_engine.model.Camera;
 import org.andresoviedo.android_3d_model_engine.model.Object3DData;
 import org.andresoviedo.android_3d_model_engine.services.LoaderTask;
@@ -38,6 +43,10 @@ public class SceneLoader implements LoaderTask.Callback {
      * Default model color: yellow
      */
     private static float[] DEFAULT_COLOR = {1.0f, 1.0f, 0, 1.0f};
+    /**
+     * Seconds between updates of the picking buffer, which is drawn on the CPU
+     */
+    private static final float PICKING_PERIOD = 0.1f;
     /**
      * Parent component
      */
@@ -106,6 +115,10 @@ public class SceneLoader implements LoaderTask.Callback {
      * Toggle collision detection
      */
     private boolean isCollision = false;
+    /**
+     * Toggle picking with the software picking buffer instead of ray casting
+     */
+    private volatile boolean isSoftwarePicking = false;
     /**
      * Toggle 3d
      */
@@ -131,9 +144,31 @@ public class SceneLoader implements LoaderTask.Callback {
      */
     private final Object3DData lightPoint = Object3DBuilder.buildPoint(lightPosition).setId("light");
     /**
-     * Animator
+     * Scene hierarchy for picking objects
+     */
+    private final SceneBvh pickingBvh = new SceneBvh();
+    /**
+     * Objects drawn on screen, for picking without ray casting
+     */
+    private final PickingBuffer pickingBuffer = new PickingBuffer();
+    /**
+     * Simulated time of the last update of the picking buffer, and the view matrix it used
+     */
+    private float pickingTime = -PICKING_PERIOD;
+    private final float[] pickingViewMatrix = new float[16];
+    private final float[] pickingProjectionMatrix = new float[16];
+    /**
+     * Animates all the models
+     */
+    private final AnimationScheduler animationScheduler = new AnimationScheduler();
+    /**
+     * Moves the scene on its own thread, at a fixed rate
      */
-    private Animator animator = new Animator();
+    private final Simulation simulation = new Simulation(this::onStep);
+    /**
+     * Step of the last snapshot whose palettes were copied to the models
+     */
+    private long appliedStep = -1;
     /**
      * Did the user touched the model for the first time?
      */
@@ -200,11 +235,48 @@ public class SceneLoader implements LoaderTask.Callback {
     }
 
     /**
-     * Hook for animating the objects before the rendering
+     * Starts moving the scene
      */
-    public void onDrawFrame() {
+    public void onResume() {
+        simulation.start();
+    }
 
-        animateLight();
+    /**
+     * Stops moving the scene, until it's resumed
+     */
+    public void onPause() {
+        simulation.stop();
+    }
+
+    /**
+     * Gets the state of the scene to draw. To be called by the renderer once per frame
+     *
+     * @return the latest state computed by the simulation, with the skinning palettes ready to draw, or null if the
+     * simulation didn't run yet
+     */
+    public SceneSnapshot getSnapshot() {
+        SceneSnapshot snapshot = simulation.acquire();
+        if (snapshot != null && snapshot.getStep() != appliedStep) {
+            snapshot.applyPalettes();
+            appliedStep = snapshot.getStep();
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return time spent by the last update of the scene, in nanoseconds
+     */
+    public long getUpdateTime() {
+        return simulation.getUpdateTime();
+    }
+
+    /**
+     * Moves the light, the camera and the animated models one step. It's called from the simulation thread, and
+     * doesn't use OpenGL
+     */
+    protected void onStep(float time, float step, SceneSnapshot snapshot) {
+
+        animateLight(time);
 
         // smooth camera transition
         camera.animate();
@@ -214,22 +286,39 @@ public class SceneLoader implements LoaderTask.Callback {
             animateCamera();
         }
 
-        if (objects.isEmpty()) return;
+        List<Object3DData> objects = getObjects();
+        if (doAnimation && !objects.isEmpty()) {
+            animationScheduler.evaluate(objects, time, isShowBindPose());
+        }
+        snapshot.capture(objects, camera, lightPoint);
 
-        if (doAnimation) {
-            for (int i=0; i<objects.size(); i++) {
-                Object3DData obj = objects.get(i);
-                animator.update(obj, isShowBindPose());
-            }
+        // a few times per second is enough for a tap to find what's on screen
+        if (isSoftwarePicking() && time - pickingTime >= PICKING_PERIOD) {
+            updatePickingBuffer(snapshot);
+            pickingTime = time;
+        }
+    }
+
+    /**
+     * Draws on the picking buffer the objects of the snapshot, as the renderer will draw them
+     */
+    private void updatePickingBuffer(SceneSnapshot snapshot) {
+        ModelRenderer mr = parent.getGLView() != null ? parent.getGLView().getModelRenderer() : null;
+        if (mr == null || !mr.getProjectionMatrix(pickingProjectionMatrix, 0)) {
+            // no projection yet
+            return;
         }
+        Camera camera = snapshot.getCamera();
+        Matrix.setLookAtM(pickingViewMatrix, 0, camera.xPos, camera.yPos, camera.zPos, camera.xView, camera.yView,
+                camera.zView, camera.xUp, camera.yUp, camera.zUp);
+        pickingBuffer.update(snapshot, pickingViewMatrix, pickingProjectionMatrix);
     }
 
-    private void animateLight() {
+    private void animateLight(float time) {
         if (!rotatingLight) return;
 
         // animate light - Do a complete rotation every 5 seconds.
-        long time = SystemClock.uptimeMillis() % 5000L;
-        float angleInDegrees = (360.0f / 5000.0f) * ((int) time);
+        float angleInDegrees = 360.0f * (time % 5f) / 5f;
         lightPoint.setRotationY(angleInDegrees);
     }
 
@@ -355,6 +444,11 @@ public class SceneLoader implements LoaderTask.Callback {
         makeToastText("Collisions: "+isCollision, Toast.LENGTH_SHORT);
     }
 
+    public void toggleSoftwarePicking() {
+        this.isSoftwarePicking = !isSoftwarePicking;
+        makeToastText("Software picking: "+isSoftwarePicking, Toast.LENGTH_SHORT);
+    }
+
     public void toggleStereoscopic() {
         if (!this.isStereoscopic){
             this.isStereoscopic = true;
@@ -401,6 +495,10 @@ public class SceneLoader implements LoaderTask.Callback {
         return isCollision;
     }
 
+    public boolean isSoftwarePicking() {
+        return isSoftwarePicking;
+    }
+
     public boolean isStereoscopic() {
         return isStereoscopic;
     }
@@ -480,8 +578,15 @@ public class SceneLoader implements LoaderTask.Callback {
 
     public void processTouch(float x, float y) {
         ModelRenderer mr = parent.getGLView().getModelRenderer();
-        Object3DData objectToSelect = CollisionDetection.getBoxIntersection(getObjects(), mr.getWidth(), mr.getHeight
-                (), mr.getModelViewMatrix(), mr.getModelProjectionMatrix(), x, y);
+        pickingBvh.update(getObjects());
+        Object3DData objectToSelect;
+        if (isSoftwarePicking()) {
+            // kept up to date by the simulation
+            objectToSelect = pickingBuffer.pick(x, y, mr.getWidth(), mr.getHeight());
+        } else {
+            objectToSelect = CollisionDetection.getBoxIntersection(pickingBvh, mr.getWidth(), mr.getHeight
+                    (), mr.getModelViewMatrix(), mr.getModelProjectionMatrix(), x, y);
+        }
         if (objectToSelect != null) {
             if (getSelectedObject() == objectToSelect) {
                 Log.i("SceneLoader", "Unselected object " + objectToSelect.getId());
@@ -493,7 +598,7 @@ public class SceneLoader implements LoaderTask.Callback {
             if (isCollision()) {
                 Log.d("SceneLoader", "Detecting collision...");
 
-                float[] point = CollisionDetection.getTriangleIntersection(getObjects(), mr.getWidth(), mr.getHeight
+                float[] point = CollisionDetection.getTriangleIntersection(pickingBvh, mr.getWidth(), mr.getHeight
                         (), mr.getModelViewMatrix(), mr.getModelProjectionMatrix(), x, y);
                 if (point != null) {
                     Log.i("SceneLoader", "Drawing intersection point: " + Arrays.toString(point));
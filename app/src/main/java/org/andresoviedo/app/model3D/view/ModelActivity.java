@@ -106,6 +106,18 @@ public class ModelActivity extends Activity {
         setupOnSystemVisibilityChangeListener();
     }
 
+    @Override
+    protected void onResume() {
+        super.onResume();
+        scene.onResume();
+    }
+
+    @Override
+    protected void onPause() {
+        scene.onPause();
+        super.onPause();
+    }
+
     /**
      * Set up the {@link android.app.ActionBar}, if the API is available.
      */
@@ -164,6 +176,9 @@ public class ModelActivity extends Activity {
             case R.id.model_toggle_collision:
                 scene.toggleCollision();
                 break;
+            case R.id.model_toggle_software_picking:
+                scene.toggleSoftwarePicking();
+                break;
             case R.id.model_toggle_lights:
                 scene.toggleLighting();
                 break;
@@ -5,21 +5,30 @@ import android.opengl.GLSurfaceView;
 import android.opengl.Matrix;
 import android.util.Log;
 
-import org.andresoviedo.android_3d_model_engine.animation.Animator;
+import org.andresoviedo.android_3d_model_engine.animation.SceneSnapshot;
+import org.andresoviedo.android_3d_model_engine.collision.SceneBvh;
 import org.andresoviedo.android_3d_model_engine.drawer.DrawerFactory;
+import org.andresoviedo.android_3d_model_engine.drawer.GlStateCache;
+import org.andresoviedo.android_3d_model_engine.drawer.RenderQueue;
 import org.andresoviedo.android_3d_model_engine.model.AnimatedModel;
 import org.andresoviedo.android_3d_model_engine.model.Camera;
+import org.andresoviedo.android_3d_model_engine.model.Frustum;
 import org.andresoviedo.android_3d_model_engine.model.Object3D;
 import org.andresoviedo.android_3d_model_engine.model.Object3DData;
 import org.andresoviedo.android_3d_model_engine.services.Object3DBuilder;
+import org.andresoviedo.android_3d_model_engine.services.VertexPacker;
 import org.andresoviedo.android_3d_model_engine.services.gltf.jgltf_model.AnimationModel;
 import org.andresoviedo.app.model3D.demo.SceneLoader;
 import org.andresoviedo.util.android.GLUtil;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 import java.util.Map;
 
 import javax.microedition.khronos.egl.EGLConfig;
@@ -53,6 +62,19 @@ public class ModelRenderer implements GLSurfaceView.Renderer {
      */
     private final Object3DData axis = Object3DBuilder.buildAxis().setId("axis");
 
+	// objects out of the view are not drawn
+	private final Frustum frustum = new Frustum();
+	private final SceneBvh cullingBvh = new SceneBvh();
+	private List<Object3DData> cullingObjects;
+	private boolean[] visible = new boolean[0];
+	private int culledObjects;
+	private int drawnObjects;
+	private int lastFrameCulledObjects;
+	private int lastFrameDrawnObjects;
+	// draw calls of the frame, sorted by state and depth
+	private final RenderQueue renderQueue = new RenderQueue();
+	private Object3D[] queuedDrawers = new Object3D[0];
+	private int[] queuedTextures = new int[0];
 	// The wireframe associated shape (it should be made of lines only)
 	private Map<Object3DData, Object3DData> wireframes = new HashMap<>();
 	// The loaded textures
@@ -62,11 +84,18 @@ public class ModelRenderer implements GLSurfaceView.Renderer {
 	// The corresponding opengl bounding boxes
 	private Map<Object3DData, Object3DData> normals = new HashMap<>();
 	private Map<Object3DData, Object3DData> skeleton = new HashMap<>();
+	/**
+	 * The scene objects drawn in the previous frame, to release the ones that are removed
+	 */
+	private List<Object3DData> lastObjects = Collections.emptyList();
 
 	// 3D matrices to project our 3D world
 	private final float[] viewMatrix = new float[16];
 	private final float[] modelViewMatrix = new float[16];
 	private final float[] projectionMatrix = new float[16];
+	// copy of the projection for other threads, written under its own lock
+	private final float[] publishedProjectionMatrix = new float[16];
+	private boolean projectionPublished;
 	private final float[] viewProjectionMatrix = new float[16];
 	private final float[] lightPosInEyeSpace = new float[4];
 
@@ -89,14 +118,22 @@ public class ModelRenderer implements GLSurfaceView.Renderer {
 	 */
 	private boolean anaglyphSwitch = false;
 
-	/**
-	 * Skeleton Animator
-	 */
-	private Animator animator = new Animator();
 	/**
 	 * Did the application explode?
 	 */
 	private boolean fatalException = false;
+	/**
+	 * State of the scene drawn in this frame
+	 */
+	private SceneSnapshot snapshot;
+	/**
+	 * Step of the snapshot the view matrices were calculated for
+	 */
+	private long viewStep = -1;
+	/**
+	 * Time spent in the last frame, in nanoseconds
+	 */
+	private long drawTime;
 
 	/**
 	 * Construct a new renderer for the specified surface view
@@ -120,6 +157,10 @@ public class ModelRenderer implements GLSurfaceView.Renderer {
 
 	@Override
 	public void onSurfaceCreated(GL10 unused, EGLConfig config) {
+		// programs, textures & buffers are lost with the previous context (if any)
+		drawer.onSurfaceCreated();
+		textures.clear();
+
 		// Set the background frame color
 		float[] backgroundColor = main.getModelActivity().getBackgroundColor();
 		GLES20.glClearColor(backgroundColor[0], backgroundColor[1], backgroundColor[2], backgroundColor[3]);
@@ -149,6 +190,10 @@ public class ModelRenderer implements GLSurfaceView.Renderer {
 		Matrix.frustumM(projectionMatrix, 0, -ratio, ratio, -1, 1, getNear(), getFar());
 		Matrix.frustumM(projectionMatrixRight, 0, -ratio, ratio, -1, 1, getNear(), getFar());
 		Matrix.frustumM(projectionMatrixLeft, 0, -ratio, ratio, -1, 1, getNear(), getFar());
+		synchronized (publishedProjectionMatrix) {
+			System.arraycopy(projectionMatrix, 0, publishedProjectionMatrix, 0, 16);
+			projectionPublished = true;
+		}
 	}
 
 	@Override
@@ -156,6 +201,7 @@ public class ModelRenderer implements GLSurfaceView.Renderer {
 		if(fatalException){
 			return;
 		}
+		final long start = System.nanoTime();
 		try {
 
 			GLES20.glViewport(0, 0, width, height);
@@ -170,20 +216,31 @@ public class ModelRenderer implements GLSurfaceView.Renderer {
 				return;
 			}
 
+			GlStateCache stateCache = drawer.getStateCache();
+			stateCache.beginFrame();
+			lastFrameCulledObjects = culledObjects;
+			lastFrameDrawnObjects = drawnObjects;
+			culledObjects = 0;
+			drawnObjects = 0;
 			if (scene.isBlendingEnabled()) {
 				// Enable blending for combining colors when there is transparency
-				GLES20.glEnable(GLES20.GL_BLEND);
-				GLES20.glBlendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+				stateCache.enable(GLES20.GL_BLEND);
+				stateCache.blendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
 			} else {
-				GLES20.glDisable(GLES20.GL_BLEND);
+				stateCache.disable(GLES20.GL_BLEND);
 			}
 
-			// animate scene
-			scene.onDrawFrame();
+			// the scene is moved by the simulation thread, we only draw its latest state
+			snapshot = scene.getSnapshot();
+			if (snapshot == null) {
+				return;
+			}
+			cullingObjects = snapshot.getObjects();
+			cullingBvh.update(cullingObjects, snapshot.getDrawMatrices());
 
 			// recalculate mvp matrix according to where we are looking at now
-			Camera camera = scene.getCamera();
-			if (camera.hasChanged()) {
+			Camera camera = snapshot.getCamera();
+			if (snapshot.getStep() != viewStep || scene.getCamera().hasChanged()) {
 				// INFO: Set the camera position (View matrix)
 				// The camera has 3 vectors (the position, the vector where we are looking at, and the up position (sky)
 
@@ -223,8 +280,8 @@ public class ModelRenderer implements GLSurfaceView.Renderer {
 
 				}
 
-				camera.setChanged(false);
-
+				scene.getCamera().setChanged(false);
+				viewStep = snapshot.getStep();
 			}
 
 
@@ -264,6 +321,8 @@ public class ModelRenderer implements GLSurfaceView.Renderer {
 		}catch (Exception ex){
 			Log.e("ModelRenderer", "Fatal exception: "+ex.getMessage(), ex);
 			fatalException = true;
+		} finally {
+			drawTime = System.nanoTime() - start;
 		}
 	}
 
@@ -278,14 +337,15 @@ public class ModelRenderer implements GLSurfaceView.Renderer {
 
 			Object3D lightBulbDrawer = drawer.getPointDrawer();
 
-			Matrix.multiplyMM(modelViewMatrix, 0, viewMatrix, 0, scene.getLightBulb().getModelMatrix(), 0);
+			Matrix.multiplyMM(modelViewMatrix, 0, viewMatrix, 0, snapshot.getLightMatrix(), 0);
 
 			// Calculate position of the light in eye space to support lighting
 			Matrix.multiplyMV(lightPosInEyeSpace, 0, modelViewMatrix, 0, scene.getLightPosition(), 0);
 
-			// Draw a point that represents the light bulb
-			lightBulbDrawer.draw(scene.getLightBulb(), projectionMatrix, viewMatrix, -1, lightPosInEyeSpace,
-					colorMask);
+			// Draw a point that represents the light bulb, where the simulation left it
+			Object3DData lightBulb = scene.getLightBulb();
+			lightBulbDrawer.draw(lightBulb, snapshot.getLightMatrix(), 0, projectionMatrix, viewMatrix,
+					lightBulb.getDrawMode(), lightBulb.getDrawSize(), -1, lightPosInEyeSpace, colorMask);
 
 		}
 
@@ -298,17 +358,41 @@ public class ModelRenderer implements GLSurfaceView.Renderer {
 
 
         // is there any object?
-		if (scene.getObjects().isEmpty()){
+		List<Object3DData> objects = snapshot.getObjects();
+		if (objects.isEmpty()){
 			return;
 		}
 
 		// draw all available objects
-		List<Object3DData> objects = scene.getObjects();
+		if (objects != lastObjects) {
+			releaseRemovedObjects(objects);
+			lastObjects = objects;
+		}
+		if (queuedDrawers.length < objects.size()) {
+			queuedDrawers = new Object3D[objects.size()];
+			queuedTextures = new int[objects.size()];
+		}
+		renderQueue.clear();
+		if (visible.length < objects.size()) {
+			visible = new boolean[objects.size()];
+		}
+		frustum.set(viewProjectionMatrix);
+		if (objects == cullingObjects) {
+			cullingBvh.frustumIntersection(frustum, visible);
+		} else {
+			// scene changed since the frame started
+			Arrays.fill(visible, true);
+		}
 		for (int i=0; i<objects.size(); i++) {
 			Object3DData objData = null;
 			try {
 				objData = objects.get(i);
 
+				if (!visible[i] && !isAnimated(objData, scene)) {
+					culledObjects++;
+					continue;
+				}
+
 				Object3D drawerObject = drawer.getDrawer(objData, scene.isDrawTextures(), scene.isDrawLighting(),
                         scene.isDoAnimation(), scene.isDrawColors());
 
@@ -321,8 +405,6 @@ public class ModelRenderer implements GLSurfaceView.Renderer {
 					infoLogged.put(objData, true);
 				}
 
-				boolean changed = objData.isChanged();
-
 //				if (objData instanceof AnimatedModel
 //						&& ((AnimatedModel) objData).getGltfAnimation() != null){
 //					//TODO: read each animation model data and change vertex inside objData
@@ -344,6 +426,8 @@ public class ModelRenderer implements GLSurfaceView.Renderer {
 						emissiveTextureIs = new ByteArrayInputStream(objData.getEmissiveTextureData());
 					}
 					int[] textureIds = GLUtil.loadTexture(textureIs, emissiveTextureIs);
+					// texture bindings changed behind the cache
+					drawer.getStateCache().invalidate();
 					textureId = textureIds[0];
 					emissiveTextureId = textureIds[1];
 					textureIs.close();
@@ -359,10 +443,48 @@ public class ModelRenderer implements GLSurfaceView.Renderer {
 					textureId = -1;
 				}
 
+				// distance from the camera to the model origin
+				float[] drawMatrices = snapshot.getDrawMatrices();
+				int m = i * 16;
+				float depth = -(viewMatrix[2] * drawMatrices[m + 12] + viewMatrix[6] * drawMatrices[m + 13]
+						+ viewMatrix[10] * drawMatrices[m + 14] + viewMatrix[14]);
+				boolean transparent = scene.isBlendingEnabled() && objData.getColor() != null
+						&& objData.getColor().length == 4 && objData.getColor()[3] < 1;
+
+				queuedDrawers[i] = drawerObject;
+				queuedTextures[i] = textureId;
+				renderQueue.add(i, drawerObject.getProgram(), textureId, transparent, depth);
+				drawnObjects++;
+			} catch (Exception ex) {
+				Log.e("ModelRenderer","There was a problem rendering the object '"+objData.getId()+"':"+ex.getMessage(),ex);
+			}
+		}
+
+		// draw opaque objects front-to-back and transparent ones back-to-front, grouped by program and texture
+		renderQueue.sort();
+		for (int q=0; q<renderQueue.size(); q++) {
+			int i = renderQueue.get(q);
+			Object3DData objData = null;
+			try {
+				objData = objects.get(i);
+				Object3D drawerObject = queuedDrawers[i];
+				int textureId = queuedTextures[i];
+				// the object and everything drawn for it are placed as they were in the snapshot
+				float[] drawMatrices = snapshot.getDrawMatrices();
+				int m = i * 16;
+
+				boolean changed = objData.isChanged();
+				if (changed) {
+					// the interleaved copy is refreshed before the gpu copies are updated
+					VertexPacker.repack(objData);
+					drawer.getBufferManager().invalidate(objData);
+				}
+
 				// draw points
 				if (objData.getDrawMode() == GLES20.GL_POINTS){
 					Object3D basicDrawer = drawer.getPointDrawer();
-					basicDrawer.draw(objData, projectionMatrix, viewMatrix, GLES20.GL_POINTS,lightPosInEyeSpace);
+					basicDrawer.draw(objData, drawMatrices, m, projectionMatrix, viewMatrix, GLES20.GL_POINTS,
+							objData.getDrawSize(), -1, lightPosInEyeSpace, null);
 				}
 
 				// draw wireframe
@@ -375,11 +497,14 @@ public class ModelRenderer implements GLSurfaceView.Renderer {
 						Object3DData wireframe = wireframes.get(objData);
 						if (wireframe == null || changed) {
 							Log.i("ModelRenderer","Generating wireframe model...");
+							if (wireframe != null) {
+								drawer.getBufferManager().release(wireframe);
+							}
 							wireframe = Object3DBuilder.buildWireframe(objData);
 							wireframes.put(objData, wireframe);
 						}
-						drawerObject.draw(wireframe, projectionMatrix, viewMatrix, wireframe.getDrawMode(),
-								wireframe.getDrawSize(), textureId, lightPosInEyeSpace,
+						drawerObject.draw(wireframe, drawMatrices, m, projectionMatrix, viewMatrix,
+								wireframe.getDrawMode(), wireframe.getDrawSize(), textureId, lightPosInEyeSpace,
 								colorMask);
 					}catch(Error e){
 						Log.e("ModelRenderer",e.getMessage(),e);
@@ -388,7 +513,7 @@ public class ModelRenderer implements GLSurfaceView.Renderer {
 
 				// draw points
 				else if (scene.isDrawPoints() || objData.getFaces() == null || !objData.getFaces().loaded()){
-						drawerObject.draw(objData, projectionMatrix, viewMatrix
+						drawerObject.draw(objData, drawMatrices, m, projectionMatrix, viewMatrix
 								, GLES20.GL_POINTS, objData.getDrawSize(),
 								textureId, lightPosInEyeSpace, colorMask);
 				}
@@ -399,24 +524,30 @@ public class ModelRenderer implements GLSurfaceView.Renderer {
 					Object3DData skeleton = this.skeleton.get(objData);
 					if (skeleton == null){
 						skeleton = Object3DBuilder.buildSkeleton((AnimatedModel) objData);
+						// draws the pose of the model, evaluated by the simulation
+						((AnimatedModel) skeleton).setSkeleton(((AnimatedModel) objData).getSkeleton());
 						this.skeleton.put(objData, skeleton);
 					}
-					animator.update(skeleton, scene.isShowBindPose());
 					drawerObject = drawer.getDrawer(skeleton, false, scene.isDrawLighting(), scene
                             .isDoAnimation(), scene.isDrawColors());
-					drawerObject.draw(skeleton, projectionMatrix, viewMatrix,-1, lightPosInEyeSpace, colorMask);
+					drawerObject.draw(skeleton, drawMatrices, m, projectionMatrix, viewMatrix, skeleton.getDrawMode(),
+							skeleton.getDrawSize(), -1, lightPosInEyeSpace, colorMask);
 				}
 
 				// draw solids
 				else {
-						drawerObject.draw(objData, projectionMatrix, viewMatrix,
-								textureId, lightPosInEyeSpace, colorMask);
+						drawerObject.draw(objData, drawMatrices, m, projectionMatrix, viewMatrix,
+								objData.getDrawMode(), objData.getDrawSize(), textureId, lightPosInEyeSpace,
+								colorMask);
 				}
 
 				// Draw bounding box
 				if (scene.isDrawBoundingBox() || scene.getSelectedObject() == objData) {
 					Object3DData boundingBoxData = boundingBoxes.get(objData);
                     if (boundingBoxData == null || changed) {
+                        if (boundingBoxData != null) {
+                            drawer.getBufferManager().release(boundingBoxData);
+                        }
                         boundingBoxData = Object3DBuilder.buildBoundingBox(objData);
                         boundingBoxes.put(objData, boundingBoxData);
                     }
@@ -429,6 +560,9 @@ public class ModelRenderer implements GLSurfaceView.Renderer {
 				if (scene.isDrawNormals()) {
 					Object3DData normalData = normals.get(objData);
 					if (normalData == null || changed) {
+						if (normalData != null) {
+							drawer.getBufferManager().release(normalData);
+						}
 						normalData = Object3DBuilder.buildFaceNormals(objData);
 						if (normalData != null) {
 							// it can be null if object isnt made of triangles
@@ -437,18 +571,78 @@ public class ModelRenderer implements GLSurfaceView.Renderer {
 					}
 					if (normalData != null) {
 						Object3D normalsDrawer = drawer.getFaceNormalsDrawer();
-						normalsDrawer.draw(normalData, projectionMatrix, viewMatrix, -1, null);
+						normalsDrawer.draw(normalData, drawMatrices, m, projectionMatrix, viewMatrix,
+								normalData.getDrawMode(), normalData.getDrawSize(), -1, null, null);
 					}
 				}
 
 				// TODO: enable this only when user wants it
 				// obj3D.drawVectorNormals(result, viewMatrix);
+
+				if (changed) {
+					objData.setChanged(false);
+				}
 			} catch (Exception ex) {
 				Log.e("ModelRenderer","There was a problem rendering the object '"+objData.getId()+"':"+ex.getMessage(),ex);
 			}
 		}
 	}
 
+	/**
+	 * Animated models are never culled, since the skinning can move the vertices out of the bind pose bounds
+	 */
+	private static boolean isAnimated(Object3DData objData, SceneLoader scene) {
+		return scene.isDoAnimation() && objData instanceof AnimatedModel
+				&& ((AnimatedModel) objData).getAnimation() != null;
+	}
+
+	/**
+	 * @return number of objects skipped in the last frame because they were out of the view (both eyes if stereo)
+	 */
+	public int getCulledObjects() {
+		return lastFrameCulledObjects;
+	}
+
+	/**
+	 * @return number of objects drawn in the last frame (both eyes if stereo)
+	 */
+	public int getDrawnObjects() {
+		return lastFrameDrawnObjects;
+	}
+
+	/**
+	 * @return time spent by the last frame on this thread, in nanoseconds. The scene is updated on its own thread,
+	 * see {@link SceneLoader#getUpdateTime()}
+	 */
+	public long getDrawTime() {
+		return drawTime;
+	}
+
+	/**
+	 * Free the gpu resources of the objects that are no longer in the scene
+	 */
+	private void releaseRemovedObjects(List<Object3DData> objects) {
+		Set<Object3DData> current = Collections.newSetFromMap(new IdentityHashMap<Object3DData, Boolean>());
+		current.addAll(objects);
+		for (Object3DData obj : lastObjects) {
+			if (current.contains(obj)) {
+				continue;
+			}
+			release(obj);
+			release(wireframes.remove(obj));
+			release(boundingBoxes.remove(obj));
+			release(normals.remove(obj));
+			release(skeleton.remove(obj));
+			infoLogged.remove(obj);
+		}
+	}
+
+	private void release(Object3DData obj) {
+		if (obj != null) {
+			drawer.getBufferManager().release(obj);
+		}
+	}
+
 	public int getWidth() {
 		return width;
 	}
@@ -461,6 +655,21 @@ public class ModelRenderer implements GLSurfaceView.Renderer {
 		return projectionMatrix;
 	}
 
+	/**
+	 * Copies the projection matrix, for threads other than the GL one, which rewrites it when the surface changes
+	 *
+	 * @return false if the surface wasn't created yet, i.e. there is no projection
+	 */
+	public boolean getProjectionMatrix(float[] dest, int offset) {
+		synchronized (publishedProjectionMatrix) {
+			if (!projectionPublished) {
+				return false;
+			}
+			System.arraycopy(publishedProjectionMatrix, 0, dest, offset, 16);
+			return true;
+		}
+	}
+
 	public float[] getModelViewMatrix() {
 		return viewMatrix;
 	}
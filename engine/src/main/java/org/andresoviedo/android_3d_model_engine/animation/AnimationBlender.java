@@ -0,0 +1,364 @@
+package org.andresoviedo.android_3d_model_engine.animation;
+
+/**
+ * Mixes several clips on a {@link Skeleton}.
+ * <p>
+ * Base layers are averaged by weight, and their weights can be faded over time, so
+ * {@link #crossFade(SkeletonClip, float, float)} blends smoothly from the current clips to a new one. Additive layers
+ * are then applied on top: each adds its difference from its own first keyframe, scaled by its weight.
+ * <p>
+ * Layers and their poses come from a fixed pool, so {@link #apply(float)} doesn't allocate. Its cost is one sample
+ * and one blend per layer and joint. Methods are synchronized, so layers can be changed from any thread.
+ */
+public final class AnimationBlender {
+
+    /**
+     * Maximum number of layers, base and additive
+     */
+    public static final int MAX_LAYERS = 8;
+
+    // weights below this are considered 0
+    private static final float MIN_WEIGHT = 1e-4f;
+
+    private final Skeleton skeleton;
+    private final Layer[] layers = new Layer[MAX_LAYERS];
+    private int layerCount;
+    private final Layer[] free = new Layer[MAX_LAYERS];
+    private int freeCount;
+    // weight of base layers accumulated for each joint
+    private final float[] weights;
+
+    public AnimationBlender(Skeleton skeleton) {
+        this.skeleton = skeleton;
+        this.weights = new float[skeleton.getJointCount()];
+        for (int i = 0; i < MAX_LAYERS; i++) {
+            free[freeCount++] = new Layer(skeleton.getJointCount());
+        }
+    }
+
+    public Skeleton getSkeleton() {
+        return skeleton;
+    }
+
+    public synchronized int getLayerCount() {
+        return layerCount;
+    }
+
+    /**
+     * Replaces all the base layers with the specified clip, at full weight
+     *
+     * @param time current time, in seconds. The clip starts playing from its beginning at that time
+     */
+    public synchronized void play(SkeletonClip clip, float time) {
+        for (int i = layerCount - 1; i >= 0; i--) {
+            if (!layers[i].additive) {
+                release(i);
+            }
+        }
+        add(clip, false, time).fadeTo(1, 0, time);
+    }
+
+    /**
+     * Fades in the specified clip while all the other base layers fade out
+     *
+     * @param duration seconds until the clip reaches full weight
+     * @param time     current time, in seconds
+     */
+    public synchronized void crossFade(SkeletonClip clip, float duration, float time) {
+        for (int i = 0; i < layerCount; i++) {
+            if (!layers[i].additive && layers[i].clip != clip) {
+                layers[i].fadeTo(0, duration, time);
+            }
+        }
+        setWeight(clip, 1, duration, time);
+    }
+
+    /**
+     * Changes the weight of a base layer, adding it if the clip is not playing
+     *
+     * @param weight   target weight. Weights are relative to the other base layers
+     * @param duration seconds to reach the weight, 0 to change it now
+     * @param time     current time, in seconds
+     */
+    public synchronized void setWeight(SkeletonClip clip, float weight, float duration, float time) {
+        Layer layer = find(clip, false);
+        if (layer == null) {
+            layer = add(clip, false, time);
+        }
+        layer.fadeTo(weight, duration, time);
+    }
+
+    /**
+     * Adds or updates an additive layer. The clip is applied relative to its first keyframe
+     *
+     * @param weight 1 to add the whole difference
+     * @param time   current time, in seconds
+     */
+    public synchronized void setAdditive(SkeletonClip clip, float weight, float time) {
+        Layer layer = find(clip, true);
+        if (layer == null) {
+            layer = add(clip, true, time);
+            clip.sample(clip.getTimes()[0], layer.reference);
+        }
+        layer.fadeTo(weight, 0, time);
+    }
+
+    /**
+     * Stops playing the clip, in any of its layers
+     */
+    public synchronized void remove(SkeletonClip clip) {
+        for (int i = layerCount - 1; i >= 0; i--) {
+            if (layers[i].clip == clip) {
+                release(i);
+            }
+        }
+    }
+
+    /**
+     * Blends the layers at the specified time and updates the skeleton
+     *
+     * @param time current time, in seconds
+     */
+    public synchronized void apply(float time) {
+        final Pose pose = skeleton.getPose();
+        final Pose bindPose = skeleton.getBindPose();
+        final int jointCount = skeleton.getJointCount();
+        final float[] translations = pose.getTranslations();
+        final float[] rotations = pose.getRotations();
+        final float[] scales = pose.getScales();
+        final boolean[] animated = pose.getAnimated();
+
+        for (int j = 0; j < jointCount; j++) {
+            weights[j] = 0;
+            animated[j] = false;
+        }
+
+        // fades, dropping the layers that faded out
+        for (int i = layerCount - 1; i >= 0; i--) {
+            if (layers[i].updateWeight(time)) {
+                release(i);
+            }
+        }
+
+        // weighted sum of the base layers
+        for (int i = 0; i < layerCount; i++) {
+            final Layer layer = layers[i];
+            if (layer.additive || layer.weight < MIN_WEIGHT) {
+                continue;
+            }
+            layer.clip.sample(layer.localTime(time), layer.pose);
+            final float w = layer.weight;
+            final float[] lt = layer.pose.getTranslations();
+            final float[] lr = layer.pose.getRotations();
+            final float[] ls = layer.pose.getScales();
+            final boolean[] la = layer.pose.getAnimated();
+            for (int j = 0; j < jointCount; j++) {
+                if (!la[j]) {
+                    // the clip doesn't move the joint: it holds its bind pose
+                    layer.pose.copy(bindPose, j);
+                } else {
+                    animated[j] = true;
+                }
+                final int t = j * 3, r = j * 4;
+                if (weights[j] == 0) {
+                    for (int k = 0; k < 3; k++) {
+                        translations[t + k] = lt[t + k] * w;
+                        scales[t + k] = ls[t + k] * w;
+                    }
+                    for (int k = 0; k < 4; k++) {
+                        rotations[r + k] = lr[r + k] * w;
+                    }
+                } else {
+                    for (int k = 0; k < 3; k++) {
+                        translations[t + k] += lt[t + k] * w;
+                        scales[t + k] += ls[t + k] * w;
+                    }
+                    // keep all the quaternions in the same hemisphere
+                    final float dot = rotations[r] * lr[r] + rotations[r + 1] * lr[r + 1]
+                            + rotations[r + 2] * lr[r + 2] + rotations[r + 3] * lr[r + 3];
+                    final float wr = dot < 0 ? -w : w;
+                    for (int k = 0; k < 4; k++) {
+                        rotations[r + k] += lr[r + k] * wr;
+                    }
+                }
+                weights[j] += w;
+            }
+        }
+        for (int j = 0; j < jointCount; j++) {
+            final float w = weights[j];
+            if (w == 0) {
+                pose.copy(bindPose, j);
+                continue;
+            }
+            final int t = j * 3, r = j * 4;
+            for (int k = 0; k < 3; k++) {
+                translations[t + k] /= w;
+                scales[t + k] /= w;
+            }
+            normalize(rotations, r);
+        }
+
+        // additive layers on top
+        for (int i = 0; i < layerCount; i++) {
+            final Layer layer = layers[i];
+            if (!layer.additive || layer.weight < MIN_WEIGHT) {
+                continue;
+            }
+            layer.clip.sample(layer.localTime(time), layer.pose);
+            addDifference(layer, pose, jointCount);
+        }
+        skeleton.update();
+    }
+
+    private static void addDifference(Layer layer, Pose pose, int jointCount) {
+        final float w = layer.weight;
+        final float[] translations = pose.getTranslations();
+        final float[] rotations = pose.getRotations();
+        final float[] scales = pose.getScales();
+        final boolean[] animated = pose.getAnimated();
+        final float[] lt = layer.pose.getTranslations();
+        final float[] lr = layer.pose.getRotations();
+        final float[] ls = layer.pose.getScales();
+        final boolean[] la = layer.pose.getAnimated();
+        final float[] rt = layer.reference.getTranslations();
+        final float[] rr = layer.reference.getRotations();
+        final float[] rs = layer.reference.getScales();
+        for (int j = 0; j < jointCount; j++) {
+            if (!la[j]) {
+                continue;
+            }
+            animated[j] = true;
+            final int t = j * 3, r = j * 4;
+            for (int k = 0; k < 3; k++) {
+                translations[t + k] += (lt[t + k] - rt[t + k]) * w;
+                if (rs[t + k] != 0) {
+                    scales[t + k] *= 1 + (ls[t + k] / rs[t + k] - 1) * w;
+                }
+            }
+
+            // delta = conjugate(reference) * sample, then scaled by the weight with a nlerp from identity
+            final float ax = -rr[r], ay = -rr[r + 1], az = -rr[r + 2], aw = rr[r + 3];
+            final float bx = lr[r], by = lr[r + 1], bz = lr[r + 2], bw = lr[r + 3];
+            float dx = aw * bx + ax * bw + ay * bz - az * by;
+            float dy = aw * by - ax * bz + ay * bw + az * bx;
+            float dz = aw * bz + ax * by - ay * bx + az * bw;
+            float dw = aw * bw - ax * bx - ay * by - az * bz;
+            if (dw < 0) {
+                dx = -dx;
+                dy = -dy;
+                dz = -dz;
+                dw = -dw;
+            }
+            dx *= w;
+            dy *= w;
+            dz *= w;
+            dw = 1 - w + dw * w;
+
+            // rotation = rotation * delta
+            final float qx = rotations[r], qy = rotations[r + 1], qz = rotations[r + 2], qw = rotations[r + 3];
+            rotations[r] = qw * dx + qx * dw + qy * dz - qz * dy;
+            rotations[r + 1] = qw * dy - qx * dz + qy * dw + qz * dx;
+            rotations[r + 2] = qw * dz + qx * dy - qy * dx + qz * dw;
+            rotations[r + 3] = qw * dw - qx * dx - qy * dy - qz * dz;
+            normalize(rotations, r);
+        }
+    }
+
+    private static void normalize(float[] quaternions, int offset) {
+        final float x = quaternions[offset], y = quaternions[offset + 1], z = quaternions[offset + 2],
+                w = quaternions[offset + 3];
+        final float length = (float) Math.sqrt(x * x + y * y + z * z + w * w);
+        if (length == 0) {
+            quaternions[offset + 3] = 1;
+            return;
+        }
+        quaternions[offset] = x / length;
+        quaternions[offset + 1] = y / length;
+        quaternions[offset + 2] = z / length;
+        quaternions[offset + 3] = w / length;
+    }
+
+    private Layer find(SkeletonClip clip, boolean additive) {
+        for (int i = 0; i < layerCount; i++) {
+            if (layers[i].clip == clip && layers[i].additive == additive) {
+                return layers[i];
+            }
+        }
+        return null;
+    }
+
+    private Layer add(SkeletonClip clip, boolean additive, float time) {
+        if (freeCount == 0) {
+            throw new IllegalStateException("There can't be more than " + MAX_LAYERS + " layers");
+        }
+        final Layer layer = free[--freeCount];
+        free[freeCount] = null;
+        layer.clip = clip;
+        layer.additive = additive;
+        layer.startTime = time;
+        layer.weight = 0;
+        layer.targetWeight = 0;
+        layer.fadeDuration = 0;
+        layers[layerCount++] = layer;
+        return layer;
+    }
+
+    private void release(int index) {
+        final Layer layer = layers[index];
+        layer.clip = null;
+        System.arraycopy(layers, index + 1, layers, index, layerCount - index - 1);
+        layers[--layerCount] = null;
+        free[freeCount++] = layer;
+    }
+
+    private static final class Layer {
+        private final Pose pose;
+        // first keyframe of additive clips
+        private final Pose reference;
+        private SkeletonClip clip;
+        private boolean additive;
+        private float startTime;
+        private float weight;
+        private float fromWeight;
+        private float targetWeight;
+        private float fadeStart;
+        private float fadeDuration;
+
+        private Layer(int jointCount) {
+            this.pose = new Pose(jointCount);
+            this.reference = new Pose(jointCount);
+        }
+
+        private void fadeTo(float target, float duration, float time) {
+            fromWeight = weight;
+            targetWeight = target;
+            fadeStart = time;
+            fadeDuration = duration;
+            if (duration <= 0) {
+                weight = target;
+            }
+        }
+
+        /**
+         * @return true if the layer faded out and can be removed
+         */
+        private boolean updateWeight(float time) {
+            if (fadeDuration > 0) {
+                final float progress = (time - fadeStart) / fadeDuration;
+                if (progress >= 1) {
+                    weight = targetWeight;
+                    fadeDuration = 0;
+                } else {
+                    weight = fromWeight + (targetWeight - fromWeight) * Math.max(0, progress);
+                }
+            }
+            return fadeDuration == 0 && targetWeight < MIN_WEIGHT;
+        }
+
+        private float localTime(float time) {
+            final float length = clip.getLength();
+            final float local = time - startTime;
+            return length > 0 ? local % length : 0;
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package org.andresoviedo.android_3d_model_engine.animation;
+
+import org.andresoviedo.android_3d_model_engine.model.AnimatedModel;
+import org.andresoviedo.android_3d_model_engine.model.Object3DData;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Animates all the models of a scene in one batch per frame.
+ * <p>
+ * Instances that would compute the same palette, because they play the same clip of the same skeleton at the same
+ * time, are grouped: the pose is evaluated once and the palette copied to the rest of the group. The groups are then
+ * split in chunks that are evaluated in parallel on a {@link ForkJoinPool}.
+ * <p>
+ * Every {@link Skeleton} writes its back palette while its published one is drawn, so
+ * {@link #schedule(List, float, boolean)} can evaluate the next frame in the background while the renderer draws
+ * the current one. Nothing is allocated once the arrays fit the scene.
+ */
+public final class AnimationScheduler {
+
+    // chunks per thread of the pool, so threads that finish early can take work from the others
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private static final byte BIND_POSE = 0;
+    private static final byte BLENDER = 1;
+    private static final byte BAKED = 2;
+    private static final byte CLIP = 3;
+
+    private final ForkJoinPool pool;
+    private final Chunk[] chunks;
+    private final Job job = new Job();
+    private int chunkCount;
+    // whether the job was started by schedule() and not published yet
+    private boolean pending;
+
+    // animated instances of the frame being evaluated
+    private AnimatedModel[] instances = new AnimatedModel[16];
+    private byte[] modes = new byte[16];
+    // blender, baked clip or clip of each instance, so changes made during the frame don't apply half way
+    private Object[] sources = new Object[16];
+    private float[] times = new float[16];
+    // next instance of the same group, -1 for the last one
+    private int[] next = new int[16];
+    private int[] tails = new int[16];
+    // first instance of each group
+    private int[] leaders = new int[16];
+    private int instanceCount;
+    private int groupCount;
+    private float time;
+
+    /**
+     * Evaluates the animations on the common pool
+     */
+    public AnimationScheduler() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public AnimationScheduler(ForkJoinPool pool) {
+        this.pool = pool;
+        this.chunks = new Chunk[Math.max(1, pool.getParallelism()) * CHUNKS_PER_THREAD];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = new Chunk();
+        }
+    }
+
+    /**
+     * @return animated models in the last scheduled frame
+     */
+    public int getInstanceCount() {
+        return instanceCount;
+    }
+
+    /**
+     * @return poses evaluated in the last scheduled frame. The other instances copied the palette of an equal one
+     */
+    public int getEvaluatedCount() {
+        return groupCount;
+    }
+
+    /**
+     * Publishes the palettes of the previous call, waiting for them if needed, and starts evaluating the animations
+     * at the specified time in the background. It has to be called once per frame by the thread that draws the
+     * models, so they are drawn one frame behind the time given.
+     *
+     * @param objects  the models to animate. The ones that aren't animated are ignored
+     * @param time     current time, in seconds
+     * @param bindPose whether to show the bind pose instead of the animations
+     */
+    public void schedule(List<Object3DData> objects, float time, boolean bindPose) {
+        publish();
+        if (prepare(objects, time, bindPose)) {
+            pending = true;
+            pool.execute(job);
+        }
+    }
+
+    /**
+     * Evaluates the animations at the specified time and publishes the palettes, blocking until they are ready
+     *
+     * @see #schedule(List, float, boolean)
+     */
+    public void update(List<Object3DData> objects, float time, boolean bindPose) {
+        if (evaluateNow(objects, time, bindPose)) {
+            publishInstances();
+        }
+    }
+
+    /**
+     * Evaluates the animations at the specified time, blocking until they are ready, but doesn't publish them. The
+     * palettes are left in {@link Skeleton#getPalette()}, for callers that hand them to the renderer on their own
+     *
+     * @see #update(List, float, boolean)
+     */
+    public void evaluate(List<Object3DData> objects, float time, boolean bindPose) {
+        evaluateNow(objects, time, bindPose);
+    }
+
+    private boolean evaluateNow(List<Object3DData> objects, float time, boolean bindPose) {
+        publish();
+        if (!prepare(objects, time, bindPose)) {
+            return false;
+        }
+        if (chunkCount > 1) {
+            pool.invoke(job);
+        } else {
+            chunks[0].compute();
+        }
+        return true;
+    }
+
+    /**
+     * Waits for the frame started by {@link #schedule(List, float, boolean)}, if any, and publishes its palettes
+     */
+    public void publish() {
+        if (!pending) {
+            return;
+        }
+        pending = false;
+        job.join();
+        publishInstances();
+    }
+
+    private void publishInstances() {
+        for (int i = 0; i < instanceCount; i++) {
+            instances[i].getSkeleton().publish();
+        }
+    }
+
+    /**
+     * Collects the animated instances and groups the ones with the same pose
+     *
+     * @return whether there is anything to evaluate
+     */
+    private boolean prepare(List<Object3DData> objects, float time, boolean bindPose) {
+        for (int i = 0; i < instanceCount; i++) {
+            instances[i] = null;
+            sources[i] = null;
+        }
+        this.time = time;
+        instanceCount = 0;
+        groupCount = 0;
+        for (int o = 0; o < objects.size(); o++) {
+            final Object3DData obj = objects.get(o);
+            if (!(obj instanceof AnimatedModel)) {
+                continue;
+            }
+            final AnimatedModel model = (AnimatedModel) obj;
+            final Animation animation = model.getAnimation();
+            if (animation == null || model.getSkeleton() == null) {
+                continue;
+            }
+            ensureCapacity(instanceCount + 1);
+            final int i = instanceCount++;
+            instances[i] = model;
+            final float length = animation.getLength();
+            times[i] = length > 0 ? (time + model.getAnimationOffset()) % length : 0;
+            if (bindPose) {
+                modes[i] = BIND_POSE;
+            } else if (model.getBlender() != null) {
+                modes[i] = BLENDER;
+                sources[i] = model.getBlender();
+            } else if (model.getBakedClip() != null) {
+                modes[i] = BAKED;
+                sources[i] = model.getBakedClip();
+            } else {
+                modes[i] = CLIP;
+                sources[i] = model.getClip();
+            }
+            next[i] = -1;
+
+            int group = 0;
+            while (group < groupCount && !isSamePose(leaders[group], i)) {
+                group++;
+            }
+            if (group == groupCount) {
+                leaders[groupCount++] = i;
+                tails[group] = i;
+            } else {
+                next[tails[group]] = i;
+                tails[group] = i;
+            }
+        }
+        if (groupCount == 0) {
+            return false;
+        }
+
+        chunkCount = Math.min(chunks.length, groupCount);
+        for (int c = 0; c < chunkCount; c++) {
+            chunks[c].reinitialize();
+            chunks[c].from = (int) ((long) groupCount * c / chunkCount);
+            chunks[c].to = (int) ((long) groupCount * (c + 1) / chunkCount);
+        }
+        job.reinitialize();
+        return true;
+    }
+
+    private boolean isSamePose(int a, int b) {
+        final AnimatedModel modelA = instances[a], modelB = instances[b];
+        if (modes[a] != modes[b] || modes[a] == BLENDER || modelA.getRootJoint() != modelB.getRootJoint()
+                || modelA.getSkeleton().getBoneCount() != modelB.getSkeleton().getBoneCount()) {
+            return false;
+        }
+        switch (modes[a]) {
+            case BIND_POSE:
+                return true;
+            case BAKED:
+                return sources[a] == sources[b] && times[a] == times[b];
+            default:
+                return modelA.getAnimation() == modelB.getAnimation() && times[a] == times[b];
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= instances.length) {
+            return;
+        }
+        final int size = Math.max(capacity, instances.length * 2);
+        final AnimatedModel[] newInstances = new AnimatedModel[size];
+        System.arraycopy(instances, 0, newInstances, 0, instanceCount);
+        instances = newInstances;
+        final Object[] newSources = new Object[size];
+        System.arraycopy(sources, 0, newSources, 0, instanceCount);
+        sources = newSources;
+        final byte[] newModes = new byte[size];
+        System.arraycopy(modes, 0, newModes, 0, instanceCount);
+        modes = newModes;
+        final float[] newTimes = new float[size];
+        System.arraycopy(times, 0, newTimes, 0, instanceCount);
+        times = newTimes;
+        final int[] newNext = new int[size];
+        System.arraycopy(next, 0, newNext, 0, instanceCount);
+        next = newNext;
+        final int[] newTails = new int[size];
+        System.arraycopy(tails, 0, newTails, 0, groupCount);
+        tails = newTails;
+        final int[] newLeaders = new int[size];
+        System.arraycopy(leaders, 0, newLeaders, 0, groupCount);
+        leaders = newLeaders;
+    }
+
+    /**
+     * Evaluates the pose of the first instance of the group and copies its palette to the others
+     */
+    private void evaluate(int group) {
+        final int leader = leaders[group];
+        final Skeleton skeleton = instances[leader].getSkeleton();
+        switch (modes[leader]) {
+            case BIND_POSE:
+                skeleton.setBindPose();
+                skeleton.update();
+                break;
+            case BLENDER:
+                ((AnimationBlender) sources[leader]).apply(time);
+                break;
+            case BAKED:
+                ((BakedClip) sources[leader]).sample(times[leader], skeleton.getPalette());
+                break;
+            default:
+                ((SkeletonClip) sources[leader]).sample(times[leader], skeleton);
+                skeleton.update();
+        }
+        final float[] palette = skeleton.getPalette();
+        for (int i = next[leader]; i >= 0; i = next[i]) {
+            System.arraycopy(palette, 0, instances[i].getSkeleton().getPalette(), 0, palette.length);
+        }
+    }
+
+    private final class Job extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void compute() {
+            for (int c = 1; c < chunkCount; c++) {
+                chunks[c].fork();
+            }
+            chunks[0].compute();
+            for (int c = chunkCount - 1; c > 0; c--) {
+                chunks[c].join();
+            }
+        }
+    }
+
+    private final class Chunk extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private int from, to;
+
+        @Override
+        protected void compute() {
+            for (int group = from; group < to; group++) {
+                evaluate(group);
+            }
+        }
+    }
+}
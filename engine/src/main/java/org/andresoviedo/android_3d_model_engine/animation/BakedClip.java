@@ -0,0 +1,161 @@
+package org.andresoviedo.android_3d_model_engine.animation;
+
+/**
+ * Skinning palettes of an {@link Animation} sampled at a fixed rate.
+ * <p>
+ * Each frame stores the affine part of every bone matrix (12 floats: the first 3 rows of each column), so playing it
+ * back is a lerp between two frames instead of interpolating rotations and multiplying the joint hierarchy. A baked
+ * clip is immutable and can be shared by all the instances of a model.
+ */
+public final class BakedClip {
+
+    /**
+     * Sampling rate used when no other is specified, in frames per second
+     */
+    public static final float DEFAULT_RATE = 30;
+
+    private static final int[] AFFINE = {0, 1, 2, 4, 5, 6, 8, 9, 10, 12, 13, 14};
+
+    private final float length;
+    private final int frameCount;
+    private final int boneCount;
+    // frame f, bone b starts at (f * boneCount + b) * 12
+    private final float[] frames;
+    private final float step;
+
+    /**
+     * @param length     duration of the clip, in seconds
+     * @param frameCount number of frames, evenly spread from time 0 to length. At least 2
+     * @param boneCount  matrices per frame
+     * @param frames     <code>frameCount * boneCount * 12</code> floats
+     */
+    public BakedClip(float length, int frameCount, int boneCount, float[] frames) {
+        if (frameCount < 2 || frames.length != frameCount * boneCount * 12) {
+            throw new IllegalArgumentException("Expected at least 2 frames of " + boneCount + " bones");
+        }
+        this.length = length;
+        this.frameCount = frameCount;
+        this.boneCount = boneCount;
+        this.frames = frames;
+        this.step = length / (frameCount - 1);
+    }
+
+    /**
+     * Samples the animation. The rate is rounded up so the last frame falls exactly on the end of the animation and,
+     * if the keyframes are evenly spaced, so every keyframe falls on a frame.
+     *
+     * @param animation the animation to bake
+     * @param skeleton  skeleton of the model. Its pose is not modified
+     * @param rate      frames per second
+     */
+    public static BakedClip bake(Animation animation, Skeleton skeleton, float rate) {
+        final Skeleton instance = new Skeleton(skeleton);
+        final SkeletonClip clip = new SkeletonClip(animation, instance);
+        final int boneCount = instance.getBoneCount();
+        final int frameCount = getFrameCount(animation, rate);
+        final float[] frames = new float[frameCount * boneCount * 12];
+        final float step = animation.getLength() / (frameCount - 1);
+        final float[] palette = instance.getPalette();
+        for (int f = 0; f < frameCount; f++) {
+            clip.sample(f * step, instance);
+            instance.update();
+            for (int b = 0; b < boneCount; b++) {
+                final int out = (f * boneCount + b) * 12;
+                for (int k = 0; k < 12; k++) {
+                    frames[out + k] = palette[b * 16 + AFFINE[k]];
+                }
+            }
+        }
+        return new BakedClip(animation.getLength(), frameCount, boneCount, frames);
+    }
+
+    private static int getFrameCount(Animation animation, float rate) {
+        final float length = animation.getLength();
+        final KeyFrame[] keyFrames = animation.getKeyFrames();
+        final int intervals = keyFrames.length - 1;
+        boolean even = intervals > 0 && keyFrames[0].getTimeStamp() == 0;
+        final float interval = even ? length / intervals : 0;
+        for (int i = 1; even && i <= intervals; i++) {
+            even = Math.abs(keyFrames[i].getTimeStamp() - i * interval) <= interval * 1e-3f;
+        }
+        if (even) {
+            return Math.max(1, (int) Math.ceil(interval * rate - 1e-3f)) * intervals + 1;
+        }
+        return Math.max(2, (int) Math.ceil(length * rate) + 1);
+    }
+
+    public float getLength() {
+        return length;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public int getBoneCount() {
+        return boneCount;
+    }
+
+    /**
+     * @return the baked matrices, bone b of frame f at <code>(f * boneCount + b) * 12</code>
+     */
+    public float[] getFrames() {
+        return frames;
+    }
+
+    /**
+     * Writes the palette at the specified time, interpolating between the 2 closest frames. Times out of the clip
+     * are clamped.
+     *
+     * @param time    seconds since the beginning of the clip
+     * @param palette receives the 4x4 matrices, bone b at b*16
+     */
+    public void sample(float time, float[] palette) {
+        float position = time / step;
+        if (!(position > 0)) {
+            position = 0;
+        } else if (position > frameCount - 1) {
+            position = frameCount - 1;
+        }
+        final int frame = Math.min((int) position, frameCount - 2);
+        final float alpha = position - frame;
+        final float alphaI = 1 - alpha;
+        final int count = Math.min(boneCount, palette.length / 16);
+        int a = frame * boneCount * 12;
+        int b = a + boneCount * 12;
+        for (int bone = 0; bone < count; bone++, a += 12, b += 12) {
+            final int out = bone * 16;
+            for (int k = 0; k < 12; k++) {
+                palette[out + AFFINE[k]] = frames[a + k] * alphaI + frames[b + k] * alpha;
+            }
+            palette[out + 3] = 0;
+            palette[out + 7] = 0;
+            palette[out + 11] = 0;
+            palette[out + 15] = 1;
+        }
+    }
+
+    /**
+     * Compares the baked playback against the exact evaluation of the animation, half way between every pair of
+     * frames, where the error is the largest.
+     *
+     * @return the largest absolute difference of any palette element
+     */
+    public float measureError(Animation animation, Skeleton skeleton) {
+        final Skeleton instance = new Skeleton(skeleton);
+        final SkeletonClip clip = new SkeletonClip(animation, instance);
+        final float[] exact = instance.getPalette();
+        final float[] baked = new float[exact.length];
+        float ret = 0;
+        for (int f = 0; f < frameCount - 1; f++) {
+            final float time = (f + 0.5f) * step;
+            clip.sample(time, instance);
+            instance.update();
+            sample(time, baked);
+            for (int i = 0; i < boneCount * 16; i++) {
+                ret = Math.max(ret, Math.abs(exact[i] - baked[i]));
+            }
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,330 @@
+package org.andresoviedo.android_3d_model_engine.animation;
+
+import org.andresoviedo.android_3d_model_engine.model.AnimatedModel;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Skins the vertices of an {@link AnimatedModel} in the CPU, for models that can't be skinned by the shaders because
+ * their palette doesn't fit in the uniforms, and for anything that needs the actual position of the vertices, like
+ * picking.
+ * <p>
+ * Every vertex is moved by up to {@link #MAX_INFLUENCES} joints of the flat palette (see
+ * {@link Skeleton#getPalette()}): their matrices are blended by weight and applied to the bind position and normal.
+ * The input is copied to plain arrays so the loops only touch primitives, and big meshes are split in ranges that are
+ * skinned in parallel.
+ * <p>
+ * The output is double buffered: {@link #skin(float[])} writes one pair of buffers and then swaps them with the pair
+ * returned by {@link #getPositions()} and {@link #getNormals()}, so the buffers drawn on the previous frame are not
+ * overwritten while the GPU may still be reading them.
+ */
+public final class CpuSkinner {
+
+    /**
+     * Joints that move a vertex, at most
+     */
+    public static final int MAX_INFLUENCES = 4;
+
+    // vertices of a mesh to skin it in parallel, and vertices per range
+    private static final int PARALLEL_THRESHOLD = 8192;
+    private static final int CHUNK_SIZE = 4096;
+
+    private final int vertexCount;
+    private final int influences;
+    private final float[] bindPositions;
+    // null if the model has no normals
+    private final float[] bindNormals;
+    // offset in the palette of the matrix of each influence, vertex v at v*influences
+    private final int[] offsets;
+    private final float[] weights;
+
+    // output, allocated on first use so skinners used only for single vertices stay small
+    private float[] positionArray;
+    private float[] normalArray;
+    private final FloatBuffer[] positions = new FloatBuffer[2];
+    private final FloatBuffer[] normals = new FloatBuffer[2];
+    private int front;
+    private boolean changed;
+
+    private Chunk[] chunks;
+    // palette being skinned by the chunks
+    private float[] palette;
+
+    /**
+     * Copies the bind pose of the model
+     *
+     * @param model model with joint ids and weights, sharing the same number of influences per vertex
+     * @throws IllegalArgumentException if the model has no skin or more than {@link #MAX_INFLUENCES} influences
+     */
+    public CpuSkinner(AnimatedModel model) {
+        final FloatBuffer vertices = model.getVertexArrayBuffer() != null ? model.getVertexArrayBuffer()
+                : model.getVertexBuffer();
+        final FloatBuffer jointIds = model.getJointIds();
+        final FloatBuffer vertexWeights = model.getVertexWeights();
+        if (vertices == null || jointIds == null || vertexWeights == null || vertices.capacity() < 3) {
+            throw new IllegalArgumentException("Model " + model.getId() + " has no skin");
+        }
+        this.vertexCount = vertices.capacity() / 3;
+        this.influences = jointIds.capacity() / vertexCount;
+        if (influences < 1 || influences > MAX_INFLUENCES || jointIds.capacity() != vertexCount * influences
+                || vertexWeights.capacity() != jointIds.capacity()) {
+            throw new IllegalArgumentException("Unsupported skin of " + model.getId() + ": " + jointIds.capacity()
+                    + " joint ids and " + vertexWeights.capacity() + " weights for " + vertexCount + " vertices");
+        }
+
+        this.bindPositions = read(vertices, vertexCount * 3);
+        final FloatBuffer normalBuffer = model.getVertexNormalsArrayBuffer() != null ?
+                model.getVertexNormalsArrayBuffer() : model.getNormals();
+        this.bindNormals = normalBuffer != null && normalBuffer.capacity() == vertexCount * 3 ?
+                read(normalBuffer, vertexCount * 3) : null;
+
+        // joints out of the palette don't move the vertex
+        final int boneCount = model.getBoneCount();
+        this.offsets = new int[vertexCount * influences];
+        this.weights = read(vertexWeights, offsets.length);
+        for (int i = 0; i < offsets.length; i++) {
+            final int joint = (int) jointIds.get(i);
+            if (joint >= 0 && joint < boneCount) {
+                offsets[i] = joint * 16;
+            } else {
+                weights[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * Creates a skinner for another instance of the same model. The bind pose is shared, but the new instance has
+     * its own output.
+     */
+    public CpuSkinner(CpuSkinner skinner) {
+        this.vertexCount = skinner.vertexCount;
+        this.influences = skinner.influences;
+        this.bindPositions = skinner.bindPositions;
+        this.bindNormals = skinner.bindNormals;
+        this.offsets = skinner.offsets;
+        this.weights = skinner.weights;
+    }
+
+    private void allocateOutput() {
+        if (positionArray != null) {
+            return;
+        }
+        positionArray = new float[vertexCount * 3];
+        normalArray = bindNormals != null ? new float[vertexCount * 3] : null;
+        if (ForkJoinPool.getCommonPoolParallelism() > 1 && vertexCount >= PARALLEL_THRESHOLD) {
+            chunks = new Chunk[(vertexCount + CHUNK_SIZE - 1) / CHUNK_SIZE];
+            for (int i = 0; i < chunks.length; i++) {
+                chunks[i] = new Chunk(i * CHUNK_SIZE, Math.min(vertexCount, (i + 1) * CHUNK_SIZE));
+            }
+        }
+        for (int i = 0; i < 2; i++) {
+            positions[i] = newBuffer(vertexCount * 3);
+            positions[i].put(bindPositions).position(0);
+            if (bindNormals != null) {
+                normals[i] = newBuffer(vertexCount * 3);
+                normals[i].put(bindNormals).position(0);
+            }
+        }
+    }
+
+    private static FloatBuffer newBuffer(int size) {
+        return ByteBuffer.allocateDirect(size * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    private static float[] read(FloatBuffer buffer, int size) {
+        final float[] ret = new float[size];
+        for (int i = 0; i < size; i++) {
+            ret[i] = buffer.get(i);
+        }
+        return ret;
+    }
+
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    /**
+     * @return joints per vertex
+     */
+    public int getInfluenceCount() {
+        return influences;
+    }
+
+    /**
+     * @return positions skinned by the last {@link #skin(float[])}, or the bind positions if it wasn't called yet
+     */
+    public FloatBuffer getPositions() {
+        allocateOutput();
+        return positions[front];
+    }
+
+    /**
+     * @return normals skinned by the last {@link #skin(float[])}, or null if the model has no normals
+     */
+    public FloatBuffer getNormals() {
+        allocateOutput();
+        return normals[front];
+    }
+
+    /**
+     * @return whether the buffers changed since the last call to <code>setChanged(false)</code>, so their GPU copy
+     * has to be updated
+     */
+    public boolean hasChanged() {
+        return changed;
+    }
+
+    public void setChanged(boolean changed) {
+        this.changed = changed;
+    }
+
+    /**
+     * Skins the whole mesh and makes the result the current buffers. Nothing is allocated after the first call, so it
+     * can be called every frame.
+     *
+     * @param palette skinning matrices, bone i at i*16
+     */
+    public void skin(float[] palette) {
+        allocateOutput();
+        if (chunks == null) {
+            skin(palette, 0, vertexCount);
+        } else {
+            this.palette = palette;
+            for (int i = 1; i < chunks.length; i++) {
+                chunks[i].reinitialize();
+                chunks[i].fork();
+            }
+            skin(palette, chunks[0].from, chunks[0].to);
+            for (int i = chunks.length - 1; i > 0; i--) {
+                chunks[i].join();
+            }
+            this.palette = null;
+        }
+
+        final int back = 1 - front;
+        positions[back].position(0);
+        positions[back].put(positionArray).position(0);
+        if (normalArray != null) {
+            normals[back].position(0);
+            normals[back].put(normalArray).position(0);
+        }
+        front = back;
+        changed = true;
+    }
+
+    /**
+     * Skins the vertices in the range [from, to) into the arrays
+     */
+    private void skin(float[] palette, int from, int to) {
+        final float[] bindPositions = this.bindPositions;
+        final float[] bindNormals = this.bindNormals;
+        final float[] positionArray = this.positionArray;
+        final float[] normalArray = this.normalArray;
+        final int[] offsets = this.offsets;
+        final float[] weights = this.weights;
+        final int influences = this.influences;
+        for (int v = from; v < to; v++) {
+            // blended affine matrix, column-major without the last row
+            float m0 = 0, m1 = 0, m2 = 0, m4 = 0, m5 = 0, m6 = 0, m8 = 0, m9 = 0, m10 = 0, m12 = 0, m13 = 0, m14 = 0;
+            for (int i = v * influences, end = i + influences; i < end; i++) {
+                final float w = weights[i];
+                if (w == 0) {
+                    continue;
+                }
+                final int o = offsets[i];
+                m0 += palette[o] * w;
+                m1 += palette[o + 1] * w;
+                m2 += palette[o + 2] * w;
+                m4 += palette[o + 4] * w;
+                m5 += palette[o + 5] * w;
+                m6 += palette[o + 6] * w;
+                m8 += palette[o + 8] * w;
+                m9 += palette[o + 9] * w;
+                m10 += palette[o + 10] * w;
+                m12 += palette[o + 12] * w;
+                m13 += palette[o + 13] * w;
+                m14 += palette[o + 14] * w;
+            }
+
+            final int p = v * 3;
+            final float x = bindPositions[p], y = bindPositions[p + 1], z = bindPositions[p + 2];
+            positionArray[p] = m0 * x + m4 * y + m8 * z + m12;
+            positionArray[p + 1] = m1 * x + m5 * y + m9 * z + m13;
+            positionArray[p + 2] = m2 * x + m6 * y + m10 * z + m14;
+
+            if (bindNormals != null) {
+                final float nx = bindNormals[p], ny = bindNormals[p + 1], nz = bindNormals[p + 2];
+                final float sx = m0 * nx + m4 * ny + m8 * nz;
+                final float sy = m1 * nx + m5 * ny + m9 * nz;
+                final float sz = m2 * nx + m6 * ny + m10 * nz;
+                final float length = (float) Math.sqrt(sx * sx + sy * sy + sz * sz);
+                final float scale = length > 0 ? 1 / length : 0;
+                normalArray[p] = sx * scale;
+                normalArray[p + 1] = sy * scale;
+                normalArray[p + 2] = sz * scale;
+            }
+        }
+    }
+
+    /**
+     * Skins a single vertex, without modifying the buffers
+     *
+     * @param palette skinning matrices, bone i at i*16
+     * @param vertex  index of the vertex
+     * @param out     receives x, y, z
+     * @param offset  index in out of x
+     */
+    public void skinVertex(float[] palette, int vertex, float[] out, int offset) {
+        final int p = vertex * 3;
+        final float x = bindPositions[p], y = bindPositions[p + 1], z = bindPositions[p + 2];
+        float sx = 0, sy = 0, sz = 0;
+        for (int i = vertex * influences, end = i + influences; i < end; i++) {
+            final float w = weights[i];
+            if (w == 0) {
+                continue;
+            }
+            final int o = offsets[i];
+            sx += (palette[o] * x + palette[o + 4] * y + palette[o + 8] * z + palette[o + 12]) * w;
+            sy += (palette[o + 1] * x + palette[o + 5] * y + palette[o + 9] * z + palette[o + 13]) * w;
+            sz += (palette[o + 2] * x + palette[o + 6] * y + palette[o + 10] * z + palette[o + 14]) * w;
+        }
+        out[offset] = sx;
+        out[offset + 1] = sy;
+        out[offset + 2] = sz;
+    }
+
+    /**
+     * Skins the positions of some vertices, without modifying the buffers
+     *
+     * @param palette  skinning matrices, bone i at i*16
+     * @param vertices indices of the vertices
+     * @param from     first index of vertices to skin
+     * @param to       last index of vertices to skin (exclusive)
+     * @param out      receives x, y, z of each vertex, the one at vertices[from] at 0
+     */
+    public void skinVertices(float[] palette, int[] vertices, int from, int to, float[] out) {
+        for (int i = from, p = 0; i < to; i++, p += 3) {
+            skinVertex(palette, vertices[i], out, p);
+        }
+    }
+
+    private final class Chunk extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from, to;
+
+        Chunk(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            skin(palette, from, to);
+        }
+    }
+}
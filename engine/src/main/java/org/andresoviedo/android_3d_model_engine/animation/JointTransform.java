@@ -1,8 +1,7 @@
 package org.andresoviedo.android_3d_model_engine.animation;
 
-import android.opengl.Matrix;
-
 import org.andresoviedo.util.math.Quaternion;
+import org.andresoviedo.util.math.Vec3;
 
 /**
  * 
@@ -60,21 +59,24 @@ public class JointTransform {
 	 * translating an identity matrix using the position variable and then
 	 * applying the rotation. The rotation is applied by first converting the
 	 * quaternion into a rotation matrix, which is then multiplied with the
-	 * transform matrix.
+	 * transform matrix. The matrix is written at the specified offset of the
+	 * array, without allocating.
 	 * 
-	 * @return This bone-space joint transform as a matrix. The exact same
-	 *         transform as represented by the position and rotation in this
-	 *         instance, just in matrix form.
+	 * @return out, with this bone-space joint transform as a matrix. The exact
+	 *         same transform as represented by the position and rotation in
+	 *         this instance, just in matrix form.
 	 */
-	public float[] getLocalTransform() {
-	    if (matrix != null){
-	        return matrix;
-        }
-		float[] matrix = new float[16];
-		Matrix.setIdentityM(matrix,0);
-		Matrix.translateM(matrix,0,position[0],position[1],position[2]);
-		Matrix.multiplyMM(matrix,0,matrix,0,rotation.toRotationMatrix(new float[16]),0);
-		return matrix;
+	public float[] getLocalTransform(float[] out, int offset) {
+		if (matrix != null) {
+			System.arraycopy(matrix, 0, out, offset, 16);
+			return out;
+		}
+		// translation * rotation is the rotation with the position in the last column
+		rotation.toRotationMatrix(out, offset);
+		out[offset + 12] = position[0];
+		out[offset + 13] = position[1];
+		out[offset + 14] = position[2];
+		return out;
 	}
 
 	/**
@@ -106,11 +108,9 @@ public class JointTransform {
 
     protected static float[] interpolate(JointTransform frameA, JointTransform frameB, float progression, float[]
             matrix1, float[] matrix2) {
-		float[] pos = interpolate(frameA.position, frameB.position, progression);
-        Quaternion rot = Quaternion.interpolate(frameA.rotation, frameB.rotation, progression);
-        Matrix.setIdentityM(matrix1,0);
-        Matrix.translateM(matrix1,0,pos[0],pos[1],pos[2]);
-        Matrix.multiplyMM(matrix1,0,matrix1,0,rot.toRotationMatrix(matrix2),0);
+        // matrix2 is not needed anymore: the rotation is written to matrix1 and the position set as its last column
+        Quaternion.interpolate(frameA.rotation, frameB.rotation, progression, matrix1);
+        Vec3.lerp(matrix1, 12, frameA.position, 0, frameB.position, 0, progression);
         return matrix1;
     }
 
@@ -128,11 +128,9 @@ public class JointTransform {
 	 * @return
 	 */
 	private static float[] interpolate(float[] start, float[] end, float progression) {
-		float x = start[0] + (end[0] - start[0]) * progression;
-		float y = start[1] + (end[1] - start[1]) * progression;
-		float z = start[2] + (end[2] - start[2]) * progression;
-        // TODO: optimize this (memory allocation)
-		return new float[]{x, y, z};
+		final float[] ret = new float[3];
+		Vec3.lerp(ret, 0, start, 0, end, 0, progression);
+		return ret;
 	}
 
 }
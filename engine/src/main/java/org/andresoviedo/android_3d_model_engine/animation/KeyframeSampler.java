@@ -0,0 +1,105 @@
+package org.andresoviedo.android_3d_model_engine.animation;
+
+/**
+ * Finds the keyframes around a time in a sorted array of time stamps.
+ * <p>
+ * The segment found by the last call is remembered, so playing an animation forward usually resolves with one or
+ * two comparisons. Other times fall back to a binary search. Because of that state, each channel being played should
+ * have its own sampler, and a sampler must not be shared between threads.
+ */
+public final class KeyframeSampler {
+
+    private final float[] times;
+    private int cursor;
+    private int index;
+    private int nextIndex;
+    private float alpha;
+
+    /**
+     * @param times key frame time stamps, in ascending order. At least one is required
+     */
+    public KeyframeSampler(float[] times) {
+        if (times.length == 0) {
+            throw new IllegalArgumentException("There must be at least one key frame");
+        }
+        this.times = times;
+    }
+
+    public float[] getTimes() {
+        return times;
+    }
+
+    /**
+     * Locates the keyframes around the specified time. Times before the first keyframe or after the last one use
+     * that keyframe.
+     *
+     * @param time the time, in the same unit as the time stamps
+     * @return the index of the previous keyframe, also available with {@link #getIndex()}
+     */
+    public int seek(float time) {
+        final float[] times = this.times;
+        final int last = times.length - 1;
+        int i = cursor;
+        if (last == 0 || time < times[0]) {
+            i = 0;
+            nextIndex = 0;
+            alpha = 0;
+        } else if (time >= times[last]) {
+            i = last;
+            nextIndex = last;
+            alpha = 0;
+        } else {
+            // here times[0] <= time < times[last]
+            if (i >= last || time < times[i] || time >= times[i + 1]) {
+                if (i + 2 <= last && time >= times[i + 1] && time < times[i + 2]) {
+                    i++;
+                } else {
+                    i = search(times, time);
+                }
+            }
+            nextIndex = i + 1;
+            alpha = (time - times[i]) / (times[i + 1] - times[i]);
+        }
+        cursor = i;
+        index = i;
+        return i;
+    }
+
+    /**
+     * @return index i such that times[i] <= time < times[i + 1]. The time must be in [times[0], times[last])
+     */
+    private static int search(float[] times, float time) {
+        int low = 0;
+        int high = times.length - 1;
+        while (high - low > 1) {
+            final int middle = (low + high) >>> 1;
+            if (times[middle] <= time) {
+                low = middle;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the previous keyframe found by the last {@link #seek(float)}
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the next keyframe found by the last {@link #seek(float)}. Equals {@link #getIndex()} out of range
+     */
+    public int getNextIndex() {
+        return nextIndex;
+    }
+
+    /**
+     * @return how far the last time was between the previous and next keyframe, from 0 to 1
+     */
+    public float getAlpha() {
+        return alpha;
+    }
+}
@@ -0,0 +1,64 @@
+package org.andresoviedo.android_3d_model_engine.animation;
+
+/**
+ * Local transforms of the joints of a {@link Skeleton}, as translation, rotation (quaternion x,y,z,w) and scale
+ * arrays indexed by joint.
+ */
+public final class Pose {
+
+    private final int jointCount;
+    private final float[] translations;
+    private final float[] rotations;
+    private final float[] scales;
+    private final boolean[] animated;
+
+    public Pose(int jointCount) {
+        this.jointCount = jointCount;
+        this.translations = new float[jointCount * 3];
+        this.rotations = new float[jointCount * 4];
+        this.scales = new float[jointCount * 3];
+        this.animated = new boolean[jointCount];
+    }
+
+    public int getJointCount() {
+        return jointCount;
+    }
+
+    /**
+     * @return translations, joint i at i*3
+     */
+    public float[] getTranslations() {
+        return translations;
+    }
+
+    /**
+     * @return rotations as x,y,z,w quaternions, joint i at i*4
+     */
+    public float[] getRotations() {
+        return rotations;
+    }
+
+    /**
+     * @return scales, joint i at i*3
+     */
+    public float[] getScales() {
+        return scales;
+    }
+
+    /**
+     * @return whether each joint uses this pose instead of its bind local transform
+     */
+    public boolean[] getAnimated() {
+        return animated;
+    }
+
+    /**
+     * Copies the specified joint from another pose
+     */
+    public void copy(Pose source, int joint) {
+        System.arraycopy(source.translations, joint * 3, translations, joint * 3, 3);
+        System.arraycopy(source.rotations, joint * 4, rotations, joint * 4, 4);
+        System.arraycopy(source.scales, joint * 3, scales, joint * 3, 3);
+        animated[joint] = source.animated[joint];
+    }
+}
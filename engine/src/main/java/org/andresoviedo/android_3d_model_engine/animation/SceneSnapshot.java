@@ -0,0 +1,139 @@
+package org.andresoviedo.android_3d_model_engine.animation;
+
+import org.andresoviedo.android_3d_model_engine.model.AnimatedModel;
+import org.andresoviedo.android_3d_model_engine.model.Camera;
+import org.andresoviedo.android_3d_model_engine.model.Object3DData;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * State of the scene after a step of the {@link Simulation}: everything the renderer reads to draw a frame, copied so
+ * that the simulation can go on with the next step meanwhile.
+ * <p>
+ * Snapshots are reused, so their arrays are only reallocated when the scene grows.
+ */
+public final class SceneSnapshot {
+
+    private long step = -1;
+    private float time;
+    private List<Object3DData> objects = Collections.emptyList();
+    private final Camera camera = new Camera();
+    private final float[] lightMatrix = new float[16];
+    private final float[] matrix = new float[16];
+    // draw matrix of object i at i*16
+    private float[] drawMatrices = new float[0];
+    // skinning palette of object i, null if it's not animated
+    private float[][] palettes = new float[0][];
+
+    void setStep(long step, float time) {
+        this.step = step;
+        this.time = time;
+    }
+
+    /**
+     * @return number of the step that computed this state, starting at 1
+     */
+    public long getStep() {
+        return step;
+    }
+
+    /**
+     * @return simulated time, in seconds
+     */
+    public float getTime() {
+        return time;
+    }
+
+    /**
+     * Copies the state to draw. Animated models must have been evaluated without publishing their palettes
+     * (see {@link AnimationScheduler#evaluate(List, float, boolean)}), which are copied from
+     * {@link Skeleton#getPalette()}.
+     *
+     * @param objects the objects to draw. The list must not be modified afterwards
+     * @param camera  the camera to copy
+     * @param light   the light bulb, or null
+     */
+    public void capture(List<Object3DData> objects, Camera camera, Object3DData light) {
+        this.objects = objects;
+        camera.copyTo(this.camera);
+        if (light != null) {
+            System.arraycopy(light.getModelMatrix(), 0, lightMatrix, 0, 16);
+        }
+
+        final int count = objects.size();
+        if (drawMatrices.length < count * 16) {
+            drawMatrices = new float[count * 16];
+            final float[][] newPalettes = new float[count][];
+            System.arraycopy(palettes, 0, newPalettes, 0, palettes.length);
+            palettes = newPalettes;
+        }
+        for (int i = 0; i < count; i++) {
+            final Object3DData obj = objects.get(i);
+            System.arraycopy(obj.getDrawMatrix(matrix), 0, drawMatrices, i * 16, 16);
+
+            final Skeleton skeleton = obj instanceof AnimatedModel ? ((AnimatedModel) obj).getSkeleton() : null;
+            if (skeleton == null || ((AnimatedModel) obj).getAnimation() == null) {
+                palettes[i] = null;
+                continue;
+            }
+            final float[] palette = skeleton.getPalette();
+            if (palettes[i] == null || palettes[i].length != palette.length) {
+                palettes[i] = new float[palette.length];
+            }
+            System.arraycopy(palette, 0, palettes[i], 0, palette.length);
+        }
+    }
+
+    /**
+     * Copies the palettes of the animated models to their skeletons, to be drawn, skins the models that have a
+     * {@link CpuSkinner} and moves their picking boxes. It must be called by the thread that draws them
+     */
+    public void applyPalettes() {
+        for (int i = 0; i < objects.size(); i++) {
+            if (palettes[i] != null) {
+                final AnimatedModel model = (AnimatedModel) objects.get(i);
+                final float[] published = model.getSkeleton().getPublishedPalette();
+                System.arraycopy(palettes[i], 0, published, 0, Math.min(published.length, palettes[i].length));
+                if (model.getSkinner() != null) {
+                    model.getSkinner().skin(published);
+                }
+                if (model.getPicker() != null) {
+                    model.getPicker().refit(published);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the objects of the scene
+     */
+    public List<Object3DData> getObjects() {
+        return objects;
+    }
+
+    public Camera getCamera() {
+        return camera;
+    }
+
+    /**
+     * @return model matrix of the light bulb
+     */
+    public float[] getLightMatrix() {
+        return lightMatrix;
+    }
+
+    /**
+     * @return the draw matrix of each object (see {@link Object3DData#getDrawMatrix(float[])}), object i at i*16
+     */
+    public float[] getDrawMatrices() {
+        return drawMatrices;
+    }
+
+    /**
+     * @return the palette of the object at the specified index, or null if it's not animated
+     */
+    public float[] getPalette(int index) {
+        return palettes[index];
+    }
+}
@@ -0,0 +1,173 @@
+package org.andresoviedo.android_3d_model_engine.animation;
+
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Updates the scene at a fixed rate on its own thread, so moving the scene doesn't take time from the rendering and
+ * doesn't depend on the frame rate.
+ * <p>
+ * Every step writes the state to draw to a {@link SceneSnapshot}. There are 3 of them: one being written by the
+ * simulation, one being drawn and the latest complete one, which are exchanged without locks. The renderer gets the
+ * latest state with {@link #acquire()}, and neither thread waits for the other.
+ * <p>
+ * The simulation doesn't need a GL context, so {@link #step()} can also be called directly, for example to run it
+ * headless.
+ */
+public final class Simulation {
+
+    /**
+     * Steps per second used when no other is specified
+     */
+    public static final int DEFAULT_RATE = 60;
+
+    // steps run in a row at most to catch up, so a stall doesn't freeze the simulation
+    private static final int MAX_CATCH_UP = 5;
+    // flag of the ready snapshot index, when the renderer hasn't taken it yet
+    private static final int FRESH = 4;
+    private static final int INDEX = 3;
+
+    /**
+     * Advances the scene, from the simulation thread
+     */
+    public interface Callback {
+        /**
+         * Moves the scene one step and captures the state to draw
+         *
+         * @param time     simulated seconds, at the end of the step
+         * @param step     seconds per step
+         * @param snapshot where to write the state to draw
+         */
+        void onStep(float time, float step, SceneSnapshot snapshot);
+    }
+
+    private final Callback callback;
+    private final long stepNanos;
+    private final float stepSeconds;
+
+    private final SceneSnapshot[] snapshots = {new SceneSnapshot(), new SceneSnapshot(), new SceneSnapshot()};
+    // snapshot written by the simulation
+    private int back = 0;
+    // snapshot drawn by the renderer
+    private int front = 1;
+    // latest complete snapshot
+    private final AtomicInteger ready = new AtomicInteger(2);
+
+    private long stepCount;
+    private volatile long updateTime;
+    private volatile boolean running;
+    private Thread thread;
+
+    public Simulation(Callback callback) {
+        this(callback, DEFAULT_RATE);
+    }
+
+    /**
+     * @param rate steps per second
+     */
+    public Simulation(Callback callback, int rate) {
+        this.callback = callback;
+        this.stepNanos = 1000000000L / rate;
+        this.stepSeconds = 1f / rate;
+    }
+
+    /**
+     * Starts stepping on a new thread. It has no effect if the simulation is already running
+     */
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::run, "simulation");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the thread and waits for the step in progress, if any. Time doesn't advance until it's started again
+     */
+    public synchronized void stop() {
+        if (thread == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void run() {
+        long previous = System.nanoTime();
+        // the first step runs right away
+        long pending = stepNanos;
+        try {
+            while (running) {
+                final long now = System.nanoTime();
+                pending = Math.min(pending + now - previous, MAX_CATCH_UP * stepNanos);
+                previous = now;
+                while (pending >= stepNanos && running) {
+                    step();
+                    pending -= stepNanos;
+                }
+                LockSupport.parkNanos(stepNanos - pending);
+            }
+        } catch (RuntimeException ex) {
+            Log.e("Simulation", "Simulation stopped: " + ex.getMessage(), ex);
+            running = false;
+        }
+    }
+
+    /**
+     * Runs one step on the calling thread and makes its snapshot the latest. It must not be called while the
+     * simulation thread is running
+     */
+    public void step() {
+        final long start = System.nanoTime();
+        stepCount++;
+        final float time = stepCount * stepSeconds;
+        final SceneSnapshot snapshot = snapshots[back];
+        snapshot.setStep(stepCount, time);
+        callback.onStep(time, stepSeconds, snapshot);
+        back = ready.getAndSet(back | FRESH) & INDEX;
+        updateTime = System.nanoTime() - start;
+    }
+
+    /**
+     * Takes the latest complete snapshot. It's not modified until the next call, so it must be called by a single
+     * thread, the one that draws it.
+     *
+     * @return the latest state, or null if no step has run yet
+     */
+    public SceneSnapshot acquire() {
+        if ((ready.get() & FRESH) != 0) {
+            front = ready.getAndSet(front) & INDEX;
+        }
+        final SceneSnapshot snapshot = snapshots[front];
+        return snapshot.getStep() < 0 ? null : snapshot;
+    }
+
+    /**
+     * @return seconds simulated by each step
+     */
+    public float getStepTime() {
+        return stepSeconds;
+    }
+
+    /**
+     * @return time spent by the last step, in nanoseconds
+     */
+    public long getUpdateTime() {
+        return updateTime;
+    }
+}
@@ -0,0 +1,243 @@
+package org.andresoviedo.android_3d_model_engine.animation;
+
+import org.andresoviedo.android_3d_model_engine.services.collada.entities.Joint;
+import org.andresoviedo.util.math.Mat4;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Joint hierarchy flattened into arrays, ordered so that every parent comes before its children.
+ * <p>
+ * The local transforms of the joints are kept in a {@link Pose}, so that they can be interpolated in place.
+ * {@link #update()} then computes the model-space transforms with a single forward loop and writes the skinning
+ * matrices to the palette. Joints that are not animated use their bind local transform.
+ * <p>
+ * The palette is double buffered: {@link #update()} writes the back one and {@link #publish()} swaps it with the
+ * one read by the renderer, so a pose can be evaluated on another thread while the previous one is drawn.
+ */
+public final class Skeleton {
+
+    private final int jointCount;
+    private final String[] names;
+    private final int[] parents;
+    // palette index of each joint, or -1 if no vertex depends on it
+    private final int[] bones;
+    private final float[] bindLocalTransforms;
+    private final float[] inverseBindTransforms;
+
+    // bind local transforms split into translation, rotation and scale
+    private final Pose bindPose;
+    private final Pose pose;
+
+    private final float[] worldTransforms;
+    private final float[] localTransform = new float[16];
+    private float[] palette;
+    private float[] publishedPalette;
+
+    /**
+     * @param rootJoint the root of the hierarchy, with the inverse bind transforms already calculated
+     * @param boneCount size of the palette, in matrices
+     */
+    public Skeleton(Joint rootJoint, int boneCount) {
+        final List<Joint> joints = new ArrayList<>();
+        final List<Integer> parentList = new ArrayList<>();
+        joints.add(rootJoint);
+        parentList.add(-1);
+        for (int i = 0; i < joints.size(); i++) {
+            for (Joint child : joints.get(i).getChildren()) {
+                joints.add(child);
+                parentList.add(i);
+            }
+        }
+
+        this.jointCount = joints.size();
+        this.names = new String[jointCount];
+        this.parents = new int[jointCount];
+        this.bones = new int[jointCount];
+        this.bindLocalTransforms = new float[jointCount * 16];
+        this.inverseBindTransforms = new float[jointCount * 16];
+        this.bindPose = new Pose(jointCount);
+        this.pose = new Pose(jointCount);
+        this.worldTransforms = new float[jointCount * 16];
+        this.palette = new float[boneCount * 16];
+        this.publishedPalette = new float[boneCount * 16];
+
+        for (int i = 0; i < jointCount; i++) {
+            final Joint joint = joints.get(i);
+            names[i] = joint.getName();
+            parents[i] = parentList.get(i);
+            final int index = joint.getIndex();
+            bones[i] = index >= 0 && index < boneCount && joint.getInverseBindTransform() != null ? index : -1;
+            System.arraycopy(joint.getBindLocalTransform(), 0, bindLocalTransforms, i * 16, 16);
+            if (bones[i] >= 0) {
+                System.arraycopy(joint.getInverseBindTransform(), 0, inverseBindTransforms, i * 16, 16);
+            }
+            Mat4.decompose(bindLocalTransforms, i * 16, bindPose.getTranslations(), i * 3, bindPose.getRotations(),
+                    i * 4, bindPose.getScales(), i * 3);
+            pose.copy(bindPose, i);
+        }
+        for (int i = 0; i < boneCount; i++) {
+            Mat4.identity(palette, i * 16);
+            Mat4.identity(publishedPalette, i * 16);
+        }
+    }
+
+    /**
+     * Creates another instance of a skeleton. The hierarchy is shared, but the new instance has its own pose and
+     * palette.
+     */
+    public Skeleton(Skeleton skeleton) {
+        this.jointCount = skeleton.jointCount;
+        this.names = skeleton.names;
+        this.parents = skeleton.parents;
+        this.bones = skeleton.bones;
+        this.bindLocalTransforms = skeleton.bindLocalTransforms;
+        this.inverseBindTransforms = skeleton.inverseBindTransforms;
+        this.bindPose = skeleton.bindPose;
+        this.pose = new Pose(jointCount);
+        this.worldTransforms = new float[jointCount * 16];
+        this.palette = new float[skeleton.palette.length];
+        this.publishedPalette = new float[palette.length];
+        for (int i = 0; i < jointCount; i++) {
+            pose.copy(bindPose, i);
+        }
+        for (int i = 0; i < palette.length; i += 16) {
+            Mat4.identity(palette, i);
+            Mat4.identity(publishedPalette, i);
+        }
+    }
+
+    public int getJointCount() {
+        return jointCount;
+    }
+
+    /**
+     * @return the index of the joint with that name, or -1 if there is none
+     */
+    public int indexOf(String name) {
+        for (int i = 0; i < jointCount; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return parent index of each joint, -1 for the root
+     */
+    public int[] getParents() {
+        return parents;
+    }
+
+    /**
+     * @return palette index of each joint, -1 for joints that don't deform the mesh
+     */
+    public int[] getBones() {
+        return bones;
+    }
+
+    /**
+     * @return bind local transform of each joint, joint i at i*16
+     */
+    public float[] getBindLocalTransforms() {
+        return bindLocalTransforms;
+    }
+
+    /**
+     * @return the bind local transforms as translation, rotation and scale. Not to be modified
+     */
+    public Pose getBindPose() {
+        return bindPose;
+    }
+
+    /**
+     * @return the local pose used by {@link #update()}
+     */
+    public Pose getPose() {
+        return pose;
+    }
+
+    /**
+     * @return palette size, in matrices
+     */
+    public int getBoneCount() {
+        return palette.length / 16;
+    }
+
+    /**
+     * @return model-space transform of each joint as of the last {@link #update()}, joint i at i*16
+     */
+    public float[] getWorldTransforms() {
+        return worldTransforms;
+    }
+
+    /**
+     * @return the skinning matrices written by {@link #update()}, bone i at i*16. The array changes with every
+     * {@link #publish()}
+     */
+    public float[] getPalette() {
+        return palette;
+    }
+
+    /**
+     * @return the skinning matrices as of the last {@link #publish()}, bone i at i*16
+     */
+    public float[] getPublishedPalette() {
+        return publishedPalette;
+    }
+
+    /**
+     * Makes the palette written by the last {@link #update()} the one to draw. The other buffer is written next, so
+     * this must be called by the thread that reads the published palette, when it's not using it
+     */
+    public void publish() {
+        final float[] published = publishedPalette;
+        publishedPalette = palette;
+        palette = published;
+    }
+
+    /**
+     * Makes every joint use its bind local transform
+     */
+    public void setBindPose() {
+        final boolean[] animated = pose.getAnimated();
+        for (int i = 0; i < jointCount; i++) {
+            animated[i] = false;
+        }
+    }
+
+    /**
+     * Computes the model-space transforms of the current local pose and the skinning palette
+     */
+    public void update() {
+        final float[] local = localTransform;
+        final float[] translations = pose.getTranslations();
+        final float[] rotations = pose.getRotations();
+        final float[] scales = pose.getScales();
+        final boolean[] animated = pose.getAnimated();
+        for (int i = 0; i < jointCount; i++) {
+            final float[] source;
+            final int sourceOffset;
+            if (animated[i]) {
+                Mat4.compose(local, 0, translations, i * 3, rotations, i * 4, scales, i * 3);
+                source = local;
+                sourceOffset = 0;
+            } else {
+                source = bindLocalTransforms;
+                sourceOffset = i * 16;
+            }
+            final int parent = parents[i];
+            if (parent < 0) {
+                System.arraycopy(source, sourceOffset, worldTransforms, i * 16, 16);
+            } else {
+                Mat4.multiply(worldTransforms, i * 16, worldTransforms, parent * 16, source, sourceOffset);
+            }
+            final int bone = bones[i];
+            if (bone >= 0) {
+                Mat4.multiply(palette, bone * 16, worldTransforms, i * 16, inverseBindTransforms, i * 16);
+            }
+        }
+    }
+}
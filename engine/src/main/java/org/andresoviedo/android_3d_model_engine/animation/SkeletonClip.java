@@ -0,0 +1,153 @@
+package org.andresoviedo.android_3d_model_engine.animation;
+
+import org.andresoviedo.util.math.Mat4;
+import org.andresoviedo.util.math.Quat;
+import org.andresoviedo.util.math.Vec3;
+
+import java.util.Map;
+
+/**
+ * {@link Animation} resolved against the joints of a {@link Skeleton}: the keyframe poses are stored as
+ * translation, rotation and scale arrays indexed by frame and joint, so sampling needs no lookups by name.
+ */
+public final class SkeletonClip {
+
+    private final Animation animation;
+    private final int jointCount;
+    private final float[] times;
+    private final KeyframeSampler sampler;
+    // whether the joint has keys, otherwise it keeps its bind local transform
+    private final boolean[] keyed;
+    // pose of joint j at frame f starts at (f * jointCount + j) * 3 (or * 4 for rotations)
+    private final float[] translations;
+    private final float[] rotations;
+    private final float[] scales;
+
+    public SkeletonClip(Animation animation, Skeleton skeleton) {
+        this.animation = animation;
+        this.jointCount = skeleton.getJointCount();
+        final KeyFrame[] keyFrames = animation.getKeyFrames();
+        final int frameCount = keyFrames.length;
+        this.times = new float[frameCount];
+        this.keyed = new boolean[jointCount];
+        this.translations = new float[frameCount * jointCount * 3];
+        this.rotations = new float[frameCount * jointCount * 4];
+        this.scales = new float[frameCount * jointCount * 3];
+
+        final boolean[] present = new boolean[frameCount * jointCount];
+        final float[] local = new float[16];
+        for (int f = 0; f < frameCount; f++) {
+            times[f] = keyFrames[f].getTimeStamp();
+            for (Map.Entry<String, JointTransform> entry : keyFrames[f].getJointKeyFrames().entrySet()) {
+                final int joint = skeleton.indexOf(entry.getKey());
+                if (joint < 0) {
+                    continue;
+                }
+                keyed[joint] = true;
+                present[f * jointCount + joint] = true;
+                final int index = f * jointCount + joint;
+                Mat4.decompose(entry.getValue().getLocalTransform(local, 0), 0, translations, index * 3, rotations,
+                        index * 4, scales, index * 3);
+            }
+        }
+        this.sampler = new KeyframeSampler(times);
+
+        // joints missing in some frame are interpolated between the surrounding keys
+        for (int j = 0; j < jointCount; j++) {
+            if (!keyed[j]) {
+                continue;
+            }
+            for (int f = 0; f < frameCount; f++) {
+                if (present[f * jointCount + j]) {
+                    continue;
+                }
+                int previous = f - 1;
+                while (previous >= 0 && !present[previous * jointCount + j]) {
+                    previous--;
+                }
+                int next = f + 1;
+                while (next < frameCount && !present[next * jointCount + j]) {
+                    next++;
+                }
+                if (previous < 0) {
+                    copy(next * jointCount + j, f * jointCount + j);
+                } else if (next == frameCount) {
+                    copy(previous * jointCount + j, f * jointCount + j);
+                } else {
+                    final float alpha = (times[f] - times[previous]) / (times[next] - times[previous]);
+                    interpolate(previous * jointCount + j, next * jointCount + j, alpha, f * jointCount + j);
+                }
+            }
+        }
+    }
+
+    private void interpolate(int a, int b, float alpha, int to) {
+        Vec3.lerp(translations, to * 3, translations, a * 3, translations, b * 3, alpha);
+        Vec3.lerp(scales, to * 3, scales, a * 3, scales, b * 3, alpha);
+        Quat.nlerp(rotations, to * 4, rotations, a * 4, rotations, b * 4, alpha);
+    }
+
+    private void copy(int from, int to) {
+        System.arraycopy(translations, from * 3, translations, to * 3, 3);
+        System.arraycopy(rotations, from * 4, rotations, to * 4, 4);
+        System.arraycopy(scales, from * 3, scales, to * 3, 3);
+    }
+
+    /**
+     * @return the animation this clip was built from
+     */
+    public Animation getAnimation() {
+        return animation;
+    }
+
+    public float getLength() {
+        return animation.getLength();
+    }
+
+    /**
+     * @return the time stamp of each keyframe, in seconds
+     */
+    public float[] getTimes() {
+        return times;
+    }
+
+    /**
+     * Writes the local pose at the specified time to the skeleton. Times out of the keyframe range use the first or
+     * last keyframe.
+     *
+     * @param time     seconds since the beginning of the clip
+     * @param skeleton the skeleton the clip was built for
+     */
+    public void sample(float time, Skeleton skeleton) {
+        sample(time, skeleton.getPose());
+    }
+
+    /**
+     * Writes the local pose at the specified time. Joints without keys are flagged as not animated and their
+     * transforms are left unchanged.
+     *
+     * @param time seconds since the beginning of the clip
+     * @param pose pose of the skeleton the clip was built for
+     */
+    public void sample(float time, Pose pose) {
+        sampler.seek(time);
+        apply(sampler.getIndex(), sampler.getNextIndex(), sampler.getAlpha(), pose);
+    }
+
+    private void apply(int previous, int next, float progression, Pose pose) {
+        final float[] outTranslations = pose.getTranslations();
+        final float[] outRotations = pose.getRotations();
+        final float[] outScales = pose.getScales();
+        final boolean[] animated = pose.getAnimated();
+        for (int j = 0; j < jointCount; j++) {
+            animated[j] = keyed[j];
+            if (!keyed[j]) {
+                continue;
+            }
+            final int a = previous * jointCount + j, b = next * jointCount + j;
+            Vec3.lerp(outTranslations, j * 3, translations, a * 3, translations, b * 3, progression);
+            Vec3.lerp(outScales, j * 3, scales, a * 3, scales, b * 3, progression);
+            Quat.nlerp(outRotations, j * 4, rotations, a * 4, rotations, b * 4, progression);
+        }
+    }
+}
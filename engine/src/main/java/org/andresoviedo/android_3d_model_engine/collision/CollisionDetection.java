@@ -1,11 +1,13 @@
 package org.andresoviedo.android_3d_model_engine.collision;
 
-import android.opengl.GLU;
+import android.opengl.Matrix;
 import android.util.Log;
 
+import org.andresoviedo.android_3d_model_engine.model.AnimatedModel;
 import org.andresoviedo.android_3d_model_engine.model.BoundingBox;
 import org.andresoviedo.android_3d_model_engine.model.Object3DData;
-import org.andresoviedo.util.math.Math3DUtils;
+import org.andresoviedo.util.math.Mat4;
+import org.andresoviedo.util.math.Vec3;
 
 import java.util.Arrays;
 import java.util.List;
@@ -17,6 +19,13 @@ import java.util.List;
  */
 public class CollisionDetection {
 
+    // rays tested together against the scene and the octrees
+    private static final int PACKET_SIZE = 64;
+    // side of the square tiles of rays cast through a region of the screen, so a tile makes a packet
+    private static final int TILE_SIZE = 8;
+    // inverse of the view projection matrix, reused by every cast of the thread
+    private static final ThreadLocal<float[]> TEMP_MATRIX = ThreadLocal.withInitial(() -> new float[16]);
+
     /**
      * Get the nearest object intersected by the specified window coordinates
      *
@@ -30,13 +39,36 @@ public class CollisionDetection {
      * @return the nearest object intersected by the specified coordinates or null
      */
     public static Object3DData getBoxIntersection(List<Object3DData> objects, int width, int height, float[] modelViewMatrix, float[] modelProjectionMatrix, float windowX, float windowY) {
-        float[] nearHit = unProject(width, height, modelViewMatrix, modelProjectionMatrix, windowX, windowY, 0);
-        float[] farHit = unProject(width, height, modelViewMatrix, modelProjectionMatrix, windowX, windowY, 1);
-        float[] direction = Math3DUtils.substract(farHit, nearHit);
-        Math3DUtils.normalize(direction);
+        float[] nearHit = new float[3];
+        float[] direction = new float[3];
+        if (!unProject(width, height, modelViewMatrix, modelProjectionMatrix, windowX, windowY, nearHit, direction)) {
+            return null;
+        }
         return getBoxIntersection(objects, nearHit, direction);
     }
 
+    /**
+     * Get the nearest object intersected by the specified window coordinates, using the scene hierarchy instead of
+     * testing every object
+     *
+     * @param bvh                   the scene hierarchy, already {@link SceneBvh#update(List) updated}
+     * @param height                viewport height
+     * @param width                 viewport width
+     * @param modelViewMatrix       model view matrix
+     * @param modelProjectionMatrix model projection matrix
+     * @param windowX               the window x coordinate
+     * @param windowY               the window y coordinate
+     * @return the nearest object intersected by the specified coordinates or null
+     */
+    public static Object3DData getBoxIntersection(SceneBvh bvh, int width, int height, float[] modelViewMatrix, float[] modelProjectionMatrix, float windowX, float windowY) {
+        float[] nearHit = new float[3];
+        float[] direction = new float[3];
+        if (!unProject(width, height, modelViewMatrix, modelProjectionMatrix, windowX, windowY, nearHit, direction)) {
+            return null;
+        }
+        return bvh.rayIntersection(nearHit, direction);
+    }
+
     /**
      * Get the nearest object intersected by the specified ray or null if no object is intersected
      *
@@ -53,9 +85,9 @@ public class CollisionDetection {
                 continue;
             }
             BoundingBox box = obj.getBoundingBox();
-            float[] intersection = getBoxIntersection(p1, direction, box);
-            if (intersection[0] > 0 && intersection[0] <= intersection[1] && intersection[0] < min) {
-                min = intersection[0];
+            float intersection = getBoxIntersection(p1, direction, box, min);
+            if (intersection > 0 && intersection < min) {
+                min = intersection;
                 ret = obj;
             }
         }
@@ -104,52 +136,82 @@ public class CollisionDetection {
      * @return true if the specified ray intersects the bounding box, false otherwise
      */
     private static boolean isBoxIntersection(float[] origin, float[] dir, BoundingBox b) {
-        float[] intersection = getBoxIntersection(origin, dir, b);
-        return intersection[0] > 0 && intersection[0] < intersection[1];
+        float intersection = getBoxIntersection(origin, dir, b, Float.MAX_VALUE);
+        return intersection > 0 && intersection != Float.MAX_VALUE;
     }
 
     /**
-     * Get the intersection points of the near and far plane for the specified ray and bounding box
+     * Get the distance to the point where the ray enters the bounding box
      *
      * @param origin the ray origin
      * @param dir    the ray direction
      * @param b      the bounding box
-     * @return the intersection points of the near and far plane
+     * @param limit  boxes entered at this distance or farther are missed
+     * @return the distance (negative if the origin is inside the box) or {@link Float#MAX_VALUE} if missed
      */
-    private static float[] getBoxIntersection(float[] origin, float[] dir, BoundingBox b) {
-        float[] tMin = Math3DUtils.divide(Math3DUtils.substract(b.getMin(), origin), dir);
-        float[] tMax = Math3DUtils.divide(Math3DUtils.substract(b.getMax(), origin), dir);
-        float[] t1 = Math3DUtils.min(tMin, tMax);
-        float[] t2 = Math3DUtils.max(tMin, tMax);
-        float tNear = Math.max(Math.max(t1[0], t1[1]), t1[2]);
-        float tFar = Math.min(Math.min(t2[0], t2[1]), t2[2]);
-        return new float[]{tNear, tFar};
+    private static float getBoxIntersection(float[] origin, float[] dir, BoundingBox b, float limit) {
+        return getBoxIntersection(origin, dir, 0, b, limit);
+    }
+
+    private static float getBoxIntersection(float[] origins, float[] dirs, int offset, BoundingBox b, float limit) {
+        return RayKernels.intersectBox(origins[offset], origins[offset + 1], origins[offset + 2],
+                1 / dirs[offset], 1 / dirs[offset + 1], 1 / dirs[offset + 2],
+                b.getxMin(), b.getyMin(), b.getzMin(), b.getxMax(), b.getyMax(), b.getzMax(), limit);
     }
 
     /**
-     * Map window coordinates to object coordinates.
+     * Get the ray going through a point of the screen
      *
-     * @param height                viewport height
-     * @param width                 viewport width
-     * @param modelViewMatrix       model view matrix
-     * @param modelProjectionMatrix model projection matrix
-     * @param rx                    x point
-     * @param ry                    y point
-     * @param rz                    z point
-     * @return the corresponding near and far vertex for the specified window coordinates
+     * @param inverse inverse of the view projection matrix
+     * @param x       normalized device x coordinate
+     * @param y       normalized device y coordinate
+     */
+    private static void unProject(float[] inverse, float x, float y, float[] origins, float[] directions, int offset) {
+        final float nearW = inverse[3] * x + inverse[7] * y - inverse[11] + inverse[15];
+        final float farW = inverse[3] * x + inverse[7] * y + inverse[11] + inverse[15];
+        float length = 0;
+        for (int k = 0; k < 3; k++) {
+            final float near = (inverse[k] * x + inverse[4 + k] * y - inverse[8 + k] + inverse[12 + k]) / nearW;
+            final float far = (inverse[k] * x + inverse[4 + k] * y + inverse[8 + k] + inverse[12 + k]) / farW;
+            origins[offset + k] = near;
+            directions[offset + k] = far - near;
+            length += (far - near) * (far - near);
+        }
+        length = (float) Math.sqrt(length);
+        for (int k = 0; k < 3; k++) {
+            directions[offset + k] /= length;
+        }
+    }
+
+    /**
+     * Get the ray going through the specified window coordinates
+     *
+     * @param width            viewport width
+     * @param height           viewport height
+     * @param viewMatrix       view matrix
+     * @param projectionMatrix projection matrix
+     * @param origin           receives the point of the ray in the near plane
+     * @param direction        receives the direction of the ray, normalized
+     * @return false if the view projection matrix can't be inverted
+     */
+    private static boolean unProject(int width, int height, float[] viewMatrix, float[] projectionMatrix,
+                                     float windowX, float windowY, float[] origin, float[] direction) {
+        final float[] inverse = inverseViewProjection(viewMatrix, projectionMatrix);
+        if (inverse == null) {
+            return false;
+        }
+        unProject(inverse, windowX / width * 2 - 1, 1 - windowY / height * 2, origin, direction, 0);
+        return true;
+    }
+
+    /**
+     * @return the inverse of projection * view, in a matrix of the thread reused by the next call, or null if it
+     * can't be inverted
      */
-    private static float[] unProject(int width, int height, float[] modelViewMatrix, float[] modelProjectionMatrix,
-                                     float rx, float ry, float rz) {
-        float[] xyzw = {0, 0, 0, 0};
-        ry = (float) height - ry;
-        int[] viewport = {0, 0, width, height};
-        GLU.gluUnProject(rx, ry, rz, modelViewMatrix, 0, modelProjectionMatrix, 0,
-                viewport, 0, xyzw, 0);
-        xyzw[0] /= xyzw[3];
-        xyzw[1] /= xyzw[3];
-        xyzw[2] /= xyzw[3];
-        xyzw[3] = 1;
-        return xyzw;
+    private static float[] inverseViewProjection(float[] viewMatrix, float[] projectionMatrix) {
+        final float[] ret = TEMP_MATRIX.get();
+        Mat4.multiply(ret, 0, projectionMatrix, 0, viewMatrix, 0);
+        return Matrix.invertM(ret, 0, ret, 0) ? ret : null;
     }
 
     /*public static float[] getTriangleIntersection(List<Object3DData> objects, ModelRenderer mRenderer, float
@@ -192,24 +254,191 @@ public class CollisionDetection {
     }*/
 
     public static float[] getTriangleIntersection(List<Object3DData> objects, int width, int height, float[] modelViewMatrix, float[] modelProjectionMatrix, float windowX, float windowY) {
-        float[] nearHit = unProject(width, height, modelViewMatrix, modelProjectionMatrix, windowX, windowY, 0);
-        float[] farHit = unProject(width, height, modelViewMatrix, modelProjectionMatrix, windowX, windowY, 1);
-        float[] direction = Math3DUtils.substract(farHit, nearHit);
-        Math3DUtils.normalize(direction);
-        Object3DData intersected = getBoxIntersection(objects, nearHit, direction);
+        float[] nearHit = new float[3];
+        float[] direction = new float[3];
+        if (!unProject(width, height, modelViewMatrix, modelProjectionMatrix, windowX, windowY, nearHit, direction)) {
+            return null;
+        }
+        return getTriangleIntersection(getBoxIntersection(objects, nearHit, direction), nearHit, direction);
+    }
+
+    /**
+     * Get the point where the specified window coordinates hit the nearest object, using the scene hierarchy to find
+     * the candidate object
+     *
+     * @return the intersection point or null
+     */
+    public static float[] getTriangleIntersection(SceneBvh bvh, int width, int height, float[] modelViewMatrix, float[] modelProjectionMatrix, float windowX, float windowY) {
+        float[] nearHit = new float[3];
+        float[] direction = new float[3];
+        if (!unProject(width, height, modelViewMatrix, modelProjectionMatrix, windowX, windowY, nearHit, direction)) {
+            return null;
+        }
+        return getTriangleIntersection(bvh.rayIntersection(nearHit, direction), nearHit, direction);
+    }
+
+    /**
+     * Cast many rays at once, i.e. for a lasso selection. Rays are processed in packets of consecutive rays, so rays
+     * going the same way should be next to each other.
+     *
+     * @param bvh             the scene hierarchy, already {@link SceneBvh#update(List) updated}
+     * @param origins         x,y,z of each ray
+     * @param directions      x,y,z of each ray, normalized
+     * @param count           number of rays
+     * @param hitObjects      receives the object hit by each ray or null
+     * @param hitTriangles    receives the index of the triangle hit by each ray, or -1 if the octree of the object
+     *                        is not built yet and only its box was hit
+     * @param hitBarycentrics receives u,v of each hit (2 per ray). The weight of the first vertex is 1 - u - v
+     * @param hitDistances    receives the distance to each hit
+     * @return number of rays that hit an object
+     */
+    public static int getTriangleIntersections(SceneBvh bvh, float[] origins, float[] directions, int count,
+                                               Object3DData[] hitObjects, int[] hitTriangles,
+                                               float[] hitBarycentrics, float[] hitDistances) {
+        final int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        return getTriangleIntersections(bvh, origins, directions, order, hitObjects, hitTriangles, hitBarycentrics,
+                hitDistances);
+    }
+
+    /**
+     * Cast a grid of rays through a rectangle of the window, i.e. for a rectangle selection. The rays go through the
+     * center of each cell of the grid, and are cast in square tiles so each packet of rays is coherent.
+     *
+     * @param bvh              the scene hierarchy, already {@link SceneBvh#update(List) updated}
+     * @param width            viewport width
+     * @param height           viewport height
+     * @param viewMatrix       view matrix
+     * @param projectionMatrix projection matrix
+     * @param left             rectangle left window coordinate
+     * @param top              rectangle top window coordinate
+     * @param right            rectangle right window coordinate
+     * @param bottom           rectangle bottom window coordinate
+     * @param columns          columns of the grid
+     * @param rows             rows of the grid
+     * @param hitObjects       receives the object hit by each ray (row * columns + column) or null
+     * @param hitTriangles     receives the index of the triangle hit by each ray, or -1 if only its box was hit
+     * @param hitBarycentrics  receives u,v of each hit (2 per ray)
+     * @param hitDistances     receives the distance to each hit
+     * @return number of rays that hit an object
+     */
+    public static int getRegionIntersections(SceneBvh bvh, int width, int height, float[] viewMatrix,
+                                             float[] projectionMatrix, float left, float top, float right,
+                                             float bottom, int columns, int rows, Object3DData[] hitObjects,
+                                             int[] hitTriangles, float[] hitBarycentrics, float[] hitDistances) {
+        final float[] inverse = inverseViewProjection(viewMatrix, projectionMatrix);
+        if (inverse == null) {
+            return 0;
+        }
+        final int count = columns * rows;
+        final float[] origins = new float[count * 3];
+        final float[] directions = new float[count * 3];
+        final int[] order = new int[count];
+        int next = 0;
+        for (int tileY = 0; tileY < rows; tileY += TILE_SIZE) {
+            for (int tileX = 0; tileX < columns; tileX += TILE_SIZE) {
+                for (int row = tileY; row < Math.min(rows, tileY + TILE_SIZE); row++) {
+                    for (int column = tileX; column < Math.min(columns, tileX + TILE_SIZE); column++) {
+                        final int ray = row * columns + column;
+                        final float x = left + (right - left) * (column + 0.5f) / columns;
+                        final float y = top + (bottom - top) * (row + 0.5f) / rows;
+                        unProject(inverse, x / width * 2 - 1, 1 - y / height * 2, origins, directions, ray * 3);
+                        order[next++] = ray;
+                    }
+                }
+            }
+        }
+        return getTriangleIntersections(bvh, origins, directions, order, hitObjects, hitTriangles, hitBarycentrics,
+                hitDistances);
+    }
+
+    private static int getTriangleIntersections(SceneBvh bvh, float[] origins, float[] directions, int[] order,
+                                                Object3DData[] hitObjects, int[] hitTriangles,
+                                                float[] hitBarycentrics, float[] hitDistances) {
+        final int count = order.length;
+        Arrays.fill(hitObjects, 0, count, null);
+        Arrays.fill(hitTriangles, 0, count, -1);
+        Arrays.fill(hitBarycentrics, 0, count * 2, 0);
+        Arrays.fill(hitDistances, 0, count, Float.MAX_VALUE);
+        final Object3DData[] candidates = new Object3DData[bvh.size()];
+        final int[] packet = new int[PACKET_SIZE];
+        final float[] previous = new float[PACKET_SIZE];
+        for (int first = 0; first < count; first += PACKET_SIZE) {
+            final int size = Math.min(PACKET_SIZE, count - first);
+            System.arraycopy(order, first, packet, 0, size);
+            final int candidateCount = bvh.rayIntersections(origins, directions, packet, size, candidates);
+            for (int c = 0; c < candidateCount; c++) {
+                final Object3DData obj = candidates[c];
+                for (int p = 0; p < size; p++) {
+                    previous[p] = hitDistances[packet[p]];
+                }
+                final SkinnedPicker picker = getPicker(obj);
+                final Octree octree = obj.getOctree();
+                if (picker != null) {
+                    picker.intersect(origins, directions, packet, size, hitDistances, hitTriangles, hitBarycentrics);
+                } else if (octree != null) {
+                    octree.intersect(origins, directions, packet, size, hitDistances, hitTriangles, hitBarycentrics);
+                } else {
+                    Octree.buildAsync(obj);
+                    for (int p = 0; p < size; p++) {
+                        final int ray = packet[p];
+                        final float distance = Math.max(0, getBoxIntersection(origins, directions, ray * 3,
+                                obj.getBoundingBox(), hitDistances[ray]));
+                        if (distance < hitDistances[ray]) {
+                            hitDistances[ray] = distance;
+                            hitTriangles[ray] = -1;
+                            hitBarycentrics[ray * 2] = 0;
+                            hitBarycentrics[ray * 2 + 1] = 0;
+                        }
+                    }
+                }
+                for (int p = 0; p < size; p++) {
+                    if (hitDistances[packet[p]] < previous[p]) {
+                        hitObjects[packet[p]] = obj;
+                    }
+                }
+            }
+        }
+        int ret = 0;
+        for (int i = 0; i < count; i++) {
+            if (hitObjects[i] != null) {
+                ret++;
+            } else {
+                hitDistances[i] = -1;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Get the point where the ray hits the triangles of the object. If the octree of the object is not built yet, the
+     * build is started in the background and the point where the ray enters the bounding box is returned instead, so
+     * the caller is never blocked
+     */
+    private static float[] getTriangleIntersection(Object3DData intersected, float[] nearHit, float[] direction) {
         if (intersected != null) {
             Log.d("CollisionDetection", "intersected: " + intersected.getId());
-            Octree octree;
-            synchronized (intersected) {
-                octree = intersected.getOctree();
-                if (octree == null) {
-                    octree = Octree.build(intersected);
-                    intersected.setOctree(octree);
+            SkinnedPicker picker = getPicker(intersected);
+            if (picker != null) {
+                float intersection = picker.intersect(nearHit, direction);
+                return intersection != -1 ? pointAt(nearHit, direction, intersection) : null;
+            }
+            Octree octree = intersected.getOctree();
+            if (octree == null) {
+                Octree.buildAsync(intersected);
+                float intersection = getBoxIntersection(nearHit, direction, intersected.getBoundingBox(), Float.MAX_VALUE);
+                if (intersection == Float.MAX_VALUE) {
+                    return null;
                 }
+                float[] boxPoint = pointAt(nearHit, direction, Math.max(0, intersection));
+                Log.d("CollisionDetection", "Octree not ready. Bounding box point: " + Arrays.toString(boxPoint));
+                return boxPoint;
             }
-            float intersection = getTriangleIntersectionForOctree(octree, nearHit, direction);
+            float intersection = octree.intersect(nearHit, direction);
             if (intersection != -1) {
-                float[] intersectionPoint = Math3DUtils.add(nearHit, Math3DUtils.multiply(direction, intersection));
+                float[] intersectionPoint = pointAt(nearHit, direction, intersection);
                 Log.d("CollisionDetection", "Interaction point: " + Arrays.toString(intersectionPoint));
                 return intersectionPoint;
             } else {
@@ -219,76 +448,21 @@ public class CollisionDetection {
         return null;
     }
 
-    private static float getTriangleIntersectionForOctree(Octree octree, float[] rayOrigin, float[] rayDirection) {
-        //Log.v("CollisionDetection","Testing octree "+octree);
-        if (!isBoxIntersection(rayOrigin, rayDirection, octree.boundingBox)) {
-            Log.d("CollisionDetection", "No octree intersection");
-            return -1;
-        }
-        Octree selected = null;
-        float min = Float.MAX_VALUE;
-        for (Octree child : octree.getChildren()) {
-            if (child == null) {
-                continue;
-            }
-            float intersection = getTriangleIntersectionForOctree(child, rayOrigin, rayDirection);
-            if (intersection != -1 && intersection < min) {
-                Log.d("CollisionDetection", "Octree intersection: " + intersection);
-                min = intersection;
-                selected = child;
-            }
-        }
-        float[] selectedTriangle = null;
-        for (float[] triangle : octree.getTriangles()) {
-            float[] vertex0 = new float[]{triangle[0], triangle[1], triangle[2]};
-            float[] vertex1 = new float[]{triangle[4], triangle[5], triangle[6]};
-            float[] vertex2 = new float[]{triangle[8], triangle[9], triangle[10]};
-            float intersection = getTriangleIntersection(rayOrigin, rayDirection, vertex0, vertex1, vertex2);
-            if (intersection != -1 && intersection < min) {
-                min = intersection;
-                selectedTriangle = triangle;
-                selected = octree;
-
-            }
-        }
-        if (min != Float.MAX_VALUE) {
-            Log.d("CollisionDetection", "Intersection at distance: " + min);
-            Log.d("CollisionDetection", "Intersection at triangle: " + Arrays.toString(selectedTriangle));
-            Log.d("CollisionDetection", "Intersection at octree: " + selected);
-            return min;
-        }
-        return -1;
+    /**
+     * @return the point at the specified distance along the ray, written over the origin, which isn't needed anymore
+     */
+    private static float[] pointAt(float[] origin, float[] direction, float distance) {
+        Vec3.addScaled(origin, 0, origin, 0, direction, 0, distance);
+        return origin;
     }
 
-    private static float getTriangleIntersection(float[] rayOrigin,
-                                                 float[] rayVector,
-                                                 float[] vertex0, float[] vertex1, float[] vertex2) {
-        float EPSILON = 0.0000001f;
-        float[] edge1, edge2, h, s, q;
-        float a, f, u, v;
-        edge1 = Math3DUtils.substract(vertex1, vertex0);
-        edge2 = Math3DUtils.substract(vertex2, vertex0);
-        h = Math3DUtils.crossProduct(rayVector, edge2);
-        a = Math3DUtils.dotProduct(edge1, h);
-        if (a > -EPSILON && a < EPSILON)
-            return -1;
-        f = 1 / a;
-        s = Math3DUtils.substract(rayOrigin, vertex0);
-        u = f * Math3DUtils.dotProduct(s, h);
-        if (u < 0.0 || u > 1.0)
-            return -1;
-        q = Math3DUtils.crossProduct(s, edge1);
-        v = f * Math3DUtils.dotProduct(rayVector, q);
-        if (v < 0.0 || u + v > 1.0)
-            return -1;
-        // At this stage we can compute t to find out where the intersection point is on the line.
-        float t = f * Math3DUtils.dotProduct(edge2, q);
-        if (t > EPSILON) // ray intersection
-        {
-            Log.d("CollisionDetection", "Triangle intersection at: " + t);
-            return t;
-        } else // This means that there is a line intersection but not a ray intersection.
-            return -1;
+    /**
+     * @return the picker of the object if it's animated, since its octree is in the bind pose, or null
+     */
+    private static SkinnedPicker getPicker(Object3DData obj) {
+        if (!(obj instanceof AnimatedModel) || ((AnimatedModel) obj).getAnimation() == null) {
+            return null;
+        }
+        return ((AnimatedModel) obj).getPicker();
     }
 }
-
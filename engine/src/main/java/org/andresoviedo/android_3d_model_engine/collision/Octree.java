@@ -1,158 +1,628 @@
 package org.andresoviedo.android_3d_model_engine.collision;
 
-import android.opengl.Matrix;
 import android.util.Log;
 
-import org.andresoviedo.android_3d_model_engine.model.BoundingBox;
 import org.andresoviedo.android_3d_model_engine.model.Object3DData;
-import org.andresoviedo.util.math.Math3DUtils;
+import org.andresoviedo.util.math.Mat4;
 
+import java.nio.Buffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 /**
+ * Octree over the triangles of a model, in world space, to find the triangle hit by a ray.
+ * <p>
+ * Everything is stored in flat arrays: the transformed vertices (3 floats each), the triangles (3 vertex indices
+ * each, with their index in the model) and the nodes (bounds, first child, child count and range of triangles).
+ * Triangles are pushed down to the octant of their center and each node box is fitted to its triangles, so triangles
+ * crossing the middle of a node don't pile up in the upper nodes. Only leaves own triangles. Triangles are sorted so
+ * that each node owns a contiguous range.
+ * <p>
+ * Building takes long for big models, so it is done in the background with {@link #buildAsync(Object3DData)}.
+ *
  * Created by Andres on 21/12/2017.
  */
+public final class Octree {
 
-public class Octree {
-    final BoundingBox boundingBox;
-    private final List<float[]> pending = new ArrayList<>();
-    private final List<float[]> triangles = new ArrayList<>();
-    private final Octree[] children = new Octree[8];
+    public static final int DEFAULT_MAX_DEPTH = 10;
+    public static final int DEFAULT_LEAF_SIZE = 16;
+    // below this, building in parallel doesn't pay off
+    private static final int PARALLEL_THRESHOLD = 50000;
 
-    private Octree(BoundingBox box){
-        this.boundingBox = box;
+    // models whose octree is being built in the background
+    private static final Set<Object3DData> pending =
+            Collections.newSetFromMap(new ConcurrentHashMap<Object3DData, Boolean>());
+
+    private final float[] vertices;
+    private final int[] triangles;
+    // index of each triangle in the model, since they are sorted
+    private final int[] ids;
+
+    private final int nodeCount;
+    // min x,y,z max x,y,z
+    private final float[] nodeBounds;
+    // children are stored together in octant order, starting at nodeChild
+    private final int[] nodeChild;
+    // bit i set if there is a child for octant i
+    private final byte[] nodeChildMask;
+    // triangles owned by the node (leaves only)
+    private final int[] nodeStart;
+    private final int[] nodeSize;
+
+    private int[] stack = new int[64];
+    // packet traversal: rays still active at each level, and the nearest triangle of each ray
+    private int[] active = new int[0];
+    private int[] nearestSlot = new int[0];
+    // origin, direction & inverse direction of each ray of the packet
+    private float[] packetRays = new float[0];
+
+    private Octree(float[] vertices, int[] triangles, int[] ids, Nodes nodes) {
+        this.vertices = vertices;
+        this.triangles = triangles;
+        this.ids = ids;
+        this.nodeCount = nodes.count;
+        this.nodeBounds = nodes.bounds;
+        this.nodeChild = nodes.child;
+        this.nodeChildMask = nodes.childMask;
+        this.nodeStart = nodes.start;
+        this.nodeSize = nodes.size;
     }
 
-    private void addChild(int octant, BoundingBox boundingBox, float[] triangle){
-        if (children[octant] == null){
-            children[octant] = new Octree(boundingBox);
+    static Octree build(Object3DData object) {
+        return build(object, DEFAULT_MAX_DEPTH, DEFAULT_LEAF_SIZE);
+    }
+
+    /**
+     * Build the octree of the model, transforming its vertices with the model matrix
+     *
+     * @param object   the model
+     * @param maxDepth maximum levels below the root
+     * @param leafSize nodes with more triangles than this are subdivided
+     * @return the octree
+     */
+    public static Octree build(Object3DData object, int maxDepth, int leafSize) {
+        Log.i("Octree", "Building octree for " + object.getId());
+        final long start = System.currentTimeMillis();
+        final float[] vertices;
+        final int[] triangles;
+        final Buffer drawOrder = object.getDrawOrderBuffer();
+        if (drawOrder == null) {
+            // vertex array contains vertex in sequence
+            vertices = transform(object.getVertexArrayBuffer(), object.getModelMatrix());
+            triangles = new int[vertices.length / 9 * 3];
+            for (int i = 0; i < triangles.length; i++) {
+                triangles[i] = i;
+            }
+        } else {
+            // faces are built
+            final FloatBuffer buffer = object.getVertexArrayBuffer() != null && !object.isDrawUsingArrays() ?
+                    object.getVertexArrayBuffer() : object.getVertexBuffer();
+            vertices = transform(buffer, object.getModelMatrix());
+            triangles = new int[drawOrder.capacity() / 3 * 3];
+            if (drawOrder instanceof ShortBuffer) {
+                for (int i = 0; i < triangles.length; i++) {
+                    triangles[i] = ((ShortBuffer) drawOrder).get(i) & 0xFFFF;
+                }
+            } else {
+                for (int i = 0; i < triangles.length; i++) {
+                    triangles[i] = ((IntBuffer) drawOrder).get(i);
+                }
+            }
         }
-        children[octant].pending.add(triangle);
+        final Octree ret = build(vertices, triangles, maxDepth, leafSize);
+        Log.i("Octree", "Octree built for " + object.getId() + ". Triangles: " + triangles.length / 3
+                + ", nodes: " + ret.nodeCount + ", time: " + (System.currentTimeMillis() - start) + " ms");
+        return ret;
+    }
+
+    /**
+     * Build an octree directly from world space data. Big models are subdivided in parallel, one task per octant of
+     * the root
+     *
+     * @param vertices  x,y,z of each vertex
+     * @param triangles 3 vertex indices per triangle. The array is reordered
+     */
+    public static Octree build(float[] vertices, int[] triangles, int maxDepth, int leafSize) {
+        return build(vertices, triangles, maxDepth, leafSize, triangles.length / 3 >= PARALLEL_THRESHOLD);
+    }
+
+    static Octree build(float[] vertices, int[] triangles, int maxDepth, int leafSize, boolean parallel) {
+        final int[] ids = new int[triangles.length / 3];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i;
+        }
+        final Builder builder = new Builder(vertices, triangles, ids, maxDepth, leafSize);
+        final Nodes nodes = new Nodes(Math.max(8, triangles.length / 3 / leafSize * 2));
+        builder.initRoot(nodes);
+        if (!parallel) {
+            builder.subdivide(nodes);
+        } else {
+            final int children = builder.split(nodes, 0);
+            final Subtree[] subtrees = new Subtree[children];
+            for (int c = 0; c < children; c++) {
+                subtrees[c] = new Subtree(builder, nodes, nodes.child[0] + c);
+            }
+            ForkJoinTask.invokeAll(subtrees);
+            for (Subtree subtree : subtrees) {
+                nodes.append(subtree.nodes, subtree.index);
+            }
+        }
+        return new Octree(vertices, triangles, ids, nodes);
+    }
+
+    /**
+     * Build the octree of the model in the background and set it to the model once it's complete. Does nothing if
+     * the model already has an octree or it is being built.
+     */
+    public static void buildAsync(final Object3DData object) {
+        if (object.getOctree() != null || !pending.add(object)) {
+            return;
+        }
+        ForkJoinPool.commonPool().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    object.setOctree(build(object));
+                } catch (RuntimeException ex) {
+                    Log.e("Octree", "Problem building octree for " + object.getId(), ex);
+                } finally {
+                    pending.remove(object);
+                }
+            }
+        });
+    }
+
+    private static float[] transform(FloatBuffer buffer, float[] m) {
+        final float[] ret = new float[buffer.capacity() / 3 * 3];
+        Mat4.transformPoints(m, 0, buffer, 0, ret, 0, ret.length / 3);
+        return ret;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
     }
 
-    public Octree[] getChildren(){
-        return children;
+    public int getTriangleCount() {
+        return triangles.length / 3;
     }
 
-    public List<float[]> getTriangles(){
+    float[] getVertices() {
+        return vertices;
+    }
+
+    int[] getTriangles() {
         return triangles;
     }
 
-    private void subdivide(){
-        for (Octree child : children){
-            if (child != null){
-                subdivide(child);
+    /**
+     * Growable node arrays
+     */
+    private static final class Nodes {
+
+        private int count;
+        private float[] bounds;
+        private int[] child;
+        private byte[] childMask;
+        private int[] start;
+        private int[] size;
+        private byte[] depth;
+
+        private Nodes(int capacity) {
+            bounds = new float[capacity * 6];
+            child = new int[capacity];
+            childMask = new byte[capacity];
+            start = new int[capacity];
+            size = new int[capacity];
+            depth = new byte[capacity];
+        }
+
+        private void ensureCapacity(int nodes) {
+            if (nodes <= child.length) {
+                return;
             }
+            final int capacity = Math.max(nodes, child.length * 2);
+            bounds = Arrays.copyOf(bounds, capacity * 6);
+            child = Arrays.copyOf(child, capacity);
+            childMask = Arrays.copyOf(childMask, capacity);
+            start = Arrays.copyOf(start, capacity);
+            size = Arrays.copyOf(size, capacity);
+            depth = Arrays.copyOf(depth, capacity);
+        }
+
+        /**
+         * Replace the node at index with the root of the subtree, and append the rest of the subtree
+         */
+        private void append(Nodes subtree, int index) {
+            final int offset = count - 1;
+            ensureCapacity(count + subtree.count - 1);
+            size[index] = subtree.size[0];
+            child[index] = subtree.childMask[0] != 0 ? subtree.child[0] + offset : 0;
+            childMask[index] = subtree.childMask[0];
+            System.arraycopy(subtree.bounds, 6, bounds, count * 6, (subtree.count - 1) * 6);
+            System.arraycopy(subtree.childMask, 1, childMask, count, subtree.count - 1);
+            System.arraycopy(subtree.start, 1, start, count, subtree.count - 1);
+            System.arraycopy(subtree.size, 1, size, count, subtree.count - 1);
+            System.arraycopy(subtree.depth, 1, depth, count, subtree.count - 1);
+            for (int i = 1; i < subtree.count; i++) {
+                child[offset + i] = subtree.childMask[i] != 0 ? subtree.child[i] + offset : 0;
+            }
+            count += subtree.count - 1;
         }
     }
 
-    static Octree build(Object3DData object){
-        Log.i("Octree", "Building octree for "+object.getId());
-        final Octree ret = new Octree(object.getBoundingBox());
-        if (object.getDrawOrder() == null) {
-            // vertex array contains vertex in sequence
-            final FloatBuffer buffer = object.getVertexArrayBuffer().asReadOnlyBuffer();
-            final List<float[]> triangles = new ArrayList<>(buffer.capacity() / 3 * 4);
-            final float[] modelMatrix = object.getModelMatrix();
-            for (int i = 0; i < buffer.capacity(); i += 9) {
-                float[] triangle = new float[]{buffer.get(), buffer.get(), buffer.get(), 1,
-                        buffer.get(), buffer.get(), buffer.get(), 1,
-                        buffer.get(), buffer.get(), buffer.get(), 1
-                };
-                Matrix.multiplyMV(triangle, 0, modelMatrix, 0, triangle, 0);
-                Matrix.multiplyMV(triangle, 4, modelMatrix, 0, triangle, 4);
-                Matrix.multiplyMV(triangle, 8, modelMatrix, 0, triangle, 8);
-                triangles.add(triangle);
-            }
-            ret.pending.addAll(triangles);
-        } else {
-            // faces are built
-            final IntBuffer drawOrder = object.getDrawOrder().asReadOnlyBuffer();
-            final FloatBuffer buffer = object.getVertexBuffer().asReadOnlyBuffer();
-            final List<float[]> triangles = new ArrayList<>(drawOrder.capacity() / 3 * 4);
-            final float[] modelMatrix = object.getModelMatrix();
-            for (int i = 0; i < drawOrder.capacity(); i += 3) {
-                float[] triangle = new float[]{
-                        buffer.get(drawOrder.get(i)), buffer.get(drawOrder.get(i)+1), buffer.get(drawOrder.get(i)+2), 1,
-                        buffer.get(drawOrder.get(i+1)), buffer.get(drawOrder.get(i+1)+1), buffer.get(drawOrder.get(i+1)+2), 1,
-                        buffer.get(drawOrder.get(i+2)), buffer.get(drawOrder.get(i+2)+1), buffer.get(drawOrder.get(i+2)+2), 1,
-                };
-                Matrix.multiplyMV(triangle, 0, modelMatrix, 0, triangle, 0);
-                Matrix.multiplyMV(triangle, 4, modelMatrix, 0, triangle, 4);
-                Matrix.multiplyMV(triangle, 8, modelMatrix, 0, triangle, 8);
-                triangles.add(triangle);
-            }
-            ret.pending.addAll(triangles);
-        }
-        subdivide(ret);
-        return ret;
+    /**
+     * Subdivides the node of an octant of the root, in its own node arrays
+     */
+    private static final class Subtree extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Builder builder;
+        private final int index;
+        private final Nodes nodes = new Nodes(8);
+
+        private Subtree(Builder parent, Nodes parentNodes, int index) {
+            this.builder = new Builder(parent);
+            this.index = index;
+            System.arraycopy(parentNodes.bounds, index * 6, nodes.bounds, 0, 6);
+            nodes.start[0] = parentNodes.start[index];
+            nodes.size[0] = parentNodes.size[index];
+            nodes.depth[0] = parentNodes.depth[index];
+            nodes.count = 1;
+        }
+
+        @Override
+        protected void compute() {
+            builder.subdivide(nodes);
+        }
+    }
+
+    /**
+     * Sorts the triangles by octant. Nodes built in parallel own disjoint ranges of triangles, so they share the
+     * triangle arrays, but not the counters
+     */
+    private static final class Builder {
+
+        private final float[] vertices;
+        private final int[] triangles;
+        private final int[] ids;
+        private final int maxDepth;
+        private final int leafSize;
+        private final byte[] octants;
+        private final int[] tmp;
+        private final int[] tmpIds;
+        private final int[] octantSize = new int[8];
+        private final int[] offsets = new int[8];
+        private final int[] cursor = new int[8];
+        private final float[] centerBounds = new float[6];
+
+        private Builder(float[] vertices, int[] triangles, int[] ids, int maxDepth, int leafSize) {
+            this.vertices = vertices;
+            this.triangles = triangles;
+            this.ids = ids;
+            this.maxDepth = maxDepth;
+            this.leafSize = leafSize;
+            this.octants = new byte[triangles.length / 3];
+            this.tmp = new int[triangles.length];
+            this.tmpIds = new int[ids.length];
+        }
+
+        private Builder(Builder other) {
+            this.vertices = other.vertices;
+            this.triangles = other.triangles;
+            this.ids = other.ids;
+            this.maxDepth = other.maxDepth;
+            this.leafSize = other.leafSize;
+            this.octants = other.octants;
+            this.tmp = other.tmp;
+            this.tmpIds = other.tmpIds;
+        }
+
+        private void initRoot(Nodes nodes) {
+            final float[] bounds = nodes.bounds;
+            Arrays.fill(bounds, 0, 3, Float.MAX_VALUE);
+            Arrays.fill(bounds, 3, 6, -Float.MAX_VALUE);
+            for (int i = 0; i < vertices.length; i += 3) {
+                for (int k = 0; k < 3; k++) {
+                    bounds[k] = Math.min(bounds[k], vertices[i + k]);
+                    bounds[3 + k] = Math.max(bounds[3 + k], vertices[i + k]);
+                }
+            }
+            nodes.start[0] = 0;
+            nodes.size[0] = triangles.length / 3;
+            nodes.count = 1;
+        }
+
+        /**
+         * Subdivide all the nodes, starting at the first one
+         */
+        private void subdivide(Nodes nodes) {
+            // nodes are created in breadth first order, so this is a queue
+            for (int node = 0; node < nodes.count; node++) {
+                split(nodes, node);
+            }
+        }
+
+        /**
+         * Push the triangles of the node down to its octants, creating the children
+         *
+         * @return the number of children
+         */
+        private int split(Nodes nodes, int node) {
+            final int start = nodes.start[node];
+            final int size = nodes.size[node];
+            final int depth = nodes.depth[node];
+            if (size <= leafSize || depth >= maxDepth) {
+                return 0;
+            }
+            // split at the middle of the triangle centers. centers are kept multiplied by 3
+            getCenterBounds(start, size);
+            final float midX = centerBounds[0] + centerBounds[3];
+            final float midY = centerBounds[1] + centerBounds[4];
+            final float midZ = centerBounds[2] + centerBounds[5];
+
+            // classify
+            Arrays.fill(octantSize, 0);
+            for (int t = start; t < start + size; t++) {
+                final int octant = getOctant(t, midX, midY, midZ);
+                octants[t] = (byte) octant;
+                octantSize[octant]++;
+            }
+            for (int o = 0; o < 8; o++) {
+                if (octantSize[o] == size) {
+                    // all the centers are the same
+                    return 0;
+                }
+            }
+
+            // sort by octant
+            offsets[0] = start;
+            for (int o = 1; o < 8; o++) {
+                offsets[o] = offsets[o - 1] + octantSize[o - 1];
+            }
+            System.arraycopy(offsets, 0, cursor, 0, 8);
+            for (int t = start; t < start + size; t++) {
+                final int dst = cursor[octants[t]]++;
+                tmp[dst * 3] = triangles[t * 3];
+                tmp[dst * 3 + 1] = triangles[t * 3 + 1];
+                tmp[dst * 3 + 2] = triangles[t * 3 + 2];
+                tmpIds[dst] = ids[t];
+            }
+            System.arraycopy(tmp, start * 3, triangles, start * 3, size * 3);
+            System.arraycopy(tmpIds, start, ids, start, size);
+            nodes.size[node] = 0;
+
+            // children, with their box fitted to their triangles
+            int children = 0;
+            int mask = 0;
+            for (int o = 0; o < 8; o++) {
+                if (octantSize[o] > 0) {
+                    children++;
+                    mask |= 1 << o;
+                }
+            }
+            nodes.ensureCapacity(nodes.count + children);
+            nodes.child[node] = nodes.count;
+            nodes.childMask[node] = (byte) mask;
+            for (int o = 0; o < 8; o++) {
+                if (octantSize[o] == 0) {
+                    continue;
+                }
+                final int child = nodes.count++;
+                getBounds(offsets[o], octantSize[o], nodes.bounds, child * 6);
+                nodes.start[child] = offsets[o];
+                nodes.size[child] = octantSize[o];
+                nodes.child[child] = 0;
+                nodes.childMask[child] = 0;
+                nodes.depth[child] = (byte) (depth + 1);
+            }
+            return children;
+        }
+
+        /**
+         * @return octant of the center of the triangle: bit 0 for x, 1 for y, 2 for z
+         */
+        private int getOctant(int t, float midX, float midY, float midZ) {
+            final int a = triangles[t * 3] * 3, b = triangles[t * 3 + 1] * 3, c = triangles[t * 3 + 2] * 3;
+            int ret = 0;
+            if (vertices[a] + vertices[b] + vertices[c] >= midX) ret |= 1;
+            if (vertices[a + 1] + vertices[b + 1] + vertices[c + 1] >= midY) ret |= 2;
+            if (vertices[a + 2] + vertices[b + 2] + vertices[c + 2] >= midZ) ret |= 4;
+            return ret;
+        }
+
+        /**
+         * Bounds of the centers (multiplied by 3) of a range of triangles
+         */
+        private void getCenterBounds(int start, int size) {
+            Arrays.fill(centerBounds, 0, 3, Float.MAX_VALUE);
+            Arrays.fill(centerBounds, 3, 6, -Float.MAX_VALUE);
+            for (int t = start; t < start + size; t++) {
+                final int a = triangles[t * 3] * 3, b = triangles[t * 3 + 1] * 3, c = triangles[t * 3 + 2] * 3;
+                for (int k = 0; k < 3; k++) {
+                    final float center = vertices[a + k] + vertices[b + k] + vertices[c + k];
+                    centerBounds[k] = Math.min(centerBounds[k], center);
+                    centerBounds[3 + k] = Math.max(centerBounds[3 + k], center);
+                }
+            }
+            for (int k = 0; k < 6; k++) {
+                centerBounds[k] *= 0.5f;
+            }
+        }
+
+        /**
+         * Bounds of a range of triangles
+         */
+        private void getBounds(int start, int size, float[] out, int offset) {
+            Arrays.fill(out, offset, offset + 3, Float.MAX_VALUE);
+            Arrays.fill(out, offset + 3, offset + 6, -Float.MAX_VALUE);
+            for (int t = start * 3; t < (start + size) * 3; t++) {
+                final int v = triangles[t] * 3;
+                for (int k = 0; k < 3; k++) {
+                    out[offset + k] = Math.min(out[offset + k], vertices[v + k]);
+                    out[offset + 3 + k] = Math.max(out[offset + 3 + k], vertices[v + k]);
+                }
+            }
+        }
     }
 
-    private static void subdivide(Octree octree){
-        Log.d("Octree", "Subdividing octree ("+octree.boundingBox+"): "+octree.pending.size());
-        float[] min = octree.boundingBox.getMin();
-        float[] max = octree.boundingBox.getMax();
-        float[] mid = Math3DUtils.divide(Math3DUtils.add(max,min),2);
-        BoundingBox[] octant = new BoundingBox[8];
-        float xMin,yMin,zMin,xMax,yMax,zMax;
-        xMin = min[0]; yMin = min[1]; zMin = min[2];
-        xMax = mid[0]; yMax = mid[1]; zMax = mid[2];
-        octant[0] = new BoundingBox("octree0",xMin,xMax,yMin,yMax,zMin,zMax);
-        xMin = mid[0]; yMin = min[1]; zMin = min[2];
-        xMax = max[0]; yMax = mid[1]; zMax = mid[2];
-        octant[1] = new BoundingBox("octree1",xMin,xMax,yMin,yMax,zMin,zMax);
-        xMin = min[0]; yMin = mid[1]; zMin = min[2];
-        xMax = mid[0]; yMax = max[1]; zMax = mid[2];
-        octant[2] = new BoundingBox("octree2",xMin,xMax,yMin,yMax,zMin,zMax);
-        xMin = mid[0]; yMin = mid[1]; zMin = min[2];
-        xMax = max[0]; yMax = max[1]; zMax = mid[2];
-        octant[3] = new BoundingBox("octree3",xMin,xMax,yMin,yMax,zMin,zMax);
-        xMin = min[0]; yMin = min[1]; zMin = mid[2];
-        xMax = mid[0]; yMax = mid[1]; zMax = max[2];
-        octant[4] = new BoundingBox("octree4",xMin,xMax,yMin,yMax,zMin,zMax);
-        xMin = mid[0]; yMin = min[1]; zMin = mid[2];
-        xMax = max[0]; yMax = mid[1]; zMax = max[2];
-        octant[5] = new BoundingBox("octree5",xMin,xMax,yMin,yMax,zMin,zMax);
-        xMin = min[0]; yMin = mid[1]; zMin = mid[2];
-        xMax = mid[0]; yMax = max[1]; zMax = max[2];
-        octant[6] = new BoundingBox("octree6",xMin,xMax,yMin,yMax,zMin,zMax);
-        xMin = mid[0]; yMin = mid[1]; zMin = mid[2];
-        xMax = max[0]; yMax = max[1]; zMax = max[2];
-        octant[7] = new BoundingBox("octree7",xMin,xMax,yMin,yMax,zMin,zMax);
-        boolean anyInOctant = false;
-        for (Iterator<float[]> it = octree.pending.iterator(); it.hasNext(); ) {
-            float[] triangle = it.next();
-            boolean inOctant = false;
-            for (int i = 0; i < 8; i++) {
-                int inside = octant[i].insideBounds(triangle[0], triangle[1], triangle[2]) ? 1 : 0;
-                inside += octant[i].insideBounds(triangle[4], triangle[5], triangle[6]) ? 1 : 0;
-                inside += octant[i].insideBounds(triangle[8], triangle[9], triangle[10]) ? 1 : 0;
-                if (inside == 3) {
-                    inOctant = true;
-                    octree.addChild(i, octant[i], triangle);
-                    anyInOctant = true;
+    /**
+     * Get the distance to the nearest triangle hit by the ray
+     *
+     * @param origin    ray origin
+     * @param direction ray direction
+     * @return the distance along the ray or -1 if no triangle is hit
+     */
+    public synchronized float intersect(float[] origin, float[] direction) {
+        if (nodeCount == 0) {
+            return -1;
+        }
+        final float ox = origin[0], oy = origin[1], oz = origin[2];
+        final float dx = direction[0], dy = direction[1], dz = direction[2];
+        final float ix = 1 / dx, iy = 1 / dy, iz = 1 / dz;
+        final int nearFirst = nearFirst(dx, dy, dz);
+        float nearest = Float.MAX_VALUE;
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            final int node = stack[--top];
+            if (RayKernels.intersectBox(ox, oy, oz, ix, iy, iz, nodeBounds, node * 6, nearest) == Float.MAX_VALUE) {
+                continue;
+            }
+            for (int t = nodeStart[node] * 3, end = t + nodeSize[node] * 3; t < end; t += 3) {
+                final float d = RayKernels.intersectTriangle(ox, oy, oz, dx, dy, dz, vertices,
+                        triangles[t] * 3, triangles[t + 1] * 3, triangles[t + 2] * 3);
+                if (d != RayKernels.NO_HIT && d < nearest) {
+                    nearest = d;
                 }
             }
-            if (!inOctant){
-                octree.triangles.add(triangle);
+            if (top + 8 > stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2 + 8);
+            }
+            // pushed far to near, so the near ones are popped first
+            final int mask = nodeChildMask[node] & 0xFF;
+            for (int i = 7; i >= 0; i--) {
+                final int octant = i ^ nearFirst;
+                if ((mask & (1 << octant)) != 0) {
+                    stack[top++] = getChild(node, mask, octant);
+                }
             }
-            it.remove();
         }
-        if (anyInOctant){
-            // subdivide if big enough (>=0.02)
-            if ((mid[0]+min[0])/2 > 0.01 && (mid[1]+min[1])/2 > 0.01 && (mid[2]+min[2])/2 > 0.01) {
-                octree.subdivide();
+        return nearest == Float.MAX_VALUE ? -1 : nearest;
+    }
+
+    /**
+     * Octants are visited in the order i ^ nearFirst, so the nearest ones are visited first and the nearest hit found
+     * early stops the ray before the farther nodes
+     */
+    private static int nearFirst(float dx, float dy, float dz) {
+        return (dx < 0 ? 1 : 0) | (dy < 0 ? 2 : 0) | (dz < 0 ? 4 : 0);
+    }
+
+    private int getChild(int node, int mask, int octant) {
+        return nodeChild[node] + Integer.bitCount(mask & ((1 << octant) - 1));
+    }
+
+    /**
+     * Intersect a packet of rays, testing each node once for all the rays that reach it. Rays going the same way (i.e.
+     * from neighbouring pixels) visit mostly the same nodes, so this is faster than casting them one by one.
+     *
+     * @param origins      x,y,z of each ray
+     * @param directions   x,y,z of each ray
+     * @param rays         indices of the rays in the packet
+     * @param count        number of rays in the packet
+     * @param distances    distance to the nearest hit of each ray so far, hits farther than this are ignored. It's
+     *                     updated with the nearer hits found
+     * @param hitTriangles receives the index in the model of the triangle hit, for the rays that found a nearer hit
+     * @param barycentrics receives u,v of the hit (2 per ray), for the rays that found a nearer hit
+     * @return number of rays that found a nearer hit
+     */
+    public synchronized int intersect(float[] origins, float[] directions, int[] rays, int count,
+                                      float[] distances, int[] hitTriangles, float[] barycentrics) {
+        if (nodeCount == 0 || count == 0) {
+            return 0;
+        }
+        if (nearestSlot.length < count) {
+            nearestSlot = new int[count];
+            active = new int[count * 4];
+            packetRays = new float[count * 9];
+        }
+        Arrays.fill(nearestSlot, 0, count, -1);
+        for (int p = 0; p < count; p++) {
+            active[p] = p;
+            final int r = rays[p] * 3;
+            for (int k = 0; k < 3; k++) {
+                packetRays[p * 9 + k] = origins[r + k];
+                packetRays[p * 9 + 3 + k] = directions[r + k];
+                packetRays[p * 9 + 6 + k] = 1 / directions[r + k];
+            }
+        }
+        // rays of a packet go the same way, so the first one gives the order
+        final int r0 = rays[0] * 3;
+        traverse(0, 0, count, rays, distances, nearFirst(directions[r0], directions[r0 + 1], directions[r0 + 2]));
+        int ret = 0;
+        for (int p = 0; p < count; p++) {
+            final int t = nearestSlot[p];
+            if (t == -1) {
+                continue;
+            }
+            final int ray = rays[p], r = ray * 3;
+            hitTriangles[ray] = ids[t];
+            RayKernels.barycentric(origins[r], origins[r + 1], origins[r + 2],
+                    directions[r], directions[r + 1], directions[r + 2], vertices,
+                    triangles[t * 3] * 3, triangles[t * 3 + 1] * 3, triangles[t * 3 + 2] * 3, barycentrics, ray * 2);
+            ret++;
+        }
+        return ret;
+    }
+
+    /**
+     * Test the node with the rays of the parent, listed in active[from, from + size). The rays that hit the node are
+     * listed right after, for the children
+     */
+    private void traverse(int node, int from, int size, int[] rays, float[] distances, int nearFirst) {
+        final float[] pr = packetRays;
+        final int start = from + size;
+        if (active.length < start + size) {
+            active = Arrays.copyOf(active, (start + size) * 2);
+        }
+        int hits = 0;
+        for (int i = from; i < start; i++) {
+            final int p = active[i], r = p * 9;
+            if (RayKernels.intersectBox(pr[r], pr[r + 1], pr[r + 2], pr[r + 6], pr[r + 7], pr[r + 8],
+                    nodeBounds, node * 6, distances[rays[p]]) != Float.MAX_VALUE) {
+                active[start + hits++] = p;
             }
-            else{
-                for (Octree child : octree.children) {
-                    if (child == null) continue;
-                    child.triangles.addAll(child.pending);
+        }
+        if (hits == 0) {
+            return;
+        }
+        for (int t = nodeStart[node], end = t + nodeSize[node]; t < end; t++) {
+            final int a = triangles[t * 3] * 3, b = triangles[t * 3 + 1] * 3, c = triangles[t * 3 + 2] * 3;
+            for (int i = start; i < start + hits; i++) {
+                final int p = active[i], ray = rays[p], r = p * 9;
+                final float d = RayKernels.intersectTriangle(pr[r], pr[r + 1], pr[r + 2], pr[r + 3], pr[r + 4],
+                        pr[r + 5], vertices, a, b, c);
+                if (d != RayKernels.NO_HIT && d < distances[ray]) {
+                    distances[ray] = d;
+                    nearestSlot[p] = t;
                 }
             }
         }
+        final int mask = nodeChildMask[node] & 0xFF;
+        for (int i = 0; i < 8; i++) {
+            final int octant = i ^ nearFirst;
+            if ((mask & (1 << octant)) != 0) {
+                traverse(getChild(node, mask, octant), start, hits, rays, distances, nearFirst);
+            }
+        }
     }
-}
\ No newline at end of file
+}
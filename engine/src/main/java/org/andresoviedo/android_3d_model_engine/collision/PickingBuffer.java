@@ -0,0 +1,618 @@
+package org.andresoviedo.android_3d_model_engine.collision;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+import org.andresoviedo.android_3d_model_engine.animation.CpuSkinner;
+import org.andresoviedo.android_3d_model_engine.animation.SceneSnapshot;
+import org.andresoviedo.android_3d_model_engine.model.AnimatedModel;
+import org.andresoviedo.android_3d_model_engine.model.Object3DData;
+import org.andresoviedo.util.math.Mat4;
+
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Low resolution buffer with the object drawn at each pixel, rasterized on the CPU, so picking is a lookup instead of
+ * a ray cast and also works for points and lines.
+ * <p>
+ * The buffer is meant to be updated with every {@link SceneSnapshot} (or a few times per second) by the thread that
+ * computes them, so that {@link #pick(float, float, int, int)} only reads a pixel. The objects are placed with the
+ * draw matrices of the snapshot and drawn with their draw mode, keeping the nearest one on each pixel. Animated models
+ * are skinned with the palette of the snapshot, so the pose on screen is the one picked. When the camera moves
+ * everything is drawn again. When only some objects move or change their pose, only the screen area covered by their
+ * old and new boxes is cleared and drawn again. Primitives crossing the near plane are clipped.
+ * <p>
+ * Updating and picking may be done by different threads: every update publishes a copy of the buffer for picking.
+ */
+public final class PickingBuffer {
+
+    public static final int DEFAULT_SIZE = 128;
+
+    // minimum w of a vertex to be projected
+    private static final float MIN_W = 0.0001f;
+
+    private final int width;
+    private final int height;
+    // index of the object + 1 drawn at each pixel, 0 for none
+    private final int[] ids;
+    // normalized device z at each pixel
+    private final float[] depths;
+
+    // published copy of the buffer, read by pick()
+    private final int[] pickIds;
+    private Object3DData[] pickObjects = new Object3DData[0];
+    private boolean pickValid;
+
+    private volatile boolean valid;
+    private final float[] viewProjection = new float[16];
+    private Object3DData[] objects = new Object3DData[0];
+    private int objectCount;
+    // draw matrix of each object, object i at i*16, to know when it moves
+    private float[] matrices = new float[0];
+    // geometry of each object, to know when it changes
+    private float[][] localBounds = new float[0][];
+    // skinner of the animated models, the last palette they were skinned with and the box of the skinned vertices
+    private CpuSkinner[] skinners = new CpuSkinner[0];
+    private float[][] palettes = new float[0][];
+    private boolean[] skinned = new boolean[0];
+    private float[][] skinnedBounds = new float[0][];
+    // area of the screen that may be covered by each object: min x,y & max x,y (exclusive)
+    private int[] rects = new int[0];
+
+    // temporary data
+    private final float[] newViewProjection = new float[16];
+    private final float[] mvp = new float[16];
+    private final int[] dirty = new int[4];
+    private float[][] snapshotPalettes = new float[0][];
+    // clip coordinates x, y, z, w of each vertex
+    private float[] clip = new float[0];
+    // x, y, z of each vertex in buffer coordinates. x is NaN if the vertex is behind the near plane
+    private float[] screen = new float[0];
+    // screen coordinates of a primitive clipped by the near plane
+    private final float[] polygon = new float[4 * 3];
+    private int id;
+    private Buffer drawOrder;
+    private int clipMinX, clipMinY, clipMaxX, clipMaxY;
+
+    public PickingBuffer() {
+        this(DEFAULT_SIZE, DEFAULT_SIZE);
+    }
+
+    public PickingBuffer(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.ids = new int[width * height];
+        this.depths = new float[width * height];
+        this.pickIds = new int[width * height];
+    }
+
+    /**
+     * Draw again the parts of the buffer that changed since the last update
+     *
+     * @param snapshot         the state of the scene to draw
+     * @param viewMatrix       the camera view matrix
+     * @param projectionMatrix the projection matrix
+     * @return true if anything was drawn
+     */
+    public boolean update(SceneSnapshot snapshot, float[] viewMatrix, float[] projectionMatrix) {
+        final List<Object3DData> objects = snapshot.getObjects();
+        if (snapshotPalettes.length < objects.size()) {
+            snapshotPalettes = new float[objects.size()][];
+        }
+        for (int i = 0; i < objects.size(); i++) {
+            snapshotPalettes[i] = snapshot.getPalette(i);
+        }
+        final boolean ret = update(objects, snapshot.getDrawMatrices(), snapshotPalettes, viewMatrix,
+                projectionMatrix);
+        Arrays.fill(snapshotPalettes, null);
+        return ret;
+    }
+
+    /**
+     * Draw again the parts of the buffer that changed since the last update
+     *
+     * @param objects          the scene objects
+     * @param drawMatrices     the draw matrix of each object, object i at i*16
+     * @param palettes         the skinning palette of each object, null if it's not animated
+     * @param viewMatrix       the camera view matrix
+     * @param projectionMatrix the projection matrix
+     * @return true if anything was drawn
+     */
+    public boolean update(List<Object3DData> objects, float[] drawMatrices, float[][] palettes, float[] viewMatrix,
+                          float[] projectionMatrix) {
+        final long start = System.nanoTime();
+        Mat4.multiply(newViewProjection, 0, projectionMatrix, 0, viewMatrix, 0);
+        boolean full = !valid || objects.size() != objectCount || !Arrays.equals(newViewProjection, viewProjection);
+        for (int i = 0; !full && i < objectCount; i++) {
+            full = objects.get(i) != this.objects[i];
+        }
+        int redrawn = 0;
+        if (full) {
+            // set first, so an invalidate() while drawing is not lost
+            valid = true;
+            System.arraycopy(newViewProjection, 0, viewProjection, 0, 16);
+            setObjects(objects);
+            for (int i = 0; i < objectCount; i++) {
+                snapshot(i, drawMatrices, palettes[i]);
+                computeRect(i);
+            }
+            setRect(dirty, 0, 0, 0, width, height);
+        } else {
+            setRect(dirty, 0, width, height, 0, 0);
+            for (int i = 0; i < objectCount; i++) {
+                if (snapshot(i, drawMatrices, palettes[i])) {
+                    union(dirty, rects, i * 4);
+                    computeRect(i);
+                    union(dirty, rects, i * 4);
+                    redrawn++;
+                }
+            }
+            if (redrawn == 0) {
+                return false;
+            }
+        }
+        clipMinX = Math.max(0, dirty[0]);
+        clipMinY = Math.max(0, dirty[1]);
+        clipMaxX = Math.min(width, dirty[2]);
+        clipMaxY = Math.min(height, dirty[3]);
+        for (int y = clipMinY; y < clipMaxY; y++) {
+            Arrays.fill(ids, y * width + clipMinX, y * width + clipMaxX, 0);
+            Arrays.fill(depths, y * width + clipMinX, y * width + clipMaxX, Float.MAX_VALUE);
+        }
+        int drawn = 0;
+        for (int i = 0; i < objectCount; i++) {
+            final int r = i * 4;
+            if (rects[r] < clipMaxX && rects[r + 2] > clipMinX && rects[r + 1] < clipMaxY && rects[r + 3] > clipMinY) {
+                draw(i);
+                drawn++;
+            }
+        }
+        publish();
+        Log.v("PickingBuffer", "Picking buffer updated. full: " + full + ", moved: " + redrawn + ", drawn: " + drawn
+                + ", time: " + (System.nanoTime() - start) / 1000 + " us");
+        return true;
+    }
+
+    /**
+     * Forget the buffer contents, so the next update draws everything
+     */
+    public void invalidate() {
+        valid = false;
+    }
+
+    /**
+     * Get the object drawn at the specified window coordinates by the last update
+     *
+     * @param windowX    the window x coordinate
+     * @param windowY    the window y coordinate
+     * @param viewWidth  viewport width
+     * @param viewHeight viewport height
+     * @return the object or null
+     */
+    public synchronized Object3DData pick(float windowX, float windowY, int viewWidth, int viewHeight) {
+        final int x = (int) (windowX * width / viewWidth);
+        final int y = (int) (windowY * height / viewHeight);
+        if (!pickValid || x < 0 || y < 0 || x >= width || y >= height) {
+            return null;
+        }
+        final int ret = pickIds[y * width + x];
+        return ret > 0 ? pickObjects[ret - 1] : null;
+    }
+
+    private synchronized void publish() {
+        System.arraycopy(ids, 0, pickIds, 0, ids.length);
+        if (pickObjects.length != objects.length) {
+            pickObjects = new Object3DData[objects.length];
+        }
+        System.arraycopy(objects, 0, pickObjects, 0, objects.length);
+        pickValid = true;
+    }
+
+    private void setObjects(List<Object3DData> scene) {
+        objectCount = scene.size();
+        if (objects.length < objectCount) {
+            final int capacity = Math.max(objectCount, objects.length * 2);
+            objects = Arrays.copyOf(objects, capacity);
+            matrices = Arrays.copyOf(matrices, capacity * 16);
+            localBounds = Arrays.copyOf(localBounds, capacity);
+            skinners = Arrays.copyOf(skinners, capacity);
+            palettes = Arrays.copyOf(palettes, capacity);
+            skinned = Arrays.copyOf(skinned, capacity);
+            skinnedBounds = Arrays.copyOf(skinnedBounds, capacity);
+            rects = new int[capacity * 4];
+        }
+        for (int i = 0; i < objects.length; i++) {
+            final Object3DData obj = i < objectCount ? scene.get(i) : null;
+            if (obj != objects[i]) {
+                // forget the previous object at this index
+                objects[i] = obj;
+                localBounds[i] = null;
+                skinners[i] = null;
+                palettes[i] = null;
+                skinned[i] = false;
+            }
+        }
+    }
+
+    /**
+     * Keep a copy of the geometry, pose & transform of the object
+     *
+     * @return true if they changed
+     */
+    private boolean snapshot(int i, float[] drawMatrices, float[] palette) {
+        boolean changed = false;
+        for (int k = i * 16; k < i * 16 + 16; k++) {
+            if (matrices[k] != drawMatrices[k]) {
+                matrices[k] = drawMatrices[k];
+                changed = true;
+            }
+        }
+
+        final Object3DData obj = objects[i];
+        final float[] local = obj.getLocalBounds();
+        if (local != localBounds[i]) {
+            // new geometry
+            localBounds[i] = local;
+            skinners[i] = newSkinner(obj);
+            skinned[i] = false;
+            changed = true;
+        }
+        if (palette == null || skinners[i] == null) {
+            changed |= skinned[i];
+            skinned[i] = false;
+        } else if (!skinned[i] || !Arrays.equals(palette, palettes[i])) {
+            if (palettes[i] == null || palettes[i].length != palette.length) {
+                palettes[i] = new float[palette.length];
+            }
+            System.arraycopy(palette, 0, palettes[i], 0, palette.length);
+            skinners[i].skin(palettes[i]);
+            if (skinnedBounds[i] == null) {
+                skinnedBounds[i] = new float[6];
+            }
+            computeBounds(skinners[i].getPositions(), skinners[i].getVertexCount(), skinnedBounds[i]);
+            skinned[i] = true;
+            changed = true;
+        }
+        return changed;
+    }
+
+    private static CpuSkinner newSkinner(Object3DData obj) {
+        if (!(obj instanceof AnimatedModel) || ((AnimatedModel) obj).getJointIds() == null) {
+            return null;
+        }
+        final AnimatedModel model = (AnimatedModel) obj;
+        try {
+            return model.getSkinner() != null ? new CpuSkinner(model.getSkinner()) : new CpuSkinner(model);
+        } catch (IllegalArgumentException ex) {
+            Log.w("PickingBuffer", "Picking " + model.getId() + " in its bind pose. " + ex.getMessage());
+            return null;
+        }
+    }
+
+    private static void computeBounds(FloatBuffer vertices, int vertexCount, float[] out) {
+        Arrays.fill(out, 0, 3, Float.MAX_VALUE);
+        Arrays.fill(out, 3, 6, -Float.MAX_VALUE);
+        for (int v = 0; v < vertexCount * 3; v += 3) {
+            for (int k = 0; k < 3; k++) {
+                final float value = vertices.get(v + k);
+                out[k] = Math.min(out[k], value);
+                out[k + 3] = Math.max(out[k + 3], value);
+            }
+        }
+    }
+
+    /**
+     * Project the box of the object to the buffer. If the box is partly behind the camera, the whole buffer is used
+     */
+    private void computeRect(int i) {
+        final float[] b = skinned[i] ? skinnedBounds[i] : localBounds[i];
+        final Object3DData obj = objects[i];
+        if (b == null || "Point".equals(obj.getId()) || "Line".equals(obj.getId())) {
+            // nothing to draw or not pickable
+            setRect(rects, i * 4, 0, 0, 0, 0);
+            return;
+        }
+        Mat4.multiply(mvp, 0, viewProjection, 0, matrices, i * 16);
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        for (int corner = 0; corner < 8; corner++) {
+            final float x = b[(corner & 1) * 3], y = b[1 + ((corner >> 1) & 1) * 3], z = b[2 + (corner >> 2) * 3];
+            final float w = mvp[3] * x + mvp[7] * y + mvp[11] * z + mvp[15];
+            if (w < MIN_W) {
+                setRect(rects, i * 4, 0, 0, width, height);
+                return;
+            }
+            final float sx = toScreenX(mvp[0] * x + mvp[4] * y + mvp[8] * z + mvp[12], w);
+            final float sy = toScreenY(mvp[1] * x + mvp[5] * y + mvp[9] * z + mvp[13], w);
+            minX = Math.min(minX, sx);
+            minY = Math.min(minY, sy);
+            maxX = Math.max(maxX, sx);
+            maxY = Math.max(maxY, sy);
+        }
+        setRect(rects, i * 4, (int) Math.max(0, Math.floor(minX)), (int) Math.max(0, Math.floor(minY)),
+                (int) Math.min(width, Math.ceil(maxX) + 1), (int) Math.min(height, Math.ceil(maxY) + 1));
+    }
+
+    private float toScreenX(float clipX, float w) {
+        return (clipX / w * 0.5f + 0.5f) * width;
+    }
+
+    private float toScreenY(float clipY, float w) {
+        // window coordinates grow downwards
+        return (0.5f - clipY / w * 0.5f) * height;
+    }
+
+    private static void setRect(int[] rect, int offset, int minX, int minY, int maxX, int maxY) {
+        rect[offset] = minX;
+        rect[offset + 1] = minY;
+        rect[offset + 2] = maxX;
+        rect[offset + 3] = maxY;
+    }
+
+    private void union(int[] rect, int[] other, int offset) {
+        if (other[offset] >= other[offset + 2] || other[offset + 1] >= other[offset + 3]) {
+            return;
+        }
+        rect[0] = Math.min(rect[0], other[offset]);
+        rect[1] = Math.min(rect[1], other[offset + 1]);
+        rect[2] = Math.max(rect[2], other[offset + 2]);
+        rect[3] = Math.max(rect[3], other[offset + 3]);
+    }
+
+    /**
+     * Draw the primitives of the object, inside the clip area
+     */
+    private void draw(int i) {
+        final Object3DData obj = objects[i];
+        final FloatBuffer vertexBuffer = skinned[i] ? skinners[i].getPositions()
+                : obj.getVertexArrayBuffer() != null ? obj.getVertexArrayBuffer() : obj.getVertexBuffer();
+        if (vertexBuffer == null) {
+            return;
+        }
+        Mat4.multiply(mvp, 0, viewProjection, 0, matrices, i * 16);
+        final int vertexCount = vertexBuffer.capacity() / 3;
+        if (screen.length < vertexCount * 3) {
+            screen = new float[vertexCount * 3];
+            clip = new float[vertexCount * 4];
+        }
+        for (int v = 0; v < vertexCount; v++) {
+            final float x = vertexBuffer.get(v * 3), y = vertexBuffer.get(v * 3 + 1), z = vertexBuffer.get(v * 3 + 2);
+            final float cx = mvp[0] * x + mvp[4] * y + mvp[8] * z + mvp[12];
+            final float cy = mvp[1] * x + mvp[5] * y + mvp[9] * z + mvp[13];
+            final float cz = mvp[2] * x + mvp[6] * y + mvp[10] * z + mvp[14];
+            final float w = mvp[3] * x + mvp[7] * y + mvp[11] * z + mvp[15];
+            clip[v * 4] = cx;
+            clip[v * 4 + 1] = cy;
+            clip[v * 4 + 2] = cz;
+            clip[v * 4 + 3] = w;
+            if (cz + w < 0 || w < MIN_W) {
+                screen[v * 3] = Float.NaN;
+                continue;
+            }
+            screen[v * 3] = toScreenX(cx, w);
+            screen[v * 3 + 1] = toScreenY(cy, w);
+            screen[v * 3 + 2] = cz / w;
+        }
+
+        id = i + 1;
+        drawOrder = obj.isDrawUsingArrays() ? null : obj.getDrawOrderBuffer();
+        final int count = drawOrder != null ? drawOrder.capacity() : vertexCount;
+        final List<int[]> drawModeList = obj.getDrawModeList();
+        if (drawModeList != null) {
+            for (int j = 0; j < drawModeList.size(); j++) {
+                final int[] part = drawModeList.get(j);
+                drawPrimitives(part[0], part[1], part[2]);
+            }
+        } else if (obj.getDrawSize() <= 0) {
+            drawPrimitives(obj.getDrawMode(), 0, count);
+        } else {
+            for (int first = 0; first < count; first += obj.getDrawSize()) {
+                drawPrimitives(obj.getDrawMode(), first, Math.min(obj.getDrawSize(), count - first));
+            }
+        }
+        drawOrder = null;
+    }
+
+    private int vertex(int k) {
+        if (drawOrder == null) {
+            return k;
+        }
+        if (drawOrder instanceof ShortBuffer) {
+            return ((ShortBuffer) drawOrder).get(k) & 0xFFFF;
+        }
+        return ((IntBuffer) drawOrder).get(k);
+    }
+
+    private void drawPrimitives(int mode, int first, int count) {
+        final int end = first + count;
+        switch (mode) {
+            case GLES20.GL_TRIANGLES:
+                for (int k = first; k + 2 < end; k += 3) {
+                    drawTriangle(vertex(k), vertex(k + 1), vertex(k + 2));
+                }
+                break;
+            case GLES20.GL_TRIANGLE_STRIP:
+                for (int k = first + 2; k < end; k++) {
+                    drawTriangle(vertex(k - 2), vertex(k - 1), vertex(k));
+                }
+                break;
+            case GLES20.GL_TRIANGLE_FAN:
+                for (int k = first + 2; k < end; k++) {
+                    drawTriangle(vertex(first), vertex(k - 1), vertex(k));
+                }
+                break;
+            case GLES20.GL_LINES:
+                for (int k = first; k + 1 < end; k += 2) {
+                    drawLine(vertex(k), vertex(k + 1));
+                }
+                break;
+            case GLES20.GL_LINE_STRIP:
+            case GLES20.GL_LINE_LOOP:
+                for (int k = first + 1; k < end; k++) {
+                    drawLine(vertex(k - 1), vertex(k));
+                }
+                if (mode == GLES20.GL_LINE_LOOP && count > 2) {
+                    drawLine(vertex(end - 1), vertex(first));
+                }
+                break;
+            case GLES20.GL_POINTS:
+                for (int k = first; k < end; k++) {
+                    final int v = vertex(k) * 3;
+                    if (!Float.isNaN(screen[v])) {
+                        plot(screen[v], screen[v + 1], screen[v + 2]);
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Draw the triangle, clipped by the near plane if any vertex is behind it
+     */
+    private void drawTriangle(int a, int b, int c) {
+        final int sa = a * 3, sb = b * 3, sc = c * 3;
+        if (!Float.isNaN(screen[sa]) && !Float.isNaN(screen[sb]) && !Float.isNaN(screen[sc])) {
+            fillTriangle(screen[sa], screen[sa + 1], screen[sa + 2], screen[sb], screen[sb + 1], screen[sb + 2],
+                    screen[sc], screen[sc + 1], screen[sc + 2]);
+            return;
+        }
+        // Sutherland-Hodgman with a single plane: the triangle becomes a triangle or a quad
+        int n = clipEdge(a, b, 0);
+        n = clipEdge(b, c, n);
+        n = clipEdge(c, a, n);
+        for (int k = 2; k < n; k++) {
+            final int p = (k - 1) * 3, q = k * 3;
+            fillTriangle(polygon[0], polygon[1], polygon[2], polygon[p], polygon[p + 1], polygon[p + 2],
+                    polygon[q], polygon[q + 1], polygon[q + 2]);
+        }
+    }
+
+    /**
+     * Add to the clipped polygon the start of the edge if it's in front of the near plane, and the point where the
+     * edge crosses it, if it does
+     *
+     * @return the new number of vertices of the polygon
+     */
+    private int clipEdge(int from, int to, int n) {
+        final float d0 = clip[from * 4 + 2] + clip[from * 4 + 3], d1 = clip[to * 4 + 2] + clip[to * 4 + 3];
+        if (d0 >= 0) {
+            n = project(from, to, 0, n);
+        }
+        if ((d0 >= 0) != (d1 >= 0)) {
+            n = project(from, to, d0 / (d0 - d1), n);
+        }
+        return n;
+    }
+
+    /**
+     * Write to the clipped polygon the screen coordinates of the point at t between the vertices
+     *
+     * @return the new number of vertices of the polygon
+     */
+    private int project(int a, int b, float t, int n) {
+        final int ca = a * 4, cb = b * 4;
+        final float w = clip[ca + 3] + (clip[cb + 3] - clip[ca + 3]) * t;
+        if (w < MIN_W) {
+            return n;
+        }
+        polygon[n * 3] = toScreenX(clip[ca] + (clip[cb] - clip[ca]) * t, w);
+        polygon[n * 3 + 1] = toScreenY(clip[ca + 1] + (clip[cb + 1] - clip[ca + 1]) * t, w);
+        // points on the near plane are at -1, but for rounding
+        polygon[n * 3 + 2] = Math.max(-1, (clip[ca + 2] + (clip[cb + 2] - clip[ca + 2]) * t) / w);
+        return n + 1;
+    }
+
+    /**
+     * Fill the pixels whose center is inside the triangle, with either winding
+     */
+    private void fillTriangle(float ax, float ay, float az, float bx, float by, float bz, float cx, float cy,
+                              float cz) {
+        float area = (bx - ax) * (cy - ay) - (by - ay) * (cx - ax);
+        if (area == 0) {
+            return;
+        }
+        final int minX = Math.max(clipMinX, (int) Math.ceil(Math.min(ax, Math.min(bx, cx)) - 0.5f));
+        final int maxX = Math.min(clipMaxX - 1, (int) Math.floor(Math.max(ax, Math.max(bx, cx)) - 0.5f));
+        final int minY = Math.max(clipMinY, (int) Math.ceil(Math.min(ay, Math.min(by, cy)) - 0.5f));
+        final int maxY = Math.min(clipMaxY - 1, (int) Math.floor(Math.max(ay, Math.max(by, cy)) - 0.5f));
+        if (minX > maxX || minY > maxY) {
+            return;
+        }
+        // edge functions, made positive inside
+        final float sign = area > 0 ? 1 : -1;
+        area *= sign;
+        az /= area;
+        bz /= area;
+        cz /= area;
+        final float e0x = (by - cy) * sign, e0y = (cx - bx) * sign;
+        final float e1x = (cy - ay) * sign, e1y = (ax - cx) * sign;
+        final float e2x = (ay - by) * sign, e2y = (bx - ax) * sign;
+        final float px = minX + 0.5f, py = minY + 0.5f;
+        float w0Row = e0x * (px - bx) + e0y * (py - by);
+        float w1Row = e1x * (px - cx) + e1y * (py - cy);
+        float w2Row = e2x * (px - ax) + e2y * (py - ay);
+        for (int y = minY; y <= maxY; y++) {
+            float w0 = w0Row, w1 = w1Row, w2 = w2Row;
+            for (int x = minX, p = y * width + minX; x <= maxX; x++, p++) {
+                if (w0 >= 0 && w1 >= 0 && w2 >= 0) {
+                    final float z = w0 * az + w1 * bz + w2 * cz;
+                    if (z >= -1 && z <= 1 && z < depths[p]) {
+                        depths[p] = z;
+                        ids[p] = id;
+                    }
+                }
+                w0 += e0x;
+                w1 += e1x;
+                w2 += e2x;
+            }
+            w0Row += e0y;
+            w1Row += e1y;
+            w2Row += e2y;
+        }
+    }
+
+    /**
+     * Draw the line, clipped by the near plane if an end is behind it
+     */
+    private void drawLine(int a, int b) {
+        final int sa = a * 3, sb = b * 3;
+        final boolean aInFront = !Float.isNaN(screen[sa]), bInFront = !Float.isNaN(screen[sb]);
+        if (aInFront && bInFront) {
+            drawLine(screen[sa], screen[sa + 1], screen[sa + 2], screen[sb], screen[sb + 1], screen[sb + 2]);
+            return;
+        }
+        final int from = aInFront ? a : b, to = aInFront ? b : a;
+        final float d0 = clip[from * 4 + 2] + clip[from * 4 + 3], d1 = clip[to * 4 + 2] + clip[to * 4 + 3];
+        if (d0 < 0 || d1 >= 0 || project(from, to, d0 / (d0 - d1), 0) == 0) {
+            return;
+        }
+        drawLine(screen[from * 3], screen[from * 3 + 1], screen[from * 3 + 2], polygon[0], polygon[1], polygon[2]);
+    }
+
+    private void drawLine(float ax, float ay, float az, float bx, float by, float bz) {
+        final float dx = bx - ax, dy = by - ay, dz = bz - az;
+        final int steps = (int) Math.ceil(Math.max(Math.abs(dx), Math.abs(dy)));
+        for (int s = 0; s <= steps; s++) {
+            final float t = steps == 0 ? 0 : (float) s / steps;
+            plot(ax + dx * t, ay + dy * t, az + dz * t);
+        }
+    }
+
+    private void plot(float sx, float sy, float z) {
+        final int x = (int) Math.floor(sx), y = (int) Math.floor(sy);
+        if (x < clipMinX || y < clipMinY || x >= clipMaxX || y >= clipMaxY || z < -1 || z > 1) {
+            return;
+        }
+        final int p = y * width + x;
+        if (z < depths[p]) {
+            depths[p] = z;
+            ids[p] = id;
+        }
+    }
+}
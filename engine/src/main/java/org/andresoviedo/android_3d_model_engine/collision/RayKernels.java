@@ -0,0 +1,161 @@
+package org.andresoviedo.android_3d_model_engine.collision;
+
+/**
+ * Ray intersection tests on primitive arguments or flat arrays, so they can run in tight loops without allocating.
+ * <p>
+ * Box tests take the inverse of the ray direction, to be computed once per ray. Divisions by zero give infinities,
+ * which the slab test handles.
+ */
+public final class RayKernels {
+
+    /**
+     * Distance returned by the triangle tests when the ray misses
+     */
+    public static final float NO_HIT = -1;
+
+    private static final float EPSILON = 0.0000001f;
+
+    private RayKernels() {
+    }
+
+    /**
+     * Möller–Trumbore intersection
+     *
+     * @return distance along the ray or {@link #NO_HIT}
+     */
+    public static float intersectTriangle(float ox, float oy, float oz, float dx, float dy, float dz,
+                                          float ax, float ay, float az, float bx, float by, float bz,
+                                          float cx, float cy, float cz) {
+        final float e1x = bx - ax, e1y = by - ay, e1z = bz - az;
+        final float e2x = cx - ax, e2y = cy - ay, e2z = cz - az;
+        final float hx = dy * e2z - dz * e2y, hy = dz * e2x - dx * e2z, hz = dx * e2y - dy * e2x;
+        final float a = e1x * hx + e1y * hy + e1z * hz;
+        if (a > -EPSILON && a < EPSILON) {
+            return NO_HIT;
+        }
+        final float f = 1 / a;
+        final float sx = ox - ax, sy = oy - ay, sz = oz - az;
+        final float u = f * (sx * hx + sy * hy + sz * hz);
+        if (u < 0 || u > 1) {
+            return NO_HIT;
+        }
+        final float qx = sy * e1z - sz * e1y, qy = sz * e1x - sx * e1z, qz = sx * e1y - sy * e1x;
+        final float v = f * (dx * qx + dy * qy + dz * qz);
+        if (v < 0 || u + v > 1) {
+            return NO_HIT;
+        }
+        final float t = f * (e2x * qx + e2y * qy + e2z * qz);
+        return t > EPSILON ? t : NO_HIT;
+    }
+
+    /**
+     * Möller–Trumbore intersection of a triangle of a vertex array
+     *
+     * @param vertices x,y,z of each vertex
+     * @param a        offset of the first vertex in the array
+     * @param b        offset of the second vertex
+     * @param c        offset of the third vertex
+     * @return distance along the ray or {@link #NO_HIT}
+     */
+    public static float intersectTriangle(float ox, float oy, float oz, float dx, float dy, float dz,
+                                          float[] vertices, int a, int b, int c) {
+        return intersectTriangle(ox, oy, oz, dx, dy, dz,
+                vertices[a], vertices[a + 1], vertices[a + 2],
+                vertices[b], vertices[b + 1], vertices[b + 2],
+                vertices[c], vertices[c + 1], vertices[c + 2]);
+    }
+
+    /**
+     * Barycentric coordinates of the point where the ray crosses the plane of a triangle of a vertex array, i.e. for
+     * the triangle found by {@link #intersectTriangle(float, float, float, float, float, float, float[], int, int, int)}
+     *
+     * @param out    receives u and v, the weights of the second and third vertex. The weight of the first one is
+     *               1 - u - v
+     * @param offset where to write u and v
+     */
+    public static void barycentric(float ox, float oy, float oz, float dx, float dy, float dz,
+                                   float[] vertices, int a, int b, int c, float[] out, int offset) {
+        final float e1x = vertices[b] - vertices[a], e1y = vertices[b + 1] - vertices[a + 1],
+                e1z = vertices[b + 2] - vertices[a + 2];
+        final float e2x = vertices[c] - vertices[a], e2y = vertices[c + 1] - vertices[a + 1],
+                e2z = vertices[c + 2] - vertices[a + 2];
+        final float hx = dy * e2z - dz * e2y, hy = dz * e2x - dx * e2z, hz = dx * e2y - dy * e2x;
+        final float f = 1 / (e1x * hx + e1y * hy + e1z * hz);
+        final float sx = ox - vertices[a], sy = oy - vertices[a + 1], sz = oz - vertices[a + 2];
+        final float qx = sy * e1z - sz * e1y, qy = sz * e1x - sx * e1z, qz = sx * e1y - sy * e1x;
+        out[offset] = f * (sx * hx + sy * hy + sz * hz);
+        out[offset + 1] = f * (dx * qx + dy * qy + dz * qz);
+    }
+
+    /**
+     * Test a ray against packed triangles
+     *
+     * @param triangles 9 floats per triangle: x,y,z of its 3 vertices
+     * @param offset    offset of the first triangle in the array
+     * @param count     number of triangles to test
+     * @param distances if not null, receives the distance to each triangle or {@link #NO_HIT}
+     * @return index of the nearest triangle hit, from 0 to count - 1, or -1 if none is hit
+     */
+    public static int intersectTriangles(float ox, float oy, float oz, float dx, float dy, float dz,
+                                         float[] triangles, int offset, int count, float[] distances) {
+        int ret = -1;
+        float nearest = Float.MAX_VALUE;
+        for (int i = 0, t = offset; i < count; i++, t += 9) {
+            final float d = intersectTriangle(ox, oy, oz, dx, dy, dz,
+                    triangles[t], triangles[t + 1], triangles[t + 2],
+                    triangles[t + 3], triangles[t + 4], triangles[t + 5],
+                    triangles[t + 6], triangles[t + 7], triangles[t + 8]);
+            if (distances != null) {
+                distances[i] = d;
+            }
+            if (d != NO_HIT && d < nearest) {
+                nearest = d;
+                ret = i;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Slab test of a ray against a box
+     *
+     * @param ix    1 / direction x
+     * @param iy    1 / direction y
+     * @param iz    1 / direction z
+     * @param limit boxes entered at this distance or farther are missed
+     * @return distance to the entry point (negative if the origin is inside) or {@link Float#MAX_VALUE} if missed
+     */
+    public static float intersectBox(float ox, float oy, float oz, float ix, float iy, float iz,
+                                     float minX, float minY, float minZ, float maxX, float maxY, float maxZ,
+                                     float limit) {
+        float t1 = (minX - ox) * ix, t2 = (maxX - ox) * ix;
+        float tNear = t1 < t2 ? t1 : t2;
+        float tFar = t1 < t2 ? t2 : t1;
+        t1 = (minY - oy) * iy;
+        t2 = (maxY - oy) * iy;
+        tNear = Math.max(tNear, t1 < t2 ? t1 : t2);
+        tFar = Math.min(tFar, t1 < t2 ? t2 : t1);
+        t1 = (minZ - oz) * iz;
+        t2 = (maxZ - oz) * iz;
+        tNear = Math.max(tNear, t1 < t2 ? t1 : t2);
+        tFar = Math.min(tFar, t1 < t2 ? t2 : t1);
+        if (tNear > tFar || tFar < 0 || tNear >= limit) {
+            return Float.MAX_VALUE;
+        }
+        return tNear;
+    }
+
+    /**
+     * Slab test of a ray against a box of an array
+     *
+     * @param bounds min x,y,z and max x,y,z of each box
+     * @param offset offset of the box in the array
+     * @see #intersectBox(float, float, float, float, float, float, float, float, float, float, float, float, float)
+     */
+    public static float intersectBox(float ox, float oy, float oz, float ix, float iy, float iz,
+                                     float[] bounds, int offset, float limit) {
+        return intersectBox(ox, oy, oz, ix, iy, iz,
+                bounds[offset], bounds[offset + 1], bounds[offset + 2],
+                bounds[offset + 3], bounds[offset + 4], bounds[offset + 5], limit);
+    }
+}
@@ -0,0 +1,533 @@
+package org.andresoviedo.android_3d_model_engine.collision;
+
+import android.util.Log;
+
+import org.andresoviedo.android_3d_model_engine.model.Frustum;
+import org.andresoviedo.android_3d_model_engine.model.Object3DData;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bounding volume hierarchy over the world space boxes of the scene objects, so ray picking and frustum culling don't
+ * need to test every object.
+ * <p>
+ * The tree is built with a binned surface area heuristic and stored in flat arrays. Each node covers a contiguous
+ * range of the object order, so a node fully inside the frustum accepts its whole range at once. When only the object
+ * transforms change, {@link #update(List)} refits the node boxes instead of building the tree again.
+ * <p>
+ * Objects are placed with their model matrix, as the octree does for picking, or with the matrices given to
+ * {@link #update(List, float[])}, like the draw matrices of a snapshot of the scene for culling.
+ * <p>
+ * Objects without vertices have no box: they are always visible and never picked.
+ */
+public final class SceneBvh {
+
+    private static final int BINS = 12;
+    private static final int MAX_LEAF_SIZE = 4;
+
+    // objects & their world boxes (min x,y,z max x,y,z)
+    private Object3DData[] objects = new Object3DData[0];
+    private int objectCount;
+    private float[] objectBounds = new float[0];
+    private float[] matrices = new float[0];
+    private float[][] localBounds = new float[0][];
+    private int[] unbounded = new int[0];
+    private int unboundedCount;
+
+    // nodes. children of node i are child[i] and child[i]+1. leaves have child -1
+    private int nodeCount;
+    private float[] nodeBounds = new float[0];
+    private int[] nodeChild = new int[0];
+    private int[] nodeStart = new int[0];
+    private int[] nodeSize = new int[0];
+    private int[] order = new int[0];
+
+    // temporary data
+    // matrices of the update in progress, object i at i*16, or null to use the model matrices
+    private float[] sourceMatrices;
+    private int[] stack = new int[64];
+    private final int[] binCount = new int[BINS];
+    private final float[] binBounds = new float[BINS * 6];
+    private final float[] rightArea = new float[BINS];
+    private final float[] sweepBounds = new float[6];
+
+    /**
+     * Synchronize the tree with the scene. The tree is built again if objects were added or removed, otherwise only
+     * the boxes of the moved objects are updated and the nodes refitted.
+     *
+     * @param objects the scene objects, placed with their model matrix
+     */
+    public void update(List<Object3DData> objects) {
+        update(objects, null);
+    }
+
+    /**
+     * Synchronize the tree with the scene, placing the objects with the specified matrices
+     *
+     * @param objects  the scene objects
+     * @param matrices the matrix of each object, object i at i*16, or null to use the model matrices
+     * @see #update(List)
+     */
+    public void update(List<Object3DData> objects, float[] matrices) {
+        sourceMatrices = matrices;
+        try {
+            updateTree(objects);
+        } finally {
+            sourceMatrices = null;
+        }
+    }
+
+    private void updateTree(List<Object3DData> objects) {
+        boolean rebuild = objects.size() != objectCount;
+        for (int i = 0; !rebuild && i < objectCount; i++) {
+            // objects with no box are out of the tree, so gaining or losing the box requires a new tree
+            rebuild = objects.get(i) != this.objects[i]
+                    || (objects.get(i).getLocalBounds() == null) != (localBounds[i] == null);
+        }
+        if (rebuild) {
+            build(objects);
+            return;
+        }
+        boolean moved = false;
+        for (int i = 0; i < objectCount; i++) {
+            moved |= updateBounds(i, false);
+        }
+        if (moved) {
+            refit();
+        }
+    }
+
+    public int size() {
+        return objectCount;
+    }
+
+    /**
+     * Get the nearest object whose box is hit by the ray. The ray origin must be outside the box
+     *
+     * @param origin    ray origin
+     * @param direction ray direction
+     * @return the nearest object or null
+     */
+    public Object3DData rayIntersection(float[] origin, float[] direction) {
+        if (nodeCount == 0) {
+            return null;
+        }
+        final float ox = origin[0], oy = origin[1], oz = origin[2];
+        final float ix = 1 / direction[0], iy = 1 / direction[1], iz = 1 / direction[2];
+        float nearest = Float.MAX_VALUE;
+        int ret = -1;
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            final int node = stack[--top];
+            final float tNear = RayKernels.intersectBox(ox, oy, oz, ix, iy, iz, nodeBounds, node * 6, nearest);
+            if (tNear == Float.MAX_VALUE) {
+                continue;
+            }
+            final int child = nodeChild[node];
+            if (child >= 0) {
+                if (top + 2 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                stack[top++] = child + 1;
+                stack[top++] = child;
+                continue;
+            }
+            for (int i = nodeStart[node], end = i + nodeSize[node]; i < end; i++) {
+                final int obj = order[i];
+                if ("Point".equals(objects[obj].getId()) || "Line".equals(objects[obj].getId())) {
+                    continue;
+                }
+                final float t = RayKernels.intersectBox(ox, oy, oz, ix, iy, iz, objectBounds, obj * 6, nearest);
+                if (t > 0 && t < nearest) {
+                    nearest = t;
+                    ret = obj;
+                }
+            }
+        }
+        if (ret == -1) {
+            return null;
+        }
+        Log.i("SceneBvh", "Collision detected '" + objects[ret].getId() + "' distance: " + nearest);
+        return objects[ret];
+    }
+
+    /**
+     * Get the objects whose box is hit by any ray of a packet, so the packet can then be tested against their
+     * triangles
+     *
+     * @param origins    x,y,z of each ray
+     * @param directions x,y,z of each ray
+     * @param rays       indices of the rays in the packet
+     * @param count      number of rays in the packet
+     * @param out        receives the objects. Must be as big as the scene
+     * @return number of objects hit
+     */
+    public int rayIntersections(float[] origins, float[] directions, int[] rays, int count, Object3DData[] out) {
+        if (nodeCount == 0) {
+            return 0;
+        }
+        int ret = 0;
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            final int node = stack[--top];
+            if (!anyRayHits(nodeBounds, node * 6, origins, directions, rays, count)) {
+                continue;
+            }
+            final int child = nodeChild[node];
+            if (child >= 0) {
+                if (top + 2 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                stack[top++] = child + 1;
+                stack[top++] = child;
+                continue;
+            }
+            for (int i = nodeStart[node], end = i + nodeSize[node]; i < end; i++) {
+                final int obj = order[i];
+                if ("Point".equals(objects[obj].getId()) || "Line".equals(objects[obj].getId())) {
+                    continue;
+                }
+                if (anyRayHits(objectBounds, obj * 6, origins, directions, rays, count)) {
+                    out[ret++] = objects[obj];
+                }
+            }
+        }
+        return ret;
+    }
+
+    private static boolean anyRayHits(float[] bounds, int offset, float[] origins, float[] directions, int[] rays,
+                                      int count) {
+        for (int i = 0; i < count; i++) {
+            final int r = rays[i] * 3;
+            if (RayKernels.intersectBox(origins[r], origins[r + 1], origins[r + 2],
+                    1 / directions[r], 1 / directions[r + 1], 1 / directions[r + 2],
+                    bounds, offset, Float.MAX_VALUE) != Float.MAX_VALUE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Flag the objects whose box is inside or intersects the frustum
+     *
+     * @param frustum the view frustum
+     * @param visible flag for each object, in scene order. Must be as big as the scene
+     * @return number of visible objects
+     */
+    public int frustumIntersection(Frustum frustum, boolean[] visible) {
+        Arrays.fill(visible, 0, objectCount, false);
+        int ret = 0;
+        for (int i = 0; i < unboundedCount; i++) {
+            visible[unbounded[i]] = true;
+            ret++;
+        }
+        if (nodeCount == 0) {
+            return ret;
+        }
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            final int node = stack[--top];
+            final int result = classify(frustum, nodeBounds, node * 6);
+            if (result == Frustum.OUTSIDE) {
+                continue;
+            }
+            final int child = nodeChild[node];
+            if (result == Frustum.INSIDE || child < 0) {
+                for (int i = nodeStart[node], end = i + nodeSize[node]; i < end; i++) {
+                    if (result == Frustum.INSIDE || classify(frustum, objectBounds, order[i] * 6) != Frustum.OUTSIDE) {
+                        visible[order[i]] = true;
+                        ret++;
+                    }
+                }
+                continue;
+            }
+            if (top + 2 > stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+            }
+            stack[top++] = child;
+            stack[top++] = child + 1;
+        }
+        return ret;
+    }
+
+    private void build(List<Object3DData> scene) {
+        final int n = scene.size();
+        if (objects.length < n) {
+            objects = new Object3DData[n];
+            objectBounds = new float[n * 6];
+            matrices = new float[n * 16];
+            localBounds = new float[n][];
+            unbounded = new int[n];
+            order = new int[n];
+            nodeBounds = new float[n * 2 * 6];
+            nodeChild = new int[n * 2];
+            nodeStart = new int[n * 2];
+            nodeSize = new int[n * 2];
+        }
+        Arrays.fill(objects, null);
+        Arrays.fill(localBounds, null);
+        objectCount = n;
+        unboundedCount = 0;
+        int bounded = 0;
+        for (int i = 0; i < n; i++) {
+            objects[i] = scene.get(i);
+            updateBounds(i, true);
+            if (localBounds[i] == null) {
+                unbounded[unboundedCount++] = i;
+            } else {
+                order[bounded++] = i;
+            }
+        }
+
+        nodeCount = 0;
+        if (bounded == 0) {
+            return;
+        }
+        // each entry: node, start, size
+        int top = 0;
+        final int root = nodeCount++;
+        stack = ensure(stack, 3);
+        stack[top++] = root;
+        stack[top++] = 0;
+        stack[top++] = bounded;
+        while (top > 0) {
+            final int size = stack[--top];
+            final int start = stack[--top];
+            final int node = stack[--top];
+            nodeStart[node] = start;
+            nodeSize[node] = size;
+            nodeChild[node] = -1;
+            unionObjects(start, size, nodeBounds, node * 6);
+            if (size <= 1) {
+                continue;
+            }
+            final int mid = split(start, size, node);
+            if (mid == start) {
+                // keep as leaf
+                continue;
+            }
+            final int left = nodeCount;
+            nodeCount += 2;
+            nodeChild[node] = left;
+            stack = ensure(stack, top + 6);
+            stack[top++] = left;
+            stack[top++] = start;
+            stack[top++] = mid - start;
+            stack[top++] = left + 1;
+            stack[top++] = mid;
+            stack[top++] = start + size - mid;
+        }
+        Log.d("SceneBvh", "Built BVH. Objects: " + n + ", nodes: " + nodeCount);
+    }
+
+    /**
+     * Partition the range with the best binned SAH split
+     *
+     * @return the start of the right half or <code>start</code> to keep the node as a leaf
+     */
+    private int split(int start, int size, int node) {
+        // centroid bounds
+        float cMinX = Float.MAX_VALUE, cMinY = Float.MAX_VALUE, cMinZ = Float.MAX_VALUE;
+        float cMaxX = -Float.MAX_VALUE, cMaxY = -Float.MAX_VALUE, cMaxZ = -Float.MAX_VALUE;
+        for (int i = start; i < start + size; i++) {
+            final int o = order[i] * 6;
+            final float x = objectBounds[o] + objectBounds[o + 3];
+            final float y = objectBounds[o + 1] + objectBounds[o + 4];
+            final float z = objectBounds[o + 2] + objectBounds[o + 5];
+            cMinX = Math.min(cMinX, x);
+            cMaxX = Math.max(cMaxX, x);
+            cMinY = Math.min(cMinY, y);
+            cMaxY = Math.max(cMaxY, y);
+            cMinZ = Math.min(cMinZ, z);
+            cMaxZ = Math.max(cMaxZ, z);
+        }
+        final float ex = cMaxX - cMinX, ey = cMaxY - cMinY, ez = cMaxZ - cMinZ;
+        final int axis = ex >= ey && ex >= ez ? 0 : ey >= ez ? 1 : 2;
+        final float cMin = axis == 0 ? cMinX : axis == 1 ? cMinY : cMinZ;
+        final float extent = axis == 0 ? ex : axis == 1 ? ey : ez;
+        if (!(extent > 0)) {
+            // same centroid for all the objects
+            return size <= MAX_LEAF_SIZE ? start : medianSplit(start, size);
+        }
+
+        // fill bins
+        final float scale = BINS / extent;
+        Arrays.fill(binCount, 0);
+        for (int b = 0; b < BINS; b++) {
+            resetBounds(binBounds, b * 6);
+        }
+        for (int i = start; i < start + size; i++) {
+            final int b = bin(order[i], axis, cMin, scale);
+            binCount[b]++;
+            union(binBounds, b * 6, objectBounds, order[i] * 6);
+        }
+
+        // sweep from the right, then from the left evaluating the cost of each plane
+        final float[] box = sweepBounds;
+        resetBounds(box, 0);
+        for (int b = BINS - 1; b > 0; b--) {
+            union(box, 0, binBounds, b * 6);
+            rightArea[b] = area(box, 0);
+        }
+        resetBounds(box, 0);
+        float bestCost = Float.MAX_VALUE;
+        int bestPlane = -1;
+        int leftCount = 0;
+        for (int b = 0; b < BINS - 1; b++) {
+            union(box, 0, binBounds, b * 6);
+            leftCount += binCount[b];
+            final int rightCount = size - leftCount;
+            if (leftCount == 0 || rightCount == 0) {
+                continue;
+            }
+            final float cost = area(box, 0) * leftCount + rightArea[b + 1] * rightCount;
+            if (cost < bestCost) {
+                bestCost = cost;
+                bestPlane = b;
+            }
+        }
+        final float leafCost = area(nodeBounds, node * 6) * size;
+        if (bestPlane == -1 || (bestCost >= leafCost && size <= MAX_LEAF_SIZE)) {
+            return bestPlane == -1 && size > MAX_LEAF_SIZE ? medianSplit(start, size) : start;
+        }
+
+        // partition
+        int i = start, j = start + size - 1;
+        while (i <= j) {
+            if (bin(order[i], axis, cMin, scale) <= bestPlane) {
+                i++;
+            } else {
+                final int tmp = order[i];
+                order[i] = order[j];
+                order[j--] = tmp;
+            }
+        }
+        return i;
+    }
+
+    private int medianSplit(int start, int size) {
+        // objects are indistinguishable, any half is as good as the other
+        return start + size / 2;
+    }
+
+    private int bin(int obj, int axis, float cMin, float scale) {
+        final int o = obj * 6 + axis;
+        final int b = (int) ((objectBounds[o] + objectBounds[o + 3] - cMin) * scale);
+        return b < 0 ? 0 : b >= BINS ? BINS - 1 : b;
+    }
+
+    /**
+     * Recalculate the world box of an object if its transform or vertices changed
+     *
+     * @param force calculate the box even if nothing changed
+     * @return true if the box changed
+     */
+    private boolean updateBounds(int i, boolean force) {
+        final Object3DData obj = objects[i];
+        final float[] local = obj.getLocalBounds();
+        final int offset = i * 16;
+        boolean changed = force || local != localBounds[i];
+        final float[] m = sourceMatrices != null ? sourceMatrices : obj.getModelMatrix();
+        final int mOffset = sourceMatrices != null ? offset : 0;
+        for (int k = 0; k < 16 && !changed; k++) {
+            changed = m[mOffset + k] != matrices[offset + k];
+        }
+        if (!changed) {
+            return false;
+        }
+        System.arraycopy(m, mOffset, matrices, offset, 16);
+        localBounds[i] = local;
+        if (local == null) {
+            resetBounds(objectBounds, i * 6);
+            return true;
+        }
+        transform(local, matrices, offset, objectBounds, i * 6);
+        return true;
+    }
+
+    private void refit() {
+        // children are always after their parent
+        for (int node = nodeCount - 1; node >= 0; node--) {
+            final int child = nodeChild[node];
+            if (child < 0) {
+                unionObjects(nodeStart[node], nodeSize[node], nodeBounds, node * 6);
+            } else {
+                resetBounds(nodeBounds, node * 6);
+                union(nodeBounds, node * 6, nodeBounds, child * 6);
+                union(nodeBounds, node * 6, nodeBounds, (child + 1) * 6);
+            }
+        }
+    }
+
+    private void unionObjects(int start, int size, float[] out, int offset) {
+        resetBounds(out, offset);
+        for (int i = start; i < start + size; i++) {
+            union(out, offset, objectBounds, order[i] * 6);
+        }
+    }
+
+    /**
+     * Transform a box, getting the world box that encloses it
+     */
+    static void transform(float[] local, float[] m, float[] out, int offset) {
+        transform(local, m, 0, out, offset);
+    }
+
+    /**
+     * @param mo offset of the matrix in m
+     */
+    static void transform(float[] local, float[] m, int mo, float[] out, int offset) {
+        final float cx = (local[0] + local[3]) * 0.5f;
+        final float cy = (local[1] + local[4]) * 0.5f;
+        final float cz = (local[2] + local[5]) * 0.5f;
+        final float ex = (local[3] - local[0]) * 0.5f;
+        final float ey = (local[4] - local[1]) * 0.5f;
+        final float ez = (local[5] - local[2]) * 0.5f;
+        final float wcx = m[mo] * cx + m[mo + 4] * cy + m[mo + 8] * cz + m[mo + 12];
+        final float wcy = m[mo + 1] * cx + m[mo + 5] * cy + m[mo + 9] * cz + m[mo + 13];
+        final float wcz = m[mo + 2] * cx + m[mo + 6] * cy + m[mo + 10] * cz + m[mo + 14];
+        final float wex = Math.abs(m[mo]) * ex + Math.abs(m[mo + 4]) * ey + Math.abs(m[mo + 8]) * ez;
+        final float wey = Math.abs(m[mo + 1]) * ex + Math.abs(m[mo + 5]) * ey + Math.abs(m[mo + 9]) * ez;
+        final float wez = Math.abs(m[mo + 2]) * ex + Math.abs(m[mo + 6]) * ey + Math.abs(m[mo + 10]) * ez;
+        out[offset] = wcx - wex;
+        out[offset + 1] = wcy - wey;
+        out[offset + 2] = wcz - wez;
+        out[offset + 3] = wcx + wex;
+        out[offset + 4] = wcy + wey;
+        out[offset + 5] = wcz + wez;
+    }
+
+    private static int classify(Frustum frustum, float[] b, int o) {
+        return frustum.classify((b[o] + b[o + 3]) * 0.5f, (b[o + 1] + b[o + 4]) * 0.5f, (b[o + 2] + b[o + 5]) * 0.5f,
+                (b[o + 3] - b[o]) * 0.5f, (b[o + 4] - b[o + 1]) * 0.5f, (b[o + 5] - b[o + 2]) * 0.5f);
+    }
+
+    private static void resetBounds(float[] b, int o) {
+        b[o] = b[o + 1] = b[o + 2] = Float.MAX_VALUE;
+        b[o + 3] = b[o + 4] = b[o + 5] = -Float.MAX_VALUE;
+    }
+
+    private static void union(float[] b, int o, float[] other, int p) {
+        for (int k = 0; k < 3; k++) {
+            b[o + k] = Math.min(b[o + k], other[p + k]);
+            b[o + 3 + k] = Math.max(b[o + 3 + k], other[p + 3 + k]);
+        }
+    }
+
+    private static float area(float[] b, int o) {
+        final float x = b[o + 3] - b[o], y = b[o + 4] - b[o + 1], z = b[o + 5] - b[o + 2];
+        if (!(x >= 0)) {
+            return 0;
+        }
+        return x * y + y * z + z * x;
+    }
+
+    private static int[] ensure(int[] array, int size) {
+        return array.length >= size ? array : Arrays.copyOf(array, Math.max(size, array.length * 2));
+    }
+}
@@ -0,0 +1,408 @@
+package org.andresoviedo.android_3d_model_engine.collision;
+
+import org.andresoviedo.android_3d_model_engine.animation.CpuSkinner;
+import org.andresoviedo.android_3d_model_engine.model.AnimatedModel;
+import org.andresoviedo.util.math.Mat4;
+
+import java.nio.Buffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * Finds the triangle of an {@link AnimatedModel} hit by a ray in its current pose, where an {@link Octree} would
+ * find the bind pose.
+ * <p>
+ * Every triangle is assigned to the bone that moves it the most, and each bone keeps the box of the vertices it
+ * moves, in bind space. {@link #refit(float[])} moves those boxes with the palette, and the box of the triangles of a
+ * bone is the union of the boxes of all the bones that move them, which always contains the skinned triangles. That's
+ * a few operations per bone, regardless of the size of the mesh. A ray then only skins and tests the triangles of the
+ * bones whose box it hits, nearest first.
+ * <p>
+ * Refitting and intersecting are synchronized, since the palette is usually refitted by the renderer and the rays
+ * cast from the UI thread.
+ */
+public final class SkinnedPicker {
+
+    private final AnimatedModel model;
+    private final CpuSkinner skinner;
+    private final int boneCount;
+
+    // bind space box of the vertices moved by each bone: center x,y,z and half size x,y,z. Empty if size is negative
+    private final float[] bindBoxes;
+    // bones moving the triangles of bone b: groupBones[groupBoneStart[b]] to groupBones[groupBoneStart[b + 1]]
+    private final int[] groupBoneStart;
+    private final int[] groupBones;
+    // vertices of the triangles of each bone, likewise
+    private final int[] groupVertexStart;
+    private final int[] groupVertices;
+    // triangles of each bone, as offsets of their vertices in the skinned vertices of the bone
+    private final int[] groupTriangleStart;
+    private final int[] groupTriangles;
+    // index in the model of each triangle
+    private final int[] triangleIds;
+
+    // palette of the last refit, and the boxes it moved: min x,y,z max x,y,z
+    private final float[] palette;
+    private final float[] boneBounds;
+    private final float[] groupBounds;
+    private final float[] bounds = new float[6];
+
+    // temporary data
+    private final float[] skinned;
+    private final float[] inverse = new float[16];
+    private final float[] ray = new float[6];
+    private final int[] candidates;
+    private final float[] candidateDistances;
+    private final float[] barycentric = new float[2];
+    private final int[] hit = new int[1];
+    private int skinnedCount;
+
+    /**
+     * Groups the triangles of the model by bone
+     *
+     * @param model animated model with joints and weights
+     * @throws IllegalArgumentException if the model can't be skinned
+     */
+    public SkinnedPicker(AnimatedModel model) {
+        this.model = model;
+        this.skinner = model.getSkinner() != null ? new CpuSkinner(model.getSkinner()) : new CpuSkinner(model);
+        this.boneCount = model.getBoneCount();
+        final int vertexCount = skinner.getVertexCount();
+        final int influences = skinner.getInfluenceCount();
+        final float[] positions = new float[vertexCount * 3];
+        final float[] weights = new float[vertexCount * influences];
+        final int[] joints = new int[weights.length];
+        for (int i = 0; i < vertexCount * 3; i++) {
+            positions[i] = model.getVertexArrayBuffer() != null ? model.getVertexArrayBuffer().get(i)
+                    : model.getVertexBuffer().get(i);
+        }
+        for (int i = 0; i < weights.length; i++) {
+            joints[i] = (int) model.getJointIds().get(i);
+            weights[i] = joints[i] >= 0 && joints[i] < boneCount ? model.getVertexWeights().get(i) : 0;
+        }
+        final int[] triangles = readTriangles(model.getDrawOrderBuffer(), vertexCount);
+
+        // bind boxes
+        final float[] min = new float[boneCount * 3];
+        final float[] max = new float[boneCount * 3];
+        Arrays.fill(min, Float.MAX_VALUE);
+        Arrays.fill(max, -Float.MAX_VALUE);
+        for (int v = 0; v < vertexCount; v++) {
+            for (int i = v * influences; i < (v + 1) * influences; i++) {
+                if (weights[i] == 0) {
+                    continue;
+                }
+                for (int k = 0; k < 3; k++) {
+                    min[joints[i] * 3 + k] = Math.min(min[joints[i] * 3 + k], positions[v * 3 + k]);
+                    max[joints[i] * 3 + k] = Math.max(max[joints[i] * 3 + k], positions[v * 3 + k]);
+                }
+            }
+        }
+        this.bindBoxes = new float[boneCount * 6];
+        for (int b = 0; b < boneCount; b++) {
+            for (int k = 0; k < 3; k++) {
+                bindBoxes[b * 6 + k] = (min[b * 3 + k] + max[b * 3 + k]) / 2;
+                bindBoxes[b * 6 + 3 + k] = min[b * 3 + k] <= max[b * 3 + k] ? (max[b * 3 + k] - min[b * 3 + k]) / 2
+                        : -1;
+            }
+        }
+
+        // bone of each triangle: the one with the highest weight on its vertices. Triangles with no weights are
+        // collapsed to the origin when drawn, so they can't be hit
+        final int triangleCount = triangles.length / 3;
+        final int[] owners = new int[triangleCount];
+        final float[] sums = new float[boneCount];
+        final int[] triangleCounts = new int[boneCount + 1];
+        for (int t = 0; t < triangleCount; t++) {
+            int owner = -1;
+            for (int c = 0; c < 3; c++) {
+                final int v = triangles[t * 3 + c];
+                for (int i = v * influences; i < (v + 1) * influences; i++) {
+                    if (weights[i] > 0) {
+                        sums[joints[i]] += weights[i];
+                        if (owner < 0 || sums[joints[i]] > sums[owner]) {
+                            owner = joints[i];
+                        }
+                    }
+                }
+            }
+            for (int c = 0; c < 3; c++) {
+                final int v = triangles[t * 3 + c];
+                for (int i = v * influences; i < (v + 1) * influences; i++) {
+                    if (weights[i] > 0) {
+                        sums[joints[i]] = 0;
+                    }
+                }
+            }
+            owners[t] = owner;
+            if (owner >= 0) {
+                triangleCounts[owner + 1]++;
+            }
+        }
+
+        // triangles sorted by bone
+        this.groupTriangleStart = new int[boneCount + 1];
+        for (int b = 0; b < boneCount; b++) {
+            groupTriangleStart[b + 1] = groupTriangleStart[b] + triangleCounts[b + 1];
+        }
+        this.triangleIds = new int[groupTriangleStart[boneCount]];
+        final int[] next = Arrays.copyOf(groupTriangleStart, boneCount);
+        for (int t = 0; t < triangleCount; t++) {
+            if (owners[t] >= 0) {
+                triangleIds[next[owners[t]]++] = t;
+            }
+        }
+
+        // vertices and bones of the triangles of each bone
+        this.groupTriangles = new int[triangleIds.length * 3];
+        this.groupVertexStart = new int[boneCount + 1];
+        this.groupBoneStart = new int[boneCount + 1];
+        int[] vertices = new int[triangleIds.length * 3];
+        int[] bones = new int[boneCount * 4];
+        final int[] local = new int[vertexCount];
+        final boolean[] moves = new boolean[boneCount];
+        int vertexTotal = 0, boneTotal = 0, maxGroupVertices = 0;
+        Arrays.fill(local, -1);
+        for (int b = 0; b < boneCount; b++) {
+            final int first = vertexTotal;
+            for (int i = groupTriangleStart[b]; i < groupTriangleStart[b + 1]; i++) {
+                for (int c = 0; c < 3; c++) {
+                    final int v = triangles[triangleIds[i] * 3 + c];
+                    if (local[v] < 0) {
+                        local[v] = vertexTotal - first;
+                        vertices[vertexTotal++] = v;
+                        for (int j = v * influences; j < (v + 1) * influences; j++) {
+                            if (weights[j] > 0 && !moves[joints[j]]) {
+                                moves[joints[j]] = true;
+                                if (boneTotal == bones.length) {
+                                    bones = Arrays.copyOf(bones, bones.length * 2);
+                                }
+                                bones[boneTotal++] = joints[j];
+                            }
+                        }
+                    }
+                    groupTriangles[i * 3 + c] = local[v] * 3;
+                }
+            }
+            for (int i = first; i < vertexTotal; i++) {
+                local[vertices[i]] = -1;
+            }
+            for (int i = groupBoneStart[b]; i < boneTotal; i++) {
+                moves[bones[i]] = false;
+            }
+            groupVertexStart[b + 1] = vertexTotal;
+            groupBoneStart[b + 1] = boneTotal;
+            maxGroupVertices = Math.max(maxGroupVertices, vertexTotal - first);
+        }
+        this.groupVertices = Arrays.copyOf(vertices, vertexTotal);
+        this.groupBones = Arrays.copyOf(bones, boneTotal);
+
+        this.palette = new float[boneCount * 16];
+        this.boneBounds = new float[boneCount * 6];
+        this.groupBounds = new float[boneCount * 6];
+        this.skinned = new float[maxGroupVertices * 3];
+        this.candidates = new int[boneCount];
+        this.candidateDistances = new float[boneCount];
+        refit(model.getJointPalette());
+    }
+
+    private static int[] readTriangles(Buffer drawOrder, int vertexCount) {
+        final int[] ret;
+        if (drawOrder == null) {
+            ret = new int[vertexCount / 3 * 3];
+            for (int i = 0; i < ret.length; i++) {
+                ret[i] = i;
+            }
+            return ret;
+        }
+        ret = new int[drawOrder.capacity() / 3 * 3];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = drawOrder instanceof ShortBuffer ? ((ShortBuffer) drawOrder).get(i) & 0xFFFF
+                    : ((IntBuffer) drawOrder).get(i);
+            if (ret[i] >= vertexCount) {
+                throw new IllegalArgumentException("Vertex " + ret[i] + " out of " + vertexCount);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Moves the boxes to the pose of the palette, which is copied to skin the triangles hit afterwards. It takes a few
+     * operations per bone, so it can be called every frame
+     *
+     * @param palette skinning matrices, bone i at i*16
+     */
+    public synchronized void refit(float[] palette) {
+        System.arraycopy(palette, 0, this.palette, 0, Math.min(palette.length, this.palette.length));
+        final float[] m = this.palette;
+        for (int b = 0; b < boneCount; b++) {
+            final int box = b * 6, o = b * 16;
+            final float cx = bindBoxes[box], cy = bindBoxes[box + 1], cz = bindBoxes[box + 2];
+            final float ex = bindBoxes[box + 3], ey = bindBoxes[box + 4], ez = bindBoxes[box + 5];
+            if (ex < 0) {
+                continue;
+            }
+            // the center is moved, and the half sizes are projected on the moved axes
+            for (int k = 0; k < 3; k++) {
+                final float center = m[o + k] * cx + m[o + 4 + k] * cy + m[o + 8 + k] * cz + m[o + 12 + k];
+                final float extent = Math.abs(m[o + k]) * ex + Math.abs(m[o + 4 + k]) * ey
+                        + Math.abs(m[o + 8 + k]) * ez;
+                boneBounds[box + k] = center - extent;
+                boneBounds[box + 3 + k] = center + extent;
+            }
+        }
+
+        Arrays.fill(bounds, 0, 3, Float.MAX_VALUE);
+        Arrays.fill(bounds, 3, 6, -Float.MAX_VALUE);
+        for (int b = 0; b < boneCount; b++) {
+            final int box = b * 6;
+            Arrays.fill(groupBounds, box, box + 3, Float.MAX_VALUE);
+            Arrays.fill(groupBounds, box + 3, box + 6, -Float.MAX_VALUE);
+            for (int i = groupBoneStart[b]; i < groupBoneStart[b + 1]; i++) {
+                final int other = groupBones[i] * 6;
+                for (int k = 0; k < 3; k++) {
+                    groupBounds[box + k] = Math.min(groupBounds[box + k], boneBounds[other + k]);
+                    groupBounds[box + 3 + k] = Math.max(groupBounds[box + 3 + k], boneBounds[other + 3 + k]);
+                }
+            }
+            if (groupBoneStart[b] < groupBoneStart[b + 1]) {
+                for (int k = 0; k < 3; k++) {
+                    bounds[k] = Math.min(bounds[k], groupBounds[box + k]);
+                    bounds[3 + k] = Math.max(bounds[3 + k], groupBounds[box + 3 + k]);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return box of the skinned mesh as of the last {@link #refit(float[])}, in model space: min x,y,z max x,y,z.
+     * Not to be modified
+     */
+    public float[] getBounds() {
+        return bounds;
+    }
+
+    /**
+     * @return vertices skinned by the last intersection, to measure how much of the mesh it had to test
+     */
+    public int getSkinnedVertexCount() {
+        return skinnedCount;
+    }
+
+    /**
+     * Get the distance to the nearest triangle hit by the ray, in the pose of the last {@link #refit(float[])}
+     *
+     * @param origin    ray origin, in world space
+     * @param direction ray direction, in world space
+     * @return the distance along the ray or -1 if no triangle is hit
+     */
+    public synchronized float intersect(float[] origin, float[] direction) {
+        skinnedCount = 0;
+        if (!toModelSpace(model.getModelMatrix())) {
+            return -1;
+        }
+        transformRay(origin, 0, direction, 0);
+        return intersect(Float.MAX_VALUE, null);
+    }
+
+    /**
+     * Intersect several rays, like {@link Octree#intersect(float[], float[], int[], int, float[], int[], float[])}
+     *
+     * @return number of rays that found a nearer hit
+     */
+    public synchronized int intersect(float[] origins, float[] directions, int[] rays, int count,
+                                      float[] distances, int[] hitTriangles, float[] barycentrics) {
+        skinnedCount = 0;
+        if (!toModelSpace(model.getModelMatrix())) {
+            return 0;
+        }
+        int ret = 0;
+        for (int p = 0; p < count; p++) {
+            final int r = rays[p];
+            transformRay(origins, r * 3, directions, r * 3);
+            final float distance = intersect(distances[r], hit);
+            if (distance >= 0 && distance < distances[r]) {
+                distances[r] = distance;
+                hitTriangles[r] = hit[0];
+                barycentrics[r * 2] = barycentric[0];
+                barycentrics[r * 2 + 1] = barycentric[1];
+                ret++;
+            }
+        }
+        return ret;
+    }
+
+    private boolean toModelSpace(float[] modelMatrix) {
+        return Mat4.invertAffine(inverse, 0, modelMatrix, 0);
+    }
+
+    /**
+     * Moves the ray to model space. The distances along it don't change, since the model matrix is affine
+     */
+    private void transformRay(float[] origin, int originOffset, float[] direction, int directionOffset) {
+        Mat4.transformPoint(ray, 0, inverse, 0, origin, originOffset);
+        Mat4.transformVector(ray, 3, inverse, 0, direction, directionOffset);
+    }
+
+    /**
+     * Intersects the ray in model space with the triangles of the bones whose box it hits, nearest box first
+     *
+     * @param limit hits at this distance or farther are ignored
+     * @param hit   if not null, receives the index in the model of the triangle hit. Its barycentric coordinates are
+     *              left in {@link #barycentric}
+     * @return the distance or -1 if nothing nearer than limit was hit
+     */
+    private float intersect(float limit, int[] hit) {
+        final float ox = ray[0], oy = ray[1], oz = ray[2], dx = ray[3], dy = ray[4], dz = ray[5];
+        final float ix = 1 / dx, iy = 1 / dy, iz = 1 / dz;
+        if (RayKernels.intersectBox(ox, oy, oz, ix, iy, iz, bounds, 0, limit) == Float.MAX_VALUE) {
+            return -1;
+        }
+
+        // candidates sorted by distance
+        int candidateCount = 0;
+        for (int b = 0; b < boneCount; b++) {
+            if (groupTriangleStart[b] == groupTriangleStart[b + 1]) {
+                continue;
+            }
+            final float distance = RayKernels.intersectBox(ox, oy, oz, ix, iy, iz, groupBounds, b * 6, limit);
+            if (distance == Float.MAX_VALUE) {
+                continue;
+            }
+            int i = candidateCount++;
+            for (; i > 0 && candidateDistances[i - 1] > distance; i--) {
+                candidates[i] = candidates[i - 1];
+                candidateDistances[i] = candidateDistances[i - 1];
+            }
+            candidates[i] = b;
+            candidateDistances[i] = distance;
+        }
+
+        float nearest = limit;
+        int nearestTriangle = -1;
+        for (int c = 0; c < candidateCount && candidateDistances[c] < nearest; c++) {
+            final int b = candidates[c];
+            skinner.skinVertices(palette, groupVertices, groupVertexStart[b], groupVertexStart[b + 1], skinned);
+            skinnedCount += groupVertexStart[b + 1] - groupVertexStart[b];
+            for (int t = groupTriangleStart[b]; t < groupTriangleStart[b + 1]; t++) {
+                final int a = groupTriangles[t * 3], v1 = groupTriangles[t * 3 + 1], v2 = groupTriangles[t * 3 + 2];
+                final float d = RayKernels.intersectTriangle(ox, oy, oz, dx, dy, dz, skinned, a, v1, v2);
+                if (d != RayKernels.NO_HIT && d < nearest) {
+                    nearest = d;
+                    nearestTriangle = t;
+                    if (hit != null) {
+                        RayKernels.barycentric(ox, oy, oz, dx, dy, dz, skinned, a, v1, v2, barycentric, 0);
+                    }
+                }
+            }
+        }
+        if (nearestTriangle < 0) {
+            return -1;
+        }
+        if (hit != null) {
+            hit[0] = triangleIds[nearestTriangle];
+        }
+        return nearest;
+    }
+}
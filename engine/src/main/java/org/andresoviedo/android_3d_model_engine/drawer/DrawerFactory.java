@@ -11,11 +11,17 @@ import org.andresoviedo.util.io.IOUtils;
 
 import java.io.IOException;
 import java.lang.reflect.Field;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 public class DrawerFactory {
 
+    /**
+     * Size of the joint array of the animation shaders. Models with more bones have to be skinned in the cpu
+     */
+    public static final int MAX_SHADER_JOINTS = 60;
+
     /**
      * shader code loaded from raw resources
      * resources are cached on activity thread
@@ -25,6 +31,18 @@ public class DrawerFactory {
      * list of opengl drawers
      */
     private Map<String, DrawerImpl> drawers = new HashMap<>();
+    /**
+     * same drawers, indexed by features. so we don't build the shader id on every draw
+     */
+    private final DrawerImpl[] drawersByFeatures = new DrawerImpl[32];
+    /**
+     * gpu copy of the model buffers, shared by all drawers
+     */
+    private final GpuBufferManager bufferManager = new GpuBufferManager();
+    /**
+     * shadow of the gl state, shared by all drawers
+     */
+    private final GlStateCache stateCache = new GlStateCache();
 
     public DrawerFactory(Context context) throws IllegalAccessException, IOException {
 
@@ -44,13 +62,19 @@ public class DrawerFactory {
     public Object3D getDrawer(Object3DData obj, boolean usingTextures, boolean usingLights, boolean usingAnimation, boolean drawColors) {
 
         // double check features
-        boolean isAnimated = usingAnimation && obj instanceof AnimatedModel && ((AnimatedModel) obj).getAnimation() != null;
+        boolean isAnimated = usingAnimation && obj instanceof AnimatedModel && ((AnimatedModel) obj).getAnimation() != null
+                && ((AnimatedModel) obj).getSkinner() == null;
         boolean isUsingLights = usingLights && (obj.getNormals() != null || obj.getVertexNormalsArrayBuffer() != null);
         boolean isTextured = usingTextures && obj.getTextureData() != null && obj.getTextureCoordsArrayBuffer() != null;
         boolean isColoured = drawColors && obj != null && obj.getVertexColorsArrayBuffer() != null;
         boolean isEmissive = usingTextures && obj.getEmissiveTextureData() != null
                                 && obj.getEmissiveTextureCoordsArrayBuffer() != null;
 
+        int features = (isAnimated ? 1 : 0) | (isUsingLights ? 2 : 0) | (isTextured ? 4 : 0)
+                | (isColoured ? 8 : 0) | (isEmissive ? 16 : 0);
+        DrawerImpl drawer = drawersByFeatures[features];
+        if (drawer != null) return drawer;
+
         // build shader id according to features
         StringBuilder shaderIdBuilder = new StringBuilder("shader_");
         shaderIdBuilder.append(isAnimated ? "anim_" : "");
@@ -61,8 +85,11 @@ public class DrawerFactory {
 
         // get cached drawer
         String shaderId = shaderIdBuilder.toString();
-        DrawerImpl drawer = drawers.get(shaderId);
-        if (drawer != null) return drawer;
+        drawer = drawers.get(shaderId);
+        if (drawer != null) {
+            drawersByFeatures[features] = drawer;
+            return drawer;
+        }
 
         // build drawer
         String vertexShaderCode = shadersCode.get(shaderId + "vert");
@@ -81,15 +108,34 @@ public class DrawerFactory {
         Log.i("Object3DImpl2", "---------- Fragment shader ----------\n");
         Log.i("Object3DImpl2", fragmentShaderCode);
         Log.i("Object3DImpl2", "-------------------------------------\n");
-        drawer = DrawerImpl.getInstance(shaderId, vertexShaderCode, fragmentShaderCode);
+        drawer = DrawerImpl.getInstance(shaderId, vertexShaderCode, fragmentShaderCode, bufferManager, stateCache);
 
         // cache drawer
         drawers.put(shaderId, drawer);
+        drawersByFeatures[features] = drawer;
 
         // return drawer
         return drawer;
     }
 
+    public GpuBufferManager getBufferManager() {
+        return bufferManager;
+    }
+
+    public GlStateCache getStateCache() {
+        return stateCache;
+    }
+
+    /**
+     * The GL context was (re)created. Programs and buffers of the previous context are no longer valid
+     */
+    public void onSurfaceCreated() {
+        drawers.clear();
+        Arrays.fill(drawersByFeatures, null);
+        bufferManager.onContextCreated();
+        stateCache.invalidate();
+    }
+
     public Object3D getBoundingBoxDrawer() {
         return getDrawer(null, false, false, false, false);
     }
@@ -4,11 +4,12 @@ import android.opengl.GLES20;
 import android.opengl.Matrix;
 import android.os.SystemClock;
 import android.util.Log;
-import android.util.SparseArray;
 
+import org.andresoviedo.android_3d_model_engine.animation.CpuSkinner;
 import org.andresoviedo.android_3d_model_engine.model.AnimatedModel;
 import org.andresoviedo.android_3d_model_engine.model.Object3D;
 import org.andresoviedo.android_3d_model_engine.model.Object3DData;
+import org.andresoviedo.android_3d_model_engine.model.VertexLayout;
 import org.andresoviedo.util.android.GLUtil;
 
 import java.nio.Buffer;
@@ -48,10 +49,36 @@ class DrawerImpl implements Object3D {
 
     // does the device support drawElements for GL_UNSIGNED_INT or not?
     private boolean drawUsingUnsignedInt = true;
-
-    private final SparseArray<String> cache1 = new SparseArray<>();
-
-    public static DrawerImpl getInstance(String id, String vertexShaderCode, String fragmentShaderCode) {
+    private boolean drawUsingUnsignedIntChecked = false;
+
+    // uniform & attribute locations, resolved once the program is linked
+    private final int uMVPMatrixLocation;
+    private final int uMVMatrixLocation;
+    private final int vColorLocation;
+    private final int vColorMaskLocation;
+    private final int uLightPosLocation;
+    private final int uTextureLocation;
+    private final int uEmissiveTextureLocation;
+    private final int[] jointTransformsLocations;
+    private final int aPositionLocation;
+    private final int aNormalLocation;
+    private final int aColorLocation;
+    private final int aTexCoordinateLocation;
+    private final int aEmissiveTexCoordinateLocation;
+    private final int inJointIndicesLocation;
+    private final int inWeightsLocation;
+
+    // vbo & ibo for the models
+    private final GpuBufferManager bufferManager;
+    // skips redundant state changes between draws
+    private final GlStateCache stateCache;
+
+    // vbo of the interleaved buffer of the model being drawn and the buffer currently bound to GL_ARRAY_BUFFER
+    private int interleavedVbo;
+    private int boundArrayBuffer;
+
+    public static DrawerImpl getInstance(String id, String vertexShaderCode, String fragmentShaderCode,
+                                         GpuBufferManager bufferManager, GlStateCache stateCache) {
         Set<String> shaderFeatures = new HashSet<>();
         testShaderFeature(shaderFeatures, vertexShaderCode, "a_Position");
         testShaderFeature(shaderFeatures, vertexShaderCode, "u_MVMatrix");
@@ -63,7 +90,7 @@ class DrawerImpl implements Object3D {
         testShaderFeature(shaderFeatures, vertexShaderCode, "u_MVMatrix");
         testShaderFeature(shaderFeatures, vertexShaderCode, "in_jointIndices");
         testShaderFeature(shaderFeatures, vertexShaderCode, "in_weights");
-        return new DrawerImpl(id, vertexShaderCode, fragmentShaderCode, shaderFeatures);
+        return new DrawerImpl(id, vertexShaderCode, fragmentShaderCode, shaderFeatures, bufferManager, stateCache);
     }
 
     private static void testShaderFeature(Set<String> outputFeatures, String shaderCode, String feature) {
@@ -72,10 +99,13 @@ class DrawerImpl implements Object3D {
         }
     }
 
-    private DrawerImpl(String id, String vertexShaderCode, String fragmentShaderCode, Set<String> features) {
+    private DrawerImpl(String id, String vertexShaderCode, String fragmentShaderCode, Set<String> features,
+                       GpuBufferManager bufferManager, GlStateCache stateCache) {
 
         this.id = id;
         this.features = features;
+        this.bufferManager = bufferManager;
+        this.stateCache = stateCache;
         Log.i("Object3DImpl2", "Compiling 3D Drawer... " + id);
 
         // load shaders
@@ -85,6 +115,28 @@ class DrawerImpl implements Object3D {
         // compile program
         mProgram = GLUtil.createAndLinkProgram(vertexShader, fragmentShader, features.toArray(new String[features.size()]));
         Log.i("Object3DImpl2", "Compiled 3D Drawer (" + id + ") with id " + mProgram);
+
+        ProgramLocations locations = new ProgramLocations(mProgram);
+        uMVPMatrixLocation = locations.getUniform("u_MVPMatrix");
+        uMVMatrixLocation = locations.getUniform("u_MVMatrix");
+        vColorLocation = locations.getUniform("vColor");
+        vColorMaskLocation = locations.getUniform("vColorMask");
+        uLightPosLocation = locations.getUniform("u_LightPos");
+        uTextureLocation = locations.getUniform("u_Texture");
+        uEmissiveTextureLocation = locations.getUniform("u_EmissiveTexture");
+        jointTransformsLocations = locations.getUniformArray("jointTransforms");
+        aPositionLocation = locations.getAttribute("a_Position");
+        aNormalLocation = locations.getAttribute("a_Normal");
+        aColorLocation = locations.getAttribute("a_Color");
+        aTexCoordinateLocation = locations.getAttribute("a_TexCoordinate");
+        aEmissiveTexCoordinateLocation = locations.getAttribute("a_EmissiveTexCoordinate");
+        inJointIndicesLocation = locations.getAttribute("in_jointIndices");
+        inWeightsLocation = locations.getAttribute("in_weights");
+    }
+
+    @Override
+    public int getProgram() {
+        return mProgram;
     }
 
     @Override
@@ -106,31 +158,53 @@ class DrawerImpl implements Object3D {
     @Override
     public void draw(Object3DData obj, float[] pMatrix, float[] vMatrix, int drawMode, int drawSize, int textureId,
                      float[] lightPos, float[] colorMask) {
+        this.draw(obj, obj.getDrawMatrix(mMatrix), 0, pMatrix, vMatrix, drawMode, drawSize, textureId, lightPos,
+                colorMask);
+    }
+
+    @Override
+    public void draw(Object3DData obj, float[] mMatrices, int mMatrixOffset, float[] pMatrix, float[] vMatrix,
+                     int drawMode, int drawSize, int textureId, float[] lightPos, float[] colorMask) {
 
 
         // Add program to OpenGL environment
-        GLES20.glUseProgram(mProgram);
+        stateCache.useProgram(mProgram);
 
-        float[] mMatrix = getMMatrix(obj);
-        float[] mvMatrix = getMvMatrix(mMatrix, vMatrix);
+        float[] mvMatrix = getMvMatrix(mMatrices, mMatrixOffset, vMatrix);
         float[] mvpMatrix = getMvpMatrix(mvMatrix, pMatrix);
 
         setMvpMatrix(mvpMatrix);
 
-        int mPositionHandle = setPosition(obj);
+        // models skinned in the cpu are drawn with their skinned buffers
+        CpuSkinner skinner = obj instanceof AnimatedModel ? ((AnimatedModel) obj).getSkinner() : null;
+        if (skinner != null && skinner.hasChanged()) {
+            bufferManager.invalidate(skinner.getPositions(), 0, skinner.getPositions().capacity());
+            if (skinner.getNormals() != null) {
+                bufferManager.invalidate(skinner.getNormals(), 0, skinner.getNormals().capacity());
+            }
+            skinner.setChanged(false);
+        }
+
+        // all the interleaved attributes are read from the same buffer, so it's bound once for the whole draw
+        FloatBuffer interleavedBuffer = obj.getInterleavedBuffer();
+        interleavedVbo = interleavedBuffer != null ?
+                bufferManager.getBuffer(obj, interleavedBuffer, GLES20.GL_ARRAY_BUFFER) : 0;
+        bindArrayBuffer(interleavedVbo);
+
+        int mPositionHandle = setPosition(obj, skinner);
 
         int mNormalHandle = -1;
         if (supportsNormals()) {
-            mNormalHandle = setNormals(obj);
+            mNormalHandle = setNormals(obj, skinner);
         }
 
         int mColorHandle = -1;
         if (supportsColors()) {
-            GLES20.glEnable(GLES20.GL_BLEND);
-            GLES20.glBlendFunc(GLES20.GL_ONE, GLES20.GL_ONE);
+            stateCache.enable(GLES20.GL_BLEND);
+            stateCache.blendFunc(GLES20.GL_ONE, GLES20.GL_ONE);
             setColor(obj);
             mColorHandle = setColors(obj);
-            GLES20.glDisable(GLES20.GL_BLEND);
+            stateCache.disable(GLES20.GL_BLEND);
         } else {
             setColor(obj);
         }
@@ -169,6 +243,7 @@ class DrawerImpl implements Object3D {
 
         // draw mesh
         drawShape(obj, drawMode, drawSize);
+        bindArrayBuffer(0);
 
         // Disable vertex array
         GLES20.glDisableVertexAttribArray(mPositionHandle);
@@ -197,31 +272,13 @@ class DrawerImpl implements Object3D {
         }
 
         if (!obj.getIsDoubleSided()){
-            GLES20.glDisable(GLES20.GL_CULL_FACE);
+            stateCache.disable(GLES20.GL_CULL_FACE);
         }
 
     }
 
-    private float[] getMMatrix(Object3DData obj) {
-
-        // calculate object transformation
-        Matrix.setIdentityM(mMatrix, 0);
-        if (obj.getRotation() != null) {
-            Matrix.rotateM(mMatrix, 0, obj.getRotation()[0], 1f, 0f, 0f);
-            Matrix.rotateM(mMatrix, 0, obj.getRotation()[1], 0, 1f, 0f);
-            Matrix.rotateM(mMatrix, 0, obj.getRotationZ(), 0, 0, 1f);
-        }
-        if (obj.getScale() != null) {
-            Matrix.scaleM(mMatrix, 0, obj.getScaleX(), obj.getScaleY(), obj.getScaleZ());
-        }
-        if (obj.getPosition() != null) {
-            Matrix.translateM(mMatrix, 0, obj.getPositionX(), obj.getPositionY(), obj.getPositionZ());
-        }
-        return mMatrix;
-    }
-
-    private float[] getMvMatrix(float[] mMatrix, float[] vMatrix) {
-        Matrix.multiplyMM(mvMatrix, 0, vMatrix, 0, mMatrix, 0);
+    private float[] getMvMatrix(float[] mMatrices, int mMatrixOffset, float[] vMatrix) {
+        Matrix.multiplyMM(mvMatrix, 0, vMatrix, 0, mMatrices, mMatrixOffset);
         return mvMatrix;
     }
 
@@ -233,8 +290,7 @@ class DrawerImpl implements Object3D {
     private void setMvpMatrix(float[] mvpMatrix) {
 
         // get handle to shape's transformation matrix
-        int mMVPMatrixHandle = GLES20.glGetUniformLocation(mProgram, "u_MVPMatrix");
-        GLUtil.checkGlError("glGetUniformLocation");
+        int mMVPMatrixHandle = uMVPMatrixLocation;
 
         // Apply the projection and view transformation
         GLES20.glUniformMatrix4fv(mMVPMatrixHandle, 1, false, mvpMatrix, 0);
@@ -248,8 +304,7 @@ class DrawerImpl implements Object3D {
     private void setColor(Object3DData obj) {
 
         // get handle to fragment shader's vColor member
-        int mColorHandle = GLES20.glGetUniformLocation(mProgram, "vColor");
-        GLUtil.checkGlError("glGetUniformLocation");
+        int mColorHandle = vColorLocation;
 
         // Set color for drawing the triangle
         float[] color = obj.getColor() != null ? obj.getColor() : DEFAULT_COLOR;
@@ -263,55 +318,113 @@ class DrawerImpl implements Object3D {
     private int setColors(Object3DData obj) {
 
         // get handle to fragment shader's vColor member
-        int mColorHandle = GLES20.glGetAttribLocation(mProgram, "a_Color");
-        GLUtil.checkGlError("glGetAttribLocation");
+        int mColorHandle = aColorLocation;
 
         // Pass in the color information
         GLES20.glEnableVertexAttribArray(mColorHandle);
         GLUtil.checkGlError("glEnableVertexAttribArray");
 
-        obj.getVertexColorsArrayBuffer().position(0);
-        GLES20.glVertexAttribPointer(mColorHandle, 4, GLES20.GL_FLOAT, false, 0, obj.getVertexColorsArrayBuffer());
-        GLUtil.checkGlError("glVertexAttribPointer");
+        if (!setInterleavedAttribute(obj, mColorHandle, VertexLayout.COLOR)) {
+            setAttribute(obj, mColorHandle, 4, 0, obj.getVertexColorsArrayBuffer(), 0);
+        }
 
         return mColorHandle;
     }
 
-    private int setPosition(Object3DData obj) {
+    private int setPosition(Object3DData obj, CpuSkinner skinner) {
 
         // get handle to vertex shader's a_Position member
-        int mPositionHandle = GLES20.glGetAttribLocation(mProgram, "a_Position");
-        GLUtil.checkGlError("glGetAttribLocation");
+        int mPositionHandle = aPositionLocation;
 
         // Enable a handle to the triangle vertices
         GLES20.glEnableVertexAttribArray(mPositionHandle);
         GLUtil.checkGlError("glEnableVertexAttribArray");
 
-        FloatBuffer vertexBuffer = obj.getVertexArrayBuffer() != null ? obj.getVertexArrayBuffer()
-                : obj.getVertexBuffer();
-        vertexBuffer.position(0);
-        GLES20.glVertexAttribPointer(mPositionHandle, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, VERTEX_STRIDE,
-                vertexBuffer);
-        GLUtil.checkGlError("glVertexAttribPointer");
+        if (skinner != null) {
+            setDynamicAttribute(obj, mPositionHandle, COORDS_PER_VERTEX, VERTEX_STRIDE, skinner.getPositions());
+        } else if (!setInterleavedAttribute(obj, mPositionHandle, VertexLayout.POSITION)) {
+            FloatBuffer vertexBuffer = obj.getVertexArrayBuffer() != null ? obj.getVertexArrayBuffer()
+                    : obj.getVertexBuffer();
+            setAttribute(obj, mPositionHandle, COORDS_PER_VERTEX, VERTEX_STRIDE, vertexBuffer, 0);
+        }
 
         return mPositionHandle;
     }
 
+    /**
+     * Point the attribute to the interleaved vertex buffer of the model, if it was packed with that attribute
+     *
+     * @return <code>true</code> if the attribute was set, <code>false</code> if the separate buffer must be used
+     */
+    private boolean setInterleavedAttribute(Object3DData obj, int handle, int attribute) {
+        VertexLayout layout = obj.getVertexLayout();
+        if (layout == null || !layout.has(attribute)) {
+            return false;
+        }
+        setAttributePointer(handle, layout.getSize(attribute), layout.getStride(), obj.getInterleavedBuffer(),
+                layout.getOffset(attribute), interleavedVbo);
+        return true;
+    }
+
+    /**
+     * Point the attribute to a separate buffer. The GPU copy of the buffer is used if available, the client buffer
+     * otherwise
+     *
+     * @param offset offset in floats of the first value
+     */
+    private void setAttribute(Object3DData obj, int handle, int size, int stride, FloatBuffer buffer, int offset) {
+        setAttributePointer(handle, size, stride, buffer, offset,
+                bufferManager.getBuffer(obj, buffer, GLES20.GL_ARRAY_BUFFER));
+    }
+
+    /**
+     * Point the attribute to a buffer rewritten every frame, like the output of a {@link CpuSkinner}
+     */
+    private void setDynamicAttribute(Object3DData obj, int handle, int size, int stride, FloatBuffer buffer) {
+        setAttributePointer(handle, size, stride, buffer, 0,
+                bufferManager.getBuffer(obj, buffer, GLES20.GL_ARRAY_BUFFER, GLES20.GL_DYNAMIC_DRAW));
+    }
+
+    private void setAttributePointer(int handle, int size, int stride, FloatBuffer buffer, int offset, int vbo) {
+        // client pointers are only valid while no buffer is bound
+        bindArrayBuffer(vbo);
+        if (vbo != 0) {
+            GLES20.glVertexAttribPointer(handle, size, GLES20.GL_FLOAT, false, stride, offset * 4);
+        } else {
+            buffer.position(offset);
+            GLES20.glVertexAttribPointer(handle, size, GLES20.GL_FLOAT, false, stride, buffer);
+        }
+        GLUtil.checkGlError("glVertexAttribPointer");
+    }
+
+    /**
+     * Bind the buffer to GL_ARRAY_BUFFER unless it's already bound. Uploads done by the buffer manager leave it
+     * unbound, but they only happen for buffers that were not bound yet, so those are always rebound here.
+     */
+    private void bindArrayBuffer(int vbo) {
+        if (vbo != boundArrayBuffer) {
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vbo);
+            boundArrayBuffer = vbo;
+        }
+    }
+
     private boolean supportsNormals() {
         return features.contains("a_Normal");
     }
 
-    private int setNormals(Object3DData obj) {
-        int mNormalHandle = GLES20.glGetAttribLocation(mProgram, "a_Normal");
-        GLUtil.checkGlError("glGetAttribLocation");
+    private int setNormals(Object3DData obj, CpuSkinner skinner) {
+        int mNormalHandle = aNormalLocation;
 
         GLES20.glEnableVertexAttribArray(mNormalHandle);
         GLUtil.checkGlError("glEnableVertexAttribArray");
 
         // Pass in the normal information
-        FloatBuffer buffer = obj.getVertexNormalsArrayBuffer() != null ? obj.getVertexNormalsArrayBuffer() : obj.getNormals();
-        buffer.position(0);
-        GLES20.glVertexAttribPointer(mNormalHandle, 3, GLES20.GL_FLOAT, false, 0, buffer);
+        if (skinner != null && skinner.getNormals() != null) {
+            setDynamicAttribute(obj, mNormalHandle, 3, 0, skinner.getNormals());
+        } else if (!setInterleavedAttribute(obj, mNormalHandle, VertexLayout.NORMAL)) {
+            FloatBuffer buffer = obj.getVertexNormalsArrayBuffer() != null ? obj.getVertexNormalsArrayBuffer() : obj.getNormals();
+            setAttribute(obj, mNormalHandle, 3, 0, buffer, 0);
+        }
 
         return mNormalHandle;
     }
@@ -321,7 +434,7 @@ class DrawerImpl implements Object3D {
     }
 
     private void setLightPos(float[] lightPosInEyeSpace) {
-        int mLightPosHandle = GLES20.glGetUniformLocation(mProgram, "u_LightPos");
+        int mLightPosHandle = uLightPosLocation;
         // Pass in the light position in eye space.
         GLES20.glUniform3f(mLightPosHandle, lightPosInEyeSpace[0], lightPosInEyeSpace[1], lightPosInEyeSpace[2]);
     }
@@ -331,8 +444,7 @@ class DrawerImpl implements Object3D {
     }
 
     private void setMvMatrix(float[] mvMatrix) {
-        int mMVMatrixHandle = GLES20.glGetUniformLocation(mProgram, "u_MVMatrix");
-        GLUtil.checkGlError("glGetUniformLocation");
+        int mMVMatrixHandle = uMVMatrixLocation;
 
         // Pass in the modelview matrix.
         GLES20.glUniformMatrix4fv(mMVMatrixHandle, 1, false, mvMatrix, 0);
@@ -348,8 +460,7 @@ class DrawerImpl implements Object3D {
     }
 
     private void setColorMask(float[] colorMask) {
-        int vColorMaskHandle = GLES20.glGetUniformLocation(mProgram, "vColorMask");
-        GLUtil.checkGlError("glGetUniformLocation");
+        int vColorMaskHandle = vColorMaskLocation;
 
         float[] color = colorMask != null ? colorMask : NO_COLOR_MASK;
         GLES20.glUniform4fv(vColorMaskHandle, 1, color, 0);
@@ -359,88 +470,82 @@ class DrawerImpl implements Object3D {
     // TODO: refactor to remove duplicate code
     private int setEmissiveTexture(Object3DData obj) {
         // TODO: add emissive texture
-        int mEmissiveTextureUniformHandle = GLES20.glGetUniformLocation(mProgram, "u_EmissiveTexture");
-        GLUtil.checkGlError("glGetUniformLocation");
+        int mEmissiveTextureUniformHandle = uEmissiveTextureLocation;
 
         // Set the active texture unit to texture unit 1.
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE1);
+        stateCache.activeTexture(GLES20.GL_TEXTURE1);
         GLUtil.checkGlError("glActiveTexture");
 
         if (!obj.getIsDoubleSided()){
-            GLES20.glCullFace(GLES20.GL_BACK);
-            GLES20.glEnable(GLES20.GL_CULL_FACE);
+            stateCache.cullFace(GLES20.GL_BACK);
+            stateCache.enable(GLES20.GL_CULL_FACE);
         }
 
         // Bind to the texture in OpenGL
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, obj.getEmissiveTextureHandle());
+        stateCache.bindTexture(GLES20.GL_TEXTURE_2D, obj.getEmissiveTextureHandle());
         GLUtil.checkGlError("glBindTexture");
 
         // set sampling and filtering
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, obj.getEmissiveTextureMinFilter());
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, obj.getEmissiveTextureMagFilter());
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, obj.getEmissiveTextureWrapS());
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, obj.getEmissiveTextureWrapT());
+        stateCache.texParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, obj.getEmissiveTextureMinFilter());
+        stateCache.texParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, obj.getEmissiveTextureMagFilter());
+        stateCache.texParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, obj.getEmissiveTextureWrapS());
+        stateCache.texParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, obj.getEmissiveTextureWrapT());
 
         // Tell the texture uniform sampler to use this texture in the shader by binding to texture unit 0.
         GLES20.glUniform1i(mEmissiveTextureUniformHandle, 1);
         GLUtil.checkGlError("glUniform1i");
 
-        int mTextureCoordinateHandle = GLES20.glGetAttribLocation(mProgram, "a_EmissiveTexCoordinate");
-        GLUtil.checkGlError("glGetAttribLocation");
+        int mTextureCoordinateHandle = aEmissiveTexCoordinateLocation;
 
         // Enable a handle to the triangle vertices
         GLES20.glEnableVertexAttribArray(mTextureCoordinateHandle);
         GLUtil.checkGlError("glEnableVertexAttribArray");
 
         // Prepare the triangle coordinate data
-        obj.getEmissiveTextureCoordsArrayBuffer().position(0);
-        GLES20.glVertexAttribPointer(mTextureCoordinateHandle, 2, GLES20.GL_FLOAT, false, 0,
-                obj.getEmissiveTextureCoordsArrayBuffer());
-        GLUtil.checkGlError("glVertexAttribPointer");
+        if (!setInterleavedAttribute(obj, mTextureCoordinateHandle, VertexLayout.EMISSIVE_TEXTURE_COORDS)) {
+            setAttribute(obj, mTextureCoordinateHandle, 2, 0, obj.getEmissiveTextureCoordsArrayBuffer(), 0);
+        }
 
         return mTextureCoordinateHandle;
     }
 
     private int setTexture(Object3DData obj, int textureId) {
         // TODO: add emissive texture
-        int mTextureUniformHandle = GLES20.glGetUniformLocation(mProgram, "u_Texture");
-        GLUtil.checkGlError("glGetUniformLocation");
+        int mTextureUniformHandle = uTextureLocation;
 
         // Set the active texture unit to texture unit 0.
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        stateCache.activeTexture(GLES20.GL_TEXTURE0);
         GLUtil.checkGlError("glActiveTexture");
 
         if (!obj.getIsDoubleSided()){
-            GLES20.glCullFace(GLES20.GL_BACK);
-            GLES20.glEnable(GLES20.GL_CULL_FACE);
+            stateCache.cullFace(GLES20.GL_BACK);
+            stateCache.enable(GLES20.GL_CULL_FACE);
         }
 
         // Bind to the texture in OpenGL
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
+        stateCache.bindTexture(GLES20.GL_TEXTURE_2D, textureId);
         GLUtil.checkGlError("glBindTexture");
 
         // set sampling and filtering
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, obj.getTextureMinFilter());
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, obj.getTextureMagFilter());
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, obj.getTextureWrapS());
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, obj.getTextureWrapT());
+        stateCache.texParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, obj.getTextureMinFilter());
+        stateCache.texParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, obj.getTextureMagFilter());
+        stateCache.texParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, obj.getTextureWrapS());
+        stateCache.texParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, obj.getTextureWrapT());
 
         // Tell the texture uniform sampler to use this texture in the shader by binding to texture unit 0.
         GLES20.glUniform1i(mTextureUniformHandle, 0);
         GLUtil.checkGlError("glUniform1i");
 
-        int mTextureCoordinateHandle = GLES20.glGetAttribLocation(mProgram, "a_TexCoordinate");
-        GLUtil.checkGlError("glGetAttribLocation");
+        int mTextureCoordinateHandle = aTexCoordinateLocation;
 
         // Enable a handle to the triangle vertices
         GLES20.glEnableVertexAttribArray(mTextureCoordinateHandle);
         GLUtil.checkGlError("glEnableVertexAttribArray");
 
         // Prepare the triangle coordinate data
-        obj.getTextureCoordsArrayBuffer().position(0);
-        GLES20.glVertexAttribPointer(mTextureCoordinateHandle, 2, GLES20.GL_FLOAT, false, 0,
-                obj.getTextureCoordsArrayBuffer());
-        GLUtil.checkGlError("glVertexAttribPointer");
+        if (!setInterleavedAttribute(obj, mTextureCoordinateHandle, VertexLayout.TEXTURE_COORDS)) {
+            setAttribute(obj, mTextureCoordinateHandle, 2, 0, obj.getTextureCoordsArrayBuffer(), 0);
+        }
 
         return mTextureCoordinateHandle;
     }
@@ -450,44 +555,34 @@ class DrawerImpl implements Object3D {
     }
 
     private int setWeights(AnimatedModel animatedModel) {
-        int in_weightsHandle = GLES20.glGetAttribLocation(mProgram, "in_weights");
-        GLUtil.checkGlError("glGetAttribLocation");
+        int in_weightsHandle = inWeightsLocation;
         GLES20.glEnableVertexAttribArray(in_weightsHandle);
         GLUtil.checkGlError("glEnableVertexAttribArray");
-        animatedModel.getVertexWeights().position(0);
-        GLES20.glVertexAttribPointer(in_weightsHandle, 3, GLES20.GL_FLOAT, false, 0, animatedModel.getVertexWeights());
+        if (!setInterleavedAttribute(animatedModel, in_weightsHandle, VertexLayout.WEIGHTS)) {
+            setAttribute(animatedModel, in_weightsHandle, 3, 0, animatedModel.getVertexWeights(), 0);
+        }
         return in_weightsHandle;
     }
 
     private int setJoints(AnimatedModel animatedModel) {
-        int in_jointIndicesHandle = GLES20.glGetAttribLocation(mProgram, "in_jointIndices");
-        GLUtil.checkGlError("glGetAttribLocation");
+        int in_jointIndicesHandle = inJointIndicesLocation;
         GLES20.glEnableVertexAttribArray(in_jointIndicesHandle);
         GLUtil.checkGlError("glEnableVertexAttribArray");
-        animatedModel.getJointIds().position(0);
-        GLES20.glVertexAttribPointer(in_jointIndicesHandle, 3, GLES20.GL_FLOAT, false, 0, animatedModel.getJointIds());
-        GLUtil.checkGlError("glVertexAttribPointer");
+        if (!setInterleavedAttribute(animatedModel, in_jointIndicesHandle, VertexLayout.JOINT_IDS)) {
+            setAttribute(animatedModel, in_jointIndicesHandle, 3, 0, animatedModel.getJointIds(), 0);
+        }
         return in_jointIndicesHandle;
     }
 
     private void setJointTransforms(AnimatedModel animatedModel) {
-        float[][] jointTransformsArray = animatedModel.getJointTransforms();
-        // get handle to fragment shader's vColor member
-
-        // TODO: optimize this (memory allocation)
-        for (int i = 0; i < jointTransformsArray.length; i++) {
-            float[] jointTransform = jointTransformsArray[i];
-            // Log.v("DrawerImpl","jointTransform: "+ Arrays.toString(jointTransform));
-            String jointTransformHandleName = cache1.get(i);
-            if (jointTransformHandleName == null) {
-                jointTransformHandleName = "jointTransforms[" + i + "]";
-                cache1.put(i, jointTransformHandleName);
-            }
-            int jointTransformsHandle = GLES20.glGetUniformLocation(mProgram, jointTransformHandleName);
-            GLUtil.checkGlError("glGetUniformLocation");
-            GLES20.glUniformMatrix4fv(jointTransformsHandle, 1, false, jointTransform, 0);
-            //handles.add(jointTransformsHandle);
+        if (jointTransformsLocations.length == 0) {
+            return;
         }
+        float[] jointPalette = animatedModel.getJointPalette();
+        // upload the whole palette at once. elements of an uniform array can be loaded from its first location
+        int count = Math.min(animatedModel.getBoneCount(), jointTransformsLocations.length);
+        GLES20.glUniformMatrix4fv(jointTransformsLocations[0], count, false, jointPalette, 0);
+        GLUtil.checkGlError("glUniformMatrix4fv");
     }
 
     private void drawShape(Object3DData obj, int drawMode, int drawSize) {
@@ -500,7 +595,7 @@ class DrawerImpl implements Object3D {
         int drawBufferType = obj.getDrawOrderBufferType();
 
 
-        if (!drawUsingUnsignedInt) {
+        if (!drawUsingUnsignedInt && drawBufferType == GLES20.GL_UNSIGNED_INT) {
             drawOrderBuffer = obj.getDrawOrderAsShort();
             drawBufferType = GLES20.GL_UNSIGNED_SHORT;
         }
@@ -510,6 +605,15 @@ class DrawerImpl implements Object3D {
             drawOrderBuffer = null;
         }
 
+        // the short copy is temporary, so it's not uploaded
+        int ibo = 0;
+        if (drawOrderBuffer != null && drawOrderBuffer == obj.getDrawOrderBuffer()) {
+            ibo = bufferManager.getBuffer(obj, drawOrderBuffer, GLES20.GL_ELEMENT_ARRAY_BUFFER);
+        }
+        if (ibo != 0) {
+            GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, ibo);
+        }
+
         if (drawModeList != null) {
             if (drawOrderBuffer == null) {
                 // Log.v(obj.getId(), "Drawing single polygons using arrays...");
@@ -536,11 +640,9 @@ class DrawerImpl implements Object3D {
                     int drawModePolygon = drawPart[0];
                     int vertexPos = drawPart[1];
                     int drawSizePolygon = drawPart[2];
-                    drawOrderBuffer.position(vertexPos);
-                    GLES20.glDrawElements(drawModePolygon, drawSizePolygon, drawBufferType, drawOrderBuffer);
-                    if (drawUsingUnsignedInt && GLUtil.checkGlError("glDrawElements")) {
-                        drawUsingUnsignedInt = false;
-                    }
+                    prepareUnsignedIntCheck(drawBufferType);
+                    drawElements(drawModePolygon, drawSizePolygon, drawBufferType, drawOrderBuffer, vertexPos, ibo);
+                    checkUnsignedIntSupport(drawBufferType);
                 }
             }
         } else {
@@ -548,21 +650,16 @@ class DrawerImpl implements Object3D {
                 if (drawSize <= 0) {
                     // String mode = drawMode == GLES20.GL_POINTS ? "Points" : drawMode == GLES20.GL_LINES? "Lines": "Triangles?";
                     // Log.v(obj.getId(),"Drawing all elements with mode '"+drawMode+"'...");
-                    drawOrderBuffer.position(0);
-                    GLES20.glDrawElements(drawMode, drawOrderBuffer.capacity(), drawBufferType,
-                            drawOrderBuffer);
-                    if (drawUsingUnsignedInt && GLUtil.checkGlError("glDrawElements")) {
-                        drawUsingUnsignedInt = false;
-                    }
+                    prepareUnsignedIntCheck(drawBufferType);
+                    drawElements(drawMode, drawOrderBuffer.capacity(), drawBufferType, drawOrderBuffer, 0, ibo);
+                    checkUnsignedIntSupport(drawBufferType);
                 } else {
                     //Log.d(obj.getId(),"Drawing single elements of size '"+drawSize+"'...");
+                    prepareUnsignedIntCheck(drawBufferType);
                     for (int i = 0; i < drawOrderBuffer.capacity(); i += drawSize) {
-                        drawOrderBuffer.position(i);
-                        GLES20.glDrawElements(drawMode, drawSize, drawBufferType, drawOrderBuffer);
-                    }
-                    if (drawUsingUnsignedInt && GLUtil.checkGlError("glDrawElements")) {
-                        drawUsingUnsignedInt = false;
+                        drawElements(drawMode, drawSize, drawBufferType, drawOrderBuffer, i, ibo);
                     }
+                    checkUnsignedIntSupport(drawBufferType);
                 }
             } else {
                 if (drawSize <= 0) {
@@ -587,5 +684,45 @@ class DrawerImpl implements Object3D {
                 }
             }
         }
+
+        if (ibo != 0) {
+            GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+        }
+    }
+
+    /**
+     * Drop the errors left by unchecked calls before the first GL_UNSIGNED_INT draw, so the check only sees the draw
+     */
+    private void prepareUnsignedIntCheck(int drawBufferType) {
+        if (!drawUsingUnsignedIntChecked && drawBufferType == GLES20.GL_UNSIGNED_INT) {
+            GLUtil.clearGlErrors();
+        }
+    }
+
+    /**
+     * Check once whether the first GL_UNSIGNED_INT draw failed. If so, the draw order will be converted to shorts
+     */
+    private void checkUnsignedIntSupport(int drawBufferType) {
+        if (drawUsingUnsignedIntChecked || drawBufferType != GLES20.GL_UNSIGNED_INT) {
+            return;
+        }
+        drawUsingUnsignedIntChecked = true;
+        if (GLUtil.checkGlErrorNow("glDrawElements")) {
+            drawUsingUnsignedInt = false;
+        }
+    }
+
+    /**
+     * Draw the indices from the bound element array buffer, or from the client buffer if there is no ibo
+     *
+     * @param first index of the first element
+     */
+    private static void drawElements(int drawMode, int count, int type, Buffer indices, int first, int ibo) {
+        if (ibo != 0) {
+            GLES20.glDrawElements(drawMode, count, type, first * (type == GLES20.GL_UNSIGNED_SHORT ? 2 : 4));
+        } else {
+            indices.position(first);
+            GLES20.glDrawElements(drawMode, count, type, indices);
+        }
     }
 }
@@ -0,0 +1,303 @@
+package org.andresoviedo.android_3d_model_engine.drawer;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * Shadow copy of the GL state changed by the drawers, so calls that wouldn't change anything are not sent to the
+ * driver.
+ * <p>
+ * It tracks the current program, the enabled capabilities, the blend function, the cull face, the active texture
+ * unit, the 2D texture bound to each unit and the sampling parameters of each texture. Any state changed without this
+ * cache must be notified with {@link #invalidate()} (i.e. after loading textures), otherwise calls could be wrongly
+ * skipped.
+ * <p>
+ * The GL calls are done through the {@link Gl} interface, so the cache can be verified without a GL context.
+ */
+public final class GlStateCache {
+
+    /**
+     * The GL calls done by the cache
+     */
+    public interface Gl {
+        void glUseProgram(int program);
+
+        void glEnable(int cap);
+
+        void glDisable(int cap);
+
+        void glBlendFunc(int sfactor, int dfactor);
+
+        void glCullFace(int mode);
+
+        void glActiveTexture(int texture);
+
+        void glBindTexture(int target, int texture);
+
+        void glTexParameteri(int target, int pname, int param);
+    }
+
+    /**
+     * Sends the calls to {@link GLES20}
+     */
+    public static final Gl GLES20_GL = new Gl() {
+        @Override
+        public void glUseProgram(int program) {
+            GLES20.glUseProgram(program);
+        }
+
+        @Override
+        public void glEnable(int cap) {
+            GLES20.glEnable(cap);
+        }
+
+        @Override
+        public void glDisable(int cap) {
+            GLES20.glDisable(cap);
+        }
+
+        @Override
+        public void glBlendFunc(int sfactor, int dfactor) {
+            GLES20.glBlendFunc(sfactor, dfactor);
+        }
+
+        @Override
+        public void glCullFace(int mode) {
+            GLES20.glCullFace(mode);
+        }
+
+        @Override
+        public void glActiveTexture(int texture) {
+            GLES20.glActiveTexture(texture);
+        }
+
+        @Override
+        public void glBindTexture(int target, int texture) {
+            GLES20.glBindTexture(target, texture);
+        }
+
+        @Override
+        public void glTexParameteri(int target, int pname, int param) {
+            GLES20.glTexParameteri(target, pname, param);
+        }
+    };
+
+    private static final int UNKNOWN = -1;
+    private static final int MAX_CAPS = 8;
+    private static final int MAX_TEXTURE_UNITS = 32;
+    // min filter, mag filter, wrap s, wrap t
+    private static final int TEXTURE_PARAMS = 4;
+
+    private final Gl gl;
+
+    private int program;
+    private final int[] caps = new int[MAX_CAPS];
+    private final int[] capStates = new int[MAX_CAPS];
+    private int capCount;
+    private int blendSrc;
+    private int blendDst;
+    private int cullFace;
+    private int activeTexture;
+    private final int[] boundTextures = new int[MAX_TEXTURE_UNITS];
+    // texture name -> parameters
+    private int[] textureParams = new int[0];
+
+    // statistics
+    private int issuedCalls;
+    private int skippedCalls;
+    private int lastFrameIssuedCalls;
+    private int lastFrameSkippedCalls;
+    private long frames;
+
+    public GlStateCache() {
+        this(GLES20_GL);
+    }
+
+    public GlStateCache(Gl gl) {
+        this.gl = gl;
+        invalidate();
+    }
+
+    /**
+     * Forget the shadowed state, so the next calls are sent to the driver. To be called when the state was changed by
+     * other means or the context was created again.
+     */
+    public void invalidate() {
+        program = UNKNOWN;
+        capCount = 0;
+        blendSrc = UNKNOWN;
+        blendDst = UNKNOWN;
+        cullFace = UNKNOWN;
+        activeTexture = UNKNOWN;
+        Arrays.fill(boundTextures, UNKNOWN);
+        Arrays.fill(textureParams, UNKNOWN);
+    }
+
+    /**
+     * Start counting the calls of a new frame
+     */
+    public void beginFrame() {
+        lastFrameIssuedCalls = issuedCalls;
+        lastFrameSkippedCalls = skippedCalls;
+        issuedCalls = 0;
+        skippedCalls = 0;
+        if (++frames % 600 == 0) {
+            Log.d("GlStateCache", "GL state calls in last frame. Issued: " + lastFrameIssuedCalls + ", skipped: "
+                    + lastFrameSkippedCalls);
+        }
+    }
+
+    /**
+     * @return calls sent to the driver during the previous frame
+     */
+    public int getLastFrameIssuedCalls() {
+        return lastFrameIssuedCalls;
+    }
+
+    /**
+     * @return redundant calls skipped during the previous frame
+     */
+    public int getLastFrameSkippedCalls() {
+        return lastFrameSkippedCalls;
+    }
+
+    public void useProgram(int program) {
+        if (this.program == program) {
+            skippedCalls++;
+            return;
+        }
+        this.program = program;
+        issuedCalls++;
+        gl.glUseProgram(program);
+    }
+
+    public void enable(int cap) {
+        setCap(cap, true);
+    }
+
+    public void disable(int cap) {
+        setCap(cap, false);
+    }
+
+    private void setCap(int cap, boolean enabled) {
+        final int state = enabled ? 1 : 0;
+        int i = 0;
+        while (i < capCount && caps[i] != cap) {
+            i++;
+        }
+        if (i < capCount && capStates[i] == state) {
+            skippedCalls++;
+            return;
+        }
+        if (i == capCount && capCount < MAX_CAPS) {
+            caps[capCount++] = cap;
+        }
+        if (i < capCount) {
+            capStates[i] = state;
+        }
+        issuedCalls++;
+        if (enabled) {
+            gl.glEnable(cap);
+        } else {
+            gl.glDisable(cap);
+        }
+    }
+
+    public void blendFunc(int src, int dst) {
+        if (blendSrc == src && blendDst == dst) {
+            skippedCalls++;
+            return;
+        }
+        blendSrc = src;
+        blendDst = dst;
+        issuedCalls++;
+        gl.glBlendFunc(src, dst);
+    }
+
+    public void cullFace(int mode) {
+        if (cullFace == mode) {
+            skippedCalls++;
+            return;
+        }
+        cullFace = mode;
+        issuedCalls++;
+        gl.glCullFace(mode);
+    }
+
+    public void activeTexture(int texture) {
+        if (activeTexture == texture) {
+            skippedCalls++;
+            return;
+        }
+        activeTexture = texture;
+        issuedCalls++;
+        gl.glActiveTexture(texture);
+    }
+
+    public void bindTexture(int target, int texture) {
+        final int unit = getActiveUnit();
+        if (target != GLES20.GL_TEXTURE_2D || unit == UNKNOWN) {
+            // not tracked
+            issuedCalls++;
+            gl.glBindTexture(target, texture);
+            return;
+        }
+        if (boundTextures[unit] == texture) {
+            skippedCalls++;
+            return;
+        }
+        boundTextures[unit] = texture;
+        issuedCalls++;
+        gl.glBindTexture(target, texture);
+    }
+
+    /**
+     * Set a parameter of the texture bound to the active unit
+     */
+    public void texParameteri(int target, int pname, int param) {
+        final int unit = getActiveUnit();
+        final int index = getTextureParamIndex(pname);
+        final int texture = unit != UNKNOWN ? boundTextures[unit] : UNKNOWN;
+        if (target != GLES20.GL_TEXTURE_2D || index == UNKNOWN || texture < 0) {
+            // not tracked
+            issuedCalls++;
+            gl.glTexParameteri(target, pname, param);
+            return;
+        }
+        final int offset = texture * TEXTURE_PARAMS + index;
+        if (offset >= textureParams.length) {
+            final int oldLength = textureParams.length;
+            textureParams = Arrays.copyOf(textureParams, Math.max((texture + 1) * TEXTURE_PARAMS, oldLength * 2));
+            Arrays.fill(textureParams, oldLength, textureParams.length, UNKNOWN);
+        }
+        if (textureParams[offset] == param) {
+            skippedCalls++;
+            return;
+        }
+        textureParams[offset] = param;
+        issuedCalls++;
+        gl.glTexParameteri(target, pname, param);
+    }
+
+    private int getActiveUnit() {
+        final int unit = activeTexture - GLES20.GL_TEXTURE0;
+        return activeTexture != UNKNOWN && unit >= 0 && unit < MAX_TEXTURE_UNITS ? unit : UNKNOWN;
+    }
+
+    private static int getTextureParamIndex(int pname) {
+        switch (pname) {
+            case GLES20.GL_TEXTURE_MIN_FILTER:
+                return 0;
+            case GLES20.GL_TEXTURE_MAG_FILTER:
+                return 1;
+            case GLES20.GL_TEXTURE_WRAP_S:
+                return 2;
+            case GLES20.GL_TEXTURE_WRAP_T:
+                return 3;
+            default:
+                return UNKNOWN;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package org.andresoviedo.android_3d_model_engine.drawer;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+import org.andresoviedo.android_3d_model_engine.model.Object3DData;
+import org.andresoviedo.util.android.GLUtil;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the model buffers in the GPU (vertex buffer objects), so they are uploaded once instead of being copied by the
+ * driver from client memory on every draw call.
+ * <p>
+ * Buffers are uploaded the first time they are drawn. Buffers shared by several objects (i.e. a model and its
+ * wireframe) are uploaded once and deleted when the last object using them is released. Changes to the client
+ * buffers must be notified with {@link #invalidate(Object3DData)} or {@link #invalidate(Buffer, int, int)} so they
+ * are updated with <code>glBufferSubData</code>.
+ * <p>
+ * All methods must be called from the GL thread.
+ */
+public final class GpuBufferManager {
+
+    private static final class Entry {
+        private final int target;
+        private final int usage;
+        private int name;
+        private int bytes;
+        private int owners;
+        // the upload failed (i.e. out of memory). the client buffer is used instead
+        private boolean failed;
+        // dirty range, in elements
+        private int dirtyFrom = Integer.MAX_VALUE;
+        private int dirtyTo = -1;
+
+        private Entry(int target, int usage) {
+            this.target = target;
+            this.usage = usage;
+        }
+    }
+
+    private final Map<Buffer, Entry> entries = new IdentityHashMap<>();
+    private final Map<Object3DData, List<Buffer>> owned = new IdentityHashMap<>();
+    private final int[] names = new int[1];
+
+    private boolean enabled = true;
+    private long uploadedBytes;
+    private int uploadedBytesFrame;
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Get the GL buffer name holding a copy of the client buffer, uploading it (or the dirty part) if needed
+     *
+     * @param owner  the object being drawn
+     * @param buffer the client buffer
+     * @param target <code>GL_ARRAY_BUFFER</code> or <code>GL_ELEMENT_ARRAY_BUFFER</code>
+     * @return the buffer name or 0 if the client buffer has to be used
+     */
+    public int getBuffer(Object3DData owner, Buffer buffer, int target) {
+        return getBuffer(owner, buffer, target, GLES20.GL_STATIC_DRAW);
+    }
+
+    /**
+     * Like {@link #getBuffer(Object3DData, Buffer, int)}, for buffers that are not uploaded once, i.e. the output of
+     * a skinner that is updated every frame
+     *
+     * @param usage <code>GL_STATIC_DRAW</code>, <code>GL_DYNAMIC_DRAW</code> or <code>GL_STREAM_DRAW</code>. Only
+     *              the one of the first call for the buffer is used
+     */
+    public int getBuffer(Object3DData owner, Buffer buffer, int target, int usage) {
+        if (!enabled || buffer == null || !buffer.isDirect()) {
+            return 0;
+        }
+        Entry entry = entries.get(buffer);
+        if (entry == null) {
+            entry = new Entry(target, usage);
+            entries.put(buffer, entry);
+        }
+        if (entry.target != target || entry.failed) {
+            // index data used as attribute or viceversa (don't mix them) or it didn't fit in the GPU
+            return 0;
+        }
+        List<Buffer> buffers = owned.get(owner);
+        if (buffers == null) {
+            buffers = new ArrayList<>(4);
+            owned.put(owner, buffers);
+        }
+        if (!contains(buffers, buffer)) {
+            buffers.add(buffer);
+            entry.owners++;
+        }
+        if (entry.name == 0) {
+            upload(buffer, entry);
+        } else if (entry.dirtyTo >= 0) {
+            update(buffer, entry);
+        }
+        return entry.name;
+    }
+
+    /**
+     * Mark all the buffers of the object for update. To be called when the object {@link Object3DData#isChanged()}
+     */
+    public void invalidate(Object3DData owner) {
+        final List<Buffer> buffers = owned.get(owner);
+        if (buffers == null) {
+            return;
+        }
+        for (int i = 0; i < buffers.size(); i++) {
+            invalidate(buffers.get(i), 0, buffers.get(i).capacity());
+        }
+    }
+
+    /**
+     * Mark the range of the buffer for update
+     *
+     * @param buffer the client buffer
+     * @param from   first changed element
+     * @param to     last changed element (exclusive)
+     */
+    public void invalidate(Buffer buffer, int from, int to) {
+        final Entry entry = entries.get(buffer);
+        if (entry == null || entry.name == 0) {
+            return;
+        }
+        entry.dirtyFrom = Math.min(entry.dirtyFrom, from);
+        entry.dirtyTo = Math.max(entry.dirtyTo, to);
+    }
+
+    /**
+     * The object is no longer drawn. Its buffers are deleted unless they are used by other objects
+     */
+    public void release(Object3DData owner) {
+        final List<Buffer> buffers = owned.remove(owner);
+        if (buffers == null) {
+            return;
+        }
+        for (int i = 0; i < buffers.size(); i++) {
+            final Entry entry = entries.get(buffers.get(i));
+            if (entry != null && --entry.owners <= 0) {
+                entries.remove(buffers.get(i));
+                if (entry.name != 0) {
+                    names[0] = entry.name;
+                    GLES20.glDeleteBuffers(1, names, 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * The GL context was (re)created, so all previous buffer names are gone. Buffers will be uploaded again the next
+     * time they are drawn.
+     */
+    public void onContextCreated() {
+        if (!entries.isEmpty()) {
+            Log.i("GpuBufferManager", "GL context lost. Buffers to upload again: " + entries.size());
+        }
+        for (Entry entry : entries.values()) {
+            entry.name = 0;
+            entry.bytes = 0;
+            entry.failed = false;
+        }
+    }
+
+    /**
+     * @return bytes sent to the GPU since the previous call. Static scenes should report 0 once uploaded
+     */
+    public int getUploadedBytesAndReset() {
+        final int ret = uploadedBytesFrame;
+        uploadedBytesFrame = 0;
+        return ret;
+    }
+
+    /**
+     * @return bytes sent to the GPU since this manager was created
+     */
+    public long getUploadedBytes() {
+        return uploadedBytes;
+    }
+
+    /**
+     * @return number of buffers in the GPU
+     */
+    public int getBufferCount() {
+        int ret = 0;
+        for (Entry entry : entries.values()) {
+            if (entry.name != 0) ret++;
+        }
+        return ret;
+    }
+
+    private void upload(Buffer buffer, Entry entry) {
+        GLES20.glGenBuffers(1, names, 0);
+        if (names[0] == 0) {
+            Log.e("GpuBufferManager", "Couldn't generate buffer");
+            entry.failed = true;
+            return;
+        }
+        final int bytes = buffer.capacity() * getElementSize(buffer);
+        buffer.position(0);
+        GLES20.glBindBuffer(entry.target, names[0]);
+        // errors of earlier calls aren't this upload's
+        GLUtil.clearGlErrors();
+        GLES20.glBufferData(entry.target, bytes, buffer, entry.usage);
+        GLES20.glBindBuffer(entry.target, 0);
+        if (GLUtil.checkGlErrorNow("glBufferData")) {
+            // i.e. out of memory. keep using the client buffer for this one, the rest may still fit
+            Log.w("GpuBufferManager", "Couldn't upload buffer of " + bytes + " bytes. Using client memory");
+            GLES20.glDeleteBuffers(1, names, 0);
+            entry.failed = true;
+            return;
+        }
+        entry.name = names[0];
+        entry.bytes = bytes;
+        entry.dirtyFrom = Integer.MAX_VALUE;
+        entry.dirtyTo = -1;
+        uploadedBytes += bytes;
+        uploadedBytesFrame += bytes;
+    }
+
+    private void update(Buffer buffer, Entry entry) {
+        final int elementSize = getElementSize(buffer);
+        final int from = Math.max(0, entry.dirtyFrom);
+        final int to = Math.min(buffer.capacity(), entry.dirtyTo);
+        entry.dirtyFrom = Integer.MAX_VALUE;
+        entry.dirtyTo = -1;
+        if (buffer.capacity() * elementSize != entry.bytes) {
+            // size changed
+            names[0] = entry.name;
+            GLES20.glDeleteBuffers(1, names, 0);
+            entry.name = 0;
+            upload(buffer, entry);
+            return;
+        }
+        if (from >= to) {
+            return;
+        }
+        buffer.position(from);
+        GLES20.glBindBuffer(entry.target, entry.name);
+        GLES20.glBufferSubData(entry.target, from * elementSize, (to - from) * elementSize, buffer);
+        GLES20.glBindBuffer(entry.target, 0);
+        GLUtil.checkGlError("glBufferSubData");
+        buffer.position(0);
+        uploadedBytes += (to - from) * elementSize;
+        uploadedBytesFrame += (to - from) * elementSize;
+    }
+
+    private static boolean contains(List<Buffer> buffers, Buffer buffer) {
+        for (int i = 0; i < buffers.size(); i++) {
+            if (buffers.get(i) == buffer) return true;
+        }
+        return false;
+    }
+
+    private static int getElementSize(Buffer buffer) {
+        if (buffer instanceof ByteBuffer) return 1;
+        if (buffer instanceof ShortBuffer) return 2;
+        // float and int buffers
+        return 4;
+    }
+}
@@ -0,0 +1,80 @@
+package org.andresoviedo.android_3d_model_engine.drawer;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Locations of the active uniforms and attributes of a linked program, queried once so drawing doesn't need to call
+ * <code>glGetUniformLocation</code> or <code>glGetAttribLocation</code>.
+ * <p>
+ * Each element of an uniform array is registered with its index, i.e. <code>jointTransforms[3]</code>.
+ */
+final class ProgramLocations {
+
+    private final Map<String, Integer> uniforms = new HashMap<>();
+    private final Map<String, Integer> attributes = new HashMap<>();
+
+    ProgramLocations(int program) {
+        final int[] count = new int[1];
+        final int[] size = new int[1];
+        final int[] type = new int[1];
+
+        GLES20.glGetProgramiv(program, GLES20.GL_ACTIVE_UNIFORMS, count, 0);
+        for (int i = 0; i < count[0]; i++) {
+            String name = GLES20.glGetActiveUniform(program, i, size, 0, type, 0);
+            final boolean array = size[0] > 1 || name.endsWith("[0]");
+            if (name.endsWith("[0]")) {
+                // some drivers report arrays by its name alone, others with [0]
+                name = name.substring(0, name.length() - 3);
+            }
+            if (array) {
+                for (int j = 0; j < size[0]; j++) {
+                    final String element = name + "[" + j + "]";
+                    uniforms.put(element, GLES20.glGetUniformLocation(program, element));
+                }
+            }
+            uniforms.put(name, GLES20.glGetUniformLocation(program, name));
+        }
+
+        GLES20.glGetProgramiv(program, GLES20.GL_ACTIVE_ATTRIBUTES, count, 0);
+        for (int i = 0; i < count[0]; i++) {
+            final String name = GLES20.glGetActiveAttrib(program, i, size, 0, type, 0);
+            attributes.put(name, GLES20.glGetAttribLocation(program, name));
+        }
+        Log.d("ProgramLocations", "Program " + program + ". Uniforms: " + uniforms + ", attributes: " + attributes);
+    }
+
+    /**
+     * @return the uniform location or -1 if the program doesn't use it
+     */
+    int getUniform(String name) {
+        final Integer ret = uniforms.get(name);
+        return ret != null ? ret : -1;
+    }
+
+    /**
+     * @return the location of every element of the uniform array. Elements not used by the program are -1
+     */
+    int[] getUniformArray(String name) {
+        int size = 0;
+        while (uniforms.containsKey(name + "[" + size + "]")) {
+            size++;
+        }
+        final int[] ret = new int[size];
+        for (int i = 0; i < size; i++) {
+            ret[i] = uniforms.get(name + "[" + i + "]");
+        }
+        return ret;
+    }
+
+    /**
+     * @return the attribute location or -1 if the program doesn't use it
+     */
+    int getAttribute(String name) {
+        final Integer ret = attributes.get(name);
+        return ret != null ? ret : -1;
+    }
+}
@@ -0,0 +1,111 @@
+package org.andresoviedo.android_3d_model_engine.drawer;
+
+import java.util.Arrays;
+
+/**
+ * Orders the draw calls of a frame to minimize state changes and overdraw.
+ * <p>
+ * Each item gets a 64 bit sort key. Opaque items go first, grouped by program and texture and then sorted
+ * front-to-back, so the depth test rejects hidden fragments early. Transparent items go last, sorted back-to-front as
+ * needed for blending, and then grouped by program and texture. Keys are sorted with a LSD radix sort, skipping the
+ * bytes that are the same for all keys.
+ * <p>
+ * The queue is reused between frames, so once it has grown it doesn't allocate.
+ */
+public final class RenderQueue {
+
+    private static final int PROGRAM_BITS = 10;
+    private static final int TEXTURE_BITS = 12;
+    private static final int DEPTH_BITS = 24;
+    private static final int STATE_BITS = PROGRAM_BITS + TEXTURE_BITS;
+
+    private long[] keys = new long[16];
+    private int[] items = new int[16];
+    private long[] tmpKeys = new long[16];
+    private int[] tmpItems = new int[16];
+    private final int[] counts = new int[256];
+    private int size;
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Queue an item
+     *
+     * @param item        the item, i.e. the index of the object in the scene
+     * @param program     GL program that will draw the item
+     * @param texture     GL texture used by the item or -1 if none
+     * @param transparent whether the item is drawn with blending
+     * @param depth       distance from the camera to the item
+     */
+    public void add(int item, int program, int texture, boolean transparent, float depth) {
+        if (size == keys.length) {
+            final int capacity = size * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            items = Arrays.copyOf(items, capacity);
+            tmpKeys = new long[capacity];
+            tmpItems = new int[capacity];
+        }
+        keys[size] = key(program, texture, transparent, depth);
+        items[size] = item;
+        size++;
+    }
+
+    /**
+     * Build the sort key of an item. Keys are compared as unsigned numbers
+     */
+    static long key(int program, int texture, boolean transparent, float depth) {
+        final long state = ((long) (program & ((1 << PROGRAM_BITS) - 1)) << TEXTURE_BITS)
+                | ((texture + 1) & ((1 << TEXTURE_BITS) - 1));
+        // bits of a positive float sort as the float, so we keep the most significant ones
+        final long depthBits = (Float.floatToIntBits(depth > 0 ? depth : 0f) >>> (32 - DEPTH_BITS))
+                & ((1L << DEPTH_BITS) - 1);
+        if (!transparent) {
+            return (state << DEPTH_BITS) | depthBits;
+        }
+        final long farFirst = ~depthBits & ((1L << DEPTH_BITS) - 1);
+        return (1L << (STATE_BITS + DEPTH_BITS)) | (farFirst << STATE_BITS) | state;
+    }
+
+    public void sort() {
+        final int totalBits = 1 + STATE_BITS + DEPTH_BITS;
+        for (int shift = 0; shift < totalBits; shift += 8) {
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < size; i++) {
+                counts[(int) (keys[i] >>> shift) & 0xFF]++;
+            }
+            if (size == 0 || counts[(int) (keys[0] >>> shift) & 0xFF] == size) {
+                // all keys have the same byte
+                continue;
+            }
+            for (int b = 0, sum = 0; b < 256; b++) {
+                final int count = counts[b];
+                counts[b] = sum;
+                sum += count;
+            }
+            for (int i = 0; i < size; i++) {
+                final int dst = counts[(int) (keys[i] >>> shift) & 0xFF]++;
+                tmpKeys[dst] = keys[i];
+                tmpItems[dst] = items[i];
+            }
+            final long[] k = keys;
+            keys = tmpKeys;
+            tmpKeys = k;
+            final int[] it = items;
+            items = tmpItems;
+            tmpItems = it;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the item to draw in the i-th place, once {@link #sort() sorted}
+     */
+    public int get(int i) {
+        return items[i];
+    }
+}
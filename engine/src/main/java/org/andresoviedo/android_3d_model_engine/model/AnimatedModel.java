@@ -3,6 +3,12 @@ package org.andresoviedo.android_3d_model_engine.model;
 import android.opengl.Matrix;
 
 import org.andresoviedo.android_3d_model_engine.animation.Animation;
+import org.andresoviedo.android_3d_model_engine.animation.AnimationBlender;
+import org.andresoviedo.android_3d_model_engine.animation.BakedClip;
+import org.andresoviedo.android_3d_model_engine.animation.CpuSkinner;
+import org.andresoviedo.android_3d_model_engine.animation.Skeleton;
+import org.andresoviedo.android_3d_model_engine.animation.SkeletonClip;
+import org.andresoviedo.android_3d_model_engine.collision.SkinnedPicker;
 import org.andresoviedo.android_3d_model_engine.services.collada.entities.Joint;
 import org.andresoviedo.android_3d_model_engine.services.gltf.jgltf_model.AnimationModel;
 
@@ -13,9 +19,9 @@ import java.nio.FloatBuffer;
  * This class represents an entity in the world that can be animated. It
  * contains the model's VAO which contains the mesh data, the texture, and the
  * root joint of the joint hierarchy, or "skeleton". It also holds an int which
- * represents the number of joints that the model's skeleton contains, and has
- * its own {@link org.andresoviedo.android_3d_model_engine.animation.Animator} instance which can be used to apply animations to
- * this entity.
+ * represents the number of joints that the model's skeleton contains. Its
+ * animations are applied by the
+ * {@link org.andresoviedo.android_3d_model_engine.animation.AnimationScheduler}.
  * 
  * @author Karl
  *
@@ -31,6 +37,15 @@ public class AnimatedModel extends Object3DData {
 	private Animation animation;
 	private AnimationModel gltfAnimation = null;
 
+	// flattened skeleton, evaluated by the AnimationScheduler
+	private Skeleton skeleton;
+	private SkeletonClip clip;
+	private BakedClip bakedClip;
+	private AnimationBlender blender;
+	private float animationOffset;
+	private CpuSkinner skinner;
+	private volatile SkinnedPicker picker;
+
 	// cache
 	private float[][] jointMatrices;
 
@@ -66,6 +81,10 @@ public class AnimatedModel extends Object3DData {
         Matrix.setIdentityM(parentTransform,0);
         rootJoint.calcInverseBindTransform(parentTransform, recalculateInverseBindTransforms);
         this.jointMatrices = new float[boneCount][16];
+        this.skeleton = new Skeleton(rootJoint, boneCount);
+        this.clip = null;
+        this.bakedClip = null;
+        this.blender = null;
 		return this;
 	}
 
@@ -84,6 +103,7 @@ public class AnimatedModel extends Object3DData {
 
 	public AnimatedModel setJointIds(FloatBuffer jointIds){
 		this.jointIds = jointIds;
+		setChanged(true);
 		return this;
 	}
 
@@ -93,6 +113,7 @@ public class AnimatedModel extends Object3DData {
 
 	public AnimatedModel setVertexWeights(FloatBuffer vertexWeigths){
 		this.vertexWeigths = vertexWeigths;
+		setChanged(true);
 		return this;
 	}
 
@@ -102,6 +123,8 @@ public class AnimatedModel extends Object3DData {
 
 	public AnimatedModel doAnimation(Animation animation){
 		this.animation = animation;
+		this.clip = null;
+		this.bakedClip = null;
 		return this;
 	}
 
@@ -127,6 +150,96 @@ public class AnimatedModel extends Object3DData {
 		return rootJoint;
 	}
 
+	/**
+	 * @return the skeleton flattened into arrays, with its own pose, or null if the model has no joints
+	 */
+	public Skeleton getSkeleton() {
+		return skeleton;
+	}
+
+	/**
+	 * @param skeleton skeleton of another instance with the same joints, to draw the same pose
+	 */
+	public AnimatedModel setSkeleton(Skeleton skeleton) {
+		this.skeleton = skeleton;
+		this.clip = null;
+		return this;
+	}
+
+	/**
+	 * @return the current animation resolved against the skeleton, built on first use
+	 */
+	public SkeletonClip getClip() {
+		if (clip == null && animation != null && skeleton != null) {
+			clip = new SkeletonClip(animation, skeleton);
+		}
+		return clip;
+	}
+
+	/**
+	 * @param bakedClip the current animation baked for this skeleton, played instead of evaluating the animation.
+	 *                  It can be shared with other instances of the model
+	 */
+	public AnimatedModel setBakedClip(BakedClip bakedClip) {
+		this.bakedClip = bakedClip;
+		return this;
+	}
+
+	public BakedClip getBakedClip() {
+		return bakedClip;
+	}
+
+	/**
+	 * @param blender mixes several clips on the skeleton of this model. When set, it's played instead of the
+	 *                animation
+	 */
+	public AnimatedModel setBlender(AnimationBlender blender) {
+		this.blender = blender;
+		return this;
+	}
+
+	public AnimationBlender getBlender() {
+		return blender;
+	}
+
+	/**
+	 * @param animationOffset seconds this instance is ahead in its animation, so copies of a model don't move in
+	 *                        sync
+	 */
+	public AnimatedModel setAnimationOffset(float animationOffset) {
+		this.animationOffset = animationOffset;
+		return this;
+	}
+
+	public float getAnimationOffset() {
+		return animationOffset;
+	}
+
+	/**
+	 * @param skinner skins this model in the CPU, so it's drawn with its skinned buffers instead of being skinned by
+	 *                the shaders. Null to skin it in the GPU
+	 */
+	public AnimatedModel setSkinner(CpuSkinner skinner) {
+		this.skinner = skinner;
+		return this;
+	}
+
+	public CpuSkinner getSkinner() {
+		return skinner;
+	}
+
+	/**
+	 * @param picker finds the triangles hit in the current pose, used for picking instead of the octree
+	 */
+	public AnimatedModel setPicker(SkinnedPicker picker) {
+		this.picker = picker;
+		return this;
+	}
+
+	public SkinnedPicker getPicker() {
+		return picker;
+	}
+
 	/**
 	 * Gets an array of the all important model-space transforms of all the
 	 * joints (with the current animation pose applied) in the entity. The
@@ -137,28 +250,25 @@ public class AnimatedModel extends Object3DData {
 	 *         animation pose.
 	 */
 	public float[][] getJointTransforms() {
-		addJointsToArray(rootJoint, jointMatrices);
+		final float[] palette = skeleton.getPublishedPalette();
+		for (int i = 0; i < jointMatrices.length; i++) {
+			System.arraycopy(palette, i * 16, jointMatrices[i], 0, 16);
+		}
 		return jointMatrices;
 	}
 
 	/**
-	 * This adds the current model-space transform of a joint (and all of its
-	 * descendants) into an array of transforms. The joint's transform is added
-	 * into the array at the position equal to the joint's index.
-	 * 
-	 * @param headJoint
-	 *            - the current joint being added to the array. This method also
-	 *            adds the transforms of all the descendents of this joint too.
-	 * @param jointMatrices
-	 *            - the array of joint transforms that is being filled.
+	 * Gets the model-space transforms of all the joints (with the current animation pose applied) packed in a single
+	 * array, so they can be uploaded with a single <code>glUniformMatrix4fv</code> call or used to skin the mesh in
+	 * the CPU. The transform of the joint with index i starts at <code>i*16</code>.
+	 * <p>
+	 * This is the palette published by the
+	 * {@link org.andresoviedo.android_3d_model_engine.animation.AnimationScheduler}, so it's not modified while it's
+	 * drawn. A different array may be returned after every frame.
+	 *
+	 * @return the joint matrices, <code>boneCount * 16</code> floats
 	 */
-	private void addJointsToArray(Joint headJoint, float [][] jointMatrices) {
-		if (headJoint.getIndex() >= 0) {
-			jointMatrices[headJoint.getIndex()] = headJoint.getAnimatedTransform();
-		}
-		for (int i=0; i<headJoint.getChildren().size(); i++) {
-			Joint childJoint = headJoint.getChildren().get(i);
-			addJointsToArray(childJoint, jointMatrices);
-		}
+	public float[] getJointPalette() {
+		return skeleton.getPublishedPalette();
 	}
 }
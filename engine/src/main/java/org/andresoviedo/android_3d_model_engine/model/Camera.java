@@ -275,6 +275,21 @@ public class Camera {
 		}
 	}
 
+	/**
+	 * Copies the position, view and up vectors to another camera
+	 */
+	public synchronized void copyTo(Camera camera) {
+		camera.xPos = xPos;
+		camera.yPos = yPos;
+		camera.zPos = zPos;
+		camera.xView = xView;
+		camera.yView = yView;
+		camera.zView = zView;
+		camera.xUp = xUp;
+		camera.yUp = yUp;
+		camera.zUp = zUp;
+	}
+
 	public boolean hasChanged() {
 		return changed;
 	}
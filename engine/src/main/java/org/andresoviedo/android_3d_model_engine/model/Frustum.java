@@ -0,0 +1,89 @@
+package org.andresoviedo.android_3d_model_engine.model;
+
+/**
+ * View frustum, used to skip drawing the objects that are not on screen.
+ * <p>
+ * The six planes are extracted from a view-projection matrix (column-major, as used by {@link android.opengl.Matrix}).
+ * Boxes are tested against each plane using their center and half extents, so the test doesn't allocate. The test is
+ * conservative: boxes near the corners of the frustum can be reported as visible, but visible boxes are never culled.
+ */
+public final class Frustum {
+
+    public static final int OUTSIDE = 0;
+    public static final int INTERSECTING = 1;
+    public static final int INSIDE = 2;
+
+    // a, b, c, d for left, right, bottom, top, near & far planes
+    private final float[] planes = new float[24];
+
+    /**
+     * Extract the planes of the view-projection matrix
+     */
+    public void set(float[] viewProjectionMatrix) {
+        final float[] m = viewProjectionMatrix;
+        for (int i = 0; i < 3; i++) {
+            for (int c = 0; c < 4; c++) {
+                // row 3 +/- row i
+                planes[i * 8 + c] = m[c * 4 + 3] + m[c * 4 + i];
+                planes[i * 8 + 4 + c] = m[c * 4 + 3] - m[c * 4 + i];
+            }
+        }
+    }
+
+    /**
+     * Test a box in model space, transformed to world space with the model matrix
+     *
+     * @param localBounds min x,y,z and max x,y,z
+     * @param modelMatrix the model matrix
+     * @return <code>false</code> if the box is completely outside the frustum
+     */
+    public boolean intersects(float[] localBounds, float[] modelMatrix) {
+        final float cx = (localBounds[0] + localBounds[3]) * 0.5f;
+        final float cy = (localBounds[1] + localBounds[4]) * 0.5f;
+        final float cz = (localBounds[2] + localBounds[5]) * 0.5f;
+        final float ex = (localBounds[3] - localBounds[0]) * 0.5f;
+        final float ey = (localBounds[4] - localBounds[1]) * 0.5f;
+        final float ez = (localBounds[5] - localBounds[2]) * 0.5f;
+        final float[] m = modelMatrix;
+        // world space box enclosing the transformed box
+        final float wcx = m[0] * cx + m[4] * cy + m[8] * cz + m[12];
+        final float wcy = m[1] * cx + m[5] * cy + m[9] * cz + m[13];
+        final float wcz = m[2] * cx + m[6] * cy + m[10] * cz + m[14];
+        final float wex = Math.abs(m[0]) * ex + Math.abs(m[4]) * ey + Math.abs(m[8]) * ez;
+        final float wey = Math.abs(m[1]) * ex + Math.abs(m[5]) * ey + Math.abs(m[9]) * ez;
+        final float wez = Math.abs(m[2]) * ex + Math.abs(m[6]) * ey + Math.abs(m[10]) * ez;
+        return intersects(wcx, wcy, wcz, wex, wey, wez);
+    }
+
+    /**
+     * Test a box in world space
+     *
+     * @return <code>false</code> if the box is completely outside the frustum
+     */
+    public boolean intersects(float centerX, float centerY, float centerZ,
+                              float extentX, float extentY, float extentZ) {
+        return classify(centerX, centerY, centerZ, extentX, extentY, extentZ) != OUTSIDE;
+    }
+
+    /**
+     * Classify a box in world space, so a hierarchy of boxes can skip testing the children of boxes fully inside
+     *
+     * @return {@link #OUTSIDE}, {@link #INTERSECTING} or {@link #INSIDE}
+     */
+    public int classify(float centerX, float centerY, float centerZ,
+                        float extentX, float extentY, float extentZ) {
+        int ret = INSIDE;
+        for (int p = 0; p < 24; p += 4) {
+            final float a = planes[p], b = planes[p + 1], c = planes[p + 2], d = planes[p + 3];
+            final float distance = a * centerX + b * centerY + c * centerZ + d;
+            final float radius = Math.abs(a) * extentX + Math.abs(b) * extentY + Math.abs(c) * extentZ;
+            if (distance + radius < 0) {
+                return OUTSIDE;
+            }
+            if (distance - radius < 0) {
+                ret = INTERSECTING;
+            }
+        }
+        return ret;
+    }
+}
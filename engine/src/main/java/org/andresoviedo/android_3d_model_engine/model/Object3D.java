@@ -2,6 +2,11 @@ package org.andresoviedo.android_3d_model_engine.model;
 
 public interface Object3D {
 
+	/**
+	 * @return the GL program used to draw, so draw calls can be grouped by program
+	 */
+	int getProgram();
+
 	void draw(Object3DData obj, float[] pMatrix, float[] vMatrix, int textureId, float[] lightPosInEyeSpace);
 
 	void draw(Object3DData obj, float[] pMatrix, float[] vMatrix, int textureId, float[] lightPosInEyeSpace, float[] colorMask);
@@ -10,4 +15,14 @@ public interface Object3D {
 
 	void draw(Object3DData obj, float[] pMatrix, float[] vMatrix, int drawType, int drawSize, int textureId, float[]
 			lightPosInEyeSpace, float[] colorMask);
+
+	/**
+	 * Draws the object placed with the specified model matrix instead of its current transform, i.e. the draw matrix
+	 * captured in a snapshot of the scene
+	 *
+	 * @param mMatrices     model matrices
+	 * @param mMatrixOffset offset of the model matrix of the object in mMatrices
+	 */
+	void draw(Object3DData obj, float[] mMatrices, int mMatrixOffset, float[] pMatrix, float[] vMatrix, int drawType,
+			  int drawSize, int textureId, float[] lightPosInEyeSpace, float[] colorMask);
 }
\ No newline at end of file
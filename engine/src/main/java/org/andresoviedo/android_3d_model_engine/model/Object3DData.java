@@ -70,6 +70,8 @@ public class Object3DData {
 	private FloatBuffer vertexBuffer = null;
 	private FloatBuffer vertexNormalsBuffer = null;
 	private Buffer drawOrderBuffer = null;
+	// drawOrderBuffer widened to ints, when it's made of shorts
+	private IntBuffer intDrawOrderBuffer = null;
 
 	private ArrayList<Tuple3> texCoords;
 	private Faces faces;
@@ -86,6 +88,9 @@ public class Object3DData {
 	private FloatBuffer vertexColorsArrayBuffer = null;
 	private FloatBuffer vertexNormalsArrayBuffer = null;
 	private List<int[]> drawModeList = null;
+	// interleaved copy of the processed arrays (optional)
+	private FloatBuffer interleavedBuffer = null;
+	private VertexLayout vertexLayout = null;
 
 	// texture
 	private byte[] textureData = null;
@@ -108,6 +113,8 @@ public class Object3DData {
 	private int emissiveTextureMagFilter = GLES20.GL_NEAREST;
 	// derived data
 	private BoundingBox boundingBox;
+	// min x,y,z & max x,y,z of the vertices, in model space
+	private float[] localBounds;
 
 	// Transformation data
 	protected float[] translation = new float[] {0f, 0f, 0f};
@@ -132,8 +139,8 @@ public class Object3DData {
 	private WavefrontLoader.ModelDimensions modelDimensions;
 	private WavefrontLoader loader;
 
-	// collision detection
-	private Octree octree = null;
+	// collision detection. built in background, so it's published to other threads when set
+	private volatile Octree octree = null;
 
 	// errors detected
 	private List<String> errors = new ArrayList<>();
@@ -237,6 +244,16 @@ public class Object3DData {
 		return changed;
 	}
 
+	/**
+	 * Flag the object buffers as modified, so the derived data (i.e. gpu buffers, wireframe) is built again
+	 */
+	public void setChanged(boolean changed) {
+		this.changed = changed;
+		if (changed) {
+			localBounds = null;
+		}
+	}
+
 	public Object3DData setId(String id) {
 		this.id = id;
 		return this;
@@ -338,6 +355,7 @@ public class Object3DData {
 	}
 	public Object3DData setEmissiveTextureCoordsArrayBuffer(FloatBuffer emissiveTextureCoordsArrayBuffer) {
 		this.emissiveTextureCoordsArrayBuffer =  emissiveTextureCoordsArrayBuffer;
+		setChanged(true);
 		return this;
 	}
 	public byte[] getEmissiveTextureData() {
@@ -535,6 +553,29 @@ public class Object3DData {
 		return modelMatrix;
 	}
 
+	/**
+	 * Calculate the transformation applied by the drawers, which differs from the {@link #getModelMatrix()} in the
+	 * order of the operations
+	 *
+	 * @param out the 4x4 matrix to fill
+	 * @return the out matrix
+	 */
+	public float[] getDrawMatrix(float[] out) {
+		Matrix.setIdentityM(out, 0);
+		if (getRotation() != null) {
+			Matrix.rotateM(out, 0, getRotation()[0], 1f, 0f, 0f);
+			Matrix.rotateM(out, 0, getRotation()[1], 0, 1f, 0f);
+			Matrix.rotateM(out, 0, getRotationZ(), 0, 0, 1f);
+		}
+		if (getScale() != null) {
+			Matrix.scaleM(out, 0, getScaleX(), getScaleY(), getScaleZ());
+		}
+		if (getPosition() != null) {
+			Matrix.translateM(out, 0, getPositionX(), getPositionY(), getPositionZ());
+		}
+		return out;
+	}
+
 	public void setModelMatrix(float[] mMatrix){
 		if (mMatrix != null){
 			this.modelMatrix = mMatrix;
@@ -545,7 +586,23 @@ public class Object3DData {
 		return drawOrderBuffer;
 	}
 
+	/**
+	 * @return the draw buffer as int. If the draw buffer is made of shorts, a copy is made on the first call and
+	 * returned by the next ones, until the draw buffer is replaced
+	 */
 	public IntBuffer getDrawOrder() {
+		if (drawOrderBuffer instanceof ShortBuffer){
+			if (intDrawOrderBuffer == null) {
+				final ShortBuffer shorts = (ShortBuffer) drawOrderBuffer;
+				final IntBuffer ints = createNativeByteBuffer(shorts.capacity() * 4).asIntBuffer();
+				for (int i = 0; i < shorts.capacity(); i++) {
+					ints.put(i, shorts.get(i) & 0xFFFF);
+				}
+				intDrawOrderBuffer = ints;
+			}
+			intDrawOrderBuffer.position(0);
+			return intDrawOrderBuffer;
+		}
 		return (IntBuffer)drawOrderBuffer;
 	}
 
@@ -566,6 +623,8 @@ public class Object3DData {
 
 	public Object3DData setDrawOrder(Buffer drawBuffer) {
 		this.drawOrderBuffer = drawBuffer;
+		this.intDrawOrderBuffer = null;
+		setChanged(true);
 		return this;
 	}
 
@@ -661,6 +720,7 @@ public class Object3DData {
 
 	public Object3DData setVertexBuffer(FloatBuffer vertexBuffer) {
 		this.vertexBuffer = vertexBuffer;
+		setChanged(true);
 		return this;
 	}
 
@@ -670,6 +730,7 @@ public class Object3DData {
 
 	public Object3DData setVertexNormalsBuffer(FloatBuffer vertexNormalsBuffer) {
 		this.vertexNormalsBuffer = vertexNormalsBuffer;
+		setChanged(true);
 		return this;
 	}
 
@@ -679,6 +740,7 @@ public class Object3DData {
 
 	public Object3DData setVertexArrayBuffer(FloatBuffer vertexArrayBuffer) {
 		this.vertexArrayBuffer = vertexArrayBuffer;
+		setChanged(true);
 		return this;
 	}
 
@@ -688,6 +750,7 @@ public class Object3DData {
 
 	public Object3DData setVertexNormalsArrayBuffer(FloatBuffer vertexNormalsArrayBuffer) {
 		this.vertexNormalsArrayBuffer = vertexNormalsArrayBuffer;
+		setChanged(true);
 		return this;
 	}
 
@@ -697,6 +760,7 @@ public class Object3DData {
 
 	public Object3DData setTextureCoordsArrayBuffer(FloatBuffer textureCoordsArrayBuffer) {
 		this.textureCoordsArrayBuffer = textureCoordsArrayBuffer;
+		setChanged(true);
 		return this;
 	}
 
@@ -715,6 +779,28 @@ public class Object3DData {
 
 	public Object3DData setVertexColorsArrayBuffer(FloatBuffer vertexColorsArrayBuffer) {
 		this.vertexColorsArrayBuffer = vertexColorsArrayBuffer;
+		setChanged(true);
+		return this;
+	}
+
+	/**
+	 * @return the vertex attributes interleaved in a single buffer or <code>null</code> if the model is not packed
+	 * @see #getVertexLayout()
+	 */
+	public FloatBuffer getInterleavedBuffer() {
+		return interleavedBuffer;
+	}
+
+	/**
+	 * @return the layout of the interleaved buffer or <code>null</code> if the model is not packed
+	 */
+	public VertexLayout getVertexLayout() {
+		return vertexLayout;
+	}
+
+	public Object3DData setInterleavedBuffer(FloatBuffer interleavedBuffer, VertexLayout vertexLayout) {
+		this.interleavedBuffer = interleavedBuffer;
+		this.vertexLayout = interleavedBuffer != null ? vertexLayout : null;
 		return this;
 	}
 
@@ -797,6 +883,7 @@ public class Object3DData {
 			vertexBuffer.put(i + 1, y);
 			vertexBuffer.put(i + 2, z);
 		}
+		setChanged(true);
 
 		return this;
 	}
@@ -873,6 +960,7 @@ public class Object3DData {
 			vertexBufferNew.put(i + 1, y * explodeFactor);
 			vertexBufferNew.put(i + 2, z * explodeFactor);
 		}
+		setChanged(true);
 
 		if (drawOrderBuffer != null) {
 			Log.e("Object3DData", "Cant explode object composed of indexes '" + getId() + "'");
@@ -926,6 +1014,32 @@ public class Object3DData {
 		return bb;
 	}
 
+	/**
+	 * Bounds of the vertices before applying the model matrix, calculated once until the vertices change
+	 *
+	 * @return min x,y,z and max x,y,z or <code>null</code> if there are no vertices
+	 */
+	public float[] getLocalBounds() {
+		if (localBounds != null) {
+			return localBounds;
+		}
+		FloatBuffer vertexBuffer = getVertexBuffer() != null ? getVertexBuffer() : getVertexArrayBuffer();
+		if (vertexBuffer == null || vertexBuffer.capacity() < 3) {
+			return null;
+		}
+		float[] bounds = {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE,
+				-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+		for (int i = 0; i + 2 < vertexBuffer.capacity(); i += 3) {
+			for (int c = 0; c < 3; c++) {
+				float v = vertexBuffer.get(i + c);
+				if (v < bounds[c]) bounds[c] = v;
+				if (v > bounds[3 + c]) bounds[3 + c] = v;
+			}
+		}
+		localBounds = bounds;
+		return bounds;
+	}
+
 	public BoundingBox getBoundingBox() {
 		FloatBuffer vertexBuffer = getVertexBuffer();
 		if (vertexBuffer == null){
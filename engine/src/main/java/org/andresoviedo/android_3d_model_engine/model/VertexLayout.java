@@ -0,0 +1,110 @@
+package org.andresoviedo.android_3d_model_engine.model;
+
+import java.util.Arrays;
+
+/**
+ * Layout of an interleaved vertex buffer, where all the attributes of a vertex are stored together (i.e.
+ * <code>x,y,z,nx,ny,nz,u,v,x,y,z,...</code>).
+ * <p>
+ * Attributes are always floats. Offsets are in floats from the start of the vertex, stride is in bytes as expected by
+ * <code>glVertexAttribPointer</code>.
+ */
+public final class VertexLayout {
+
+    public static final int POSITION = 0;
+    public static final int NORMAL = 1;
+    public static final int COLOR = 2;
+    public static final int TEXTURE_COORDS = 3;
+    public static final int EMISSIVE_TEXTURE_COORDS = 4;
+    public static final int JOINT_IDS = 5;
+    public static final int WEIGHTS = 6;
+
+    public static final int ATTRIBUTE_COUNT = 7;
+
+    private final int[] sizes = new int[ATTRIBUTE_COUNT];
+    private final int[] offsets = new int[ATTRIBUTE_COUNT];
+    private final int vertexSize;
+
+    /**
+     * @param sizes number of components of each attribute, indexed by attribute (i.e. {@link #NORMAL}).
+     *              0 means the attribute is not present
+     */
+    public VertexLayout(int[] sizes) {
+        int offset = 0;
+        for (int i = 0; i < ATTRIBUTE_COUNT && i < sizes.length; i++) {
+            this.sizes[i] = sizes[i];
+            this.offsets[i] = sizes[i] > 0 ? offset : -1;
+            offset += sizes[i];
+        }
+        for (int i = sizes.length; i < ATTRIBUTE_COUNT; i++) {
+            this.offsets[i] = -1;
+        }
+        this.vertexSize = offset;
+    }
+
+    public boolean has(int attribute) {
+        return sizes[attribute] > 0;
+    }
+
+    /**
+     * @return number of attributes present
+     */
+    public int getAttributeCount() {
+        int count = 0;
+        for (int i = 0; i < ATTRIBUTE_COUNT; i++) {
+            if (has(i)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return number of components of the attribute or 0 if not present
+     */
+    public int getSize(int attribute) {
+        return sizes[attribute];
+    }
+
+    /**
+     * @return offset of the attribute in floats or -1 if not present
+     */
+    public int getOffset(int attribute) {
+        return offsets[attribute];
+    }
+
+    /**
+     * @return number of floats per vertex
+     */
+    public int getVertexSize() {
+        return vertexSize;
+    }
+
+    /**
+     * @return bytes per vertex
+     */
+    public int getStride() {
+        return vertexSize * 4;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof VertexLayout && Arrays.equals(sizes, ((VertexLayout) o).sizes);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(sizes);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("VertexLayout{stride=").append(getStride());
+        for (int i = 0; i < ATTRIBUTE_COUNT; i++) {
+            if (has(i)) {
+                sb.append(", ").append(i).append(':').append(offsets[i]).append('+').append(sizes[i]);
+            }
+        }
+        return sb.append('}').toString();
+    }
+}
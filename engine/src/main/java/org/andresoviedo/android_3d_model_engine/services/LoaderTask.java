@@ -4,8 +4,16 @@ import android.app.Activity;
 import android.app.ProgressDialog;
 import android.net.Uri;
 import android.os.AsyncTask;
-
+import android.util.Log;
+
+import org.andresoviedo.android_3d_model_engine.animation.BakedClip;
+import org.andresoviedo.android_3d_model_engine.animation.CpuSkinner;
+import org.andresoviedo.android_3d_model_engine.collision.Octree;
+import org.andresoviedo.android_3d_model_engine.collision.SkinnedPicker;
+import org.andresoviedo.android_3d_model_engine.drawer.DrawerFactory;
+import org.andresoviedo.android_3d_model_engine.model.AnimatedModel;
 import org.andresoviedo.android_3d_model_engine.model.Object3DData;
+import org.andresoviedo.android_3d_model_engine.services.cache.ModelCache;
 
 import java.util.List;
 
@@ -28,6 +36,10 @@ public abstract class LoaderTask extends AsyncTask<Void, Integer, List<Object3DD
 	 * The dialog that will show the progress of the loading
 	 */
 	private final ProgressDialog dialog;
+	/**
+	 * Cache of already parsed models
+	 */
+	private final ModelCache cache;
 
 	/**
 	 * Build a new progress dialog for loading the data model asynchronously
@@ -39,7 +51,9 @@ public abstract class LoaderTask extends AsyncTask<Void, Integer, List<Object3DD
 		// this.dialog = ProgressDialog.show(this.parent, "Please wait ...", "Loading model data...", true);
 		// this.dialog.setTitle(modelId);
 		this.dialog = new ProgressDialog(parent);
-		this.callback = callback; }
+		this.callback = callback;
+		this.cache = ModelCache.getInstance(parent);
+	}
 
 
 	@Override
@@ -56,9 +70,31 @@ public abstract class LoaderTask extends AsyncTask<Void, Integer, List<Object3DD
 	protected List<Object3DData> doInBackground(Void... params) {
 		try {
 		    callback.onStart();
-			List<Object3DData> data = build();
-			build(data);
+			final String cacheKey = getLoaderVersion() > 0 ? ModelCache.buildKey(uri, getLoaderVersion()) : null;
+			List<Object3DData> data = cacheKey != null ? cache.get(cacheKey) : null;
+			if (data == null) {
+				data = build();
+				build(data);
+				if (cacheKey != null) {
+					cache.put(cacheKey, data);
+				}
+			} else {
+				Log.i("LoaderTask", "Model loaded from cache: " + uri);
+			}
+			if (getBakeRate() > 0) {
+				bake(data, cacheKey);
+			}
+			prepareSkinning(data);
+			for (Object3DData obj : data) {
+				VertexPacker.pack(obj);
+				// built from scratch. nothing derived from the buffers yet that needs to be refreshed
+				obj.setChanged(false);
+			}
             callback.onLoadComplete(data);
+			// so picking doesn't have to wait for it
+			for (Object3DData obj : data) {
+				Octree.buildAsync(obj);
+			}
 			return  data;
 		} catch (Exception ex) {
             callback.onLoadError(ex);
@@ -66,6 +102,94 @@ public abstract class LoaderTask extends AsyncTask<Void, Integer, List<Object3DD
 		}
 	}
 
+	/**
+	 * Version of the data built by this loader, part of the model cache key. It must be increased whenever the loader
+	 * changes the data it builds.
+	 *
+	 * @return the version or 0 if the models built by this loader should not be cached
+	 */
+	protected int getLoaderVersion() {
+		return 0;
+	}
+
+	/**
+	 * Rate at which animations are baked after loading, so they are played back without evaluating the skeleton
+	 *
+	 * @return frames per second or 0 to play animations exactly
+	 */
+	protected float getBakeRate() {
+		return 0;
+	}
+
+	/**
+	 * Whether to skin animated models in the CPU even if their bones fit in the shaders. Models with more bones are
+	 * always skinned in the CPU
+	 *
+	 * @return true to skin all the animated models in the CPU
+	 */
+	protected boolean isCpuSkinning() {
+		return false;
+	}
+
+	private void prepareSkinning(List<Object3DData> data) {
+		for (Object3DData obj : data) {
+			if (!(obj instanceof AnimatedModel)) {
+				continue;
+			}
+			final AnimatedModel model = (AnimatedModel) obj;
+			if (model.getSkeleton() == null || model.getJointIds() == null) {
+				continue;
+			}
+			try {
+				if (model.getSkinner() == null
+						&& (isCpuSkinning() || model.getBoneCount() > DrawerFactory.MAX_SHADER_JOINTS)) {
+					model.setSkinner(new CpuSkinner(model));
+					Log.i("LoaderTask", "Skinning " + model.getId() + " in the CPU. Bones: " + model.getBoneCount());
+				}
+				// picks the animated mesh where it's drawn
+				if (model.getPicker() == null) {
+					model.setPicker(new SkinnedPicker(model));
+				}
+			} catch (IllegalArgumentException ex) {
+				Log.e("LoaderTask", "Can't skin " + model.getId() + ": " + ex.getMessage());
+			}
+		}
+	}
+
+	private void bake(List<Object3DData> data, String cacheKey) {
+		final float rate = getBakeRate();
+		for (int i = 0; i < data.size(); i++) {
+			if (!(data.get(i) instanceof AnimatedModel)) {
+				continue;
+			}
+			final AnimatedModel model = (AnimatedModel) data.get(i);
+			if (model.getAnimation() == null || model.getSkeleton() == null || model.getBakedClip() != null) {
+				continue;
+			}
+			final String key = cacheKey != null ? cacheKey + "|baked|" + i + "|" + rate : null;
+			BakedClip clip = key != null ? cache.getBakedClip(key) : null;
+			if (clip == null || clip.getBoneCount() != model.getBoneCount()) {
+				final long start = System.currentTimeMillis();
+				clip = BakedClip.bake(model.getAnimation(), model.getSkeleton(), rate);
+				Log.i("LoaderTask", "Baked " + model.getId() + ": " + clip.getFrameCount() + " frames in "
+						+ (System.currentTimeMillis() - start) + " ms. Max error: "
+						+ clip.measureError(model.getAnimation(), model.getSkeleton()));
+				if (key != null) {
+					cache.putBakedClip(key, clip);
+				}
+			}
+			// instances of the same skeleton and animation share the clip
+			for (int j = i; j < data.size(); j++) {
+				if (data.get(j) instanceof AnimatedModel) {
+					final AnimatedModel other = (AnimatedModel) data.get(j);
+					if (other.getAnimation() == model.getAnimation() && other.getRootJoint() == model.getRootJoint()) {
+						other.setBakedClip(clip);
+					}
+				}
+			}
+		}
+	}
+
 	protected abstract List<Object3DData> build() throws Exception;
 
 	protected abstract void build(List<Object3DData> data) throws Exception;
@@ -416,14 +416,7 @@ public final class Object3DBuilder {
 
 			InputStream is = new URL(modelUri.toString()).openStream();
 			WavefrontLoader wfl = new WavefrontLoader(modelUri.toString());
-			wfl.analyzeModel(is);
-			is.close();
-
-			wfl.allocateBuffers();
-
-			is = new URL(modelUri.toString()).openStream();
 			wfl.loadModel(is);
-			is.close();
 
 			Object3DData data3D = new Object3DData(wfl.getVerts(), wfl.getNormals(), wfl.getTexCoords(), wfl.getFaces(),
 					wfl.getFaceMats(), wfl.getMaterials());
@@ -444,6 +437,18 @@ public final class Object3DBuilder {
 	}
 
 	public static Object3DData generateArrays(Object3DData obj) throws IOException {
+		return generateArrays(obj, true);
+	}
+
+	/**
+	 * Build the buffers to draw the model faces
+	 *
+	 * @param obj     the model with faces
+	 * @param indexed <code>true</code> to merge the identical vertices and draw them with an index buffer,
+	 *                <code>false</code> to have 3 vertices per face and draw them as arrays
+	 * @return the same model
+	 */
+	public static Object3DData generateArrays(Object3DData obj, boolean indexed) throws IOException {
 
 	    Log.i("Object3DBuilder","Generating arrays for "+obj.getId());
 
@@ -491,7 +496,7 @@ public final class Object3DBuilder {
 			// calculate normals for all triangles
 			Log.i("Object3DBuilder", "Model without normals. Calculating [" + faces.getIndexBuffer().capacity() / 3 + "] normals...");
 
-			final float[] v0 = new float[3], v1 = new float[3], v2 = new float[3];
+			final float[] v0 = new float[3], v1 = new float[3], v2 = new float[3], normal = new float[3];
 			for (int i = 0; i < faces.getIndexBuffer().capacity(); i += 3) {
 				try {
 					v0[0] = vertexBuffer.get(faces.getIndexBuffer().get(i) * 3);
@@ -506,7 +511,7 @@ public final class Object3DBuilder {
 					v2[1] = vertexBuffer.get(faces.getIndexBuffer().get(i + 2) * 3 + 1);
 					v2[2] = vertexBuffer.get(faces.getIndexBuffer().get(i + 2) * 3 + 2);
 
-					float[] normal = Math3DUtils.calculateFaceNormal2(v0, v1, v2);
+					Math3DUtils.calculateFaceNormal2(normal, 0, v0, 0, v1, 0, v2, 0);
 
 					vertexNormalsArrayBuffer.put(i*3,normal[0]);
 					vertexNormalsArrayBuffer.put(i*3+1,normal[1]);
@@ -662,9 +667,34 @@ public final class Object3DBuilder {
 		//}
 		obj.setTextureData(textureData);
 
+		if (indexed) {
+			indexArrays(obj, faces.getVerticesReferencesCount());
+		}
+
 		return obj;
 	}
 
+	/**
+	 * Replace the per face vertex arrays with the unique vertices and build the draw order to index them
+	 */
+	private static void indexArrays(Object3DData obj, int verticesCount) {
+		final VertexIndexer indexer = new VertexIndexer(verticesCount)
+				.add(obj.getVertexArrayBuffer(), 3)
+				.add(obj.getVertexNormalsArrayBuffer(), 3)
+				.add(obj.getVertexColorsArrayBuffer(), 4)
+				.add(obj.getTextureCoordsArrayBuffer(), 2);
+		final int uniqueCount = indexer.index();
+		Log.i("Object3DBuilder", "Indexed vertices for "+obj.getId()+". Unique: "+uniqueCount+" of "+verticesCount);
+
+		obj.setVertexArrayBuffer(indexer.compact(obj.getVertexArrayBuffer()));
+		obj.setVertexNormalsArrayBuffer(indexer.compact(obj.getVertexNormalsArrayBuffer()));
+		obj.setVertexColorsArrayBuffer(indexer.compact(obj.getVertexColorsArrayBuffer()));
+		obj.setTextureCoordsArrayBuffer(indexer.compact(obj.getTextureCoordsArrayBuffer()));
+		obj.setDrawOrder(indexer.getIndices());
+		obj.setDrawOrderBufferType(indexer.getIndexType());
+		obj.setDrawUsingArrays(false);
+	}
+
 	public static Object3DData buildBoundingBox(Object3DData obj) {
 		BoundingBoxBuilder boundingBox = new BoundingBoxBuilder(obj.getBoundingBox(),
 				obj.getColor());
@@ -716,6 +746,10 @@ public final class Object3DBuilder {
 					object3DData.setRootJoint(((AnimatedModel) objData).getRootJoint(), ((AnimatedModel) objData)
 							.getJointCount(), ((AnimatedModel) objData).getBoneCount(), false);
 					object3DData.doAnimation(((AnimatedModel) objData).getAnimation());
+					object3DData.setBakedClip(((AnimatedModel) objData).getBakedClip());
+					// draws the pose of the model
+					object3DData.setSkeleton(((AnimatedModel) objData).getSkeleton());
+					object3DData.setSkinner(((AnimatedModel) objData).getSkinner());
 					return object3DData;
 				}
 				else {
@@ -805,15 +839,16 @@ public final class Object3DBuilder {
 					* /* bytes per float */4;
 			normalsLines = createNativeByteBuffer(size).asFloatBuffer();
 			drawBuffer.position(0);
-			for (int i = 0; i < drawBuffer.capacity(); i += 3) {
-				int v1 = drawBuffer.get() * COORDS_PER_VERTEX;
-				int v2 = drawBuffer.get() * COORDS_PER_VERTEX;
-				int v3 = drawBuffer.get() * COORDS_PER_VERTEX;
-				float[][] normalLine = Math3DUtils.calculateFaceNormal(
-						new float[]{vertexBuffer.get(v1), vertexBuffer.get(v1 + 1), vertexBuffer.get(v1 + 2)},
-						new float[]{vertexBuffer.get(v2), vertexBuffer.get(v2 + 1), vertexBuffer.get(v2 + 2)},
-						new float[]{vertexBuffer.get(v3), vertexBuffer.get(v3 + 1), vertexBuffer.get(v3 + 2)});
-				normalsLines.put(normalLine[0]).put(normalLine[1]);
+			final float[] face = new float[9], normalLine = new float[6];
+			for (int i = 0; i < drawBuffer.capacity(); i++) {
+				int v = drawBuffer.get() * COORDS_PER_VERTEX;
+				face[i % 3 * 3] = vertexBuffer.get(v);
+				face[i % 3 * 3 + 1] = vertexBuffer.get(v + 1);
+				face[i % 3 * 3 + 2] = vertexBuffer.get(v + 2);
+				if (i % 3 == 2) {
+					Math3DUtils.calculateFaceNormal(normalLine, 0, face, 0, face, 3, face, 6);
+					normalsLines.put(normalLine);
+				}
 			}
 		} else {
 			if (vertexBuffer.capacity() % (/* COORDS_PER_VERTEX */3 * /* VERTEX_PER_FACE */ 3) != 0) {
@@ -826,19 +861,11 @@ public final class Object3DBuilder {
 			Log.v("Builder", "Generating face normals for '" + obj.getId() + "'...");
 			normalsLines = createNativeByteBuffer(6 * vertexBuffer.capacity() / 9 * 4).asFloatBuffer();
 			vertexBuffer.position(0);
+			final float[] face = new float[9], normalLine = new float[6];
 			for (int i = 0; i < vertexBuffer.capacity() / /* COORDS_PER_VERTEX */ 3 / /* VERTEX_PER_FACE */3; i++) {
-				float[][] normalLine = Math3DUtils.calculateFaceNormal(
-						new float[]{vertexBuffer.get(), vertexBuffer.get(), vertexBuffer.get()},
-						new float[]{vertexBuffer.get(), vertexBuffer.get(), vertexBuffer.get()},
-						new float[]{vertexBuffer.get(), vertexBuffer.get(), vertexBuffer.get()});
-				normalsLines.put(normalLine[0]).put(normalLine[1]);
-
-				// debug
-				@SuppressWarnings("unused")
-				String normal = new StringBuilder().append(normalLine[0][0]).append(",").append(normalLine[0][1])
-						.append(",").append(normalLine[0][2]).append("-").append(normalLine[1][0]).append(",")
-						.append(normalLine[1][1]).append(",").append(normalLine[1][2]).toString();
-				// Log.v("Builder", "fNormal[" + i + "]:(" + normal + ")");
+				vertexBuffer.get(face);
+				Math3DUtils.calculateFaceNormal(normalLine, 0, face, 0, face, 3, face, 6);
+				normalsLines.put(normalLine);
 			}
 		}
 
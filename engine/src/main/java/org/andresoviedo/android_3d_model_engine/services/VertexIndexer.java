@@ -0,0 +1,179 @@
+package org.andresoviedo.android_3d_model_engine.services;
+
+import android.opengl.GLES20;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * Merges the identical vertices of a non-indexed model (one vertex per face corner), so it can be drawn with
+ * glDrawElements.
+ * <p>
+ * A vertex is the tuple of all its registered attributes (position, normal, color, texture coordinates...). Tuples
+ * are compared bit by bit, so only exact duplicates are merged.
+ */
+final class VertexIndexer {
+
+    private final int corners;
+    private final FloatBuffer[] attributes = new FloatBuffer[8];
+    private final int[] sizes = new int[8];
+    private int attributeCount;
+
+    /**
+     * unique vertex -> first corner where it was found
+     */
+    private int[] firstCorner;
+    private int count;
+    private Buffer indices;
+
+    /**
+     * @param corners number of vertices of the model (i.e. faces * 3)
+     */
+    VertexIndexer(int corners) {
+        this.corners = corners;
+    }
+
+    /**
+     * Register a per corner attribute
+     *
+     * @param attribute the attribute values or <code>null</code> if the model has no such attribute
+     * @param size      number of components per vertex
+     */
+    VertexIndexer add(FloatBuffer attribute, int size) {
+        if (attribute == null) {
+            return this;
+        }
+        if (attribute.capacity() < corners * size) {
+            throw new IllegalArgumentException("Attribute has " + attribute.capacity() + " values but expected "
+                    + corners * size);
+        }
+        attributes[attributeCount] = attribute;
+        sizes[attributeCount++] = size;
+        return this;
+    }
+
+    /**
+     * Find the unique vertices and build the index buffer
+     *
+     * @return the number of unique vertices
+     */
+    int index() {
+        // open addressing table (linear probing) of unique vertex + 1. 0 means empty
+        final int[] table = new int[Integer.highestOneBit(Math.max(corners, 1) * 2 - 1) << 1];
+        final int mask = table.length - 1;
+        final int[] cornerIndex = new int[corners];
+        firstCorner = new int[Math.min(corners, 1024)];
+        count = 0;
+        for (int corner = 0; corner < corners; corner++) {
+            int slot = hash(corner) & mask;
+            int entry;
+            while ((entry = table[slot]) != 0 && !equal(firstCorner[entry - 1], corner)) {
+                slot = (slot + 1) & mask;
+            }
+            if (entry == 0) {
+                if (count == firstCorner.length) {
+                    firstCorner = Arrays.copyOf(firstCorner, Math.min(corners, count * 2));
+                }
+                firstCorner[count++] = corner;
+                entry = count;
+                table[slot] = entry;
+            }
+            cornerIndex[corner] = entry - 1;
+        }
+
+        if (count < 65536) {
+            final ShortBuffer shortIndices = createNativeByteBuffer(corners * 2).asShortBuffer();
+            for (int i = 0; i < corners; i++) {
+                shortIndices.put(i, (short) cornerIndex[i]);
+            }
+            indices = shortIndices;
+        } else {
+            indices = createNativeByteBuffer(corners * 4).asIntBuffer().put(cornerIndex);
+            indices.position(0);
+        }
+        return count;
+    }
+
+    /**
+     * @return the index buffer. Either a {@link ShortBuffer} or a {@link IntBuffer} depending on {@link #getIndexType()}
+     */
+    Buffer getIndices() {
+        return indices;
+    }
+
+    /**
+     * @return <code>GL_UNSIGNED_SHORT</code> when there are less than 65536 unique vertices,
+     * <code>GL_UNSIGNED_INT</code> otherwise
+     */
+    int getIndexType() {
+        return indices instanceof ShortBuffer ? GLES20.GL_UNSIGNED_SHORT : GLES20.GL_UNSIGNED_INT;
+    }
+
+    /**
+     * Copy the unique vertices of the registered attribute into a new buffer
+     *
+     * @param attribute one of the registered attributes or <code>null</code>
+     * @return the compact attribute buffer or <code>null</code> if attribute is <code>null</code>
+     */
+    FloatBuffer compact(FloatBuffer attribute) {
+        if (attribute == null) {
+            return null;
+        }
+        for (int a = 0; a < attributeCount; a++) {
+            if (attributes[a] == attribute) {
+                final int size = sizes[a];
+                final FloatBuffer ret = createNativeByteBuffer(count * size * 4).asFloatBuffer();
+                for (int i = 0; i < count; i++) {
+                    final int src = firstCorner[i] * size;
+                    for (int c = 0; c < size; c++) {
+                        ret.put(i * size + c, attribute.get(src + c));
+                    }
+                }
+                return ret;
+            }
+        }
+        throw new IllegalArgumentException("Attribute not registered");
+    }
+
+    private int hash(int corner) {
+        int h = 1;
+        for (int a = 0; a < attributeCount; a++) {
+            final FloatBuffer attribute = attributes[a];
+            final int offset = corner * sizes[a];
+            for (int c = 0; c < sizes[a]; c++) {
+                h = 31 * h + Float.floatToIntBits(attribute.get(offset + c));
+            }
+        }
+        // spread the bits, so close coordinates don't end up in consecutive slots
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private boolean equal(int corner1, int corner2) {
+        for (int a = 0; a < attributeCount; a++) {
+            final FloatBuffer attribute = attributes[a];
+            final int offset1 = corner1 * sizes[a];
+            final int offset2 = corner2 * sizes[a];
+            for (int c = 0; c < sizes[a]; c++) {
+                if (Float.floatToIntBits(attribute.get(offset1 + c)) !=
+                        Float.floatToIntBits(attribute.get(offset2 + c))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static ByteBuffer createNativeByteBuffer(int length) {
+        // initialize vertex byte buffer for shape coordinates
+        ByteBuffer bb = ByteBuffer.allocateDirect(length);
+        // use the device hardware's native byte order
+        bb.order(ByteOrder.nativeOrder());
+        return bb;
+    }
+}
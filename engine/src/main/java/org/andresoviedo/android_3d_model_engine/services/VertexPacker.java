@@ -0,0 +1,161 @@
+package org.andresoviedo.android_3d_model_engine.services;
+
+import android.util.Log;
+
+import org.andresoviedo.android_3d_model_engine.animation.CpuSkinner;
+import org.andresoviedo.android_3d_model_engine.model.AnimatedModel;
+import org.andresoviedo.android_3d_model_engine.model.Object3DData;
+import org.andresoviedo.android_3d_model_engine.model.VertexLayout;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Packs the separate vertex attribute buffers of a model into a single interleaved buffer, so the drawer can bind all
+ * the attributes from it.
+ * <p>
+ * The separate buffers are kept, since the loaders, the collision detection and the skinner read them. Whenever they
+ * change the model must be flagged as changed so the renderer calls {@link #repack(Object3DData)}. Models skinned in
+ * the cpu don't pack the attributes the skinner provides, since the drawer never reads them from the model.
+ */
+public final class VertexPacker {
+
+    private VertexPacker() {
+    }
+
+    /**
+     * Pack the model vertex attributes. Attributes whose size don't match the number of vertices are left out, so
+     * the drawer keeps using the separate buffer for them.
+     *
+     * @param obj the model
+     * @return <code>true</code> if the model was packed
+     */
+    public static boolean pack(Object3DData obj) {
+        final FloatBuffer[] attributes = new FloatBuffer[VertexLayout.ATTRIBUTE_COUNT];
+        final int[] sizes = new int[VertexLayout.ATTRIBUTE_COUNT];
+        final int vertexCount = getAttributes(obj, attributes, sizes);
+        final VertexLayout layout = new VertexLayout(sizes);
+        if (vertexCount == 0 || layout.getAttributeCount() < 2) {
+            // nothing to interleave. drop any previous copy
+            obj.setInterleavedBuffer(null, null);
+            return false;
+        }
+        obj.setInterleavedBuffer(pack(attributes, layout, vertexCount), layout);
+        Log.i("VertexPacker", "Packed " + vertexCount + " vertices of " + obj.getId() + ". " + layout);
+        return true;
+    }
+
+    /**
+     * Refresh the interleaved buffer of the model with the current contents of the separate buffers. The buffer is
+     * rewritten in place if the attributes still fit the layout, or packed again otherwise.
+     *
+     * @param obj the model
+     * @return <code>true</code> if the model is packed
+     */
+    public static boolean repack(Object3DData obj) {
+        final FloatBuffer interleaved = obj.getInterleavedBuffer();
+        final VertexLayout layout = obj.getVertexLayout();
+        if (interleaved == null || layout == null) {
+            return false;
+        }
+        final FloatBuffer[] attributes = new FloatBuffer[VertexLayout.ATTRIBUTE_COUNT];
+        final int[] sizes = new int[VertexLayout.ATTRIBUTE_COUNT];
+        final int vertexCount = getAttributes(obj, attributes, sizes);
+        if (vertexCount == 0 || !layout.equals(new VertexLayout(sizes))
+                || interleaved.capacity() != vertexCount * layout.getVertexSize()) {
+            return pack(obj);
+        }
+        interleave(attributes, layout, vertexCount, interleaved);
+        return true;
+    }
+
+    /**
+     * Collect the attributes of the model that can be packed
+     *
+     * @return the number of vertices or 0 if the model has no positions to pack
+     */
+    private static int getAttributes(Object3DData obj, FloatBuffer[] attributes, int[] sizes) {
+        final CpuSkinner skinner = obj instanceof AnimatedModel ? ((AnimatedModel) obj).getSkinner() : null;
+        final FloatBuffer positions = obj.getVertexArrayBuffer() != null ? obj.getVertexArrayBuffer()
+                : obj.getVertexBuffer();
+        if (positions == null || positions.capacity() < 3) {
+            return 0;
+        }
+        final int vertexCount = positions.capacity() / 3;
+
+        if (skinner == null) {
+            attributes[VertexLayout.POSITION] = positions;
+            sizes[VertexLayout.POSITION] = 3;
+        }
+        if (skinner == null || skinner.getNormals() == null) {
+            attributes[VertexLayout.NORMAL] = obj.getVertexNormalsArrayBuffer() != null ?
+                    obj.getVertexNormalsArrayBuffer() : obj.getNormals();
+            sizes[VertexLayout.NORMAL] = 3;
+        }
+        attributes[VertexLayout.COLOR] = obj.getVertexColorsArrayBuffer();
+        sizes[VertexLayout.COLOR] = 4;
+        attributes[VertexLayout.TEXTURE_COORDS] = obj.getTextureCoordsArrayBuffer();
+        sizes[VertexLayout.TEXTURE_COORDS] = 2;
+        attributes[VertexLayout.EMISSIVE_TEXTURE_COORDS] = obj.getEmissiveTextureCoordsArrayBuffer();
+        sizes[VertexLayout.EMISSIVE_TEXTURE_COORDS] = 2;
+        if (obj instanceof AnimatedModel && skinner == null) {
+            attributes[VertexLayout.JOINT_IDS] = ((AnimatedModel) obj).getJointIds();
+            sizes[VertexLayout.JOINT_IDS] = 3;
+            attributes[VertexLayout.WEIGHTS] = ((AnimatedModel) obj).getVertexWeights();
+            sizes[VertexLayout.WEIGHTS] = 3;
+        }
+
+        for (int i = 0; i < VertexLayout.ATTRIBUTE_COUNT; i++) {
+            if (attributes[i] == null) {
+                sizes[i] = 0;
+            } else if (attributes[i].capacity() != vertexCount * sizes[i]) {
+                Log.w("VertexPacker", "Not packing attribute " + i + " of " + obj.getId() + ". Expected "
+                        + vertexCount * sizes[i] + " values but found " + attributes[i].capacity());
+                attributes[i] = null;
+                sizes[i] = 0;
+            }
+        }
+        return vertexCount;
+    }
+
+    /**
+     * Interleave the attributes
+     *
+     * @param attributes  the attribute buffers, indexed by attribute. Attributes not present in the layout are ignored
+     * @param layout      the target layout
+     * @param vertexCount number of vertices
+     * @return the interleaved buffer
+     */
+    public static FloatBuffer pack(FloatBuffer[] attributes, VertexLayout layout, int vertexCount) {
+        final FloatBuffer ret = createNativeByteBuffer(vertexCount * layout.getStride()).asFloatBuffer();
+        interleave(attributes, layout, vertexCount, ret);
+        return ret;
+    }
+
+    private static void interleave(FloatBuffer[] attributes, VertexLayout layout, int vertexCount, FloatBuffer ret) {
+        final int vertexSize = layout.getVertexSize();
+        for (int a = 0; a < VertexLayout.ATTRIBUTE_COUNT; a++) {
+            if (!layout.has(a)) {
+                continue;
+            }
+            final FloatBuffer attribute = attributes[a];
+            final int size = layout.getSize(a);
+            int src = 0;
+            int dst = layout.getOffset(a);
+            for (int v = 0; v < vertexCount; v++, dst += vertexSize) {
+                for (int c = 0; c < size; c++) {
+                    ret.put(dst + c, attribute.get(src++));
+                }
+            }
+        }
+    }
+
+    private static ByteBuffer createNativeByteBuffer(int length) {
+        // initialize vertex byte buffer for shape coordinates
+        ByteBuffer bb = ByteBuffer.allocateDirect(length);
+        // use the device hardware's native byte order
+        bb.order(ByteOrder.nativeOrder());
+        return bb;
+    }
+}
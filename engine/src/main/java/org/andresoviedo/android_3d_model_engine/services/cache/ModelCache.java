@@ -0,0 +1,236 @@
+package org.andresoviedo.android_3d_model_engine.services.cache;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import org.andresoviedo.android_3d_model_engine.animation.BakedClip;
+import org.andresoviedo.android_3d_model_engine.model.Object3DData;
+import org.andresoviedo.util.android.ContentUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Disk cache of already parsed models, so opening the same model again doesn't need to parse it.
+ * <p>
+ * Entries are keyed by the model uri, its size and modification time, and the version of the loader that built it.
+ * When the cache grows over its budget, the least recently used entries are deleted.
+ * <p>
+ * Baked animations are stored too. They are also kept in memory while in use, so all the instances of a model share
+ * the same {@link BakedClip}.
+ * <p>
+ * Models that read other files, like a material library or textures, are not cached, since the key doesn't cover
+ * those files.
+ *
+ * @see ModelCacheFormat
+ */
+public final class ModelCache {
+
+    /**
+     * Default disk budget
+     */
+    public static final long DEFAULT_MAX_BYTES = 64 * 1024 * 1024;
+
+    private static final String EXTENSION = ".m3d";
+
+    private static ModelCache instance;
+
+    private final File dir;
+    private final long maxBytes;
+    /**
+     * file name -> file size, in access order
+     */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    /**
+     * key -> baked clip still referenced by some model
+     */
+    private final Map<String, WeakReference<BakedClip>> bakedClips = new HashMap<>();
+
+    public static synchronized ModelCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new ModelCache(new File(context.getApplicationContext().getCacheDir(), "models"),
+                    DEFAULT_MAX_BYTES);
+        }
+        return instance;
+    }
+
+    public ModelCache(File dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.e("ModelCache", "Couldn't create cache dir " + dir);
+        }
+        // rebuild the lru order from the last access time
+        final File[] files = dir.listFiles((File f) -> f.getName().endsWith(EXTENSION));
+        if (files != null) {
+            Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+            for (File file : files) {
+                entries.put(file.getName(), file.length());
+                totalBytes += file.length();
+            }
+        }
+    }
+
+    /**
+     * Build the cache key of the model
+     *
+     * @param uri           the model
+     * @param loaderVersion version of the loader. It must be changed whenever the loader builds different data
+     * @return the key or <code>null</code> if the model can't be cached (size or modification time are unknown)
+     */
+    public static String buildKey(Uri uri, int loaderVersion) {
+        final long[] metadata = ContentUtils.getSizeAndLastModified(uri);
+        return buildKey(uri.toString(), metadata[0], metadata[1], loaderVersion);
+    }
+
+    static String buildKey(String uri, long size, long lastModified, int loaderVersion) {
+        if (size == -1 || lastModified == -1) {
+            return null;
+        }
+        return uri + "|" + size + "|" + lastModified + "|" + loaderVersion;
+    }
+
+    /**
+     * @return the cached objects or <code>null</code> if there is no valid entry for the key
+     */
+    public synchronized List<Object3DData> get(String key) {
+        final String name = getFileName(key);
+        if (!entries.containsKey(name)) {
+            return null;
+        }
+        final File file = new File(dir, name);
+        try {
+            final List<Object3DData> ret = ModelCacheFormat.read(file, key);
+            if (ret == null) {
+                Log.w("ModelCache", "Discarding cache entry " + name);
+                remove(name);
+                return null;
+            }
+            entries.get(name);
+            file.setLastModified(System.currentTimeMillis());
+            Log.i("ModelCache", "Loaded " + ret.size() + " objects from cache " + name);
+            return ret;
+        } catch (Exception ex) {
+            Log.e("ModelCache", "Problem reading cache entry " + name + ": " + ex.getMessage(), ex);
+            remove(name);
+            return null;
+        }
+    }
+
+    /**
+     * Store the objects. Objects that can't be cached (i.e. animated models) are ignored.
+     */
+    public synchronized void put(String key, List<Object3DData> datas) {
+        if (datas == null || datas.isEmpty() || !ModelCacheFormat.isCacheable(datas)) {
+            return;
+        }
+        final String name = getFileName(key);
+        final File file = new File(dir, name);
+        try {
+            remove(name);
+            ModelCacheFormat.write(file, key, datas);
+            entries.put(name, file.length());
+            totalBytes += file.length();
+            Log.i("ModelCache", "Stored " + datas.size() + " objects in cache " + name + " (" + file.length() +
+                    " bytes)");
+        } catch (IOException ex) {
+            Log.e("ModelCache", "Problem writing cache entry " + name + ": " + ex.getMessage(), ex);
+            file.delete();
+        }
+        evict();
+    }
+
+    /**
+     * @return the baked animation or <code>null</code> if there is no valid entry for the key
+     */
+    public synchronized BakedClip getBakedClip(String key) {
+        final WeakReference<BakedClip> reference = bakedClips.get(key);
+        if (reference != null && reference.get() != null) {
+            return reference.get();
+        }
+        final String name = getFileName(key);
+        if (!entries.containsKey(name)) {
+            return null;
+        }
+        final File file = new File(dir, name);
+        try {
+            final BakedClip ret = ModelCacheFormat.readBakedClip(file, key);
+            if (ret == null) {
+                Log.w("ModelCache", "Discarding cache entry " + name);
+                remove(name);
+                return null;
+            }
+            entries.get(name);
+            file.setLastModified(System.currentTimeMillis());
+            bakedClips.put(key, new WeakReference<>(ret));
+            return ret;
+        } catch (Exception ex) {
+            Log.e("ModelCache", "Problem reading cache entry " + name + ": " + ex.getMessage(), ex);
+            remove(name);
+            return null;
+        }
+    }
+
+    public synchronized void putBakedClip(String key, BakedClip clip) {
+        bakedClips.put(key, new WeakReference<>(clip));
+        final String name = getFileName(key);
+        final File file = new File(dir, name);
+        try {
+            remove(name);
+            ModelCacheFormat.writeBakedClip(file, key, clip);
+            entries.put(name, file.length());
+            totalBytes += file.length();
+            Log.i("ModelCache", "Stored baked animation in cache " + name + " (" + file.length() + " bytes)");
+        } catch (IOException ex) {
+            Log.e("ModelCache", "Problem writing cache entry " + name + ": " + ex.getMessage(), ex);
+            file.delete();
+        }
+        evict();
+    }
+
+    private void evict() {
+        final Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        // never evict the entry just written
+        while (totalBytes > maxBytes && entries.size() > 1 && it.hasNext()) {
+            final Map.Entry<String, Long> eldest = it.next();
+            it.remove();
+            totalBytes -= eldest.getValue();
+            new File(dir, eldest.getKey()).delete();
+            Log.i("ModelCache", "Evicted cache entry " + eldest.getKey());
+        }
+    }
+
+    private void remove(String name) {
+        final Long size = entries.remove(name);
+        if (size != null) {
+            totalBytes -= size;
+        }
+        new File(dir, name).delete();
+    }
+
+    private static String getFileName(String key) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder sb = new StringBuilder(digest.length * 2 + EXTENSION.length());
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.append(EXTENSION).toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,662 @@
+package org.andresoviedo.android_3d_model_engine.services.cache;
+
+import android.net.Uri;
+import android.opengl.GLES20;
+
+import org.andresoviedo.android_3d_model_engine.animation.Animation;
+import org.andresoviedo.android_3d_model_engine.animation.BakedClip;
+import org.andresoviedo.android_3d_model_engine.animation.JointTransform;
+import org.andresoviedo.android_3d_model_engine.animation.KeyFrame;
+import org.andresoviedo.android_3d_model_engine.model.AnimatedModel;
+import org.andresoviedo.android_3d_model_engine.model.Object3DData;
+import org.andresoviedo.android_3d_model_engine.services.collada.entities.Joint;
+import org.andresoviedo.android_3d_model_engine.services.wavefront.WavefrontLoader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary format of the {@link ModelCache} files.
+ * <p>
+ * All the values are little endian:
+ * <pre>
+ * int      magic ("M3DC")
+ * int      format version
+ * int      header length
+ * byte[]   header: cache key, number of objects and, for each object, its properties and its buffers table
+ * ...      buffers data. Each buffer starts at a 16 bytes boundary of the data area (the first one after the header)
+ * </pre>
+ * Buffers are read by mapping the file and slicing it, so they are direct buffers ready to be used by the drawer.
+ * <p>
+ * The header of an {@link AnimatedModel} also holds its joint hierarchy, depth first, and its keyframes, so skinned
+ * models are restored with their skeleton and animation. glTF animations are not part of the format.
+ * <p>
+ * Baked animations are stored in their own files, with magic "M3DB", the same version and header layout, a header
+ * with the cache key, length, frame count and bone count of the {@link BakedClip}, and its frames as the only
+ * buffer.
+ */
+final class ModelCacheFormat {
+
+    static final int MAGIC = 0x4344334D;
+    static final int BAKED_CLIP_MAGIC = 0x4244334D;
+    static final int FORMAT_VERSION = 2;
+
+    // buffer kinds
+    static final int VERTEX = 1;
+    static final int NORMALS = 2;
+    static final int DRAW_ORDER = 3;
+    static final int VERTEX_ARRAY = 4;
+    static final int NORMALS_ARRAY = 5;
+    static final int COLORS_ARRAY = 6;
+    static final int TEXTURE_COORDS_ARRAY = 7;
+    static final int EMISSIVE_TEXTURE_COORDS_ARRAY = 8;
+    static final int JOINT_IDS = 9;
+    static final int WEIGHTS = 10;
+    static final int FACE_INDICES = 11;
+    static final int TEXTURE_DATA = 12;
+    static final int EMISSIVE_TEXTURE_DATA = 13;
+
+    // object flags
+    private static final int FLAG_ANIMATED = 1;
+    private static final int FLAG_DRAW_USING_ARRAYS = 1 << 1;
+    private static final int FLAG_FLIP_TEXTURE_COORDS = 1 << 2;
+    private static final int FLAG_DIMENSIONS = 1 << 3;
+    private static final int FLAG_VISIBLE = 1 << 4;
+
+    private static final int ALIGNMENT = 16;
+
+    private ModelCacheFormat() {
+    }
+
+    /**
+     * Models with a glTF animation can't be cached, as it's not part of the format
+     *
+     * @return <code>true</code> if the objects can be written to the cache
+     */
+    static boolean isCacheable(List<Object3DData> datas) {
+        for (Object3DData data : datas) {
+            if (data instanceof AnimatedModel) {
+                if (((AnimatedModel) data).getGltfAnimation() != null) {
+                    return false;
+                }
+            }
+            if (!data.getErrors().isEmpty()) {
+                return false;
+            }
+            // the key only covers the model file, so colors and textures read from other files would get stale
+            if (data.getMaterials() != null && data.getMaterials().mfnm != null || data.getTextureFile() != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static void write(File file, String key, List<Object3DData> datas) throws IOException {
+        final Writer header = new Writer();
+        final List<Buffer> buffers = new ArrayList<>();
+        final List<Integer> offsets = new ArrayList<>();
+        int dataLength = 0;
+
+        header.putString(key);
+        header.putInt(datas.size());
+        for (Object3DData data : datas) {
+            final boolean animated = data instanceof AnimatedModel;
+            int flags = 0;
+            if (animated) flags |= FLAG_ANIMATED;
+            if (data.isDrawUsingArrays()) flags |= FLAG_DRAW_USING_ARRAYS;
+            if (data.isFlipTextCoords()) flags |= FLAG_FLIP_TEXTURE_COORDS;
+            if (data.getDimensions() != null) flags |= FLAG_DIMENSIONS;
+            if (data.isVisible()) flags |= FLAG_VISIBLE;
+
+            header.putString(data.getId());
+            header.putString(data.getUri() != null ? data.getUri().toString() : null);
+            header.putInt(flags);
+            header.putInt(data.getVersion());
+            header.putInt(data.getDrawMode());
+            header.putInt(data.getDrawOrderBufferType());
+            header.putFloats(data.getColor(), 4);
+
+            header.putString(data.getTextureFile());
+            header.putInt(data.getTextureWrapS());
+            header.putInt(data.getTextureWrapT());
+            header.putInt(data.getTextureMinFilter());
+            header.putInt(data.getTextureMagFilter());
+            header.putInt(data.getIsDoubleSided() ? 1 : 0);
+            header.putInt(data.getEmissiveTextureWrapS());
+            header.putInt(data.getEmissiveTextureWrapT());
+            header.putInt(data.getEmissiveTextureMinFilter());
+            header.putInt(data.getEmissiveTextureMagFilter());
+
+            header.putFloats(data.getPosition(), 3);
+            header.putFloats(data.getRotation(), 3);
+            header.putFloats(data.getQuadRotation(), 4);
+            header.putFloats(data.getScale(), 3);
+            header.putFloats(data.getModelMatrix(), 16);
+            if (data.getDimensions() != null) {
+                final WavefrontLoader.ModelDimensions dims = data.getDimensions();
+                header.putFloats(new float[]{dims.leftPt, dims.rightPt, dims.topPt, dims.bottomPt, dims.nearPt,
+                        dims.farPt}, 6);
+            }
+            header.putInt(data.getFaces() != null ? data.getFaces().getSize() : -1);
+
+            final List<int[]> drawModeList = data.getDrawModeList();
+            header.putInt(drawModeList != null ? drawModeList.size() : -1);
+            if (drawModeList != null) {
+                for (int[] drawMode : drawModeList) {
+                    header.putInt(drawMode.length);
+                    for (int value : drawMode) header.putInt(value);
+                }
+            }
+            if (animated) {
+                final AnimatedModel animatedModel = (AnimatedModel) data;
+                header.putInt(animatedModel.getJointCount());
+                header.putInt(animatedModel.getBoneCount());
+                header.putInt(animatedModel.getRootJoint() != null ? 1 : 0);
+                if (animatedModel.getRootJoint() != null) {
+                    putJoint(header, animatedModel.getRootJoint());
+                }
+                putAnimation(header, animatedModel.getAnimation());
+            }
+
+            // buffers table
+            final List<int[]> table = new ArrayList<>();
+            addBuffer(table, buffers, VERTEX, data.getVertexBuffer());
+            addBuffer(table, buffers, NORMALS, data.getVertexNormalsBuffer());
+            addBuffer(table, buffers, DRAW_ORDER, data.getDrawOrderBuffer());
+            addBuffer(table, buffers, VERTEX_ARRAY, data.getVertexArrayBuffer());
+            addBuffer(table, buffers, NORMALS_ARRAY, data.getVertexNormalsArrayBuffer());
+            addBuffer(table, buffers, COLORS_ARRAY, data.getVertexColorsArrayBuffer());
+            addBuffer(table, buffers, TEXTURE_COORDS_ARRAY, data.getTextureCoordsArrayBuffer());
+            addBuffer(table, buffers, EMISSIVE_TEXTURE_COORDS_ARRAY, data.getEmissiveTextureCoordsArrayBuffer());
+            if (animated) {
+                addBuffer(table, buffers, JOINT_IDS, ((AnimatedModel) data).getJointIds());
+                addBuffer(table, buffers, WEIGHTS, ((AnimatedModel) data).getVertexWeights());
+            }
+            if (data.getFaces() != null) {
+                addBuffer(table, buffers, FACE_INDICES, data.getFaces().getIndexBuffer());
+            }
+            if (data.getTextureData() != null) {
+                addBuffer(table, buffers, TEXTURE_DATA, ByteBuffer.wrap(data.getTextureData()));
+            }
+            if (data.getEmissiveTextureData() != null) {
+                addBuffer(table, buffers, EMISSIVE_TEXTURE_DATA, ByteBuffer.wrap(data.getEmissiveTextureData()));
+            }
+
+            header.putInt(table.size());
+            for (int[] entry : table) {
+                dataLength = align(dataLength);
+                offsets.add(dataLength);
+                header.putInt(entry[0]);
+                header.putInt(entry[1]);
+                header.putInt(entry[2]);
+                header.putInt(dataLength);
+                dataLength += entry[2] * bytesPerElement(entry[1]);
+            }
+        }
+
+        final int headerLength = header.buffer.position();
+        final int dataStart = align(12 + headerLength);
+        final long totalLength = (long) dataStart + dataLength;
+
+        final File tmp = new File(file.getPath() + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+            raf.setLength(totalLength);
+            final MappedByteBuffer map = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, totalLength);
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            map.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(headerLength);
+            map.put(header.buffer.array(), 0, headerLength);
+            for (int i = 0; i < buffers.size(); i++) {
+                map.position(dataStart + offsets.get(i));
+                copy(buffers.get(i), map.slice().order(ByteOrder.LITTLE_ENDIAN));
+            }
+            map.force();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Couldn't rename " + tmp + " to " + file);
+        }
+    }
+
+    static void writeBakedClip(File file, String key, BakedClip clip) throws IOException {
+        final Writer header = new Writer();
+        header.putString(key);
+        header.putFloats(new float[]{clip.getLength()}, 1);
+        header.putInt(clip.getFrameCount());
+        header.putInt(clip.getBoneCount());
+
+        final int headerLength = header.buffer.position();
+        final int dataStart = align(12 + headerLength);
+        final long totalLength = (long) dataStart + clip.getFrames().length * 4L;
+
+        final File tmp = new File(file.getPath() + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+            raf.setLength(totalLength);
+            final MappedByteBuffer map = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, totalLength);
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            map.putInt(BAKED_CLIP_MAGIC).putInt(FORMAT_VERSION).putInt(headerLength);
+            map.put(header.buffer.array(), 0, headerLength);
+            map.position(dataStart);
+            map.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().put(clip.getFrames());
+            map.force();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Couldn't rename " + tmp + " to " + file);
+        }
+    }
+
+    /**
+     * Read a baked animation
+     *
+     * @return the animation or <code>null</code> if the file was written for another key or format
+     */
+    static BakedClip readBakedClip(File file, String key) throws IOException {
+        final MappedByteBuffer map;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            map = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        }
+        map.order(ByteOrder.LITTLE_ENDIAN);
+        if (map.getInt() != BAKED_CLIP_MAGIC || map.getInt() != FORMAT_VERSION) {
+            return null;
+        }
+        final int headerLength = map.getInt();
+        final int dataStart = align(12 + headerLength);
+        if (!key.equals(getString(map))) {
+            return null;
+        }
+        final float length = map.getFloat();
+        final int frameCount = map.getInt();
+        final int boneCount = map.getInt();
+        final float[] frames = new float[frameCount * boneCount * 12];
+        slice(map, dataStart, frames.length * 4).asFloatBuffer().get(frames);
+        return new BakedClip(length, frameCount, boneCount, frames);
+    }
+
+    /**
+     * Read the objects of the cache file
+     *
+     * @return the objects or <code>null</code> if the file was written for another key or format
+     */
+    static List<Object3DData> read(File file, String key) throws IOException {
+        final MappedByteBuffer map;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            // private (copy on write) mapping, as loaders are allowed to modify their buffers
+            map = raf.getChannel().map(FileChannel.MapMode.PRIVATE, 0, raf.length());
+        }
+        map.order(ByteOrder.LITTLE_ENDIAN);
+        if (map.getInt() != MAGIC || map.getInt() != FORMAT_VERSION) {
+            return null;
+        }
+        final int headerLength = map.getInt();
+        final int dataStart = align(12 + headerLength);
+        if (!key.equals(getString(map))) {
+            return null;
+        }
+
+        final int count = map.getInt();
+        final List<Object3DData> ret = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final String id = getString(map);
+            final String uri = getString(map);
+            final int flags = map.getInt();
+            final boolean animated = (flags & FLAG_ANIMATED) != 0;
+
+            final Object3DData data = animated ? new AnimatedModel() : new Object3DData();
+            data.setId(id);
+            if (uri != null) {
+                data.setUri(Uri.parse(uri));
+            }
+            data.setDrawUsingArrays((flags & FLAG_DRAW_USING_ARRAYS) != 0);
+            data.setFlipTextCoords((flags & FLAG_FLIP_TEXTURE_COORDS) != 0);
+            data.setVisible((flags & FLAG_VISIBLE) != 0);
+            data.setVersion(map.getInt());
+            data.setDrawMode(map.getInt());
+            data.setDrawOrderBufferType(map.getInt());
+            data.setColor(getFloats(map, 4));
+
+            data.setTextureFile(getString(map));
+            data.setTextureWrap(map.getInt(), map.getInt());
+            data.setFilter(map.getInt(), map.getInt());
+            data.setIsDoubleSided(map.getInt());
+            data.setEmissiveTextureWrap(map.getInt(), map.getInt());
+            data.setEmissiveFilter(map.getInt(), map.getInt());
+
+            data.setPosition(getFloats(map, 3));
+            data.setRotation(getFloats(map, 3));
+            System.arraycopy(getFloats(map, 4), 0, data.getQuadRotation(), 0, 4);
+            data.setScale(getFloats(map, 3));
+            data.setModelMatrix(getFloats(map, 16));
+            if ((flags & FLAG_DIMENSIONS) != 0) {
+                final float[] dims = getFloats(map, 6);
+                final WavefrontLoader.ModelDimensions modelDimensions = new WavefrontLoader.ModelDimensions();
+                modelDimensions.set(dims[0], dims[2], dims[4]);
+                modelDimensions.update(dims[1], dims[3], dims[5]);
+                data.setDimensions(modelDimensions);
+            }
+            final int faces = map.getInt();
+            if (faces >= 0) {
+                data.setFaces(new WavefrontLoader.Faces(faces));
+            }
+
+            final int drawModes = map.getInt();
+            if (drawModes >= 0) {
+                final List<int[]> drawModeList = new ArrayList<>(drawModes);
+                for (int j = 0; j < drawModes; j++) {
+                    final int[] drawMode = new int[map.getInt()];
+                    for (int k = 0; k < drawMode.length; k++) drawMode[k] = map.getInt();
+                    drawModeList.add(drawMode);
+                }
+                data.setDrawModeList(drawModeList);
+            }
+            if (animated) {
+                final AnimatedModel animatedModel = (AnimatedModel) data;
+                final int jointCount = map.getInt();
+                final int boneCount = map.getInt();
+                animatedModel.setJointCount(jointCount);
+                if (map.getInt() != 0) {
+                    // inverse bind transforms are stored, so they are not recalculated
+                    animatedModel.setRootJoint(getJoint(map), jointCount, boneCount, false);
+                }
+                animatedModel.doAnimation(getAnimation(map));
+            }
+
+            final int buffers = map.getInt();
+            for (int j = 0; j < buffers; j++) {
+                final int kind = map.getInt();
+                final int componentType = map.getInt();
+                final int elements = map.getInt();
+                final int offset = map.getInt();
+                final ByteBuffer bytes = slice(map, dataStart + offset, elements * bytesPerElement(componentType));
+                setBuffer(data, kind, view(bytes, componentType));
+            }
+            ret.add(data);
+        }
+        return ret;
+    }
+
+    private static void putJoint(Writer header, Joint joint) {
+        header.putInt(joint.getIndex());
+        header.putString(joint.getName());
+        header.putFloats(joint.getBindLocalTransform(), 16);
+        header.putInt(joint.getInverseBindTransform() != null ? 1 : 0);
+        if (joint.getInverseBindTransform() != null) {
+            header.putFloats(joint.getInverseBindTransform(), 16);
+        }
+        header.putInt(joint.getChildren().size());
+        for (Joint child : joint.getChildren()) {
+            putJoint(header, child);
+        }
+    }
+
+    private static Joint getJoint(ByteBuffer buffer) {
+        final int index = buffer.getInt();
+        final String name = getString(buffer);
+        final float[] bindLocalTransform = getFloats(buffer, 16);
+        final float[] inverseBindTransform = buffer.getInt() != 0 ? getFloats(buffer, 16) : null;
+        final Joint ret = new Joint(index, name, bindLocalTransform, inverseBindTransform);
+        final int children = buffer.getInt();
+        for (int i = 0; i < children; i++) {
+            ret.addChild(getJoint(buffer));
+        }
+        return ret;
+    }
+
+    /**
+     * Keyframes are stored as the local transform matrices of the joints
+     */
+    private static void putAnimation(Writer header, Animation animation) {
+        if (animation == null) {
+            header.putInt(-1);
+            return;
+        }
+        final KeyFrame[] keyFrames = animation.getKeyFrames();
+        header.putInt(keyFrames.length);
+        header.putFloat(animation.getLength());
+        final float[] matrix = new float[16];
+        for (KeyFrame keyFrame : keyFrames) {
+            header.putFloat(keyFrame.getTimeStamp());
+            header.putInt(keyFrame.getJointKeyFrames().size());
+            for (Map.Entry<String, JointTransform> entry : keyFrame.getJointKeyFrames().entrySet()) {
+                header.putString(entry.getKey());
+                header.putFloats(entry.getValue().getLocalTransform(matrix, 0), 16);
+            }
+        }
+    }
+
+    private static Animation getAnimation(ByteBuffer buffer) {
+        final int count = buffer.getInt();
+        if (count < 0) {
+            return null;
+        }
+        final float length = buffer.getFloat();
+        final KeyFrame[] keyFrames = new KeyFrame[count];
+        for (int i = 0; i < count; i++) {
+            final float timeStamp = buffer.getFloat();
+            final int joints = buffer.getInt();
+            final Map<String, JointTransform> pose = new HashMap<>(joints * 2);
+            for (int j = 0; j < joints; j++) {
+                pose.put(getString(buffer), new JointTransform(getFloats(buffer, 16)));
+            }
+            keyFrames[i] = new KeyFrame(timeStamp, pose);
+        }
+        return new Animation(length, keyFrames);
+    }
+
+    private static void setBuffer(Object3DData data, int kind, Buffer buffer) {
+        switch (kind) {
+            case VERTEX:
+                data.setVertexBuffer((FloatBuffer) buffer);
+                break;
+            case NORMALS:
+                data.setVertexNormalsBuffer((FloatBuffer) buffer);
+                break;
+            case DRAW_ORDER:
+                data.setDrawOrder(buffer);
+                break;
+            case VERTEX_ARRAY:
+                data.setVertexArrayBuffer((FloatBuffer) buffer);
+                break;
+            case NORMALS_ARRAY:
+                data.setVertexNormalsArrayBuffer((FloatBuffer) buffer);
+                break;
+            case COLORS_ARRAY:
+                data.setVertexColorsArrayBuffer((FloatBuffer) buffer);
+                break;
+            case TEXTURE_COORDS_ARRAY:
+                data.setTextureCoordsArrayBuffer((FloatBuffer) buffer);
+                break;
+            case EMISSIVE_TEXTURE_COORDS_ARRAY:
+                data.setEmissiveTextureCoordsArrayBuffer((FloatBuffer) buffer);
+                break;
+            case JOINT_IDS:
+                ((AnimatedModel) data).setJointIds((FloatBuffer) buffer);
+                break;
+            case WEIGHTS:
+                ((AnimatedModel) data).setVertexWeights((FloatBuffer) buffer);
+                break;
+            case FACE_INDICES:
+                data.getFaces().facesVertIdxs = (IntBuffer) buffer;
+                break;
+            case TEXTURE_DATA:
+                data.setTextureData(toArray((ByteBuffer) buffer));
+                break;
+            case EMISSIVE_TEXTURE_DATA:
+                data.setEmissiveTextureData(toArray((ByteBuffer) buffer));
+                break;
+            default:
+                // written by a newer version of the format: ignore
+                break;
+        }
+    }
+
+    private static void addBuffer(List<int[]> table, List<Buffer> buffers, int kind, Buffer buffer) {
+        if (buffer == null) return;
+        final int componentType;
+        if (buffer instanceof FloatBuffer) {
+            componentType = GLES20.GL_FLOAT;
+        } else if (buffer instanceof IntBuffer) {
+            componentType = GLES20.GL_UNSIGNED_INT;
+        } else if (buffer instanceof ShortBuffer) {
+            componentType = GLES20.GL_UNSIGNED_SHORT;
+        } else if (buffer instanceof ByteBuffer) {
+            componentType = GLES20.GL_UNSIGNED_BYTE;
+        } else {
+            throw new IllegalArgumentException("Unsupported buffer type: " + buffer.getClass());
+        }
+        table.add(new int[]{kind, componentType, buffer.capacity()});
+        buffers.add(buffer);
+    }
+
+    private static void copy(Buffer source, ByteBuffer target) {
+        if (source instanceof FloatBuffer) {
+            FloatBuffer src = ((FloatBuffer) source).duplicate();
+            src.clear();
+            target.asFloatBuffer().put(src);
+        } else if (source instanceof IntBuffer) {
+            IntBuffer src = ((IntBuffer) source).duplicate();
+            src.clear();
+            target.asIntBuffer().put(src);
+        } else if (source instanceof ShortBuffer) {
+            ShortBuffer src = ((ShortBuffer) source).duplicate();
+            src.clear();
+            target.asShortBuffer().put(src);
+        } else {
+            ByteBuffer src = ((ByteBuffer) source).duplicate();
+            src.clear();
+            target.put(src);
+        }
+    }
+
+    private static ByteBuffer slice(ByteBuffer map, int offset, int length) {
+        final ByteBuffer ret = map.duplicate();
+        ret.limit(offset + length).position(offset);
+        return ret.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static Buffer view(ByteBuffer bytes, int componentType) {
+        if (ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN && componentType != GLES20.GL_UNSIGNED_BYTE) {
+            // GL needs the data in the native order
+            ByteBuffer copy = ByteBuffer.allocateDirect(bytes.capacity()).order(ByteOrder.nativeOrder());
+            bytes = copy(bytes, componentType, copy);
+        }
+        switch (componentType) {
+            case GLES20.GL_FLOAT:
+                return bytes.asFloatBuffer();
+            case GLES20.GL_UNSIGNED_INT:
+                return bytes.asIntBuffer();
+            case GLES20.GL_UNSIGNED_SHORT:
+                return bytes.asShortBuffer();
+            default:
+                return bytes;
+        }
+    }
+
+    private static ByteBuffer copy(ByteBuffer littleEndian, int componentType, ByteBuffer target) {
+        switch (componentType) {
+            case GLES20.GL_UNSIGNED_SHORT:
+                target.asShortBuffer().put(littleEndian.asShortBuffer());
+                break;
+            case GLES20.GL_FLOAT:
+                target.asFloatBuffer().put(littleEndian.asFloatBuffer());
+                break;
+            default:
+                target.asIntBuffer().put(littleEndian.asIntBuffer());
+                break;
+        }
+        return target;
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        final byte[] ret = new byte[buffer.remaining()];
+        buffer.duplicate().get(ret);
+        return ret;
+    }
+
+    private static int bytesPerElement(int componentType) {
+        switch (componentType) {
+            case GLES20.GL_UNSIGNED_BYTE:
+                return 1;
+            case GLES20.GL_UNSIGNED_SHORT:
+                return 2;
+            default:
+                return 4;
+        }
+    }
+
+    private static int align(int offset) {
+        return (offset + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        final int length = buffer.getInt();
+        if (length < 0) return null;
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static float[] getFloats(ByteBuffer buffer, int count) {
+        final float[] ret = new float[count];
+        for (int i = 0; i < count; i++) ret[i] = buffer.getFloat();
+        return ret;
+    }
+
+    /**
+     * Growable little endian header buffer
+     */
+    private static final class Writer {
+        private ByteBuffer buffer = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+
+        private void ensure(int bytes) {
+            if (buffer.remaining() < bytes) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes))
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                buffer.flip();
+                bigger.put(buffer);
+                buffer = bigger;
+            }
+        }
+
+        void putInt(int value) {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        void putFloat(float value) {
+            ensure(4);
+            buffer.putFloat(value);
+        }
+
+        void putFloats(float[] values, int count) {
+            ensure(count * 4);
+            for (int i = 0; i < count; i++) {
+                buffer.putFloat(values != null && i < values.length ? values[i] : 0);
+            }
+        }
+
+        void putString(String value) {
+            if (value == null) {
+                putInt(-1);
+                return;
+            }
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            ensure(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+}
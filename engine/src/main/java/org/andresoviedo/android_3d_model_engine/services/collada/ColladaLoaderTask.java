@@ -4,6 +4,7 @@ import android.app.Activity;
 import android.net.Uri;
 import android.util.Log;
 
+import org.andresoviedo.android_3d_model_engine.animation.BakedClip;
 import org.andresoviedo.android_3d_model_engine.model.Object3DData;
 import org.andresoviedo.android_3d_model_engine.services.LoaderTask;
 import org.andresoviedo.android_3d_model_engine.services.collada.entities.AnimatedModelData;
@@ -15,12 +16,24 @@ import java.util.List;
 
 public class ColladaLoaderTask extends LoaderTask {
 
+    private static final int LOADER_VERSION = 1;
+
     AnimatedModelData modelData;
 
     public ColladaLoaderTask(Activity parent, Uri uri, Callback callback) {
         super(parent, uri, callback);
     }
 
+    @Override
+    protected int getLoaderVersion() {
+        return LOADER_VERSION;
+    }
+
+    @Override
+    protected float getBakeRate() {
+        return BakedClip.DEFAULT_RATE;
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     protected List<Object3DData> build() throws IOException {
@@ -21,7 +21,7 @@ import java.util.List;
  * transform changes the position/rotation of the joint in the animated entity.
  * <p>
  * The two other matrices are transforms that are required to calculate the
- * "animatedTransform" in the {@link org.andresoviedo.android_3d_model_engine.animation.Animator}
+ * "animatedTransform" in the {@link org.andresoviedo.android_3d_model_engine.animation.Skeleton}
  * class. It also has the local bind
  * transform which is the original (no pose/animation applied) transform of the
  * joint relative to the parent joint (in bone-space).
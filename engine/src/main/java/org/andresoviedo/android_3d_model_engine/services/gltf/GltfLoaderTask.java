@@ -19,12 +19,19 @@ import org.andresoviedo.android_3d_model_engine.services.gltf.GltfLoader;
 
 public class GltfLoaderTask extends LoaderTask {
 
+    private static final int LOADER_VERSION = 1;
+
     GltfModel modelData;
 
     public GltfLoaderTask(Activity parent, Uri uri, Callback callback) {
         super(parent, uri, callback);
     }
 
+    @Override
+    protected int getLoaderVersion() {
+        return LOADER_VERSION;
+    }
+
     @Override
     protected List<Object3DData> build() throws IOException, URISyntaxException {
 
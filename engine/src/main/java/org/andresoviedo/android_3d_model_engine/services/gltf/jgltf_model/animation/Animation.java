@@ -26,6 +26,8 @@
  */
 package org.andresoviedo.android_3d_model_engine.services.gltf.jgltf_model.animation;
 
+import org.andresoviedo.android_3d_model_engine.animation.KeyframeSampler;
+
 import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.CopyOnWriteArrayList;
@@ -44,6 +46,11 @@ public final class Animation
      */
     private final float timesS[];
     
+    /**
+     * Finds the key frames for each update
+     */
+    private final KeyframeSampler sampler;
+    
     /**
      * The values. Each element of this array corresponds to one key
      * frame time
@@ -104,6 +111,7 @@ public final class Animation
                 "but have a length of "+values.length);
         }
         this.timesS = timesS.clone();
+        this.sampler = new KeyframeSampler(this.timesS);
         this.values = new float[values.length][];
         for (int i=0; i<values.length; i++)
         {
@@ -174,9 +182,9 @@ public final class Animation
      */
     void update(float timeS)
     {
-        int index0 = InterpolatorKeys.computeIndex(timeS, timesS);
-        int index1 = Math.min(timesS.length - 1, index0 + 1);
-        float alpha = InterpolatorKeys.computeAlpha(timeS, timesS, index0);
+        int index0 = sampler.seek(timeS);
+        int index1 = sampler.getNextIndex();
+        float alpha = sampler.getAlpha();
 
         //System.out.println("For "+timeS+" in "+Arrays.toString(timesS));
         //System.out.println("index0 "+index0);
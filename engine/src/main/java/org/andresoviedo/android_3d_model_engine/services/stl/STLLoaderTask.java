@@ -24,12 +24,19 @@ import java.util.List;
  */
 public final class STLLoaderTask extends LoaderTask {
 
+    private static final int LOADER_VERSION = 1;
+
     private STLFileReader stlFileReader;
 
     public STLLoaderTask(Activity parent, Uri uri, Callback callback) {
         super(parent, uri, callback);
     }
 
+    @Override
+    protected int getLoaderVersion() {
+        return LOADER_VERSION;
+    }
+
     @Override
     protected List<Object3DData> build() throws IOException {
         // Parse STL
@@ -35,6 +35,7 @@ import android.support.annotation.Nullable;
 import android.util.Log;
 
 import org.andresoviedo.util.android.ContentUtils;
+import org.andresoviedo.util.io.IOUtils;
 
 import java.io.BufferedReader;
 import java.io.IOException;
@@ -55,7 +56,6 @@ import java.util.StringTokenizer;
 
 public class WavefrontLoader {
 
-	private static final float DUMMY_Z_TC = -5.0f;
 	static final boolean INDEXES_START_AT_1 = true;
 	private boolean hasTCs3D = false;
 
@@ -83,11 +83,10 @@ public class WavefrontLoader {
 	// buffers
 	private FloatBuffer vertsBuffer;
 	private FloatBuffer normalsBuffer;
-	// TODO: build texture data directly into this buffer
-	private FloatBuffer textureCoordsBuffer;
 
-	// flags
-	private static final int triangleMode = GLES20.GL_TRIANGLE_FAN;
+	// models bigger than this (bytes) are parsed in parallel
+	private static final int PARALLEL_THRESHOLD = 256 * 1024;
+	private int parallelism = Runtime.getRuntime().availableProcessors();
 
 	public WavefrontLoader(String nm) {
 		modelNm = nm;
@@ -100,6 +99,14 @@ public class WavefrontLoader {
 		modelDims = new ModelDimensions();
 	} // end of initModelData()
 
+	/**
+	 * Set the number of cores to use for parsing. 1 means sequential parsing.
+	 */
+	public WavefrontLoader setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+		return this;
+	}
+
 	public FloatBuffer getVerts() {
 		return vertsBuffer;
 	}
@@ -156,110 +163,118 @@ public class WavefrontLoader {
 	}
 
 	/**
-	 * Count verts, normals, faces etc and reserve buffers to save the data.
-	 * @param is data source
+	 * Parse the whole model in a single pass.
+	 * @param is data source. It is closed when done.
 	 */
-	public void analyzeModel(InputStream is) {
-		int lineNum = 0;
-		String line;
-
-
-		BufferedReader br = null;
+	public void loadModel(InputStream is) {
+		final byte[] data;
 		try {
-			br = new BufferedReader(new InputStreamReader(is));
-
-			while ((line = br.readLine()) != null) {
-				lineNum++;
-				line = line.trim();
-				if (line.length() > 0) {
-
-					if (line.startsWith("v ")) { // vertex
-						numVerts++;
-					} else if (line.startsWith("vt")) { // tex coord
-						numTextures++;
-					} else if (line.startsWith("vn")) {// normal
-						numNormals++;
-					} else if (line.startsWith("f ")) { // face
-						final int faceSize;
-						if (line.contains("  ")) {
-							faceSize = line.split(" +").length - 1;
-						} else {
-							faceSize = line.split(" ").length - 1;
-						}
-						numFaces += (faceSize - 2);
-						// (faceSize-2)x3 = converting polygon to triangles
-						numVertsReferences += (faceSize - 2) * 3;
-						numPolygon += (faceSize > 3)? 1 : 0;
-						numTriangles += (faceSize == 3)? 1 : 0;
-					} else if (line.startsWith("mtllib ")) // build material
-					{
-						materials = new Materials(line.substring(7));
-					} else if (line.startsWith("usemtl ")) {// use material
-					} else if (line.charAt(0) == 'g') { // group name
-						// not implemented
-					} else if (line.charAt(0) == 's') { // smoothing group
-						// not implemented
-					} else if (line.charAt(0) == '#') // comment line
-						continue;
-					else if (line.charAt(0) == 'o') // object group
-						continue;
-					else
-						System.out.println("Ignoring line " + lineNum + " : " + line);
-				}
-			}
+			data = IOUtils.read(is);
 		} catch (IOException e) {
-			Log.e("WavefrontLoader", "Problem reading line '" + (++lineNum) + "'");
 			Log.e("WavefrontLoader", e.getMessage(), e);
 			throw new RuntimeException(e);
 		} finally {
-			if (br != null) {
-				try {
-					br.close();
-				} catch (IOException e) {
-					Log.e("WavefrontLoader", e.getMessage(), e);
-				}
+			try {
+				is.close();
+			} catch (IOException e) {
+				Log.e("WavefrontLoader", e.getMessage(), e);
 			}
 		}
+		loadModel(data, 0, data.length);
+	}
 
-		Log.i("WavefrontLoader","Number of vertices:"+numVerts);
-		Log.i("WavefrontLoader","Number of faces:"+numFaces);
-		Log.i("WavefrontLoader","- Number of polygons:"+numPolygon);
-		Log.i("WavefrontLoader","- Number of triangles:"+numTriangles);
+	/**
+	 * Parse the model from a window of an OBJ file contents. Big models are parsed in parallel, see
+	 * {@link #setParallelism(int)}.
+	 */
+	public void loadModel(byte[] data, int offset, int length) {
+		final WavefrontScanner scanner;
+		if (parallelism > 1 && length >= PARALLEL_THRESHOLD) {
+			final int chunks = Math.min(parallelism * 4, length / (PARALLEL_THRESHOLD / 4));
+			Log.i("WavefrontLoader", "Parsing model in " + chunks + " chunks...");
+			scanner = WavefrontScanner.scanParallel(data, offset, length, chunks);
+		} else {
+			scanner = new WavefrontScanner();
+			scanner.scan(data, offset, length);
+		}
+		loadModel(scanner);
+	}
+
+	/**
+	 * Parse the model from the remaining bytes of the buffer.
+	 */
+	public void loadModel(ByteBuffer data) {
+		if (data.hasArray()) {
+			loadModel(data.array(), data.arrayOffset() + data.position(), data.remaining());
+		} else {
+			byte[] copy = new byte[data.remaining()];
+			data.duplicate().get(copy);
+			loadModel(copy, 0, copy.length);
+		}
 	}
 
 	/**
-	 * Allocate buffers for pushing the model data
-	 * TODO: use textureCoordsBuffer
+	 * Move the data collected by the scanner into the buffers and structures exposed by this loader
 	 */
-	public void allocateBuffers() {
+	private void loadModel(WavefrontScanner scanner) {
+		numVerts = scanner.verts.size / 3;
+		numNormals = scanner.normals.size / 3;
+		numTextures = scanner.texCoords.size / 3;
+		numFaces = scanner.faceVerts.size / 3;
+		numVertsReferences = scanner.faceVerts.size;
+		numPolygon = scanner.polygons;
+		numTriangles = scanner.triangles;
+		hasTCs3D = scanner.hasTCs3D;
+
 		// size = 3 (x,y,z) * 4 (bytes per float)
-		vertsBuffer = createNativeByteBuffer(numVerts*3*4).asFloatBuffer();
+		vertsBuffer = createNativeByteBuffer(numVerts * 3 * 4).asFloatBuffer();
+		vertsBuffer.put(scanner.verts.array, 0, scanner.verts.size).position(0);
 		if (numNormals > 0) {
 			normalsBuffer = createNativeByteBuffer(numNormals * 3 * 4).asFloatBuffer();
+			normalsBuffer.put(scanner.normals.array, 0, scanner.normals.size).position(0);
+		}
+
+		final float[] tcs = scanner.texCoords.array;
+		texCoords.ensureCapacity(numTextures);
+		for (int i = 0; i < numTextures * 3; i += 3) {
+			texCoords.add(new Tuple3(tcs[i], tcs[i + 1], tcs[i + 2]));
 		}
-		textureCoordsBuffer = createNativeByteBuffer(numTextures*3*4).asFloatBuffer();
+
 		if (numFaces > 0) {
 			IntBuffer buffer = createNativeByteBuffer(numFaces * 3 * 4).asIntBuffer();
-			faces = new Faces(numFaces, buffer, vertsBuffer, normalsBuffer, texCoords);
+			buffer.put(scanner.faceVerts.array, 0, scanner.faceVerts.size).position(0);
+			faces = new Faces(numFaces, buffer, toTriangleList(scanner.faceTexs), toTriangleList(scanner.faceNorms));
 		}
-	}
 
-	public void loadModel(InputStream is) {
-		// String fnm = MODEL_DIR + modelNm + ".obj";
-		BufferedReader br = null;
-		try {
-			br = new BufferedReader(new InputStreamReader(is));
-			readModel(br);
-		} finally{
-			if (br != null){
-				try {
-					br.close();
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-			}
+		if (scanner.materialLib != null) {
+			materials = new Materials(scanner.materialLib);
+		}
+		for (int i = 0; i < scanner.materialNames.size(); i++) {
+			faceMats.addUse(scanner.materialFaces.array[i], scanner.materialNames.get(i));
+		}
+
+		final float[] dims = scanner.dims;
+		modelDims.set(dims[0], dims[2], dims[4]);
+		modelDims.update(dims[1], dims[3], dims[5]);
+
+		Log.i("WavefrontLoader","Number of vertices:"+numVerts);
+		Log.i("WavefrontLoader","Number of faces:"+numFaces);
+		Log.i("WavefrontLoader","- Number of polygons:"+numPolygon);
+		Log.i("WavefrontLoader","- Number of triangles:"+numTriangles);
+		if (scanner.ignoredLines > 0) {
+			Log.d("WavefrontLoader","Ignored lines: "+scanner.ignoredLines);
 		}
+		if (!scanner.loaded) {
+			Log.e("WavefrontLoader","Error loading model");
+		}
+	}
 
+	private static ArrayList<int[]> toTriangleList(WavefrontScanner.IntArray indices) {
+		final ArrayList<int[]> ret = new ArrayList<>(indices.size / 3);
+		for (int i = 0; i < indices.size; i += 3) {
+			ret.add(new int[]{indices.array[i], indices.array[i + 1], indices.array[i + 2]});
+		}
+		return ret;
 	}
 
 	private static ByteBuffer createNativeByteBuffer(int length) {
@@ -270,171 +285,6 @@ public class WavefrontLoader {
 		return bb;
 	}
 
-	private void readModel(BufferedReader br)
-	// parse the OBJ file line-by-line
-	{
-		boolean isLoaded = true; // hope things will go okay
-
-		int lineNum = 0;
-		String line;
-		boolean isFirstCoord = true;
-		boolean isFirstTC = true;
-		int numFaces = 0;
-
-		int vertNumber = 0;
-		int normalNumber = 0;
-
-
-		try {
-			while (((line = br.readLine()) != null)) {
-				lineNum++;
-				line = line.trim();
-				if (line.length() > 0) {
-
-					if (line.startsWith("v ")) { // vertex
-						isLoaded = addVert(vertsBuffer, vertNumber++ * 3, line, isFirstCoord, modelDims) && isLoaded;
-						if (isFirstCoord)
-							isFirstCoord = false;
-					} else if (line.startsWith("vt")) { // tex coord
-						isLoaded = addTexCoord(line, isFirstTC) && isLoaded;
-						if (isFirstTC)
-							isFirstTC = false;
-					} else if (line.startsWith("vn")) // normal
-						isLoaded = addVert(normalsBuffer, normalNumber++ * 3,line, isFirstCoord, null) && isLoaded;
-					else if (line.startsWith("f ")) { // face
-						isLoaded = faces.addFace(line) && isLoaded;
-						numFaces++;
-					} else if (line.startsWith("mtllib ")) // build material
-					{
-						// materials = new Materials(new File(modelFile.getParent(),
-						// line.substring(7)).getAbsolutePath());
-						// materials = new Materials(line.substring(7));
-					} else if (line.startsWith("usemtl ")) // use material
-						faceMats.addUse(numFaces, line.substring(7));
-					else if (line.charAt(0) == 'g') { // group name
-						// not implemented
-					} else if (line.charAt(0) == 's') { // smoothing group
-						// not implemented
-					} else if (line.charAt(0) == '#') // comment line
-						continue;
-					else if (line.charAt(0) == 'o') // object group
-						continue;
-					else
-						System.out.println("Ignoring line " + lineNum + " : " + line);
-				}
-			}
-		} catch (IOException e) {
-			Log.e("WavefrontLoader",e.getMessage(),e);
-			throw new RuntimeException(e);
-		}
-
-		if (!isLoaded) {
-			Log.e("WavefrontLoader","Error loading model");
-			// throw new RuntimeException("Error loading model");
-		}
-	} // end of readModel()
-
-	/**
-	 * Parse the vertex and add it to the buffer. If the vertex cannot be parsed,
-	 * then a default (0,0,0) vertex is added instead.
-	 *
-	 * @param buffer the buffer where the vertex is to be added
-	 * @param offset the offset of the buffer
-	 * @param line the vertex to parse
-	 * @param isFirstCoord if this is the first vertex to be parsed
-	 * @param dimensions the model dimesions so they are updated (TODO move this out of this method)
-	 * @return <code>true</code> if the vertex could be parsed, <code>false</code> otherwise
-	 */
-	private boolean addVert(FloatBuffer buffer, int offset, String line, boolean isFirstCoord, ModelDimensions dimensions)
-	/*
-	 * Add vertex from line "v x y z" to vert ArrayList, and update the model dimension's info.
-	 */
-	{
-		float x=0,y=0,z=0;
-		try{
-			String[] tokens = null;
-			if (line.contains("  ")){
-				tokens = line.split(" +");
-			}
-			else{
-				tokens = line.split(" ");
-			}
-			x = Float.parseFloat(tokens[1]);
-			y = Float.parseFloat(tokens[2]);
-			z = Float.parseFloat(tokens[3]);
-
-			if (dimensions != null) {
-				if (isFirstCoord)
-					modelDims.set(x, y, z);
-				else
-					modelDims.update(x, y, z);
-			}
-
-			return true;
-
-		}catch(NumberFormatException ex){
-			Log.e("WavefrontLoader",ex.getMessage());
-		} finally{
-			// try to build even with errors
-			buffer.put(offset, x).put(offset+1, y).put(offset+2, z);
-		}
-
-		return false;
-	} // end of addVert()
-
-	private boolean addTexCoord(String line, boolean isFirstTC)
-	/*
-	 * Add the texture coordinate from the line "vt u v w" to the texCoords ArrayList. There may only be two tex coords
-	 * on the line, which is determined by looking at the first tex coord line.
-	 */
-	{
-		if (isFirstTC) {
-			hasTCs3D = checkTC3D(line);
-			System.out.println("Using 3D tex coords: " + hasTCs3D);
-		}
-
-		Tuple3 texCoord = readTCTuple(line);
-		if (texCoord != null) {
-			texCoords.add(texCoord);
-			return true;
-		}
-
-		return false;
-	} // end of addTexCoord()
-
-	private boolean checkTC3D(String line)
-	/*
-	 * Check if the line has 4 tokens, which will be the "vt" token and 3 tex coords in this case.
-	 */
-	{
-		String[] tokens = line.split("\\s+");
-		return (tokens.length == 4);
-	} // end of checkTC3D()
-
-	private Tuple3 readTCTuple(String line)
-	/*
-	 * The line starts with a "vt" OBJ word and two or three floats (x, y, z) for the tex coords separated by spaces. If
-	 * there are only two coords, then the z-value is assigned a dummy value, DUMMY_Z_TC.
-	 */
-	{
-		StringTokenizer tokens = new StringTokenizer(line, " ");
-		tokens.nextToken(); // skip "vt" OBJ word
-
-		try {
-			float x = Float.parseFloat(tokens.nextToken());
-			float y = Float.parseFloat(tokens.nextToken());
-
-			float z = DUMMY_Z_TC;
-			if (hasTCs3D)
-				z = Float.parseFloat(tokens.nextToken());
-			return new Tuple3(x, y, z);
-		} catch (NumberFormatException e) {
-			System.out.println(e.getMessage());
-		}
-
-		return null; // means an error occurred
-	} // end of readTCTuple()
-
 	public void reportOnModel() {
 		Log.i("WavefrontLoader","No. of vertices: " + vertsBuffer.capacity()/3);
 		Log.i("WavefrontLoader","No. of normal coords: " + numNormals);
@@ -840,8 +690,6 @@ public class WavefrontLoader {
 	} // end of Material class
 
 	public static class Faces {
-		private static final float DUMMY_Z_TC = -5.0f;
-
 		public final int totalFaces;
 		/**
 		 * indices for verticesused by each face
@@ -856,15 +704,7 @@ public class WavefrontLoader {
 		 */
 		public ArrayList<int[]> facesNormIdxs;
 
-        private FloatBuffer vertex;
-		private FloatBuffer normals;
-		private ArrayList<Tuple3> texCoords;
-
-		// Total number of vertices references. That is, each face references 3 or more vectors. This is the sum for all
-		// faces
 		private int facesLoadCounter;
-		private int faceVertexLoadCounter = 0;
-		private int verticesReferencesCount;
 
 		// for reporting
 		// private DecimalFormat df = new DecimalFormat("0.##"); // 2 dp
@@ -874,16 +714,17 @@ public class WavefrontLoader {
 			this.facesLoadCounter = numFaces;
 		}
 
-		Faces(int totalFaces, IntBuffer buffer, FloatBuffer vs, FloatBuffer ns, ArrayList<Tuple3> ts) {
+		/**
+		 * Faces already triangulated by the {@link WavefrontScanner}
+		 */
+		Faces(int totalFaces, IntBuffer buffer, ArrayList<int[]> texIdxs, ArrayList<int[]> normIdxs) {
 			this.totalFaces = totalFaces;
-			vertex = vs;
-			normals = ns;
-			texCoords = ts;
+			this.facesLoadCounter = totalFaces;
 
 			facesVertIdxs = buffer;
-			facesTexIdxs = new ArrayList<int[]>();
-			facesNormIdxs = new ArrayList<int[]>();
-		} // end of Faces()
+			facesTexIdxs = texIdxs;
+			facesNormIdxs = normIdxs;
+		}
 
 		public int getSize(){
 			return totalFaces;
@@ -896,115 +737,6 @@ public class WavefrontLoader {
 			return facesLoadCounter == totalFaces;
 		}
 
-		/**
-		 * get this face's indicies from line "f v/vt/vn ..." with vt or vn index values perhaps being absent.
-		 */
-		public boolean addFace(String line) {
-			try {
-				line = line.substring(2); // skip the "f "
-				String[] tokens = null;
-
-				// cpu optimization
-				if (line.contains("  ")){
-					tokens = line.split(" +");
-				}
-				else{
-					tokens = line.split(" ");
-				}
-
-				int numTokens = tokens.length; // number of v/vt/vn tokens
-				// create arrays to hold the v, vt, vn indicies
-
-				int vt[] = null;
-				int vn[] = null;
-
-
-				for (int i = 0, faceIndex = 0; i < numTokens; i++, faceIndex++) {
-
-					// convert to triangles all polygons
-					if (faceIndex > 2){
-						// Converting polygon to triangle
-						faceIndex = 0;
-
-						facesLoadCounter++;
-						verticesReferencesCount += 3;
-						if (vt != null)  facesTexIdxs.add(vt);
-						if (vn != null) facesNormIdxs.add(vn);
-
-						vt = null;
-						vn = null;
-
-						i -= 2;
-					}
-
-					// convert to triangles all polygons
-					String faceToken = null;
-					if (WavefrontLoader.triangleMode == GLES20.GL_TRIANGLE_FAN) {
-						if (faceIndex == 0){
-							// In FAN mode all faces shares the initial vertex
-							faceToken = tokens[0];// get a v/vt/vn
-						}else{
-							faceToken = tokens[i]; // get a v/vt/vn
-						}
-					}
-					else {
-						// GL.GL_TRIANGLES | GL.GL_TRIANGLE_STRIP
-						faceToken = tokens[i]; // get a v/vt/vn
-					}
-					// token
-					// System.out.println(faceToken);
-
-					String[] faceTokens = faceToken.split("/");
-					int numSeps = faceTokens.length; // how many '/'s are there in
-					// the token
-
-					int vertIdx = Integer.parseInt(faceTokens[0]);
-					if (numSeps > 1){
-						if (vt == null)	vt = new int[3];
-						try{
-							vt[faceIndex] = Integer.parseInt(faceTokens[1]);
-						}catch(NumberFormatException ex){
-							vt[faceIndex] = 0;
-						}
-					}
-					if (numSeps > 2){
-						if (vn == null)	vn = new int[3];
-						try{
-							vn[faceIndex] = Integer.parseInt(faceTokens[2]);
-						}catch(NumberFormatException ex){
-							vn[faceIndex] = 0;
-						}
-					}
-					// add 0's if the vt or vn index values are missing;
-					// 0 is a good choice since real indices start at 1
-
-                    if (vertIdx < 0){
-					    vertIdx = this.vertex.capacity()/3+vertIdx;
-                        if (vt != null)	vt[faceIndex] = texCoords.size() + vt[faceIndex];
-                        if (vn != null) vn[faceIndex] = normals.capacity()/3 + vn[faceIndex];
-                    }
-					else if (WavefrontLoader.INDEXES_START_AT_1) {
-						vertIdx--;
-						if (vt != null)	vt[faceIndex] = vt[faceIndex] - 1;
-						if (vn != null) vn[faceIndex] = vn[faceIndex] - 1;
-					}
-					// store the indices for this face
-					facesVertIdxs.put(faceVertexLoadCounter++,vertIdx);
-				}
-				if (vt != null)  facesTexIdxs.add(vt);
-				if (vn != null) facesNormIdxs.add(vn);
-
-				facesLoadCounter++;
-				verticesReferencesCount += 3;
-
-			} catch (NumberFormatException e) {
-				Log.e("WavefrontLoader",e.getMessage(),e);
-				return false;
-			}
-			return true;
-		}
-
-
 		public int getVerticesReferencesCount() {
 			// we have only triangles
 			return getSize()*3;
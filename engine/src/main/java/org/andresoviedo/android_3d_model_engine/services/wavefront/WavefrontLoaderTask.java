@@ -23,23 +23,25 @@ import java.util.List;
 
 public class WavefrontLoaderTask extends LoaderTask {
 
+    private static final int LOADER_VERSION = 2;
+
     public WavefrontLoaderTask(final Activity parent, final Uri uri, final Callback callback) {
         super(parent, uri, callback);
     }
 
+    @Override
+    protected int getLoaderVersion() {
+        return LOADER_VERSION;
+    }
+
     @Override
     protected List<Object3DData> build() throws IOException {
         InputStream params0 = ContentUtils.getInputStream(uri);
         WavefrontLoader wfl = new WavefrontLoader("");
 
-        // allocate memory
-        publishProgress(0);
-        wfl.analyzeModel(params0);
-        params0.close();
-
-        // Allocate memory
-        publishProgress(1);
-        wfl.allocateBuffers();
+        // parse model (single pass)
+        publishProgress(2);
+        wfl.loadModel(params0);
         wfl.reportOnModel();
 
         // create the 3D object
@@ -56,15 +58,9 @@ public class WavefrontLoaderTask extends LoaderTask {
 
     @Override
     protected void build(List<Object3DData> datas) throws Exception {
-        InputStream stream = ContentUtils.getInputStream(uri);
         try {
             Object3DData data = datas.get(0);
 
-            // parse model
-            publishProgress(2);
-            data.getLoader().loadModel(stream);
-            stream.close();
-
             // scale object
             publishProgress(3);
             data.centerScale();
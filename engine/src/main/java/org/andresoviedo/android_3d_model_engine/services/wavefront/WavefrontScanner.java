@@ -0,0 +1,663 @@
+package org.andresoviedo.android_3d_model_engine.services.wavefront;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Single pass, byte level scanner for Wavefront OBJ data.
+ * <p>
+ * Statements are read straight from the raw bytes into growable primitive arrays, so there is no need to count the
+ * elements in advance and no {@link String} is created per line. Polygons are triangulated (fan) as they are scanned.
+ * Face indices are resolved to 0-based indices, relative (negative) indices being resolved against the number of
+ * elements read so far.
+ * <p>
+ * Big files can be scanned in parallel with {@link #scanParallel(byte[], int, int, int)}: the data is split at line
+ * boundaries, every chunk is scanned into its own arrays and the chunks are then merged, shifting the relative face
+ * indices and the "usemtl" face lines by the number of elements found in the previous chunks.
+ */
+final class WavefrontScanner {
+
+	static final float DUMMY_Z_TC = -5.0f;
+
+	private static final float[] FLOAT_POW10 = {1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+	private static final double[] DOUBLE_POW10 = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+	// vertex data, 3 floats per element
+	final FloatArray verts = new FloatArray(1024);
+	final FloatArray normals = new FloatArray(1024);
+	final FloatArray texCoords = new FloatArray(1024);
+
+	// triangle indices, 3 ints per triangle
+	final IntArray faceVerts = new IntArray(1024);
+	final IntArray faceTexs = new IntArray(1024);
+	final IntArray faceNorms = new IntArray(1024);
+
+	// positions (in faceVerts, faceTexs and faceNorms) of the indices that were resolved as relative indices
+	final IntArray relativeVerts = new IntArray(8);
+	final IntArray relativeTexs = new IntArray(8);
+	final IntArray relativeNorms = new IntArray(8);
+
+	// "usemtl" statements: index of the face line and the material name
+	final IntArray materialFaces = new IntArray(8);
+	final List<String> materialNames = new ArrayList<>();
+	String materialLib;
+
+	// statistics
+	int faceLines;
+	int polygons;
+	int triangles;
+	int ignoredLines;
+
+	// whether the model uses 3D or 2D tex coords
+	boolean hasTCs3D;
+	private boolean isFirstTC = true;
+
+	// model dimensions: minX, maxX, minY, maxY, minZ, maxZ
+	final float[] dims = new float[6];
+	boolean hasDims;
+
+	/**
+	 * <code>false</code> if any statement could not be parsed
+	 */
+	boolean loaded = true;
+
+	// cursor
+	private byte[] data;
+	private int pos;
+	private int end;
+
+	// scratch for the face being triangulated: v, vt, vn, hasVt, hasVn, isRelative for the first, previous and
+	// current token
+	private final int[] token = new int[6];
+	private final int[] first = new int[6];
+	private final int[] previous = new int[6];
+
+	/**
+	 * Scan the data in parallel using the common fork/join pool.
+	 *
+	 * @param chunkCount number of chunks to split the data into
+	 * @return the merged scan, equivalent to a sequential {@link #scan(byte[], int, int)}
+	 */
+	static WavefrontScanner scanParallel(byte[] data, int offset, int length, int chunkCount) {
+		final int end = offset + length;
+		final int[] bounds = new int[chunkCount + 1];
+		bounds[0] = offset;
+		for (int i = 1; i < chunkCount; i++) {
+			int bound = Math.max(offset + (int) ((long) length * i / chunkCount), bounds[i - 1]);
+			while (bound < end && !isEol(data[bound])) bound++;
+			while (bound < end && isEol(data[bound])) bound++;
+			bounds[i] = bound;
+		}
+		bounds[chunkCount] = end;
+
+		// the tex coords format is decided by the first "vt" statement of the whole file
+		final WavefrontScanner probe = new WavefrontScanner();
+		final boolean hasTCs3D = probe.detectTexCoords3D(data, offset, length);
+
+		final WavefrontScanner[] chunks = new WavefrontScanner[chunkCount];
+		ForkJoinPool.commonPool().invoke(new ScanTask(data, bounds, chunks, hasTCs3D, 0, chunkCount));
+		return merge(chunks);
+	}
+
+	/**
+	 * Concatenate the chunk scans. Positive face indices are already global; relative ones and the "usemtl" face
+	 * lines are shifted by the number of elements of the previous chunks (prefix sum).
+	 */
+	static WavefrontScanner merge(WavefrontScanner[] chunks) {
+		final WavefrontScanner ret = new WavefrontScanner();
+		int[] totals = new int[6];
+		for (WavefrontScanner chunk : chunks) {
+			totals[0] += chunk.verts.size;
+			totals[1] += chunk.normals.size;
+			totals[2] += chunk.texCoords.size;
+			totals[3] += chunk.faceVerts.size;
+			totals[4] += chunk.faceTexs.size;
+			totals[5] += chunk.faceNorms.size;
+		}
+		ret.verts.ensureCapacity(totals[0]);
+		ret.normals.ensureCapacity(totals[1]);
+		ret.texCoords.ensureCapacity(totals[2]);
+		ret.faceVerts.ensureCapacity(totals[3]);
+		ret.faceTexs.ensureCapacity(totals[4]);
+		ret.faceNorms.ensureCapacity(totals[5]);
+
+		ret.hasTCs3D = chunks[0].hasTCs3D;
+		for (WavefrontScanner chunk : chunks) {
+			ret.faceVerts.addAll(chunk.faceVerts, chunk.relativeVerts, ret.verts.size / 3);
+			ret.faceTexs.addAll(chunk.faceTexs, chunk.relativeTexs, ret.texCoords.size / 3);
+			ret.faceNorms.addAll(chunk.faceNorms, chunk.relativeNorms, ret.normals.size / 3);
+			ret.verts.addAll(chunk.verts);
+			ret.normals.addAll(chunk.normals);
+			ret.texCoords.addAll(chunk.texCoords);
+
+			for (int i = 0; i < chunk.materialNames.size(); i++) {
+				ret.materialFaces.add(ret.faceLines + chunk.materialFaces.array[i]);
+				ret.materialNames.add(chunk.materialNames.get(i));
+			}
+			if (chunk.materialLib != null) {
+				ret.materialLib = chunk.materialLib;
+			}
+
+			if (chunk.hasDims) {
+				final float[] d = chunk.dims;
+				if (!ret.hasDims) {
+					System.arraycopy(d, 0, ret.dims, 0, 6);
+					ret.hasDims = true;
+				} else {
+					for (int i = 0; i < 6; i += 2) {
+						if (d[i] < ret.dims[i]) ret.dims[i] = d[i];
+						if (d[i + 1] > ret.dims[i + 1]) ret.dims[i + 1] = d[i + 1];
+					}
+				}
+			}
+
+			ret.faceLines += chunk.faceLines;
+			ret.polygons += chunk.polygons;
+			ret.triangles += chunk.triangles;
+			ret.ignoredLines += chunk.ignoredLines;
+			ret.loaded &= chunk.loaded;
+		}
+		return ret;
+	}
+
+	/**
+	 * @return <code>true</code> if the first "vt" statement has 3 coordinates
+	 */
+	private boolean detectTexCoords3D(byte[] data, int offset, int length) {
+		this.data = data;
+		this.pos = offset;
+		this.end = offset + length;
+		boolean ret = false;
+		while (pos < end) {
+			skipBlanks();
+			if (startsWith("vt")) {
+				pos += 2;
+				ret = countTokens() == 3;
+				break;
+			}
+			skipLine();
+		}
+		this.data = null;
+		return ret;
+	}
+
+	void scan(byte[] data, int offset, int length) {
+		this.data = data;
+		this.pos = offset;
+		this.end = offset + length;
+		while (pos < end) {
+			scanLine();
+		}
+		this.data = null;
+	}
+
+	private void scanLine() {
+		skipBlanks();
+		if (pos >= end) return;
+		final byte c0 = data[pos];
+		if (isEol(c0)) {
+			pos++;
+			return;
+		}
+		final byte c1 = pos + 1 < end ? data[pos + 1] : (byte) '\n';
+		if (c0 == 'v' && isBlank(c1)) {
+			pos += 2;
+			scanVertex();
+		} else if (c0 == 'v' && c1 == 't') {
+			pos += 2;
+			scanTexCoord();
+		} else if (c0 == 'v' && c1 == 'n') {
+			pos += 2;
+			scanTuple3(normals);
+		} else if (c0 == 'f' && isBlank(c1)) {
+			pos += 2;
+			scanFace();
+		} else if (startsWith("mtllib ") && !isBlankLine(pos + 7)) {
+			pos += 7;
+			materialLib = readRestOfLine();
+		} else if (startsWith("usemtl ") && !isBlankLine(pos + 7)) {
+			pos += 7;
+			materialFaces.add(faceLines);
+			materialNames.add(readRestOfLine());
+		} else if (c0 != 'g' && c0 != 's' && c0 != '#' && c0 != 'o') {
+			ignoredLines++;
+		}
+		skipLine();
+	}
+
+	private void scanVertex() {
+		final int offset = verts.size;
+		final boolean ok = scanTuple3(verts);
+		if (!ok) return;
+		final float[] v = verts.array;
+		final float x = v[offset], y = v[offset + 1], z = v[offset + 2];
+		if (!hasDims) {
+			dims[0] = dims[1] = x;
+			dims[2] = dims[3] = y;
+			dims[4] = dims[5] = z;
+			hasDims = true;
+		} else {
+			if (x < dims[0]) dims[0] = x;
+			if (x > dims[1]) dims[1] = x;
+			if (y < dims[2]) dims[2] = y;
+			if (y > dims[3]) dims[3] = y;
+			if (z < dims[4]) dims[4] = z;
+			if (z > dims[5]) dims[5] = z;
+		}
+	}
+
+	/**
+	 * Parse 3 floats into the array. Like the former line based parser, a (0,0,0) tuple is stored anyway when there
+	 * is an error, so the element indices keep matching the file.
+	 */
+	private boolean scanTuple3(FloatArray target) {
+		float x = 0, y = 0, z = 0;
+		boolean ok = false;
+		try {
+			x = parseFloat();
+			y = parseFloat();
+			z = parseFloat();
+			ok = true;
+		} catch (NumberFormatException ex) {
+			loaded = false;
+		}
+		target.add(x, y, z);
+		return ok;
+	}
+
+	private void scanTexCoord() {
+		if (isFirstTC) {
+			isFirstTC = false;
+			hasTCs3D = countTokens() == 3;
+		}
+		try {
+			float x = parseFloat();
+			float y = parseFloat();
+			float z = hasTCs3D ? parseFloat() : DUMMY_Z_TC;
+			texCoords.add(x, y, z);
+		} catch (NumberFormatException ex) {
+			loaded = false;
+		}
+	}
+
+	private void scanFace() {
+		faceLines++;
+		int count = 0;
+		try {
+			while (true) {
+				skipBlanks();
+				if (pos >= end || isEol(data[pos])) break;
+				parseFaceToken(token);
+				if (count == 0) {
+					System.arraycopy(token, 0, first, 0, 6);
+				} else if (count >= 2) {
+					addTriangle(first, previous, token);
+				}
+				System.arraycopy(token, 0, previous, 0, 6);
+				count++;
+			}
+		} catch (NumberFormatException ex) {
+			loaded = false;
+		}
+		if (count == 3) triangles++;
+		else if (count > 3) polygons++;
+		else loaded = false;
+	}
+
+	private void addTriangle(int[] a, int[] b, int[] c) {
+		markRelative(relativeVerts, faceVerts.size, a, b, c);
+		faceVerts.add(a[0], b[0], c[0]);
+		if (a[3] != 0 || b[3] != 0 || c[3] != 0) {
+			markRelative(relativeTexs, faceTexs.size, a, b, c);
+			faceTexs.add(a[1], b[1], c[1]);
+		}
+		if (a[4] != 0 || b[4] != 0 || c[4] != 0) {
+			markRelative(relativeNorms, faceNorms.size, a, b, c);
+			faceNorms.add(a[2], b[2], c[2]);
+		}
+	}
+
+	private static void markRelative(IntArray positions, int offset, int[] a, int[] b, int[] c) {
+		if (a[5] != 0) positions.add(offset);
+		if (b[5] != 0) positions.add(offset + 1);
+		if (c[5] != 0) positions.add(offset + 2);
+	}
+
+	/**
+	 * Parse a "v", "v/vt", "v//vn" or "v/vt/vn" token. Missing vt or vn indices are taken as 0.
+	 */
+	private void parseFaceToken(int[] out) {
+		int v = parseInt();
+		int vt = 0, vn = 0;
+		boolean hasVt = false, hasVn = false;
+		if (pos < end && data[pos] == '/') {
+			pos++;
+			if (pos < end && isIntStart(data[pos])) {
+				vt = parseInt();
+				hasVt = true;
+			}
+			if (pos < end && data[pos] == '/') {
+				pos++;
+				if (pos < end && isIntStart(data[pos])) {
+					vn = parseInt();
+					hasVn = true;
+					// "v//vn" also reserves a (zero) tex coord index, as it used to
+					hasVt = true;
+				}
+			}
+		}
+		if (pos < end && !isBlank(data[pos]) && !isEol(data[pos])) {
+			throw new NumberFormatException("Unexpected character in face token");
+		}
+		final boolean relative = v < 0;
+		if (relative) {
+			v += verts.size / 3;
+			vt += texCoords.size / 3;
+			vn += normals.size / 3;
+		} else if (WavefrontLoader.INDEXES_START_AT_1) {
+			v--;
+			vt--;
+			vn--;
+		}
+		out[0] = v;
+		out[1] = vt;
+		out[2] = vn;
+		out[3] = hasVt ? 1 : 0;
+		out[4] = hasVn ? 1 : 0;
+		out[5] = relative ? 1 : 0;
+	}
+
+	// ------------------------------------------------------------------ lexer
+
+	private int parseInt() {
+		skipBlanks();
+		boolean negative = false;
+		if (pos < end && (data[pos] == '-' || data[pos] == '+')) {
+			negative = data[pos] == '-';
+			pos++;
+		}
+		final int start = pos;
+		int value = 0;
+		while (pos < end) {
+			final int d = data[pos] - '0';
+			if (d < 0 || d > 9) break;
+			value = value * 10 + d;
+			pos++;
+		}
+		if (pos == start) {
+			throw new NumberFormatException("Integer expected");
+		}
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Parse the next float of the line. Plain decimal numbers (the common case) are converted without creating any
+	 * object and give exactly the same result as {@link Float#parseFloat(String)}; anything else is delegated to it.
+	 */
+	private float parseFloat() {
+		skipBlanks();
+		final int start = pos;
+		if (pos >= end || isEol(data[pos])) {
+			throw new NumberFormatException("Float expected");
+		}
+		boolean negative = false;
+		if (data[pos] == '-' || data[pos] == '+') {
+			negative = data[pos] == '-';
+			pos++;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean anyDigit = false;
+		while (pos < end) {
+			final int d = data[pos] - '0';
+			if (d < 0 || d > 9) break;
+			anyDigit = true;
+			if (digits < 18) {
+				if (mantissa != 0 || d != 0) {
+					mantissa = mantissa * 10 + d;
+					digits++;
+				}
+			} else {
+				exponent++;
+			}
+			pos++;
+		}
+		if (pos < end && data[pos] == '.') {
+			pos++;
+			while (pos < end) {
+				final int d = data[pos] - '0';
+				if (d < 0 || d > 9) break;
+				anyDigit = true;
+				if (digits < 18) {
+					if (mantissa != 0 || d != 0) {
+						mantissa = mantissa * 10 + d;
+						digits++;
+					}
+					exponent--;
+				}
+				pos++;
+			}
+		}
+		if (anyDigit && pos < end && (data[pos] == 'e' || data[pos] == 'E')) {
+			pos++;
+			boolean negativeExp = false;
+			if (pos < end && (data[pos] == '-' || data[pos] == '+')) {
+				negativeExp = data[pos] == '-';
+				pos++;
+			}
+			int exp = 0;
+			boolean anyExpDigit = false;
+			while (pos < end) {
+				final int d = data[pos] - '0';
+				if (d < 0 || d > 9) break;
+				anyExpDigit = true;
+				if (exp < 10000) exp = exp * 10 + d;
+				pos++;
+			}
+			if (!anyExpDigit) return slowParseFloat(start);
+			exponent += negativeExp ? -exp : exp;
+		}
+		if (!anyDigit || (pos < end && !isBlank(data[pos]) && !isEol(data[pos]))) {
+			return slowParseFloat(start);
+		}
+
+		final float value;
+		if (mantissa == 0) {
+			value = 0f;
+		} else if (mantissa < (1 << 24) && exponent >= -10 && exponent <= 10) {
+			// both operands are exact, so the single rounding is the correct one
+			value = exponent < 0 ? mantissa / FLOAT_POW10[-exponent] : mantissa * FLOAT_POW10[exponent];
+		} else if (mantissa < (1L << 53) && exponent >= -22 && exponent <= 22) {
+			final double d = exponent < 0 ? mantissa / DOUBLE_POW10[-exponent] : mantissa * DOUBLE_POW10[exponent];
+			final float f = (float) d;
+			// rounding twice (to double and then to float) can only go wrong on a float midpoint
+			if (f == 0 || Float.isInfinite(f) || d == ((double) f + Math.nextUp(f)) / 2
+					|| d == ((double) f + Math.nextDown(f)) / 2) {
+				return slowParseFloat(start);
+			}
+			value = f;
+		} else {
+			return slowParseFloat(start);
+		}
+		return negative ? -value : value;
+	}
+
+	private float slowParseFloat(int start) {
+		pos = start;
+		while (pos < end && !isBlank(data[pos]) && !isEol(data[pos])) pos++;
+		return Float.parseFloat(new String(data, start, pos - start, StandardCharsets.US_ASCII));
+	}
+
+	private int countTokens() {
+		final int mark = pos;
+		int count = 0;
+		while (true) {
+			skipBlanks();
+			if (pos >= end || isEol(data[pos])) break;
+			count++;
+			while (pos < end && !isBlank(data[pos]) && !isEol(data[pos])) pos++;
+		}
+		pos = mark;
+		return count;
+	}
+
+	private boolean startsWith(String keyword) {
+		final int length = keyword.length();
+		if (pos + length > end) return false;
+		for (int i = 0; i < length; i++) {
+			if (data[pos + i] != keyword.charAt(i)) return false;
+		}
+		return true;
+	}
+
+	private boolean isBlankLine(int from) {
+		for (int i = from; i < end && !isEol(data[i]); i++) {
+			if (!isBlank(data[i])) return false;
+		}
+		return true;
+	}
+
+	private String readRestOfLine() {
+		int start = pos;
+		while (pos < end && !isEol(data[pos])) pos++;
+		int stop = pos;
+		while (stop > start && isBlank(data[stop - 1])) stop--;
+		return new String(data, start, stop - start, StandardCharsets.UTF_8);
+	}
+
+	private void skipBlanks() {
+		while (pos < end && isBlank(data[pos])) pos++;
+	}
+
+	private void skipLine() {
+		while (pos < end && !isEol(data[pos])) pos++;
+		if (pos < end) pos++;
+	}
+
+	private static boolean isBlank(byte c) {
+		return c == ' ' || c == '\t';
+	}
+
+	private static boolean isEol(byte c) {
+		return c == '\n' || c == '\r';
+	}
+
+	private static boolean isIntStart(byte c) {
+		return (c >= '0' && c <= '9') || c == '-' || c == '+';
+	}
+
+	/**
+	 * Growable float array
+	 */
+	static final class FloatArray {
+		float[] array;
+		int size;
+
+		FloatArray(int capacity) {
+			array = new float[capacity];
+		}
+
+		void ensureCapacity(int capacity) {
+			if (capacity > array.length) {
+				array = Arrays.copyOf(array, Math.max(array.length * 2, capacity));
+			}
+		}
+
+		void add(float x, float y, float z) {
+			ensureCapacity(size + 3);
+			array[size] = x;
+			array[size + 1] = y;
+			array[size + 2] = z;
+			size += 3;
+		}
+
+		void addAll(FloatArray other) {
+			ensureCapacity(size + other.size);
+			System.arraycopy(other.array, 0, array, size, other.size);
+			size += other.size;
+		}
+	}
+
+	/**
+	 * Growable int array
+	 */
+	static final class IntArray {
+		int[] array;
+		int size;
+
+		IntArray(int capacity) {
+			array = new int[capacity];
+		}
+
+		void ensureCapacity(int capacity) {
+			if (capacity > array.length) {
+				array = Arrays.copyOf(array, Math.max(array.length * 2, capacity));
+			}
+		}
+
+		void add(int value) {
+			ensureCapacity(size + 1);
+			array[size++] = value;
+		}
+
+		void add(int a, int b, int c) {
+			ensureCapacity(size + 3);
+			array[size] = a;
+			array[size + 1] = b;
+			array[size + 2] = c;
+			size += 3;
+		}
+
+		/**
+		 * Append the indices, adding the base to the ones at the specified (relative) positions
+		 */
+		void addAll(IntArray other, IntArray relativePositions, int base) {
+			ensureCapacity(size + other.size);
+			System.arraycopy(other.array, 0, array, size, other.size);
+			for (int i = 0; i < relativePositions.size; i++) {
+				array[size + relativePositions.array[i]] += base;
+			}
+			size += other.size;
+		}
+	}
+
+	private static final class ScanTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final byte[] data;
+		private final int[] bounds;
+		private final WavefrontScanner[] chunks;
+		private final boolean hasTCs3D;
+		private final int from, to;
+
+		ScanTask(byte[] data, int[] bounds, WavefrontScanner[] chunks, boolean hasTCs3D, int from, int to) {
+			this.data = data;
+			this.bounds = bounds;
+			this.chunks = chunks;
+			this.hasTCs3D = hasTCs3D;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > 1) {
+				final int middle = (from + to) >>> 1;
+				invokeAll(new ScanTask(data, bounds, chunks, hasTCs3D, from, middle),
+						new ScanTask(data, bounds, chunks, hasTCs3D, middle, to));
+				return;
+			}
+			final WavefrontScanner chunk = new WavefrontScanner();
+			chunk.hasTCs3D = hasTCs3D;
+			chunk.isFirstTC = false;
+			chunk.scan(data, bounds[from], bounds[from + 1] - bounds[from]);
+			chunks[from] = chunk;
+		}
+	}
+}
@@ -7,8 +7,12 @@ import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.pm.PackageManager;
+import android.content.res.AssetFileDescriptor;
+import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
+import android.provider.DocumentsContract;
+import android.provider.OpenableColumns;
 import android.util.Log;
 
 import java.io.BufferedReader;
@@ -117,6 +121,47 @@ public class ContentUtils {
         return getCurrentActivity().getContentResolver().openInputStream(uri);
     }
 
+    /**
+     * Get the size and the last modification time of the media
+     *
+     * @param uri the media
+     * @return {size, lastModified}. Any of them is -1 if it is unknown
+     */
+    public static long[] getSizeAndLastModified(Uri uri) {
+        final long[] ret = {-1, -1};
+        try {
+            if ("file".equals(uri.getScheme())) {
+                File file = new File(uri.getPath());
+                if (file.exists()) {
+                    ret[0] = file.length();
+                    ret[1] = file.lastModified();
+                }
+            } else if ("assets".equals(uri.getScheme())) {
+                // assets only change when the app is updated
+                Activity activity = getCurrentActivity();
+                ret[1] = activity.getPackageManager().getPackageInfo(activity.getPackageName(), 0).lastUpdateTime;
+                try (AssetFileDescriptor fd = activity.getAssets().openFd(uri.getPath().substring(1))) {
+                    ret[0] = fd.getLength();
+                } catch (IOException ex) {
+                    // compressed asset
+                    Log.d("ContentUtils", "Unknown asset size: " + uri);
+                }
+            } else if ("content".equals(uri.getScheme())) {
+                try (Cursor cursor = getCurrentActivity().getContentResolver().query(uri, null, null, null, null)) {
+                    if (cursor != null && cursor.moveToFirst()) {
+                        int sizeIdx = cursor.getColumnIndex(OpenableColumns.SIZE);
+                        int modifiedIdx = cursor.getColumnIndex(DocumentsContract.Document.COLUMN_LAST_MODIFIED);
+                        if (sizeIdx != -1 && !cursor.isNull(sizeIdx)) ret[0] = cursor.getLong(sizeIdx);
+                        if (modifiedIdx != -1 && !cursor.isNull(modifiedIdx)) ret[1] = cursor.getLong(modifiedIdx);
+                    }
+                }
+            }
+        } catch (Exception ex) {
+            Log.w("ContentUtils", "Problem reading metadata of " + uri + ": " + ex.getMessage());
+        }
+        return ret;
+    }
+
 
     public static Intent createGetContentIntent(String mimeType) {
         // check here to KITKAT or new version
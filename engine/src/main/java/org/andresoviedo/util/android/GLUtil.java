@@ -5,14 +5,24 @@ import android.graphics.BitmapFactory;
 import android.opengl.GLES20;
 import android.opengl.GLUtils;
 import android.util.Log;
+import org.andresoviedo.android_3d_model_engine.BuildConfig;
 import org.andresoviedo.android_3d_model_engine.model.Object3DData;
 
 import java.io.InputStream;
+import java.util.function.IntSupplier;
 
 public final class GLUtil {
 
 	private static final String TAG = "GLUtil";
 
+	/**
+	 * Check gl errors every time in debug builds, and 1 of every 64 times in release builds
+	 */
+	private static final int GL_ERROR_SAMPLING = BuildConfig.DEBUG ? 1 : 64;
+	static int glErrorCounter;
+	// reads the next error. Replaced by the unit tests, where there is no GL
+	static IntSupplier glGetError = GLES20::glGetError;
+
 	private GLUtil() {
 
 	}
@@ -192,18 +202,54 @@ public final class GLUtil {
 	 * </pre>
 	 * 
 	 * If the operation is not successful, the check throws an error.
-	 * 
+	 * <p>
+	 * In release builds only 1 of every {@link #GL_ERROR_SAMPLING} checks calls glGetError, because each call is a
+	 * round trip to the driver. Errors are kept by GL until read, so they are still logged, by a later check.
+	 * Use {@link #checkGlErrorNow(String)} when the result matters.
+	 *
 	 * @param glOperation
 	 *            - Name of the OpenGL call to check.
 	 */
 	public static boolean checkGlError(String glOperation) {
+		return checkGlError(glOperation, GL_ERROR_SAMPLING);
+	}
+
+	static boolean checkGlError(String glOperation, int sampling) {
+		if (sampling > 1 && ++glErrorCounter % sampling != 0) {
+			return false;
+		}
+		return checkGlErrorNow(glOperation);
+	}
+
+	/**
+	 * Same as {@link #checkGlError(String)} but always calls glGetError.
+	 * <p>
+	 * Errors of earlier calls whose check was skipped are read too, so call {@link #clearGlErrors()} before the
+	 * operation when the result decides something.
+	 *
+	 * @param glOperation
+	 *            - Name of the OpenGL call to check.
+	 * @return true if there was any error
+	 */
+	public static boolean checkGlErrorNow(String glOperation) {
 		int glError;
 		boolean error = false;
-		while ((glError = GLES20.glGetError()) != GLES20.GL_NO_ERROR) {
+		while ((glError = glGetError.getAsInt()) != GLES20.GL_NO_ERROR) {
 			Log.e(TAG, glOperation + ": glError " + glError);
 			error = true;
 			// throw new RuntimeException(glOperation + ": glError " + error);
 		}
 		return error;
 	}
+
+	/**
+	 * Reads, and logs, the errors left by earlier calls, so the next {@link #checkGlErrorNow(String)} only sees the
+	 * errors of the calls made after this one
+	 */
+	public static void clearGlErrors() {
+		int glError;
+		while ((glError = glGetError.getAsInt()) != GLES20.GL_NO_ERROR) {
+			Log.e(TAG, "unchecked glError " + glError);
+		}
+	}
 }
@@ -0,0 +1,256 @@
+package org.andresoviedo.util.math;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Operations on column-major 4x4 matrices stored in float arrays at an offset, like the ones of
+ * <code>android.opengl.Matrix</code>, plus the ones that class lacks: building and splitting translation, rotation and
+ * scale, and transforming many points at once.
+ * <p>
+ * Nothing is allocated, and the destination may be one of the arguments.
+ */
+public final class Mat4 {
+
+    private Mat4() {
+    }
+
+    public static void identity(float[] out, int outOffset) {
+        for (int k = 0; k < 16; k++) {
+            out[outOffset + k] = k % 5 == 0 ? 1 : 0;
+        }
+    }
+
+    /**
+     * out = a * b
+     */
+    public static void multiply(float[] out, int outOffset, float[] a, int aOffset, float[] b, int bOffset) {
+        final float a00 = a[aOffset], a10 = a[aOffset + 1], a20 = a[aOffset + 2], a30 = a[aOffset + 3];
+        final float a01 = a[aOffset + 4], a11 = a[aOffset + 5], a21 = a[aOffset + 6], a31 = a[aOffset + 7];
+        final float a02 = a[aOffset + 8], a12 = a[aOffset + 9], a22 = a[aOffset + 10], a32 = a[aOffset + 11];
+        final float a03 = a[aOffset + 12], a13 = a[aOffset + 13], a23 = a[aOffset + 14], a33 = a[aOffset + 15];
+        // b is read a column at a time, so out may be b
+        for (int c = 0; c < 16; c += 4) {
+            final float b0 = b[bOffset + c], b1 = b[bOffset + c + 1], b2 = b[bOffset + c + 2], b3 = b[bOffset + c + 3];
+            out[outOffset + c] = a00 * b0 + a01 * b1 + a02 * b2 + a03 * b3;
+            out[outOffset + c + 1] = a10 * b0 + a11 * b1 + a12 * b2 + a13 * b3;
+            out[outOffset + c + 2] = a20 * b0 + a21 * b1 + a22 * b2 + a23 * b3;
+            out[outOffset + c + 3] = a30 * b0 + a31 * b1 + a32 * b2 + a33 * b3;
+        }
+    }
+
+    /**
+     * Builds translation * rotation * scale
+     *
+     * @param q rotation quaternion (x, y, z, w), normalized
+     */
+    public static void compose(float[] out, int outOffset, float tx, float ty, float tz,
+                               float qx, float qy, float qz, float qw, float sx, float sy, float sz) {
+        final float xx = qx * qx, yy = qy * qy, zz = qz * qz;
+        final float xy = qx * qy, xz = qx * qz, yz = qy * qz, xw = qx * qw, yw = qy * qw, zw = qz * qw;
+        out[outOffset] = (1 - 2 * (yy + zz)) * sx;
+        out[outOffset + 1] = 2 * (xy + zw) * sx;
+        out[outOffset + 2] = 2 * (xz - yw) * sx;
+        out[outOffset + 3] = 0;
+        out[outOffset + 4] = 2 * (xy - zw) * sy;
+        out[outOffset + 5] = (1 - 2 * (xx + zz)) * sy;
+        out[outOffset + 6] = 2 * (yz + xw) * sy;
+        out[outOffset + 7] = 0;
+        out[outOffset + 8] = 2 * (xz + yw) * sz;
+        out[outOffset + 9] = 2 * (yz - xw) * sz;
+        out[outOffset + 10] = (1 - 2 * (xx + yy)) * sz;
+        out[outOffset + 11] = 0;
+        out[outOffset + 12] = tx;
+        out[outOffset + 13] = ty;
+        out[outOffset + 14] = tz;
+        out[outOffset + 15] = 1;
+    }
+
+    /**
+     * Builds translation * rotation * scale from arrays
+     *
+     * @param translations x, y, z at translationOffset
+     * @param rotations    quaternion at rotationOffset
+     * @param scales       x, y, z at scaleOffset
+     */
+    public static void compose(float[] out, int outOffset, float[] translations, int translationOffset,
+                               float[] rotations, int rotationOffset, float[] scales, int scaleOffset) {
+        compose(out, outOffset, translations[translationOffset], translations[translationOffset + 1],
+                translations[translationOffset + 2], rotations[rotationOffset], rotations[rotationOffset + 1],
+                rotations[rotationOffset + 2], rotations[rotationOffset + 3], scales[scaleOffset],
+                scales[scaleOffset + 1], scales[scaleOffset + 2]);
+    }
+
+    /**
+     * Splits an affine matrix into translation, rotation and scale, the inverse of
+     * {@link #compose(float[], int, float[], int, float[], int, float[], int)}. Shear is lost. A mirrored matrix gets
+     * a negative x scale.
+     */
+    public static void decompose(float[] m, int mOffset, float[] translations, int translationOffset,
+                                 float[] rotations, int rotationOffset, float[] scales, int scaleOffset) {
+        translations[translationOffset] = m[mOffset + 12];
+        translations[translationOffset + 1] = m[mOffset + 13];
+        translations[translationOffset + 2] = m[mOffset + 14];
+
+        final float m00 = m[mOffset], m01 = m[mOffset + 4], m02 = m[mOffset + 8];
+        final float m10 = m[mOffset + 1], m11 = m[mOffset + 5], m12 = m[mOffset + 9];
+        final float m20 = m[mOffset + 2], m21 = m[mOffset + 6], m22 = m[mOffset + 10];
+        float sx = (float) Math.sqrt(m00 * m00 + m10 * m10 + m20 * m20);
+        final float sy = (float) Math.sqrt(m01 * m01 + m11 * m11 + m21 * m21);
+        final float sz = (float) Math.sqrt(m02 * m02 + m12 * m12 + m22 * m22);
+        final float determinant = m00 * (m11 * m22 - m12 * m21) - m01 * (m10 * m22 - m12 * m20)
+                + m02 * (m10 * m21 - m11 * m20);
+        if (determinant < 0) {
+            sx = -sx;
+        }
+        scales[scaleOffset] = sx;
+        scales[scaleOffset + 1] = sy;
+        scales[scaleOffset + 2] = sz;
+
+        // rotation part, with the scale removed
+        final float ix = sx != 0 ? 1 / sx : 0, iy = sy != 0 ? 1 / sy : 0, iz = sz != 0 ? 1 / sz : 0;
+        Quat.fromMatrix(rotations, rotationOffset, m00 * ix, m01 * iy, m02 * iz, m10 * ix, m11 * iy, m12 * iz,
+                m20 * ix, m21 * iy, m22 * iz);
+    }
+
+    /**
+     * Inverts a matrix whose last row is (0, 0, 0, 1), like the ones built by
+     * {@link #compose(float[], int, float[], int, float[], int, float[], int)}. It's cheaper than
+     * <code>Matrix.invertM</code>
+     *
+     * @return false if the matrix can't be inverted, in which case out is not modified
+     */
+    public static boolean invertAffine(float[] out, int outOffset, float[] m, int mOffset) {
+        final float m00 = m[mOffset], m10 = m[mOffset + 1], m20 = m[mOffset + 2];
+        final float m01 = m[mOffset + 4], m11 = m[mOffset + 5], m21 = m[mOffset + 6];
+        final float m02 = m[mOffset + 8], m12 = m[mOffset + 9], m22 = m[mOffset + 10];
+        final float tx = m[mOffset + 12], ty = m[mOffset + 13], tz = m[mOffset + 14];
+        // cofactors of the 3x3 part
+        final float c00 = m11 * m22 - m12 * m21, c01 = m12 * m20 - m10 * m22, c02 = m10 * m21 - m11 * m20;
+        final float determinant = m00 * c00 + m01 * c01 + m02 * c02;
+        if (determinant == 0) {
+            return false;
+        }
+        final float d = 1 / determinant;
+        final float i00 = c00 * d, i01 = (m02 * m21 - m01 * m22) * d, i02 = (m01 * m12 - m02 * m11) * d;
+        final float i10 = c01 * d, i11 = (m00 * m22 - m02 * m20) * d, i12 = (m02 * m10 - m00 * m12) * d;
+        final float i20 = c02 * d, i21 = (m01 * m20 - m00 * m21) * d, i22 = (m00 * m11 - m01 * m10) * d;
+        out[outOffset] = i00;
+        out[outOffset + 1] = i10;
+        out[outOffset + 2] = i20;
+        out[outOffset + 3] = 0;
+        out[outOffset + 4] = i01;
+        out[outOffset + 5] = i11;
+        out[outOffset + 6] = i21;
+        out[outOffset + 7] = 0;
+        out[outOffset + 8] = i02;
+        out[outOffset + 9] = i12;
+        out[outOffset + 10] = i22;
+        out[outOffset + 11] = 0;
+        out[outOffset + 12] = -(i00 * tx + i01 * ty + i02 * tz);
+        out[outOffset + 13] = -(i10 * tx + i11 * ty + i12 * tz);
+        out[outOffset + 14] = -(i20 * tx + i21 * ty + i22 * tz);
+        out[outOffset + 15] = 1;
+        return true;
+    }
+
+    /**
+     * Transforms the point (x, y, z, 1), ignoring the last row of the matrix
+     *
+     * @param out receives x, y, z. It may be v
+     */
+    public static void transformPoint(float[] out, int outOffset, float[] m, int mOffset, float[] v, int vOffset) {
+        final float x = v[vOffset], y = v[vOffset + 1], z = v[vOffset + 2];
+        out[outOffset] = m[mOffset] * x + m[mOffset + 4] * y + m[mOffset + 8] * z + m[mOffset + 12];
+        out[outOffset + 1] = m[mOffset + 1] * x + m[mOffset + 5] * y + m[mOffset + 9] * z + m[mOffset + 13];
+        out[outOffset + 2] = m[mOffset + 2] * x + m[mOffset + 6] * y + m[mOffset + 10] * z + m[mOffset + 14];
+    }
+
+    /**
+     * Transforms the direction (x, y, z, 0)
+     *
+     * @param out receives x, y, z. It may be v
+     */
+    public static void transformVector(float[] out, int outOffset, float[] m, int mOffset, float[] v, int vOffset) {
+        final float x = v[vOffset], y = v[vOffset + 1], z = v[vOffset + 2];
+        out[outOffset] = m[mOffset] * x + m[mOffset + 4] * y + m[mOffset + 8] * z;
+        out[outOffset + 1] = m[mOffset + 1] * x + m[mOffset + 5] * y + m[mOffset + 9] * z;
+        out[outOffset + 2] = m[mOffset + 2] * x + m[mOffset + 6] * y + m[mOffset + 10] * z;
+    }
+
+    /**
+     * Transforms consecutive points (x, y, z each), like {@link #transformPoint}
+     *
+     * @param count number of points
+     */
+    public static void transformPoints(float[] m, int mOffset, float[] src, int srcOffset, float[] dst,
+                                       int dstOffset, int count) {
+        final float m0 = m[mOffset], m1 = m[mOffset + 1], m2 = m[mOffset + 2];
+        final float m4 = m[mOffset + 4], m5 = m[mOffset + 5], m6 = m[mOffset + 6];
+        final float m8 = m[mOffset + 8], m9 = m[mOffset + 9], m10 = m[mOffset + 10];
+        final float m12 = m[mOffset + 12], m13 = m[mOffset + 13], m14 = m[mOffset + 14];
+        for (int i = 0, s = srcOffset, d = dstOffset; i < count; i++, s += 3, d += 3) {
+            final float x = src[s], y = src[s + 1], z = src[s + 2];
+            dst[d] = m0 * x + m4 * y + m8 * z + m12;
+            dst[d + 1] = m1 * x + m5 * y + m9 * z + m13;
+            dst[d + 2] = m2 * x + m6 * y + m10 * z + m14;
+        }
+    }
+
+    /**
+     * Transforms consecutive points of a buffer into an array. The position of the buffer is not used nor modified
+     *
+     * @param srcIndex index in src of the first x
+     * @param count    number of points
+     */
+    public static void transformPoints(float[] m, int mOffset, FloatBuffer src, int srcIndex, float[] dst,
+                                       int dstOffset, int count) {
+        final float m0 = m[mOffset], m1 = m[mOffset + 1], m2 = m[mOffset + 2];
+        final float m4 = m[mOffset + 4], m5 = m[mOffset + 5], m6 = m[mOffset + 6];
+        final float m8 = m[mOffset + 8], m9 = m[mOffset + 9], m10 = m[mOffset + 10];
+        final float m12 = m[mOffset + 12], m13 = m[mOffset + 13], m14 = m[mOffset + 14];
+        for (int i = 0, s = srcIndex, d = dstOffset; i < count; i++, s += 3, d += 3) {
+            final float x = src.get(s), y = src.get(s + 1), z = src.get(s + 2);
+            dst[d] = m0 * x + m4 * y + m8 * z + m12;
+            dst[d + 1] = m1 * x + m5 * y + m9 * z + m13;
+            dst[d + 2] = m2 * x + m6 * y + m10 * z + m14;
+        }
+    }
+
+    /**
+     * Transforms consecutive points of a buffer into another, or the same, buffer. The positions of the buffers are
+     * not used nor modified
+     *
+     * @param srcIndex index in src of the first x
+     * @param dstIndex index in dst of the first x
+     * @param count    number of points
+     */
+    public static void transformPoints(float[] m, int mOffset, FloatBuffer src, int srcIndex, FloatBuffer dst,
+                                       int dstIndex, int count) {
+        transform(m, mOffset, src, srcIndex, dst, dstIndex, count, 1);
+    }
+
+    /**
+     * Transforms consecutive directions of a buffer into another, or the same, buffer, like
+     * {@link #transformVector}. They are not normalized
+     *
+     * @see #transformPoints(float[], int, FloatBuffer, int, FloatBuffer, int, int)
+     */
+    public static void transformVectors(float[] m, int mOffset, FloatBuffer src, int srcIndex, FloatBuffer dst,
+                                        int dstIndex, int count) {
+        transform(m, mOffset, src, srcIndex, dst, dstIndex, count, 0);
+    }
+
+    private static void transform(float[] m, int mOffset, FloatBuffer src, int srcIndex, FloatBuffer dst,
+                                  int dstIndex, int count, float w) {
+        final float m0 = m[mOffset], m1 = m[mOffset + 1], m2 = m[mOffset + 2];
+        final float m4 = m[mOffset + 4], m5 = m[mOffset + 5], m6 = m[mOffset + 6];
+        final float m8 = m[mOffset + 8], m9 = m[mOffset + 9], m10 = m[mOffset + 10];
+        final float m12 = m[mOffset + 12] * w, m13 = m[mOffset + 13] * w, m14 = m[mOffset + 14] * w;
+        for (int i = 0, s = srcIndex, d = dstIndex; i < count; i++, s += 3, d += 3) {
+            final float x = src.get(s), y = src.get(s + 1), z = src.get(s + 2);
+            dst.put(d, m0 * x + m4 * y + m8 * z + m12);
+            dst.put(d + 1, m1 * x + m5 * y + m9 * z + m13);
+            dst.put(d + 2, m2 * x + m6 * y + m10 * z + m14);
+        }
+    }
+}
@@ -6,6 +6,8 @@ import java.util.Locale;
 
 /**
  * Utility class to calculate 3D stuff
+ * <p>
+ * For allocation-free operations on arrays at an offset see {@link Vec3}, {@link Vec4}, {@link Quat} and {@link Mat4}.
  *
  * @author andresoviedo
  */
@@ -20,16 +22,24 @@ public class Math3DUtils {
      * @return
      */
     public static float[] calculateFaceNormal2(float[] v0, float[] v1, float[] v2) {
+        final float[] ret = new float[3];
+        calculateFaceNormal2(ret, 0, v0, 0, v1, 0, v2, 0);
+        return ret;
+    }
 
-        // calculate perpendicular vector to the face. That is to calculate the cross product of v1-v0 x v2-v0
-        float[] va = new float[]{v1[0] - v0[0], v1[1] - v0[1], v1[2] - v0[2]};
-        float[] vb = new float[]{v2[0] - v0[0], v2[1] - v0[1], v2[2] - v0[2]};
-        float[] n = new float[]{va[1] * vb[2] - va[2] * vb[1], va[2] * vb[0] - va[0] * vb[2],
-                va[0] * vb[1] - va[1] * vb[0]};
-        float modul = Matrix.length(n[0], n[1], n[2]);
-        float[] vn = new float[]{n[0] / modul, n[1] / modul, n[2] / modul};
-
-        return vn;
+    /**
+     * Calculate the face normal, without allocating. That is the cross product of v1-v0 x v2-v0, normalized
+     *
+     * @param out receives x, y, z. It may be one of the vertices
+     */
+    public static void calculateFaceNormal2(float[] out, int outOffset, float[] v0, int v0Offset, float[] v1,
+                                            int v1Offset, float[] v2, int v2Offset) {
+        final float ax = v1[v1Offset] - v0[v0Offset], ay = v1[v1Offset + 1] - v0[v0Offset + 1];
+        final float az = v1[v1Offset + 2] - v0[v0Offset + 2];
+        final float bx = v2[v2Offset] - v0[v0Offset], by = v2[v2Offset + 1] - v0[v0Offset + 1];
+        final float bz = v2[v2Offset + 2] - v0[v0Offset + 2];
+        Vec3.set(out, outOffset, ay * bz - az * by, az * bx - ax * bz, ax * by - ay * bx);
+        Vec3.normalize(out, outOffset, out, outOffset);
     }
 
     /**
@@ -42,29 +52,35 @@ public class Math3DUtils {
      * @return the 2 vectors (line) corresponding to the face normal
      */
     public static float[][] calculateFaceNormal(float[] v0, float[] v1, float[] v2) {
+        final float[] line = new float[6];
+        calculateFaceNormal(line, 0, v0, 0, v1, 0, v2, 0);
+        return new float[][]{new float[]{line[0], line[1], line[2]}, new float[]{line[3], line[4], line[5]}};
+    }
 
-        // calculate perpendicular vector to the face. That is to calculate the cross product of v1-v0 x v2-v0
-        float[] va = new float[]{v1[0] - v0[0], v1[1] - v0[1], v1[2] - v0[2]};
-        float[] vb = new float[]{v2[0] - v0[0], v2[1] - v0[1], v2[2] - v0[2]};
-        float[] n = new float[]{va[1] * vb[2] - va[2] * vb[1], va[2] * vb[0] - va[0] * vb[2],
-                va[0] * vb[1] - va[1] * vb[0]};
-        float modul = Matrix.length(n[0], n[1], n[2]);
-        float[] vn = new float[]{n[0] / modul, n[1] / modul, n[2] / modul};
-
-        // calculate center of the face
-        float[] faceCenter = calculateFaceCenter(v0, v1, v2);
-        float[] vn2 = new float[]{faceCenter[0] + vn[0], faceCenter[1] + vn[1], faceCenter[2] + vn[2]};
-        @SuppressWarnings("unused")
-        String msg = "fNormal(" + v0[0] + "," + v0[1] + "," + v0[2] + "#" + v1[0] + "," + v1[1] + "," + v1[2] + "#"
-                + v2[0] + "," + v2[1] + "," + v2[2] + ")#normal(" + vn[0] + "," + vn[1] + "," + vn[2] + ") center("
-                + faceCenter[0] + "," + faceCenter[1] + "," + faceCenter[2] + ") to(" + vn2[0] + "," + vn2[1] + ","
-                + vn2[2] + ")";
-        // Log.d("ObjectV4", msg);
-        return new float[][]{faceCenter, vn2};
+    /**
+     * Calculate the line corresponding to the normal of the specified face, like
+     * {@link #calculateFaceNormal(float[], float[], float[])}, without allocating
+     *
+     * @param out receives the center of the face and the end of the normal, 6 floats
+     */
+    public static void calculateFaceNormal(float[] out, int outOffset, float[] v0, int v0Offset, float[] v1,
+                                           int v1Offset, float[] v2, int v2Offset) {
+        calculateFaceNormal2(out, outOffset + 3, v0, v0Offset, v1, v1Offset, v2, v2Offset);
+        calculateFaceCenter(out, outOffset, v0, v0Offset, v1, v1Offset, v2, v2Offset);
+        Vec3.add(out, outOffset + 3, out, outOffset, out, outOffset + 3);
     }
 
     public static float[] calculateFaceCenter(float[] v0, float[] v1, float[] v2) {
-        return new float[]{(v0[0] + v1[0] + v2[0]) / 3, (v0[1] + v1[1] + v2[1]) / 3, (v0[2] + v1[2] + v2[2]) / 3};
+        final float[] ret = new float[3];
+        calculateFaceCenter(ret, 0, v0, 0, v1, 0, v2, 0);
+        return ret;
+    }
+
+    public static void calculateFaceCenter(float[] out, int outOffset, float[] v0, int v0Offset, float[] v1,
+                                           int v1Offset, float[] v2, int v2Offset) {
+        for (int k = 0; k < 3; k++) {
+            out[outOffset + k] = (v0[v0Offset + k] + v1[v1Offset + k] + v2[v2Offset + k]) / 3;
+        }
     }
 
     /**
@@ -117,7 +133,9 @@ public class Math3DUtils {
      * @return a-b
      */
     public static float[] substract(float[] a, float[] b) {
-        return new float[]{a[0] - b[0], a[1] - b[1], a[2] - b[2]};
+        final float[] ret = new float[3];
+        Vec3.subtract(ret, 0, a, 0, b, 0);
+        return ret;
     }
 
     /**
@@ -139,7 +157,9 @@ public class Math3DUtils {
      * @return a/b
      */
     public static float[] divide(float[] a, float b) {
-        return new float[]{a[0] / b, a[1] / b, a[2] / b};
+        final float[] ret = new float[3];
+        Vec3.scale(ret, 0, a, 0, 1 / b);
+        return ret;
     }
 
     /**
@@ -170,10 +190,7 @@ public class Math3DUtils {
      * @param a
      */
     public static void normalize(float[] a) {
-        float length = Matrix.length(a[0], a[1], a[2]);
-        a[0] = a[0] / length;
-        a[1] = a[1] / length;
-        a[2] = a[2] / length;
+        Vec3.normalize(a, 0, a, 0);
     }
 
     public static float[] crossProduct(float[] a, float[] b) {
@@ -181,10 +198,9 @@ public class Math3DUtils {
         //(r)[0] = (a)[1] * (b)[2] - (b)[1] * (a)[2]; \
         //(r)[1] = (a)[2] * (b)[0] - (b)[2] * (a)[0]; \
         //(r)[2] = (a)[0] * (b)[1] - (b)[0] * (a)[1];
-        float x = a[1] * b[2] - a[2] * b[1];
-        float y = a[2] * b[0] - a[0] * b[2];
-        float z = a[0] * b[1] - a[1] * b[0];
-        return new float[]{x, y, z};
+        final float[] ret = new float[3];
+        Vec3.cross(ret, 0, a, 0, b, 0);
+        return ret;
     }
 
     public static float[] crossProduct(float ax, float ay, float az, float bx, float by, float bz) {
@@ -200,15 +216,19 @@ public class Math3DUtils {
 
     public static float dotProduct(float[] a, float[] b) {
         // a1b1+a2b2+a3b3
-        return a[0] * b[0] + a[1] * b[1] + a[2] * b[2];
+        return Vec3.dot(a, 0, b, 0);
     }
 
     public static float[] multiply(float[] a, float t) {
-        return new float[]{a[0] * t, a[1] * t, a[2] * t};
+        final float[] ret = new float[3];
+        Vec3.scale(ret, 0, a, 0, t);
+        return ret;
     }
 
     public static float[] add(float[] a, float[] b) {
-        return new float[]{a[0] + b[0], a[1] + b[1], a[2] + b[2]};
+        final float[] ret = new float[3];
+        Vec3.add(ret, 0, a, 0, b, 0);
+        return ret;
     }
 
     /**
@@ -0,0 +1,161 @@
+package org.andresoviedo.util.math;
+
+/**
+ * Operations on quaternions stored in float arrays at an offset (x, y, z, w), like {@link Vec3}.
+ * <p>
+ * Rotation quaternions are expected to be normalized. The matrices are column-major, like the ones of
+ * <code>android.opengl.Matrix</code>.
+ */
+public final class Quat {
+
+    // cosine of the angle between two rotations above which slerp falls back to nlerp
+    private static final float SLERP_THRESHOLD = 0.9995f;
+
+    private Quat() {
+    }
+
+    public static void identity(float[] out, int outOffset) {
+        Vec4.set(out, outOffset, 0, 0, 0, 1);
+    }
+
+    /**
+     * @param angle rotation in degrees
+     * @param x     rotation axis, normalized
+     */
+    public static void setAxisAngle(float[] out, int outOffset, float angle, float x, float y, float z) {
+        final double half = Math.toRadians(angle) / 2;
+        final float sin = (float) Math.sin(half);
+        Vec4.set(out, outOffset, x * sin, y * sin, z * sin, (float) Math.cos(half));
+    }
+
+    /**
+     * out = a * b, the rotation b followed by a
+     */
+    public static void multiply(float[] out, int outOffset, float[] a, int aOffset, float[] b, int bOffset) {
+        final float ax = a[aOffset], ay = a[aOffset + 1], az = a[aOffset + 2], aw = a[aOffset + 3];
+        final float bx = b[bOffset], by = b[bOffset + 1], bz = b[bOffset + 2], bw = b[bOffset + 3];
+        out[outOffset] = aw * bx + ax * bw + ay * bz - az * by;
+        out[outOffset + 1] = aw * by - ax * bz + ay * bw + az * bx;
+        out[outOffset + 2] = aw * bz + ax * by - ay * bx + az * bw;
+        out[outOffset + 3] = aw * bw - ax * bx - ay * by - az * bz;
+    }
+
+    /**
+     * Writes the inverse rotation
+     */
+    public static void conjugate(float[] out, int outOffset, float[] q, int qOffset) {
+        Vec4.set(out, outOffset, -q[qOffset], -q[qOffset + 1], -q[qOffset + 2], q[qOffset + 3]);
+    }
+
+    /**
+     * Normalized linear interpolation, taking the shortest path. Cheaper than {@link #slerp}, but the speed isn't
+     * constant along the arc
+     */
+    public static void nlerp(float[] out, int outOffset, float[] a, int aOffset, float[] b, int bOffset,
+                             float alpha) {
+        final float dot = Vec4.dot(a, aOffset, b, bOffset);
+        final float alphaI = 1 - alpha;
+        final float blend = dot < 0 ? -alpha : alpha;
+        final float x = a[aOffset] * alphaI + b[bOffset] * blend;
+        final float y = a[aOffset + 1] * alphaI + b[bOffset + 1] * blend;
+        final float z = a[aOffset + 2] * alphaI + b[bOffset + 2] * blend;
+        final float w = a[aOffset + 3] * alphaI + b[bOffset + 3] * blend;
+        final float length = (float) Math.sqrt(x * x + y * y + z * z + w * w);
+        out[outOffset] = x / length;
+        out[outOffset + 1] = y / length;
+        out[outOffset + 2] = z / length;
+        out[outOffset + 3] = w / length;
+    }
+
+    /**
+     * Spherical linear interpolation, taking the shortest path at constant speed
+     */
+    public static void slerp(float[] out, int outOffset, float[] a, int aOffset, float[] b, int bOffset,
+                             float alpha) {
+        float dot = Vec4.dot(a, aOffset, b, bOffset);
+        final float sign = dot < 0 ? -1 : 1;
+        dot *= sign;
+        if (dot > SLERP_THRESHOLD) {
+            nlerp(out, outOffset, a, aOffset, b, bOffset, alpha);
+            return;
+        }
+        final double angle = Math.acos(dot);
+        final double sin = Math.sin(angle);
+        final float wa = (float) (Math.sin((1 - alpha) * angle) / sin);
+        final float wb = (float) (Math.sin(alpha * angle) / sin) * sign;
+        for (int k = 0; k < 4; k++) {
+            out[outOffset + k] = a[aOffset + k] * wa + b[bOffset + k] * wb;
+        }
+    }
+
+    /**
+     * Rotates a 3D vector
+     *
+     * @param out receives x, y, z. It may be v
+     */
+    public static void rotate(float[] out, int outOffset, float[] q, int qOffset, float[] v, int vOffset) {
+        final float qx = q[qOffset], qy = q[qOffset + 1], qz = q[qOffset + 2], qw = q[qOffset + 3];
+        final float vx = v[vOffset], vy = v[vOffset + 1], vz = v[vOffset + 2];
+        // t = 2 * cross(q.xyz, v), v' = v + w * t + cross(q.xyz, t)
+        final float tx = 2 * (qy * vz - qz * vy), ty = 2 * (qz * vx - qx * vz), tz = 2 * (qx * vy - qy * vx);
+        out[outOffset] = vx + qw * tx + qy * tz - qz * ty;
+        out[outOffset + 1] = vy + qw * ty + qz * tx - qx * tz;
+        out[outOffset + 2] = vz + qw * tz + qx * ty - qy * tx;
+    }
+
+    /**
+     * Writes the 4x4 rotation matrix of the quaternion
+     */
+    public static void toMatrix(float[] out, int outOffset, float[] q, int qOffset) {
+        Mat4.compose(out, outOffset, 0, 0, 0, q[qOffset], q[qOffset + 1], q[qOffset + 2], q[qOffset + 3], 1, 1, 1);
+    }
+
+    /**
+     * Extracts the rotation of a matrix without scale
+     *
+     * @param m column-major matrix, at least 3x3 of it
+     */
+    public static void fromMatrix(float[] out, int outOffset, float[] m, int mOffset) {
+        fromMatrix(out, outOffset, m[mOffset], m[mOffset + 4], m[mOffset + 8], m[mOffset + 1], m[mOffset + 5],
+                m[mOffset + 9], m[mOffset + 2], m[mOffset + 6], m[mOffset + 10]);
+    }
+
+    /**
+     * Extracts the rotation of a 3x3 rotation matrix, given by rows, and normalizes it
+     */
+    static void fromMatrix(float[] out, int outOffset, float r00, float r01, float r02, float r10, float r11,
+                           float r12, float r20, float r21, float r22) {
+        final float trace = r00 + r11 + r22;
+        float x, y, z, w;
+        if (trace > 0) {
+            final float s = (float) Math.sqrt(trace + 1) * 2;
+            w = s / 4;
+            x = (r21 - r12) / s;
+            y = (r02 - r20) / s;
+            z = (r10 - r01) / s;
+        } else if (r00 > r11 && r00 > r22) {
+            final float s = (float) Math.sqrt(1 + r00 - r11 - r22) * 2;
+            w = (r21 - r12) / s;
+            x = s / 4;
+            y = (r01 + r10) / s;
+            z = (r02 + r20) / s;
+        } else if (r11 > r22) {
+            final float s = (float) Math.sqrt(1 + r11 - r00 - r22) * 2;
+            w = (r02 - r20) / s;
+            x = (r01 + r10) / s;
+            y = s / 4;
+            z = (r12 + r21) / s;
+        } else {
+            final float s = (float) Math.sqrt(1 + r22 - r00 - r11) * 2;
+            w = (r10 - r01) / s;
+            x = (r02 + r20) / s;
+            y = (r12 + r21) / s;
+            z = s / 4;
+        }
+        final float length = (float) Math.sqrt(x * x + y * y + z * z + w * w);
+        out[outOffset] = x / length;
+        out[outOffset + 1] = y / length;
+        out[outOffset + 2] = z / length;
+        out[outOffset + 3] = w / length;
+    }
+}
@@ -65,6 +65,19 @@ public class Quaternion {
 	 *         this quaternion.
 	 */
 	public float[] toRotationMatrix(float[] matrix) {
+		toRotationMatrix(x, y, z, w, matrix, 0);
+		return matrix;
+	}
+
+	/**
+	 * Writes the rotation matrix at the specified offset of the array, like
+	 * {@link #toRotationMatrix(float[])}.
+	 */
+	public void toRotationMatrix(float[] matrix, int offset) {
+		toRotationMatrix(x, y, z, w, matrix, offset);
+	}
+
+	private static void toRotationMatrix(float x, float y, float z, float w, float[] matrix, int offset) {
 		final float xy = x * y;
 		final float xz = x * z;
 		final float xw = x * w;
@@ -74,23 +87,22 @@ public class Quaternion {
 		final float xSquared = x * x;
 		final float ySquared = y * y;
 		final float zSquared = z * z;
-		matrix[0] = 1 - 2 * (ySquared + zSquared);
-		matrix[1] = 2 * (xy - zw);
-		matrix[2] = 2 * (xz + yw);
-		matrix[3] = 0;
-		matrix[4] = 2 * (xy + zw);
-		matrix[5] = 1 - 2 * (xSquared + zSquared);
-		matrix[6] = 2 * (yz - xw);
-		matrix[7] = 0;
-		matrix[8] = 2 * (xz - yw);
-		matrix[9] = 2 * (yz + xw);
-		matrix[10] = 1 - 2 * (xSquared + ySquared);
-		matrix[11] = 0;
-		matrix[12] = 0;
-		matrix[13] = 0;
-		matrix[14] = 0;
-		matrix[15] = 1;
-		return matrix;
+		matrix[offset] = 1 - 2 * (ySquared + zSquared);
+		matrix[offset + 1] = 2 * (xy - zw);
+		matrix[offset + 2] = 2 * (xz + yw);
+		matrix[offset + 3] = 0;
+		matrix[offset + 4] = 2 * (xy + zw);
+		matrix[offset + 5] = 1 - 2 * (xSquared + zSquared);
+		matrix[offset + 6] = 2 * (yz - xw);
+		matrix[offset + 7] = 0;
+		matrix[offset + 8] = 2 * (xz - yw);
+		matrix[offset + 9] = 2 * (yz + xw);
+		matrix[offset + 10] = 1 - 2 * (xSquared + ySquared);
+		matrix[offset + 11] = 0;
+		matrix[offset + 12] = 0;
+		matrix[offset + 13] = 0;
+		matrix[offset + 14] = 0;
+		matrix[offset + 15] = 1;
 	}
 
 	/**
@@ -172,23 +184,20 @@ public class Quaternion {
 		return result;
 	}
 
+    /**
+     * Interpolates like {@link #interpolate(Quaternion, Quaternion, float)}, but writes the rotation matrix of the
+     * result to output instead of creating a quaternion
+     */
     public static void interpolate(Quaternion a, Quaternion b, float blend, float[] output) {
-        Quaternion result = new Quaternion(0, 0, 0, 1);
         float dot = a.w * b.w + a.x * b.x + a.y * b.y + a.z * b.z;
         float blendI = 1f - blend;
-        if (dot < 0) {
-            result.w = blendI * a.w + blend * -b.w;
-            result.x = blendI * a.x + blend * -b.x;
-            result.y = blendI * a.y + blend * -b.y;
-            result.z = blendI * a.z + blend * -b.z;
-        } else {
-            result.w = blendI * a.w + blend * b.w;
-            result.x = blendI * a.x + blend * b.x;
-            result.y = blendI * a.y + blend * b.y;
-            result.z = blendI * a.z + blend * b.z;
-        }
-        result.normalize();
-        result.toRotationMatrix(output);
+        float blendB = dot < 0 ? -blend : blend;
+        float w = blendI * a.w + blendB * b.w;
+        float x = blendI * a.x + blendB * b.x;
+        float y = blendI * a.y + blendB * b.y;
+        float z = blendI * a.z + blendB * b.z;
+        float mag = (float) Math.sqrt(w * w + x * x + y * y + z * z);
+        toRotationMatrix(x / mag, y / mag, z / mag, w / mag, output, 0);
     }
 
     @Override
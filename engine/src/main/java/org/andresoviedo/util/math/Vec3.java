@@ -0,0 +1,108 @@
+package org.andresoviedo.util.math;
+
+/**
+ * Operations on 3D vectors stored in float arrays at an offset (x, y, z).
+ * <p>
+ * Results are written to a destination array instead of being returned, so nothing is allocated. The destination
+ * may be one of the arguments.
+ */
+public final class Vec3 {
+
+    private Vec3() {
+    }
+
+    public static void set(float[] out, int outOffset, float x, float y, float z) {
+        out[outOffset] = x;
+        out[outOffset + 1] = y;
+        out[outOffset + 2] = z;
+    }
+
+    public static void copy(float[] out, int outOffset, float[] a, int aOffset) {
+        out[outOffset] = a[aOffset];
+        out[outOffset + 1] = a[aOffset + 1];
+        out[outOffset + 2] = a[aOffset + 2];
+    }
+
+    /**
+     * out = a + b
+     */
+    public static void add(float[] out, int outOffset, float[] a, int aOffset, float[] b, int bOffset) {
+        out[outOffset] = a[aOffset] + b[bOffset];
+        out[outOffset + 1] = a[aOffset + 1] + b[bOffset + 1];
+        out[outOffset + 2] = a[aOffset + 2] + b[bOffset + 2];
+    }
+
+    /**
+     * out = a - b
+     */
+    public static void subtract(float[] out, int outOffset, float[] a, int aOffset, float[] b, int bOffset) {
+        out[outOffset] = a[aOffset] - b[bOffset];
+        out[outOffset + 1] = a[aOffset + 1] - b[bOffset + 1];
+        out[outOffset + 2] = a[aOffset + 2] - b[bOffset + 2];
+    }
+
+    /**
+     * out = a * scale
+     */
+    public static void scale(float[] out, int outOffset, float[] a, int aOffset, float scale) {
+        out[outOffset] = a[aOffset] * scale;
+        out[outOffset + 1] = a[aOffset + 1] * scale;
+        out[outOffset + 2] = a[aOffset + 2] * scale;
+    }
+
+    /**
+     * out = a + b * scale, i.e. the point at distance scale along the ray from a with direction b
+     */
+    public static void addScaled(float[] out, int outOffset, float[] a, int aOffset, float[] b, int bOffset,
+                                 float scale) {
+        out[outOffset] = a[aOffset] + b[bOffset] * scale;
+        out[outOffset + 1] = a[aOffset + 1] + b[bOffset + 1] * scale;
+        out[outOffset + 2] = a[aOffset + 2] + b[bOffset + 2] * scale;
+    }
+
+    public static float dot(float[] a, int aOffset, float[] b, int bOffset) {
+        return a[aOffset] * b[bOffset] + a[aOffset + 1] * b[bOffset + 1] + a[aOffset + 2] * b[bOffset + 2];
+    }
+
+    /**
+     * out = a x b
+     */
+    public static void cross(float[] out, int outOffset, float[] a, int aOffset, float[] b, int bOffset) {
+        final float ax = a[aOffset], ay = a[aOffset + 1], az = a[aOffset + 2];
+        final float bx = b[bOffset], by = b[bOffset + 1], bz = b[bOffset + 2];
+        out[outOffset] = ay * bz - az * by;
+        out[outOffset + 1] = az * bx - ax * bz;
+        out[outOffset + 2] = ax * by - ay * bx;
+    }
+
+    public static float length(float[] a, int aOffset) {
+        return (float) Math.sqrt(dot(a, aOffset, a, aOffset));
+    }
+
+    public static float distance(float[] a, int aOffset, float[] b, int bOffset) {
+        final float x = a[aOffset] - b[bOffset], y = a[aOffset + 1] - b[bOffset + 1];
+        final float z = a[aOffset + 2] - b[bOffset + 2];
+        return (float) Math.sqrt(x * x + y * y + z * z);
+    }
+
+    /**
+     * Writes the vector with length 1. A zero vector is left as is
+     *
+     * @return the length of the vector
+     */
+    public static float normalize(float[] out, int outOffset, float[] a, int aOffset) {
+        final float length = length(a, aOffset);
+        final float scale = length > 0 ? 1 / length : 1;
+        scale(out, outOffset, a, aOffset, scale);
+        return length;
+    }
+
+    /**
+     * out = a + (b - a) * alpha
+     */
+    public static void lerp(float[] out, int outOffset, float[] a, int aOffset, float[] b, int bOffset, float alpha) {
+        out[outOffset] = a[aOffset] + (b[bOffset] - a[aOffset]) * alpha;
+        out[outOffset + 1] = a[aOffset + 1] + (b[bOffset + 1] - a[aOffset + 1]) * alpha;
+        out[outOffset + 2] = a[aOffset + 2] + (b[bOffset + 2] - a[aOffset + 2]) * alpha;
+    }
+}
@@ -0,0 +1,67 @@
+package org.andresoviedo.util.math;
+
+/**
+ * Operations on 4D vectors stored in float arrays at an offset (x, y, z, w), like {@link Vec3}.
+ */
+public final class Vec4 {
+
+    private Vec4() {
+    }
+
+    public static void set(float[] out, int outOffset, float x, float y, float z, float w) {
+        out[outOffset] = x;
+        out[outOffset + 1] = y;
+        out[outOffset + 2] = z;
+        out[outOffset + 3] = w;
+    }
+
+    public static void copy(float[] out, int outOffset, float[] a, int aOffset) {
+        System.arraycopy(a, aOffset, out, outOffset, 4);
+    }
+
+    public static float dot(float[] a, int aOffset, float[] b, int bOffset) {
+        return a[aOffset] * b[bOffset] + a[aOffset + 1] * b[bOffset + 1] + a[aOffset + 2] * b[bOffset + 2]
+                + a[aOffset + 3] * b[bOffset + 3];
+    }
+
+    public static float length(float[] a, int aOffset) {
+        return (float) Math.sqrt(dot(a, aOffset, a, aOffset));
+    }
+
+    /**
+     * Writes the vector with length 1. A zero vector is left as is
+     *
+     * @return the length of the vector
+     */
+    public static float normalize(float[] out, int outOffset, float[] a, int aOffset) {
+        final float length = length(a, aOffset);
+        final float scale = length > 0 ? 1 / length : 1;
+        out[outOffset] = a[aOffset] * scale;
+        out[outOffset + 1] = a[aOffset + 1] * scale;
+        out[outOffset + 2] = a[aOffset + 2] * scale;
+        out[outOffset + 3] = a[aOffset + 3] * scale;
+        return length;
+    }
+
+    /**
+     * out = a + (b - a) * alpha
+     */
+    public static void lerp(float[] out, int outOffset, float[] a, int aOffset, float[] b, int bOffset, float alpha) {
+        for (int k = 0; k < 4; k++) {
+            out[outOffset + k] = a[aOffset + k] + (b[bOffset + k] - a[aOffset + k]) * alpha;
+        }
+    }
+
+    /**
+     * out = m * v, like <code>Matrix.multiplyMV</code>, but out may be v
+     *
+     * @param m column-major 4x4 matrix
+     */
+    public static void transform(float[] out, int outOffset, float[] m, int mOffset, float[] v, int vOffset) {
+        final float x = v[vOffset], y = v[vOffset + 1], z = v[vOffset + 2], w = v[vOffset + 3];
+        for (int k = 0; k < 4; k++) {
+            out[outOffset + k] = m[mOffset + k] * x + m[mOffset + 4 + k] * y + m[mOffset + 8 + k] * z
+                    + m[mOffset + 12 + k] * w;
+        }
+    }
+}
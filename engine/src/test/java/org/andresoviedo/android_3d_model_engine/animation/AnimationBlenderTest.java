@@ -0,0 +1,116 @@
+package org.andresoviedo.android_3d_model_engine.animation;
+
+import org.andresoviedo.android_3d_model_engine.services.collada.entities.Joint;
+import org.andresoviedo.util.math.Mat4;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class AnimationBlenderTest {
+
+    private static final float DELTA = 1e-5f;
+
+    private Skeleton skeleton;
+    private AnimationBlender blender;
+    // 1 second long, moving the root from x=0 to x=1
+    private SkeletonClip walk;
+    // 2 seconds long, moving the root from y=0 to y=4
+    private SkeletonClip jump;
+
+    @Before
+    public void setUp() {
+        final float[] identity = new float[16];
+        Mat4.identity(identity, 0);
+        skeleton = new Skeleton(new Joint(0, "root", identity, identity.clone()), 1);
+        blender = new AnimationBlender(skeleton);
+        walk = clip(1, 1, 0);
+        jump = clip(2, 0, 4);
+    }
+
+    @Test
+    public void fullWeightPlaysTheClip() {
+        blender.play(walk, 0);
+        blender.apply(0.25f);
+        assertTranslation(0.25f, 0, 0);
+        // the palette is updated too
+        assertEquals(0.25f, skeleton.getPalette()[12], DELTA);
+
+        // from the beginning when played again
+        blender.play(walk, 1);
+        blender.apply(1.5f);
+        assertTranslation(0.5f, 0, 0);
+    }
+
+    @Test
+    public void zeroWeightLayersAreIgnored() {
+        blender.setWeight(walk, 1, 0, 0);
+        blender.setWeight(jump, 0, 0, 0);
+        blender.apply(0.5f);
+        assertTranslation(0.5f, 0, 0);
+        // and dropped
+        assertEquals(1, blender.getLayerCount());
+    }
+
+    @Test
+    public void nothingPlayingIsTheBindPose() {
+        blender.setWeight(walk, 0, 0, 0);
+        blender.apply(0.5f);
+        assertTranslation(0, 0, 0);
+        assertFalse(skeleton.getPose().getAnimated()[0]);
+        assertEquals(0, blender.getLayerCount());
+    }
+
+    @Test
+    public void clipsOfDifferentLengthLoopOnTheirOwn() {
+        blender.setWeight(walk, 1, 0, 0);
+        blender.setWeight(jump, 3, 0, 0);
+        // the walk is at 0.5 seconds, x=0.5, and the jump at 1.5, y=3
+        blender.apply(1.5f);
+        assertTranslation(0.5f / 4, 3 * 3f / 4, 0);
+
+        // at 2.25 the walk is at x=0.25 and the jump started again, y=0.5
+        blender.apply(2.25f);
+        assertTranslation(0.25f / 4, 0.5f * 3 / 4, 0);
+    }
+
+    @Test
+    public void crossFadeMovesTheWeights() {
+        blender.play(walk, 0);
+        blender.crossFade(jump, 1, 0);
+        // half way both weight the same. The walk is at x=0.5 and the jump at y=1
+        blender.apply(0.5f);
+        assertTranslation(0.25f, 0.5f, 0);
+        assertEquals(2, blender.getLayerCount());
+
+        // then the walk is dropped
+        blender.apply(1.2f);
+        assertTranslation(0, 2.4f, 0);
+        assertEquals(1, blender.getLayerCount());
+    }
+
+    private void assertTranslation(float x, float y, float z) {
+        final float[] translation = new float[3];
+        System.arraycopy(skeleton.getPose().getTranslations(), 0, translation, 0, 3);
+        assertArrayEquals(new float[]{x, y, z}, translation, DELTA);
+    }
+
+    /**
+     * Clip of the root moving from the origin to (x, y, 0)
+     */
+    private SkeletonClip clip(float length, float x, float y) {
+        final float[] start = new float[16], end = new float[16];
+        Mat4.identity(start, 0);
+        Mat4.identity(end, 0);
+        end[12] = x;
+        end[13] = y;
+        final Animation animation = new Animation(length, new KeyFrame[]{
+                new KeyFrame(0, Collections.singletonMap("root", new JointTransform(start))),
+                new KeyFrame(length, Collections.singletonMap("root", new JointTransform(end)))});
+        return new SkeletonClip(animation, skeleton);
+    }
+}
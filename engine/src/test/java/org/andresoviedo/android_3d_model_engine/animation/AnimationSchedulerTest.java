@@ -0,0 +1,123 @@
+package org.andresoviedo.android_3d_model_engine.animation;
+
+import org.andresoviedo.android_3d_model_engine.model.AnimatedModel;
+import org.andresoviedo.android_3d_model_engine.model.Object3DData;
+import org.andresoviedo.android_3d_model_engine.services.collada.entities.Joint;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+public class AnimationSchedulerTest {
+
+    private static final float DELTA = 1e-5f;
+
+    private static final float[] IDENTITY = {1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1};
+
+    private static final float LENGTH = 2;
+
+    private final Joint root = new Joint(0, "root", IDENTITY.clone(), IDENTITY.clone());
+    private final Animation animation = new Animation(LENGTH, new KeyFrame[0]);
+    // the bone is moved along x as far as the time of the clip
+    private final BakedClip clip = clip(1);
+
+    @Test
+    public void instancesWithTheSamePoseAreEvaluatedOnce() {
+        final AnimatedModel a = model(clip, 0), b = model(clip, 0), c = model(clip, 0);
+        final AnimatedModel ahead = model(clip, 0.5f);
+        final List<Object3DData> objects = Arrays.asList(a, new Object3DData(), b, ahead, c);
+
+        final AnimationScheduler scheduler = new AnimationScheduler();
+        scheduler.update(objects, 0.5f, false);
+        assertEquals(4, scheduler.getInstanceCount());
+        assertEquals(2, scheduler.getEvaluatedCount());
+
+        // the palette of the first one was copied to the others
+        for (AnimatedModel model : new AnimatedModel[]{a, b, c}) {
+            assertEquals(0.5f, model.getJointPalette()[12], DELTA);
+        }
+        assertArrayEquals(a.getJointPalette(), c.getJointPalette(), 0);
+        assertNotSame(a.getJointPalette(), c.getJointPalette());
+        assertEquals(1, ahead.getJointPalette()[12], DELTA);
+
+        // times are wrapped around the length of the animation
+        scheduler.update(objects, 1.75f, false);
+        assertEquals(1.75f, b.getJointPalette()[12], DELTA);
+        assertEquals(0.25f, ahead.getJointPalette()[12], DELTA);
+    }
+
+    @Test
+    public void differentClipsOrSkeletonsAreNotGrouped() {
+        final AnimatedModel model = model(clip, 0);
+        final AnimatedModel otherClip = model(clip(2), 0);
+        final AnimatedModel otherSkeleton = new AnimatedModel();
+        otherSkeleton.setRootJoint(new Joint(0, "root", IDENTITY.clone(), IDENTITY.clone()), 1, 1, false);
+        otherSkeleton.doAnimation(animation).setBakedClip(clip);
+
+        final AnimationScheduler scheduler = new AnimationScheduler();
+        scheduler.update(Arrays.<Object3DData>asList(model, otherClip, otherSkeleton), 1, false);
+        assertEquals(3, scheduler.getEvaluatedCount());
+        assertEquals(1, model.getJointPalette()[12], DELTA);
+        assertEquals(2, otherClip.getJointPalette()[12], DELTA);
+        assertEquals(1, otherSkeleton.getJointPalette()[12], DELTA);
+    }
+
+    @Test
+    public void groupsAreSplitInChunks() {
+        final ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            // more groups than chunks, and several instances per group
+            final List<Object3DData> objects = new ArrayList<>();
+            for (int i = 0; i < 60; i++) {
+                objects.add(model(clip, (i % 20) * 0.05f));
+            }
+            final AnimationScheduler scheduler = new AnimationScheduler(pool);
+            scheduler.update(objects, 0.5f, false);
+            assertEquals(60, scheduler.getInstanceCount());
+            assertEquals(20, scheduler.getEvaluatedCount());
+            assertPalettes(objects, 0.5f);
+
+            // in the background, drawn one frame behind
+            scheduler.schedule(objects, 0.75f, false);
+            assertPalettes(objects, 0.5f);
+            scheduler.publish();
+            assertPalettes(objects, 0.75f);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void assertPalettes(List<Object3DData> objects, float time) {
+        for (int i = 0; i < objects.size(); i++) {
+            final AnimatedModel model = (AnimatedModel) objects.get(i);
+            assertEquals("instance " + i, time + model.getAnimationOffset(), model.getJointPalette()[12], DELTA);
+        }
+    }
+
+    private AnimatedModel model(BakedClip clip, float offset) {
+        final AnimatedModel ret = new AnimatedModel();
+        ret.setRootJoint(root, 1, 1, false);
+        ret.doAnimation(animation).setBakedClip(clip);
+        ret.setAnimationOffset(offset);
+        return ret;
+    }
+
+    /**
+     * @return clip of a bone moved along x, from 0 at the beginning to <code>speed * LENGTH</code> at the end
+     */
+    private static BakedClip clip(float speed) {
+        final float[] frames = new float[3 * 12];
+        for (int f = 0; f < 3; f++) {
+            // the columns of an identity, without the last row, and the translation
+            System.arraycopy(new float[]{1, 0, 0, 0, 1, 0, 0, 0, 1, speed * f * LENGTH / 2, 0, 0}, 0,
+                    frames, f * 12, 12);
+        }
+        return new BakedClip(LENGTH, 3, 1, frames);
+    }
+}
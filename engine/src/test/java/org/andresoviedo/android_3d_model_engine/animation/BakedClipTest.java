@@ -0,0 +1,106 @@
+package org.andresoviedo.android_3d_model_engine.animation;
+
+import org.andresoviedo.android_3d_model_engine.services.collada.entities.Joint;
+import org.andresoviedo.util.math.Mat4;
+import org.andresoviedo.util.math.Quat;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BakedClipTest {
+
+    private static final float DELTA = 1e-5f;
+
+    @Test
+    public void bakedPaletteIsTheLivePaletteAtTheSampleTimes() {
+        final Skeleton skeleton = skeleton();
+        final Animation animation = animation();
+        final BakedClip baked = BakedClip.bake(animation, skeleton, 10);
+        // keyframes every 0.5 seconds, so a frame every 0.1 seconds falls on every keyframe
+        assertEquals(11, baked.getFrameCount());
+        assertEquals(2, baked.getBoneCount());
+
+        final Skeleton live = new Skeleton(skeleton);
+        final SkeletonClip clip = new SkeletonClip(animation, live);
+        final float[] palette = new float[live.getPalette().length];
+        for (int f = 0; f < baked.getFrameCount(); f++) {
+            final float time = f * 0.1f;
+            clip.sample(time, live);
+            live.update();
+            baked.sample(time, palette);
+            assertArrayEquals("time " + time, live.getPalette(), palette, DELTA);
+        }
+
+        // baking doesn't pose the skeleton of the model
+        assertFalse(skeleton.getPose().getAnimated()[0]);
+    }
+
+    @Test
+    public void samplesBetweenFramesAreClose() {
+        final Skeleton skeleton = skeleton();
+        final Animation animation = animation();
+        final float coarse = BakedClip.bake(animation, skeleton, 2).measureError(animation, skeleton);
+        final float fine = BakedClip.bake(animation, skeleton, 30).measureError(animation, skeleton);
+        assertTrue(fine < coarse);
+        assertTrue(fine < 0.01f);
+    }
+
+    @Test
+    public void timesOutOfTheClipAreClamped() {
+        final BakedClip baked = BakedClip.bake(animation(), skeleton(), 10);
+        final float[] first = new float[32], last = new float[32], palette = new float[32];
+        baked.sample(0, first);
+        baked.sample(1, last);
+        baked.sample(-1, palette);
+        assertArrayEquals(first, palette, 0);
+        baked.sample(5, palette);
+        assertArrayEquals(last, palette, 0);
+        // the translation of the root at the end
+        assertEquals(2, last[12], DELTA);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void twoFramesAreRequired() {
+        new BakedClip(1, 1, 1, new float[12]);
+    }
+
+    /**
+     * root, moved along x and rotated around z, and child, that only has a key in the middle of the clip
+     */
+    private static Animation animation() {
+        final KeyFrame[] frames = new KeyFrame[3];
+        for (int f = 0; f < 3; f++) {
+            final Map<String, JointTransform> transforms = new HashMap<>();
+            transforms.put("root", new JointTransform(transform(f, 0, 0, f * 60, 1)));
+            if (f == 1) {
+                transforms.put("child", new JointTransform(transform(0, 2, 0, 45, 1.5f)));
+            }
+            frames[f] = new KeyFrame(f * 0.5f, transforms);
+        }
+        return new Animation(1, frames);
+    }
+
+    private static Skeleton skeleton() {
+        final float[] identity = transform(0, 0, 0, 0, 1);
+        final float[] childLocal = transform(0, 1, 0, 0, 1);
+        final float[] childInverse = new float[16];
+        Mat4.invertAffine(childInverse, 0, childLocal, 0);
+        final Joint root = new Joint(0, "root", identity, identity.clone());
+        root.addChild(new Joint(1, "child", childLocal, childInverse));
+        return new Skeleton(root, 2);
+    }
+
+    private static float[] transform(float x, float y, float z, float angle, float scale) {
+        final float[] q = new float[4];
+        Quat.setAxisAngle(q, 0, angle, 0, 0, 1);
+        final float[] ret = new float[16];
+        Mat4.compose(ret, 0, x, y, z, q[0], q[1], q[2], q[3], scale, scale, scale);
+        return ret;
+    }
+}
@@ -0,0 +1,159 @@
+package org.andresoviedo.android_3d_model_engine.animation;
+
+import org.andresoviedo.android_3d_model_engine.model.AnimatedModel;
+import org.andresoviedo.android_3d_model_engine.services.collada.entities.Joint;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CpuSkinnerTest {
+
+    private static final float DELTA = 1e-5f;
+
+    private static final float[] IDENTITY = {1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1};
+
+    /**
+     * Bone 0 translated by (1, 2, 3). Bone 1 rotated 90 degrees around z and translated by (0, 0, 5)
+     */
+    private static final float[] PALETTE = {
+            1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 1, 2, 3, 1,
+            0, 1, 0, 0, -1, 0, 0, 0, 0, 0, 1, 0, 0, 0, 5, 1};
+
+    @Test
+    public void verticesAreMovedByTheBlendedPalette() {
+        // a vertex moved by bone 0, one by bone 1 and one by both, half each
+        final CpuSkinner skinner = new CpuSkinner(model(
+                new float[]{1, 0, 0, 1, 0, 0, 2, 0, 0},
+                new float[]{0, 0, 1, 1, 0, 0, 1, 0, 0},
+                new float[]{0, 0, 1, 0, 0, 1},
+                new float[]{1, 0, 1, 0, 0.5f, 0.5f}));
+        skinner.skin(PALETTE);
+
+        // (2, 0, 0) goes to (3, 2, 3) with bone 0 and to (0, 2, 5) with bone 1
+        assertArrayEquals(new float[]{2, 2, 3, 0, 1, 5, 1.5f, 2, 4}, read(skinner.getPositions()), DELTA);
+        // normals are only rotated, and normalized after blending
+        final float half = (float) Math.sqrt(0.5);
+        assertArrayEquals(new float[]{0, 0, 1, 0, 1, 0, half, half, 0}, read(skinner.getNormals()), DELTA);
+
+        // single vertices are skinned the same way
+        final float[] out = new float[4];
+        skinner.skinVertex(PALETTE, 2, out, 1);
+        assertArrayEquals(new float[]{0, 1.5f, 2, 4}, out, DELTA);
+        final float[] some = new float[6];
+        skinner.skinVertices(PALETTE, new int[]{2, 0, 1}, 1, 3, some);
+        assertArrayEquals(new float[]{2, 2, 3, 0, 1, 5}, some, DELTA);
+    }
+
+    @Test
+    public void outputIsDoubleBuffered() {
+        final CpuSkinner skinner = new CpuSkinner(model(new float[]{1, 0, 0}, null, new float[]{1},
+                new float[]{1}));
+        assertNull(skinner.getNormals());
+        final FloatBuffer bind = skinner.getPositions();
+        assertArrayEquals(new float[]{1, 0, 0}, read(bind), 0);
+        assertFalse(skinner.hasChanged());
+
+        skinner.skin(PALETTE);
+        final FloatBuffer skinned = skinner.getPositions();
+        assertNotSame(bind, skinned);
+        assertArrayEquals(new float[]{0, 1, 5}, read(skinned), DELTA);
+        // the buffer of the previous frame is left as it was
+        assertArrayEquals(new float[]{1, 0, 0}, read(bind), 0);
+        assertTrue(skinner.hasChanged());
+
+        skinner.setChanged(false);
+        skinner.skin(identityPalette());
+        assertSame(bind, skinner.getPositions());
+        assertArrayEquals(new float[]{1, 0, 0}, read(bind), DELTA);
+        assertTrue(skinner.hasChanged());
+    }
+
+    @Test
+    public void copiesShareTheBindPoseButNotTheOutput() {
+        final CpuSkinner skinner = new CpuSkinner(model(new float[]{1, 0, 0}, null, new float[]{0},
+                new float[]{1}));
+        final CpuSkinner copy = new CpuSkinner(skinner);
+        copy.skin(PALETTE);
+        assertArrayEquals(new float[]{2, 2, 3}, read(copy.getPositions()), DELTA);
+        assertArrayEquals(new float[]{1, 0, 0}, read(skinner.getPositions()), 0);
+    }
+
+    @Test
+    public void bigMeshesAreSkinnedLikeSingleVertices() {
+        // enough vertices to be skinned in ranges, if there are several processors
+        final int count = 10000;
+        final float[] positions = new float[count * 3], normals = new float[count * 3];
+        final float[] joints = new float[count * 2], weights = new float[count * 2];
+        for (int v = 0; v < count; v++) {
+            positions[v * 3] = v % 100;
+            positions[v * 3 + 1] = v / 100;
+            positions[v * 3 + 2] = 1;
+            normals[v * 3 + 2] = 1;
+            joints[v * 2 + 1] = 1;
+            weights[v * 2] = (v % 7) / 6f;
+            weights[v * 2 + 1] = 1 - weights[v * 2];
+        }
+        final CpuSkinner skinner = new CpuSkinner(model(positions, normals, joints, weights));
+        skinner.skin(PALETTE);
+
+        final float[] skinned = read(skinner.getPositions());
+        final float[] expected = new float[3];
+        final float[] actual = new float[3];
+        for (int v = 0; v < count; v++) {
+            skinner.skinVertex(PALETTE, v, expected, 0);
+            System.arraycopy(skinned, v * 3, actual, 0, 3);
+            assertArrayEquals("vertex " + v, expected, actual, DELTA * 100);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void modelsWithoutSkinAreRejected() {
+        new CpuSkinner(new AnimatedModel(buffer(1, 0, 0)));
+    }
+
+    private static float[] identityPalette() {
+        final float[] ret = new float[32];
+        System.arraycopy(IDENTITY, 0, ret, 0, 16);
+        System.arraycopy(IDENTITY, 0, ret, 16, 16);
+        return ret;
+    }
+
+    /**
+     * Model with two bones and the same number of influences on every vertex
+     */
+    private static AnimatedModel model(float[] positions, float[] normals, float[] joints, float[] weights) {
+        final AnimatedModel ret = new AnimatedModel(buffer(positions));
+        if (normals != null) {
+            ret.setVertexNormalsArrayBuffer(buffer(normals));
+        }
+        ret.setJointIds(buffer(joints)).setVertexWeights(buffer(weights));
+        final Joint root = new Joint(0, "root", IDENTITY.clone(), IDENTITY.clone());
+        root.addChild(new Joint(1, "child", IDENTITY.clone(), IDENTITY.clone()));
+        ret.setRootJoint(root, 2, 2, false);
+        return ret;
+    }
+
+    private static FloatBuffer buffer(float... values) {
+        final FloatBuffer ret = ByteBuffer.allocateDirect(values.length * 4).order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        ret.put(values).position(0);
+        return ret;
+    }
+
+    private static float[] read(FloatBuffer buffer) {
+        final float[] ret = new float[buffer.capacity()];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = buffer.get(i);
+        }
+        return ret;
+    }
+}
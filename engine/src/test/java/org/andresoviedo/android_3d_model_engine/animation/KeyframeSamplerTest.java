@@ -0,0 +1,101 @@
+package org.andresoviedo.android_3d_model_engine.animation;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class KeyframeSamplerTest {
+
+    private static final float DELTA = 1e-5f;
+
+    private static final float[] TIMES = {0, 1, 2, 4};
+
+    @Test
+    public void timeBetweenKeyframes() {
+        final KeyframeSampler sampler = new KeyframeSampler(TIMES);
+        assertEquals(2, sampler.seek(3));
+        assertEquals(2, sampler.getIndex());
+        assertEquals(3, sampler.getNextIndex());
+        assertEquals(0.5f, sampler.getAlpha(), DELTA);
+    }
+
+    @Test
+    public void timeOnAKeyframe() {
+        final KeyframeSampler sampler = new KeyframeSampler(TIMES);
+        assertEquals(1, sampler.seek(1));
+        assertEquals(2, sampler.getNextIndex());
+        assertEquals(0, sampler.getAlpha(), 0);
+    }
+
+    @Test
+    public void timesOutOfRangeUseTheNearestKeyframe() {
+        final KeyframeSampler sampler = new KeyframeSampler(TIMES);
+        assertEquals(0, sampler.seek(-1));
+        assertEquals(0, sampler.getNextIndex());
+        assertEquals(0, sampler.getAlpha(), 0);
+
+        assertEquals(3, sampler.seek(4));
+        assertEquals(3, sampler.getNextIndex());
+        assertEquals(0, sampler.getAlpha(), 0);
+
+        assertEquals(3, sampler.seek(10));
+        assertEquals(3, sampler.getNextIndex());
+    }
+
+    @Test
+    public void singleKeyframe() {
+        final KeyframeSampler sampler = new KeyframeSampler(new float[]{2});
+        for (float time : new float[]{0, 2, 3}) {
+            assertEquals(0, sampler.seek(time));
+            assertEquals(0, sampler.getNextIndex());
+            assertEquals(0, sampler.getAlpha(), 0);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void keyframesAreRequired() {
+        new KeyframeSampler(new float[0]);
+    }
+
+    @Test
+    public void repeatedTimeStampsDontDivideByZero() {
+        final KeyframeSampler sampler = new KeyframeSampler(new float[]{0, 1, 1, 2});
+        assertEquals(2, sampler.seek(1));
+        assertEquals(0, sampler.getAlpha(), 0);
+        assertEquals(0, sampler.seek(0.5f));
+        assertEquals(0.5f, sampler.getAlpha(), DELTA);
+    }
+
+    @Test
+    public void playingForwardAndLoopingMatchesTheSearch() {
+        final float[] times = new float[50];
+        for (int i = 1; i < times.length; i++) {
+            times[i] = times[i - 1] + 0.01f + i % 3 * 0.02f;
+        }
+        final float length = times[times.length - 1];
+        final KeyframeSampler sampler = new KeyframeSampler(times);
+        // small steps, big steps and steps back when the animation loops
+        final Random random = new Random(5);
+        float time = 0;
+        for (int s = 0; s < 2000; s++) {
+            time = (time + (s % 100 == 0 ? random.nextFloat() * length : random.nextFloat() * 0.05f)) % length;
+            final int expected = bruteForce(times, time);
+            assertEquals("time " + time, expected, sampler.seek(time));
+            assertEquals(expected + 1, sampler.getNextIndex());
+            assertEquals((time - times[expected]) / (times[expected + 1] - times[expected]), sampler.getAlpha(),
+                    DELTA);
+            assertFalse(sampler.getAlpha() < 0 || sampler.getAlpha() > 1);
+        }
+    }
+
+    private static int bruteForce(float[] times, float time) {
+        int ret = 0;
+        while (ret + 2 < times.length && times[ret + 1] <= time) {
+            ret++;
+        }
+        return ret;
+    }
+}
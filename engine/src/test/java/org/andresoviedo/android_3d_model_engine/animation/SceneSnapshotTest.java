@@ -0,0 +1,79 @@
+package org.andresoviedo.android_3d_model_engine.animation;
+
+import org.andresoviedo.android_3d_model_engine.model.AnimatedModel;
+import org.andresoviedo.android_3d_model_engine.model.Camera;
+import org.andresoviedo.android_3d_model_engine.model.Object3DData;
+import org.andresoviedo.android_3d_model_engine.services.collada.entities.Joint;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class SceneSnapshotTest {
+
+    private static final float[] IDENTITY = {1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1};
+
+    @Test
+    public void stateIsCopied() {
+        final Camera camera = new Camera();
+        camera.xPos = 3;
+        final Object3DData light = new Object3DData();
+        final float[] lightMatrix = IDENTITY.clone();
+        lightMatrix[12] = 5;
+        light.setModelMatrix(lightMatrix);
+        final List<Object3DData> objects = Arrays.asList(new Object3DData(), new Object3DData());
+
+        final SceneSnapshot snapshot = new SceneSnapshot();
+        snapshot.capture(objects, camera, light);
+        camera.xPos = 4;
+        lightMatrix[12] = 6;
+
+        assertSame(objects, snapshot.getObjects());
+        assertEquals(3, snapshot.getCamera().xPos, 0);
+        assertEquals(5, snapshot.getLightMatrix()[12], 0);
+        assertEquals(2 * 16, snapshot.getDrawMatrices().length);
+        assertNull(snapshot.getPalette(0));
+    }
+
+    @Test
+    public void palettesAreCopiedAndAppliedByTheDrawingThread() {
+        final AnimatedModel model = animated();
+        final float[] palette = model.getSkeleton().getPalette();
+        palette[12] = 2;
+
+        final SceneSnapshot snapshot = new SceneSnapshot();
+        snapshot.capture(Arrays.asList(new Object3DData(), model), new Camera(), null);
+        // the simulation goes on with the next step
+        palette[12] = 3;
+
+        assertNull(snapshot.getPalette(0));
+        assertEquals(2, snapshot.getPalette(1)[12], 0);
+        assertEquals(0, model.getJointPalette()[12], 0);
+
+        snapshot.applyPalettes();
+        assertEquals(2, model.getJointPalette()[12], 0);
+    }
+
+    @Test
+    public void snapshotsGrowWithTheScene() {
+        final SceneSnapshot snapshot = new SceneSnapshot();
+        final AnimatedModel model = animated();
+        snapshot.capture(Arrays.asList(model), new Camera(), null);
+        snapshot.capture(Arrays.asList(new Object3DData(), new Object3DData(), model), new Camera(), null);
+
+        assertEquals(3 * 16, snapshot.getDrawMatrices().length);
+        assertNull(snapshot.getPalette(0));
+        assertEquals(16, snapshot.getPalette(2).length);
+    }
+
+    private static AnimatedModel animated() {
+        final AnimatedModel ret = new AnimatedModel();
+        ret.setRootJoint(new Joint(0, "root", IDENTITY.clone(), IDENTITY.clone()), 1, 1, false);
+        ret.doAnimation(new Animation(1, new KeyFrame[0]));
+        return ret;
+    }
+}
@@ -0,0 +1,125 @@
+package org.andresoviedo.android_3d_model_engine.animation;
+
+import org.andresoviedo.android_3d_model_engine.model.Camera;
+import org.andresoviedo.android_3d_model_engine.model.Object3DData;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SimulationTest {
+
+    private static final float DELTA = 1e-5f;
+
+    @Test
+    public void nothingToDrawBeforeTheFirstStep() {
+        final Simulation simulation = new Simulation((time, step, snapshot) -> {
+        });
+        assertNull(simulation.acquire());
+    }
+
+    @Test
+    public void stepsAdvanceAFixedTime() {
+        final List<Float> times = new ArrayList<>();
+        final Simulation simulation = new Simulation((time, step, snapshot) -> {
+            assertEquals(0.1f, step, DELTA);
+            assertEquals(time, snapshot.getTime(), 0);
+            times.add(time);
+        }, 10);
+        for (int i = 0; i < 3; i++) {
+            simulation.step();
+        }
+
+        assertEquals(3, times.size());
+        assertEquals(0.1f, times.get(0), DELTA);
+        assertEquals(0.3f, times.get(2), DELTA);
+        final SceneSnapshot snapshot = simulation.acquire();
+        assertEquals(3, snapshot.getStep());
+        assertEquals(0.3f, snapshot.getTime(), DELTA);
+    }
+
+    @Test
+    public void acquireTakesTheLatestStep() {
+        final Simulation simulation = new Simulation((time, step, snapshot) -> {
+        });
+        simulation.step();
+        simulation.step();
+        final SceneSnapshot latest = simulation.acquire();
+        assertEquals(2, latest.getStep());
+
+        // nothing new: the same snapshot is drawn again
+        assertSame(latest, simulation.acquire());
+
+        simulation.step();
+        assertEquals(3, simulation.acquire().getStep());
+    }
+
+    @Test
+    public void theDrawnSnapshotIsNeverWritten() {
+        final SceneSnapshot[] drawn = new SceneSnapshot[1];
+        final Simulation simulation = new Simulation((time, step, snapshot) -> assertNotSame(drawn[0], snapshot));
+        simulation.step();
+        for (int frame = 0; frame < 10; frame++) {
+            drawn[0] = simulation.acquire();
+            // the renderer may be slower or faster than the simulation
+            for (int i = 0; i < frame % 3; i++) {
+                simulation.step();
+            }
+        }
+    }
+
+    @Test
+    public void snapshotsAreConsistentAcrossThreads() throws InterruptedException {
+        final Camera camera = new Camera();
+        final Object3DData light = new Object3DData();
+        final float[] lightMatrix = new float[16];
+        light.setModelMatrix(lightMatrix);
+        final List<Object3DData> objects = Collections.emptyList();
+        // every step writes its number everywhere, so a mix of two steps is detected
+        final Simulation simulation = new Simulation((time, step, snapshot) -> {
+            camera.xPos = snapshot.getStep();
+            Arrays.fill(lightMatrix, snapshot.getStep());
+            snapshot.capture(objects, camera, light);
+        }, 1000);
+
+        simulation.start();
+        assertTrue(simulation.isRunning());
+        try {
+            long previous = -1;
+            final long end = System.nanoTime() + 200_000_000L;
+            while (System.nanoTime() < end) {
+                final SceneSnapshot snapshot = simulation.acquire();
+                if (snapshot == null) {
+                    continue;
+                }
+                final long step = snapshot.getStep();
+                assertTrue(step >= previous);
+                previous = step;
+                assertEquals(step, snapshot.getCamera().xPos, 0);
+                for (float value : snapshot.getLightMatrix()) {
+                    assertEquals(step, value, 0);
+                }
+            }
+            assertTrue(previous > 0);
+        } finally {
+            simulation.stop();
+        }
+        assertFalse(simulation.isRunning());
+
+        // stopped: time doesn't advance
+        final long stopped = simulation.acquire().getStep();
+        Thread.sleep(20);
+        assertNotNull(simulation.acquire());
+        assertEquals(stopped, simulation.acquire().getStep());
+    }
+}
@@ -0,0 +1,184 @@
+package org.andresoviedo.android_3d_model_engine.animation;
+
+import org.andresoviedo.android_3d_model_engine.services.collada.entities.Joint;
+import org.andresoviedo.util.math.Mat4;
+import org.andresoviedo.util.math.Quat;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SkeletonTest {
+
+    private static final float DELTA = 1e-5f;
+
+    private static final int BONES = 3;
+
+    @Test
+    public void parentsComeBeforeTheirChildren() {
+        final Skeleton skeleton = new Skeleton(hierarchy(), BONES);
+        assertEquals(4, skeleton.getJointCount());
+        assertEquals(BONES, skeleton.getBoneCount());
+        final int[] parents = skeleton.getParents();
+        assertEquals(-1, parents[0]);
+        for (int i = 1; i < parents.length; i++) {
+            assertTrue(parents[i] >= 0 && parents[i] < i);
+        }
+        assertEquals(skeleton.indexOf("spine"), parents[skeleton.indexOf("head")]);
+        // the leg has no vertices
+        assertEquals(-1, skeleton.getBones()[skeleton.indexOf("leg")]);
+        assertEquals(-1, skeleton.indexOf("tail"));
+    }
+
+    @Test
+    public void bindPoseMatchesTheHierarchy() {
+        final Joint root = hierarchy();
+        final Skeleton skeleton = new Skeleton(root, BONES);
+        skeleton.update();
+
+        final Map<String, float[]> expected = new HashMap<>();
+        worldTransforms(root, identity(), new HashMap<String, float[]>(), expected);
+        assertWorldTransforms(expected, skeleton);
+
+        // the skinning matrices of the bind pose don't move the vertices
+        final float[] palette = skeleton.getPalette();
+        for (int b = 0; b < BONES; b++) {
+            final float[] bone = new float[16];
+            System.arraycopy(palette, b * 16, bone, 0, 16);
+            assertArrayEquals("bone " + b, identity(), bone, DELTA);
+        }
+    }
+
+    @Test
+    public void poseMatchesTheHierarchy() {
+        final Joint root = hierarchy();
+        final Skeleton skeleton = new Skeleton(root, BONES);
+
+        // the spine is posed, the rest keep their bind transforms
+        final Pose pose = skeleton.getPose();
+        final int spine = skeleton.indexOf("spine");
+        final float[] rotation = new float[4];
+        Quat.setAxisAngle(rotation, 0, 20, 0, 0, 1);
+        System.arraycopy(new float[]{0.5f, 3, 0}, 0, pose.getTranslations(), spine * 3, 3);
+        System.arraycopy(rotation, 0, pose.getRotations(), spine * 4, 4);
+        System.arraycopy(new float[]{1, 1.5f, 1}, 0, pose.getScales(), spine * 3, 3);
+        pose.getAnimated()[spine] = true;
+        skeleton.update();
+
+        final float[] local = new float[16];
+        Mat4.compose(local, 0, 0.5f, 3, 0, rotation[0], rotation[1], rotation[2], rotation[3], 1, 1.5f, 1);
+        final Map<String, float[]> locals = new HashMap<>();
+        locals.put("spine", local);
+        final Map<String, float[]> expected = new HashMap<>();
+        worldTransforms(root, identity(), locals, expected);
+        assertWorldTransforms(expected, skeleton);
+
+        // and the palette takes the vertices from the bind pose to the world transform
+        final Map<String, float[]> bind = new HashMap<>();
+        worldTransforms(root, identity(), new HashMap<String, float[]>(), bind);
+        for (String name : new String[]{"hips", "spine", "head"}) {
+            final int joint = skeleton.indexOf(name);
+            final float[] inverseBind = new float[16], palette = new float[16], bone = new float[16];
+            Mat4.invertAffine(inverseBind, 0, bind.get(name), 0);
+            Mat4.multiply(palette, 0, expected.get(name), 0, inverseBind, 0);
+            System.arraycopy(skeleton.getPalette(), skeleton.getBones()[joint] * 16, bone, 0, 16);
+            assertArrayEquals(name, palette, bone, DELTA);
+        }
+
+        // back to the bind pose
+        skeleton.setBindPose();
+        skeleton.update();
+        assertWorldTransforms(bind, skeleton);
+    }
+
+    @Test
+    public void publishSwapsThePalettes() {
+        final Skeleton skeleton = new Skeleton(hierarchy(), BONES);
+        final float[] back = skeleton.getPalette();
+        final float[] front = skeleton.getPublishedPalette();
+        skeleton.publish();
+        assertSame(back, skeleton.getPublishedPalette());
+        assertSame(front, skeleton.getPalette());
+
+        // copies share the hierarchy, not the pose
+        final Skeleton copy = new Skeleton(skeleton);
+        assertSame(skeleton.getParents(), copy.getParents());
+        assertNotSame(skeleton.getPose(), copy.getPose());
+    }
+
+    private static void assertWorldTransforms(Map<String, float[]> expected, Skeleton skeleton) {
+        final float[] actual = new float[16];
+        for (Map.Entry<String, float[]> entry : expected.entrySet()) {
+            System.arraycopy(skeleton.getWorldTransforms(), skeleton.indexOf(entry.getKey()) * 16, actual, 0, 16);
+            assertArrayEquals(entry.getKey(), entry.getValue(), actual, DELTA);
+        }
+    }
+
+    /**
+     * World transforms of the joint and its descendants, walking the hierarchy
+     *
+     * @param locals local transform of the posed joints. The others use their bind transform
+     */
+    private static void worldTransforms(Joint joint, float[] parent, Map<String, float[]> locals,
+                                        Map<String, float[]> out) {
+        final float[] local = locals.containsKey(joint.getName()) ? locals.get(joint.getName())
+                : joint.getBindLocalTransform();
+        final float[] world = new float[16];
+        Mat4.multiply(world, 0, parent, 0, local, 0);
+        out.put(joint.getName(), world);
+        for (Joint child : joint.getChildren()) {
+            worldTransforms(child, world, locals, out);
+        }
+    }
+
+    /**
+     * hips, with spine and leg as children, and head as child of the spine. The leg is not a bone
+     */
+    private static Joint hierarchy() {
+        final float[] hipsLocal = local(0, 1, 0, 90, 0, 0, 1, 1);
+        final float[] spineLocal = local(0, 2, 0, 30, 1, 0, 0, 1);
+        final float[] headLocal = local(0, 1, 0, 45, 0, 1, 0, 2);
+        final float[] legLocal = local(0.5f, -1, 0, 180, 1, 0, 0, 1);
+        final float[] spineWorld = multiply(hipsLocal, spineLocal);
+
+        final Joint hips = new Joint(0, "hips", hipsLocal, inverse(hipsLocal));
+        final Joint spine = new Joint(1, "spine", spineLocal, inverse(spineWorld));
+        spine.addChild(new Joint(2, "head", headLocal, inverse(multiply(spineWorld, headLocal))));
+        hips.addChild(spine);
+        hips.addChild(new Joint(3, "leg", legLocal, inverse(multiply(hipsLocal, legLocal))));
+        return hips;
+    }
+
+    private static float[] local(float tx, float ty, float tz, float angle, float ax, float ay, float az,
+                                 float scale) {
+        final float[] q = new float[4];
+        Quat.setAxisAngle(q, 0, angle, ax, ay, az);
+        final float[] ret = new float[16];
+        Mat4.compose(ret, 0, tx, ty, tz, q[0], q[1], q[2], q[3], scale, scale, scale);
+        return ret;
+    }
+
+    private static float[] multiply(float[] a, float[] b) {
+        final float[] ret = new float[16];
+        Mat4.multiply(ret, 0, a, 0, b, 0);
+        return ret;
+    }
+
+    private static float[] inverse(float[] m) {
+        final float[] ret = new float[16];
+        Mat4.invertAffine(ret, 0, m, 0);
+        return ret;
+    }
+
+    private static float[] identity() {
+        final float[] ret = new float[16];
+        Mat4.identity(ret, 0);
+        return ret;
+    }
+}
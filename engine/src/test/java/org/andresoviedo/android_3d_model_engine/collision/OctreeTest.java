@@ -0,0 +1,240 @@
+package org.andresoviedo.android_3d_model_engine.collision;
+
+import org.andresoviedo.android_3d_model_engine.model.Object3DData;
+import org.andresoviedo.util.math.Mat4;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class OctreeTest {
+
+    private static final float DELTA = 1e-4f;
+
+    private static final int TRIANGLES = 3000;
+
+    @Test
+    public void singleTriangle() {
+        final float[] vertices = {-1, -1, 0, 1, -1, 0, 0, 1, 0};
+        final Octree octree = Octree.build(vertices, new int[]{0, 1, 2}, Octree.DEFAULT_MAX_DEPTH,
+                Octree.DEFAULT_LEAF_SIZE);
+        assertEquals(1, octree.getTriangleCount());
+        assertEquals(5, octree.intersect(new float[]{0, 0, 5}, new float[]{0, 0, -1}), DELTA);
+        assertEquals(-1, octree.intersect(new float[]{0, 0, 5}, new float[]{0, 0, 1}), DELTA);
+        assertEquals(-1, octree.intersect(new float[]{3, 0, 5}, new float[]{0, 0, -1}), DELTA);
+    }
+
+    @Test
+    public void hitsAreTheSameAsTestingEveryTriangle() {
+        final Random random = new Random(5);
+        final float[] vertices = soup(random);
+        final int[] triangles = indices();
+        final Octree octree = Octree.build(vertices, triangles.clone(), 8, 4);
+        assertEquals(TRIANGLES, octree.getTriangleCount());
+        assertTrue(octree.getNodeCount() > 1);
+
+        int hits = 0;
+        for (int r = 0; r < 1000; r++) {
+            final float[] origin = randomOrigin(random);
+            final float[] direction = towardsTheCenter(random, origin);
+            final float expected = bruteForce(vertices, triangles, origin, direction);
+            assertEquals("ray " + r, expected, octree.intersect(origin, direction), DELTA);
+            if (expected >= 0) hits++;
+        }
+        // most rays go through the soup
+        assertTrue(hits > 500);
+    }
+
+    @Test
+    public void parallelBuildIsTheSameTree() {
+        final Random random = new Random(7);
+        final float[] vertices = soup(random);
+        final int[] triangles = indices();
+        final Octree sequential = Octree.build(vertices, triangles.clone(), 8, 4, false);
+        final Octree parallel = Octree.build(vertices, triangles.clone(), 8, 4, true);
+        assertEquals(sequential.getNodeCount(), parallel.getNodeCount());
+        assertEquals(TRIANGLES, parallel.getTriangleCount());
+
+        for (int r = 0; r < 500; r++) {
+            final float[] origin = randomOrigin(random);
+            final float[] direction = towardsTheCenter(random, origin);
+            assertEquals("ray " + r, bruteForce(vertices, triangles, origin, direction),
+                    parallel.intersect(origin, direction), DELTA);
+        }
+    }
+
+    @Test
+    public void modelsGetTheirOctreeInTheBackground() throws InterruptedException {
+        final Random random = new Random(9);
+        final float[] vertices = soup(random);
+        final FloatBuffer buffer = ByteBuffer.allocateDirect(vertices.length * 4).order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        buffer.put(vertices).position(0);
+        final Object3DData model = new Object3DData(buffer);
+        // moved 100 along x
+        Mat4.identity(model.getModelMatrix(), 0);
+        model.getModelMatrix()[12] = 100;
+
+        Octree.buildAsync(model);
+        final long timeout = System.currentTimeMillis() + 10000;
+        while (model.getOctree() == null && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        final Octree octree = model.getOctree();
+        assertNotNull(octree);
+        // built once
+        Octree.buildAsync(model);
+        assertSame(octree, model.getOctree());
+
+        // in world space
+        final float[] translated = vertices.clone();
+        for (int i = 0; i < translated.length; i += 3) {
+            translated[i] += 100;
+        }
+        for (int r = 0; r < 200; r++) {
+            final float[] origin = randomOrigin(random);
+            final float[] direction = towardsTheCenter(random, origin);
+            origin[0] += 100;
+            assertEquals("ray " + r, bruteForce(translated, indices(), origin, direction),
+                    octree.intersect(origin, direction), DELTA);
+        }
+    }
+
+    @Test
+    public void packetsHitTheSameAsSingleRays() {
+        final Random random = new Random(11);
+        final float[] vertices = soup(random);
+        final int[] triangles = indices();
+        final Octree octree = Octree.build(vertices, triangles.clone(), 8, 4);
+
+        // packets of rays from neighbouring points going the same way, like the pixels of a tile
+        final int size = 16;
+        final float[] origins = new float[size * 3], directions = new float[size * 3];
+        final float[] distances = new float[size], barycentrics = new float[size * 2];
+        final int[] hitTriangles = new int[size];
+        final int[] rays = new int[size];
+        for (int i = 0; i < size; i++) {
+            rays[i] = size - 1 - i;
+        }
+        for (int packet = 0; packet < 50; packet++) {
+            final float[] origin = randomOrigin(random);
+            final float[] direction = towardsTheCenter(random, origin);
+            for (int i = 0; i < size; i++) {
+                origins[i * 3] = origin[0] + (i % 4) * 0.3f;
+                origins[i * 3 + 1] = origin[1] + (i / 4) * 0.3f;
+                origins[i * 3 + 2] = origin[2];
+                System.arraycopy(direction, 0, directions, i * 3, 3);
+            }
+            Arrays.fill(distances, Float.MAX_VALUE);
+            Arrays.fill(hitTriangles, -1);
+
+            int expectedHits = 0;
+            final int count = octree.intersect(origins, directions, rays, size, distances, hitTriangles,
+                    barycentrics);
+            for (int i = 0; i < size; i++) {
+                final float[] o = {origins[i * 3], origins[i * 3 + 1], origins[i * 3 + 2]};
+                final float expected = bruteForce(vertices, triangles, o, direction);
+                if (expected < 0) {
+                    assertEquals(Float.MAX_VALUE, distances[i], 0);
+                    assertEquals(-1, hitTriangles[i]);
+                    continue;
+                }
+                expectedHits++;
+                assertEquals("packet " + packet + " ray " + i, expected, distances[i], DELTA);
+                // the triangle reported is the one at that distance, and the point is where the ray crosses it
+                final int t = hitTriangles[i] * 3;
+                assertEquals(expected, bruteForce(vertices, new int[]{t, t + 1, t + 2}, o, direction), DELTA);
+                final float u = barycentrics[i * 2], v = barycentrics[i * 2 + 1];
+                for (int k = 0; k < 3; k++) {
+                    final float point = vertices[t * 3 + k] * (1 - u - v) + vertices[(t + 1) * 3 + k] * u
+                            + vertices[(t + 2) * 3 + k] * v;
+                    assertEquals(o[k] + direction[k] * expected, point, 1e-3f);
+                }
+            }
+            assertEquals(expectedHits, count);
+        }
+    }
+
+    @Test
+    public void packetsOnlyKeepNearerHits() {
+        final float[] vertices = {-1, -1, 0, 1, -1, 0, 0, 1, 0};
+        final Octree octree = Octree.build(vertices, new int[]{0, 1, 2}, Octree.DEFAULT_MAX_DEPTH,
+                Octree.DEFAULT_LEAF_SIZE);
+        final float[] origins = {0, 0, 5, 0, 0, 5, 0.1f, 0, 5};
+        final float[] directions = {0, 0, -1, 0, 0, -1, 0, 0, -1};
+        // the second ray already hit something nearer
+        final float[] distances = {Float.MAX_VALUE, 2, Float.MAX_VALUE};
+        final int[] hitTriangles = {-1, -1, -1};
+        final float[] barycentrics = new float[6];
+        // only the first and the second ray are in the packet
+        assertEquals(1, octree.intersect(origins, directions, new int[]{1, 0}, 2, distances, hitTriangles,
+                barycentrics));
+        assertEquals(5, distances[0], DELTA);
+        assertEquals(0, hitTriangles[0]);
+        assertEquals(2, distances[1], 0);
+        assertEquals(-1, hitTriangles[1]);
+        assertEquals(Float.MAX_VALUE, distances[2], 0);
+    }
+
+    /**
+     * Nearest hit of the ray, testing every triangle
+     *
+     * @return the distance or -1 if nothing is hit
+     */
+    private static float bruteForce(float[] vertices, int[] triangles, float[] origin, float[] direction) {
+        float nearest = Float.MAX_VALUE;
+        for (int t = 0; t < triangles.length; t += 3) {
+            final float d = RayKernels.intersectTriangle(origin[0], origin[1], origin[2],
+                    direction[0], direction[1], direction[2], vertices,
+                    triangles[t] * 3, triangles[t + 1] * 3, triangles[t + 2] * 3);
+            if (d != RayKernels.NO_HIT && d < nearest) {
+                nearest = d;
+            }
+        }
+        return nearest == Float.MAX_VALUE ? -1 : nearest;
+    }
+
+    /**
+     * Small triangles spread in a 20x20x20 box centered at the origin, with a few big ones crossing several octants
+     */
+    private static float[] soup(Random random) {
+        final float[] ret = new float[TRIANGLES * 9];
+        for (int t = 0; t < TRIANGLES; t++) {
+            final float size = t % 100 == 0 ? 8 : 1;
+            final float cx = random.nextFloat() * 20 - 10, cy = random.nextFloat() * 20 - 10,
+                    cz = random.nextFloat() * 20 - 10;
+            for (int k = 0; k < 9; k++) {
+                ret[t * 9 + k] = (k % 3 == 0 ? cx : k % 3 == 1 ? cy : cz) + (random.nextFloat() - 0.5f) * size;
+            }
+        }
+        return ret;
+    }
+
+    private static int[] indices() {
+        final int[] ret = new int[TRIANGLES * 3];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = i;
+        }
+        return ret;
+    }
+
+    private static float[] randomOrigin(Random random) {
+        return new float[]{random.nextFloat() * 60 - 30, random.nextFloat() * 60 - 30, random.nextFloat() * 60 - 30};
+    }
+
+    /**
+     * @return direction from the origin to a random point near the center, not normalized
+     */
+    private static float[] towardsTheCenter(Random random, float[] origin) {
+        return new float[]{random.nextFloat() * 10 - 5 - origin[0], random.nextFloat() * 10 - 5 - origin[1],
+                random.nextFloat() * 10 - 5 - origin[2]};
+    }
+}
@@ -0,0 +1,185 @@
+package org.andresoviedo.android_3d_model_engine.collision;
+
+import android.opengl.GLES20;
+
+import org.andresoviedo.android_3d_model_engine.model.AnimatedModel;
+import org.andresoviedo.android_3d_model_engine.model.Object3DData;
+import org.andresoviedo.android_3d_model_engine.services.collada.entities.Joint;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PickingBufferTest {
+
+    private static final float[] IDENTITY = {1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1};
+
+    // camera at the origin looking down -z, with a 90 degrees frustum from z=-1 to z=-10
+    private static final float[] VIEW = IDENTITY;
+    private static final float[] PROJECTION = {1, 0, 0, 0, 0, 1, 0, 0, 0, 0, -11f / 9, -1, 0, 0, -20f / 9, 0};
+
+    // picks are in a 100x100 viewport
+    private static final int SIZE = 100;
+
+    private final PickingBuffer buffer = new PickingBuffer(32, 32);
+    private final List<Object3DData> scene = new ArrayList<>();
+    private final List<float[]> palettes = new ArrayList<>();
+    private float[] drawMatrices = new float[0];
+
+    @Test
+    public void nearestObjectIsPicked() {
+        // from -0.2 to 0.2 in device coordinates, and a smaller one in front of it
+        final Object3DData back = add(quad(1, -5), IDENTITY);
+        final Object3DData front = add(quad(0.2f, -2), IDENTITY);
+        assertTrue(update());
+
+        assertSame(front, buffer.pick(50, 50, SIZE, SIZE));
+        assertSame(back, buffer.pick(58, 50, SIZE, SIZE));
+        assertNull(buffer.pick(5, 50, SIZE, SIZE));
+        assertNull(buffer.pick(-1, 50, SIZE, SIZE));
+    }
+
+    @Test
+    public void nothingIsPickedBeforeUpdating() {
+        add(quad(1, -5), IDENTITY);
+        assertNull(buffer.pick(50, 50, SIZE, SIZE));
+    }
+
+    @Test
+    public void movedObjectsAreRedrawn() {
+        final Object3DData back = add(quad(1, -5), IDENTITY);
+        final Object3DData front = add(quad(0.2f, -2), IDENTITY);
+        assertTrue(update());
+        assertFalse(update());
+
+        // to 0.3 in device coordinates
+        setDrawMatrix(1, translation(0.6f, 0, 0));
+        assertTrue(update());
+
+        assertSame(front, buffer.pick(65, 50, SIZE, SIZE));
+        assertSame(back, buffer.pick(50, 50, SIZE, SIZE));
+    }
+
+    @Test
+    public void cameraMovesRedrawEverything() {
+        final Object3DData quad = add(quad(1, -5), IDENTITY);
+        assertTrue(update());
+
+        // the camera moves 3 units right, so the quad is on the left
+        assertTrue(buffer.update(scene, drawMatrices, palettes.toArray(new float[0][]), translation(-3, 0, 0),
+                PROJECTION));
+        assertNull(buffer.pick(50, 50, SIZE, SIZE));
+        assertSame(quad, buffer.pick(20, 50, SIZE, SIZE));
+    }
+
+    @Test
+    public void trianglesCrossingTheNearPlaneAreClipped() {
+        // a floor from behind the camera to the far plane
+        final Object3DData floor = add(new Object3DData(vertices(
+                -20, -1, 5, 20, -1, 5, 20, -1, -20,
+                -20, -1, 5, 20, -1, -20, -20, -1, -20)).setDrawMode(GLES20.GL_TRIANGLES), IDENTITY);
+        assertTrue(update());
+
+        // below the horizon, on the floor 2 units ahead, and above it
+        assertSame(floor, buffer.pick(50, 75, SIZE, SIZE));
+        assertSame(floor, buffer.pick(5, 95, SIZE, SIZE));
+        assertNull(buffer.pick(50, 25, SIZE, SIZE));
+    }
+
+    @Test
+    public void linesCrossingTheNearPlaneAreClipped() {
+        final Object3DData line = add(new Object3DData(vertices(0, -0.5f, 5, 0, -0.5f, -5))
+                .setDrawMode(GLES20.GL_LINES), IDENTITY);
+        assertTrue(update());
+
+        // from (0, -0.5, -1) on the near plane to the end, from 0.75 to 0.55 of the height
+        assertSame(line, buffer.pick(50, 70, SIZE, SIZE));
+        assertNull(buffer.pick(50, 90, SIZE, SIZE));
+        assertNull(buffer.pick(50, 25, SIZE, SIZE));
+    }
+
+    @Test
+    public void posesAreSkinned() {
+        final float[] palette = IDENTITY.clone();
+        final AnimatedModel model = skinned(quad(1, -5));
+        add(model, IDENTITY);
+        palettes.set(0, palette);
+        assertTrue(update());
+        assertSame(model, buffer.pick(50, 50, SIZE, SIZE));
+
+        // moved by the pose, not by the draw matrix. from 0.4 to 0.8 in device coordinates
+        palette[12] = 3;
+        assertTrue(update());
+        assertNull(buffer.pick(50, 50, SIZE, SIZE));
+        assertSame(model, buffer.pick(80, 50, SIZE, SIZE));
+        assertFalse(update());
+
+        // without palette it's drawn in the bind pose
+        palettes.set(0, null);
+        assertTrue(update());
+        assertSame(model, buffer.pick(50, 50, SIZE, SIZE));
+    }
+
+    private boolean update() {
+        return buffer.update(scene, drawMatrices, palettes.toArray(new float[0][]), VIEW, PROJECTION);
+    }
+
+    private Object3DData add(Object3DData obj, float[] drawMatrix) {
+        scene.add(obj);
+        palettes.add(null);
+        drawMatrices = Arrays.copyOf(drawMatrices, scene.size() * 16);
+        setDrawMatrix(scene.size() - 1, drawMatrix);
+        return obj;
+    }
+
+    private void setDrawMatrix(int i, float[] drawMatrix) {
+        System.arraycopy(drawMatrix, 0, drawMatrices, i * 16, 16);
+    }
+
+    /**
+     * Square facing the camera, centered in the z axis
+     */
+    private static Object3DData quad(float halfSize, float z) {
+        final float s = halfSize;
+        return new Object3DData(vertices(-s, -s, z, s, -s, z, s, s, z, -s, -s, z, s, s, z, -s, s, z))
+                .setDrawMode(GLES20.GL_TRIANGLES);
+    }
+
+    /**
+     * Copy of the object moved as a whole by a single bone
+     */
+    private static AnimatedModel skinned(Object3DData obj) {
+        final int vertexCount = obj.getVertexArrayBuffer().capacity() / 3;
+        final float[] ones = new float[vertexCount];
+        Arrays.fill(ones, 1);
+        final AnimatedModel ret = new AnimatedModel(obj.getVertexArrayBuffer());
+        ret.setJointIds(vertices(new float[vertexCount])).setVertexWeights(vertices(ones));
+        ret.setRootJoint(new Joint(0, "root", IDENTITY.clone(), IDENTITY.clone()), 1, 1, false);
+        ret.setDrawMode(GLES20.GL_TRIANGLES);
+        return ret;
+    }
+
+    private static FloatBuffer vertices(float... values) {
+        final FloatBuffer ret = ByteBuffer.allocateDirect(values.length * 4).order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        ret.put(values).position(0);
+        return ret;
+    }
+
+    private static float[] translation(float x, float y, float z) {
+        final float[] ret = IDENTITY.clone();
+        ret[12] = x;
+        ret[13] = y;
+        ret[14] = z;
+        return ret;
+    }
+}
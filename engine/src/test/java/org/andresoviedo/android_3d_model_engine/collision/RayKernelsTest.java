@@ -0,0 +1,123 @@
+package org.andresoviedo.android_3d_model_engine.collision;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class RayKernelsTest {
+
+    private static final float DELTA = 1e-5f;
+
+    // triangle on the z=0 plane
+    private static final float[] TRIANGLE = {0, 0, 0, 1, 0, 0, 0, 1, 0};
+
+    @Test
+    public void triangleHit() {
+        assertEquals(5, intersect(0.25f, 0.25f, 5, 0, 0, -1), DELTA);
+        // from behind, the triangle is double sided
+        assertEquals(2, intersect(0.25f, 0.25f, -2, 0, 0, 1), DELTA);
+        // oblique. distances are in direction lengths
+        assertEquals(1, intersect(-0.75f, 0.25f, 1, 1, 0, -1), DELTA);
+    }
+
+    @Test
+    public void triangleMiss() {
+        // outside the edges
+        assertEquals(RayKernels.NO_HIT, intersect(-0.1f, 0.5f, 1, 0, 0, -1), 0);
+        assertEquals(RayKernels.NO_HIT, intersect(0.6f, 0.6f, 1, 0, 0, -1), 0);
+        // pointing away
+        assertEquals(RayKernels.NO_HIT, intersect(0.25f, 0.25f, 1, 0, 0, 1), 0);
+    }
+
+    @Test
+    public void triangleEdgesAndVerticesAreHit() {
+        assertEquals(1, intersect(0.5f, 0.5f, 1, 0, 0, -1), DELTA);
+        assertEquals(1, intersect(0.5f, 0, 1, 0, 0, -1), DELTA);
+        assertEquals(1, intersect(0, 0, 1, 0, 0, -1), DELTA);
+    }
+
+    @Test
+    public void edgeOnRaysMiss() {
+        // parallel to the plane of the triangle, both in it and above it
+        assertEquals(RayKernels.NO_HIT, intersect(-1, 0.25f, 0, 1, 0, 0), 0);
+        assertEquals(RayKernels.NO_HIT, intersect(-1, 0.25f, 0.5f, 1, 0, 0), 0);
+    }
+
+    @Test
+    public void originOnTheTriangleIsNotAHit() {
+        assertEquals(RayKernels.NO_HIT, intersect(0.25f, 0.25f, 0, 0, 0, -1), 0);
+    }
+
+    @Test
+    public void nearestPackedTriangle() {
+        // the same triangle at z=0, z=-3 and z=2
+        final float[] triangles = new float[9 + 27];
+        for (int t = 0; t < 3; t++) {
+            System.arraycopy(TRIANGLE, 0, triangles, 9 + t * 9, 9);
+        }
+        triangles[9 + 9 + 2] = triangles[9 + 9 + 5] = triangles[9 + 9 + 8] = -3;
+        triangles[9 + 18 + 2] = triangles[9 + 18 + 5] = triangles[9 + 18 + 8] = 2;
+        final float[] distances = new float[3];
+
+        assertEquals(0, RayKernels.intersectTriangles(0.25f, 0.25f, 1, 0, 0, -1, triangles, 9, 3, distances));
+        assertEquals(1, distances[0], DELTA);
+        assertEquals(4, distances[1], DELTA);
+        assertEquals(RayKernels.NO_HIT, distances[2], 0);
+
+        assertEquals(-1, RayKernels.intersectTriangles(5, 5, 1, 0, 0, -1, triangles, 9, 3, null));
+    }
+
+    @Test
+    public void barycentricCoordinates() {
+        final float[] uv = new float[3];
+        RayKernels.barycentric(0.25f, 0.5f, 1, 0, 0, -1, TRIANGLE, 0, 3, 6, uv, 1);
+        assertEquals(0.25f, uv[1], DELTA);
+        assertEquals(0.5f, uv[2], DELTA);
+    }
+
+    @Test
+    public void boxHit() {
+        assertEquals(1, intersectBox(-1, 0.5f, 0.5f, 1, 0, 0, Float.MAX_VALUE), DELTA);
+        assertEquals(2, intersectBox(0.5f, 3, 0.5f, 0, -1, 0, Float.MAX_VALUE), DELTA);
+        // diagonal, through the corner region
+        assertEquals(1, intersectBox(-1, -1, -1, 1, 1, 1, Float.MAX_VALUE), DELTA);
+        // origin inside: distance to the entry point behind the origin
+        assertEquals(-0.5f, intersectBox(0.5f, 0.5f, 0.5f, 1, 0, 0, Float.MAX_VALUE), DELTA);
+    }
+
+    @Test
+    public void boxMiss() {
+        // pointing away, passing by and beyond the limit
+        assertEquals(Float.MAX_VALUE, intersectBox(-1, 0.5f, 0.5f, -1, 0, 0, Float.MAX_VALUE), 0);
+        assertEquals(Float.MAX_VALUE, intersectBox(-1, 2, 0.5f, 1, 0, 0, Float.MAX_VALUE), 0);
+        assertEquals(Float.MAX_VALUE, intersectBox(-1, -1, -1, 1, 1, 5, Float.MAX_VALUE), 0);
+        assertEquals(Float.MAX_VALUE, intersectBox(-1, 0.5f, 0.5f, 1, 0, 0, 1), 0);
+    }
+
+    @Test
+    public void axisAlignedRaysUseInfiniteSlabs() {
+        // zero direction components: inside the slabs is a hit, outside a miss
+        assertEquals(4, intersectBox(0.5f, 0.5f, 5, 0, 0, -1, Float.MAX_VALUE), DELTA);
+        assertEquals(Float.MAX_VALUE, intersectBox(1.5f, 0.5f, 5, 0, 0, -1, Float.MAX_VALUE), 0);
+        assertEquals(Float.MAX_VALUE, intersectBox(0.5f, -0.5f, 5, 0, 0, -1, Float.MAX_VALUE), 0);
+    }
+
+    @Test
+    public void flatBoxIsHit() {
+        // i.e. the box of a plane
+        final float[] bounds = {0, 0, 0, 1, 0, 1};
+        assertEquals(2, RayKernels.intersectBox(0.5f, 2, 0.5f, 1 / 0f, -1, 1 / 0f, bounds, 0, Float.MAX_VALUE),
+                DELTA);
+    }
+
+    private static float intersect(float ox, float oy, float oz, float dx, float dy, float dz) {
+        return RayKernels.intersectTriangle(ox, oy, oz, dx, dy, dz, TRIANGLE, 0, 3, 6);
+    }
+
+    /**
+     * Test against the unit box
+     */
+    private static float intersectBox(float ox, float oy, float oz, float dx, float dy, float dz, float limit) {
+        return RayKernels.intersectBox(ox, oy, oz, 1 / dx, 1 / dy, 1 / dz, 0, 0, 0, 1, 1, 1, limit);
+    }
+}
@@ -0,0 +1,189 @@
+package org.andresoviedo.android_3d_model_engine.collision;
+
+import org.andresoviedo.android_3d_model_engine.model.Frustum;
+import org.andresoviedo.android_3d_model_engine.model.Object3DData;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SceneBvhTest {
+
+    private static final float[] IDENTITY = {1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1};
+
+    @Test
+    public void nearestObjectIsPicked() {
+        final List<Object3DData> scene = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            scene.add(cube(i * 3, 0, 0));
+        }
+        final SceneBvh bvh = new SceneBvh();
+        bvh.update(scene);
+
+        assertSame(scene.get(0), bvh.rayIntersection(new float[]{-10, 0, 0}, new float[]{1, 0, 0}));
+        assertSame(scene.get(9), bvh.rayIntersection(new float[]{100, 0, 0}, new float[]{-1, 0, 0}));
+        assertSame(scene.get(4), bvh.rayIntersection(new float[]{12, 10, 0}, new float[]{0, -1, 0}));
+        assertNull(bvh.rayIntersection(new float[]{-10, 5, 0}, new float[]{1, 0, 0}));
+        assertNull(bvh.rayIntersection(new float[]{-10, 0, 0}, new float[]{-1, 0, 0}));
+    }
+
+    @Test
+    public void pickingMatchesBruteForce() {
+        final Random random = new Random(3);
+        final List<Object3DData> scene = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            scene.add(cube(random.nextFloat() * 100 - 50, random.nextFloat() * 100 - 50,
+                    random.nextFloat() * 100 - 50));
+        }
+        final SceneBvh bvh = new SceneBvh();
+        bvh.update(scene);
+        assertEquals(200, bvh.size());
+
+        for (int r = 0; r < 500; r++) {
+            final float[] origin = {random.nextFloat() * 300 - 150, random.nextFloat() * 300 - 150, -200};
+            final float[] direction = {random.nextFloat() - 0.5f, random.nextFloat() - 0.5f, 1};
+            assertSame("ray " + r, bruteForce(scene, origin, direction), bvh.rayIntersection(origin, direction));
+        }
+    }
+
+    @Test
+    public void movedObjectsAreRefitted() {
+        final List<Object3DData> scene = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            scene.add(cube(i * 3, 0, 0));
+        }
+        final SceneBvh bvh = new SceneBvh();
+        bvh.update(scene);
+
+        // move the last cube far up
+        scene.get(9).setModelMatrix(translation(0, 50, 0));
+        bvh.update(scene);
+
+        assertSame(scene.get(9), bvh.rayIntersection(new float[]{-10, 50, 0}, new float[]{1, 0, 0}));
+        assertSame(scene.get(8), bvh.rayIntersection(new float[]{100, 0, 0}, new float[]{-1, 0, 0}));
+    }
+
+    @Test
+    public void givenMatricesPlaceTheObjects() {
+        final List<Object3DData> scene = new ArrayList<>();
+        scene.add(cube(0, 0, 0));
+        scene.add(cube(3, 0, 0));
+        // i.e. the draw matrices of a snapshot, which ignore the current model matrices
+        final float[] matrices = new float[2 * 16];
+        System.arraycopy(translation(0, 10, 0), 0, matrices, 0, 16);
+        System.arraycopy(translation(3, 0, 0), 0, matrices, 16, 16);
+        final SceneBvh bvh = new SceneBvh();
+        bvh.update(scene, matrices);
+
+        assertSame(scene.get(0), bvh.rayIntersection(new float[]{0, 20, 0}, new float[]{0, -1, 0}));
+        assertSame(scene.get(1), bvh.rayIntersection(new float[]{-10, 0, 0}, new float[]{1, 0, 0}));
+
+        // moved by the matrices only
+        System.arraycopy(translation(0, 0, 0), 0, matrices, 0, 16);
+        bvh.update(scene, matrices);
+        assertSame(scene.get(0), bvh.rayIntersection(new float[]{-10, 0, 0}, new float[]{1, 0, 0}));
+    }
+
+    @Test
+    public void addedObjectsRebuildTheTree() {
+        final List<Object3DData> scene = new ArrayList<>();
+        scene.add(cube(0, 0, 0));
+        final SceneBvh bvh = new SceneBvh();
+        bvh.update(scene);
+
+        scene.add(cube(0, 0, 10));
+        bvh.update(scene);
+
+        assertEquals(2, bvh.size());
+        assertSame(scene.get(1), bvh.rayIntersection(new float[]{0, 0, 100}, new float[]{0, 0, -1}));
+    }
+
+    @Test
+    public void packetReturnsTheObjectsHitByAnyRay() {
+        final List<Object3DData> scene = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            scene.add(cube(i * 3, 0, 0));
+        }
+        final SceneBvh bvh = new SceneBvh();
+        bvh.update(scene);
+
+        final float[] origins = {0, 10, 0, 9, 10, 0, 100, 100, 100};
+        final float[] directions = {0, -1, 0, 0, -1, 0, 0, 1, 0};
+        final Object3DData[] out = new Object3DData[scene.size()];
+        final int count = bvh.rayIntersections(origins, directions, new int[]{0, 1, 2}, 3, out);
+
+        assertEquals(2, count);
+        final List<Object3DData> hit = Arrays.asList(out).subList(0, count);
+        assertTrue(hit.contains(scene.get(0)));
+        assertTrue(hit.contains(scene.get(3)));
+    }
+
+    @Test
+    public void frustumCulling() {
+        final List<Object3DData> scene = new ArrayList<>();
+        // inside, intersecting, outside & no vertices
+        scene.add(cube(0, 0, 0, 0.5f));
+        scene.add(cube(1, 0, 0, 0.5f));
+        scene.add(cube(5, 0, 0, 0.5f));
+        scene.add(new Object3DData());
+        final SceneBvh bvh = new SceneBvh();
+        bvh.update(scene);
+
+        // the identity view-projection is the [-1,1] box
+        final Frustum frustum = new Frustum();
+        frustum.set(IDENTITY);
+        final boolean[] visible = new boolean[scene.size()];
+        assertEquals(3, bvh.frustumIntersection(frustum, visible));
+        assertArrayEquals(new boolean[]{true, true, false, true}, visible);
+    }
+
+    private static Object3DData bruteForce(List<Object3DData> scene, float[] origin, float[] direction) {
+        final float[] world = new float[6];
+        float nearest = Float.MAX_VALUE;
+        Object3DData ret = null;
+        for (Object3DData obj : scene) {
+            SceneBvh.transform(obj.getLocalBounds(), obj.getModelMatrix(), world, 0);
+            final float t = RayKernels.intersectBox(origin[0], origin[1], origin[2],
+                    1 / direction[0], 1 / direction[1], 1 / direction[2], world, 0, nearest);
+            if (t > 0 && t < nearest) {
+                nearest = t;
+                ret = obj;
+            }
+        }
+        return ret;
+    }
+
+    private static Object3DData cube(float x, float y, float z) {
+        return cube(x, y, z, 1);
+    }
+
+    /**
+     * Cube centered in the origin, placed with the model matrix
+     */
+    private static Object3DData cube(float x, float y, float z, float halfSize) {
+        final FloatBuffer vertices = ByteBuffer.allocateDirect(6 * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        vertices.put(new float[]{-halfSize, -halfSize, -halfSize, halfSize, halfSize, halfSize});
+        final Object3DData ret = new Object3DData(vertices);
+        ret.setModelMatrix(translation(x, y, z));
+        return ret;
+    }
+
+    private static float[] translation(float x, float y, float z) {
+        final float[] ret = IDENTITY.clone();
+        ret[12] = x;
+        ret[13] = y;
+        ret[14] = z;
+        return ret;
+    }
+}
@@ -0,0 +1,178 @@
+package org.andresoviedo.android_3d_model_engine.collision;
+
+import android.opengl.GLES20;
+
+import org.andresoviedo.android_3d_model_engine.animation.CpuSkinner;
+import org.andresoviedo.android_3d_model_engine.model.AnimatedModel;
+import org.andresoviedo.android_3d_model_engine.services.collada.entities.Joint;
+import org.andresoviedo.util.math.Mat4;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SkinnedPickerTest {
+
+    private static final float DELTA = 1e-4f;
+
+    private static final float[] DOWN = {0, 0, -1};
+
+    @Test
+    public void bindPoseIsHit() {
+        final SkinnedPicker picker = new SkinnedPicker(twoQuads());
+        picker.refit(palette(0, 0, 0, 0, 0, 0));
+        assertEquals(10, picker.intersect(new float[]{0, 0, 10}, DOWN), DELTA);
+        assertEquals(10, picker.intersect(new float[]{4, 0, 10}, DOWN), DELTA);
+        assertEquals(-1, picker.intersect(new float[]{2, 0, 10}, DOWN), DELTA);
+    }
+
+    @Test
+    public void posedMeshIsHit() {
+        final AnimatedModel model = twoQuads();
+        final SkinnedPicker picker = new SkinnedPicker(model);
+        // the first quad comes closer and the second one is moved in front of the first
+        picker.refit(palette(0, 0, 2, -4, 0, 0));
+        assertEquals(8, picker.intersect(new float[]{0, 0, 10}, DOWN), DELTA);
+        assertEquals(-1, picker.intersect(new float[]{4, 0, 10}, DOWN), DELTA);
+        assertEquals(-1, picker.getBounds()[0], DELTA);
+        assertEquals(2, picker.getBounds()[5], DELTA);
+
+        // and by the model matrix
+        model.getModelMatrix()[14] = -3;
+        assertEquals(11, picker.intersect(new float[]{0, 0, 10}, DOWN), DELTA);
+        model.getModelMatrix()[14] = 0;
+
+        // batched, only the nearer hits are kept
+        final float[] origins = {0, 0, 10, 4, 0, 10, 0.5f, 0.5f, 10};
+        final float[] directions = {0, 0, -1, 0, 0, -1, 0, 0, -1};
+        final float[] distances = {Float.MAX_VALUE, Float.MAX_VALUE, 5};
+        final int[] triangles = {-1, -1, -1};
+        final float[] barycentrics = new float[6];
+        assertEquals(1, picker.intersect(origins, directions, new int[]{0, 1, 2}, 3, distances, triangles,
+                barycentrics));
+        assertEquals(8, distances[0], DELTA);
+        // the triangles of the first quad
+        assertTrue(triangles[0] == 0 || triangles[0] == 1);
+        assertEquals(Float.MAX_VALUE, distances[1], 0);
+        assertEquals(5, distances[2], 0);
+        assertEquals(-1, triangles[2]);
+    }
+
+    @Test
+    public void hitsAreTheSameAsTestingEverySkinnedTriangle() {
+        // a grid bent by two bones, with blended weights from one side to the other
+        final int size = 8;
+        final float[] positions = new float[size * size * 18];
+        final float[] joints = new float[size * size * 12];
+        final float[] weights = new float[joints.length];
+        int p = 0;
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                final float[] corners = {i, j, i + 1, j, i + 1, j + 1, i, j, i + 1, j + 1, i, j + 1};
+                for (int c = 0; c < 6; c++, p++) {
+                    final float x = corners[c * 2] * 4f / size - 2, y = corners[c * 2 + 1] * 4f / size - 2;
+                    positions[p * 3] = x;
+                    positions[p * 3 + 1] = y;
+                    positions[p * 3 + 2] = (x * y) / 8;
+                    joints[p * 2 + 1] = 1;
+                    weights[p * 2 + 1] = (x + 2) / 4;
+                    weights[p * 2] = 1 - weights[p * 2 + 1];
+                }
+            }
+        }
+        final AnimatedModel model = model(positions, joints, weights);
+        final SkinnedPicker picker = new SkinnedPicker(model);
+
+        // bone 1 rotated 30 degrees around y and moved, so the grid is bent
+        final float[] palette = palette(0, 0, 0, 0, 0, 0);
+        final float half = (float) Math.toRadians(15);
+        Mat4.compose(palette, 16, 0.5f, 0, 1, 0, (float) Math.sin(half), 0, (float) Math.cos(half), 1, 1, 1);
+        picker.refit(palette);
+        final CpuSkinner skinner = new CpuSkinner(model);
+        skinner.skin(palette);
+        final float[] skinned = new float[positions.length];
+        skinner.getPositions().get(skinned).position(0);
+
+        int hits = 0;
+        for (float x = -2.5f; x <= 2.5f; x += 0.37f) {
+            for (float y = -2.5f; y <= 2.5f; y += 0.37f) {
+                final float[] origin = {x, y, 10};
+                final float[] direction = {0.05f, 0.02f, -1};
+                final float expected = bruteForce(skinned, origin, direction);
+                assertEquals(x + "," + y, expected, picker.intersect(origin, direction), DELTA);
+                if (expected >= 0) hits++;
+            }
+        }
+        assertTrue(hits > 50);
+    }
+
+    private static float bruteForce(float[] vertices, float[] origin, float[] direction) {
+        float nearest = Float.MAX_VALUE;
+        for (int t = 0; t < vertices.length / 9; t++) {
+            final float d = RayKernels.intersectTriangle(origin[0], origin[1], origin[2],
+                    direction[0], direction[1], direction[2], vertices, t * 9, t * 9 + 3, t * 9 + 6);
+            if (d != RayKernels.NO_HIT && d < nearest) {
+                nearest = d;
+            }
+        }
+        return nearest == Float.MAX_VALUE ? -1 : nearest;
+    }
+
+    /**
+     * A quad from -1 to 1 moved by bone 0 and one from 3 to 5 moved by bone 1, both at z=0
+     */
+    private static AnimatedModel twoQuads() {
+        final float[] positions = new float[36];
+        final float[] joints = new float[12];
+        final float[] weights = new float[12];
+        final float[] quad = {-1, -1, 1, -1, 1, 1, -1, -1, 1, 1, -1, 1};
+        for (int v = 0; v < 12; v++) {
+            positions[v * 3] = quad[(v % 6) * 2] + (v < 6 ? 0 : 4);
+            positions[v * 3 + 1] = quad[(v % 6) * 2 + 1];
+            joints[v] = v < 6 ? 0 : 1;
+        }
+        Arrays.fill(weights, 1);
+        return model(positions, joints, weights);
+    }
+
+    private static AnimatedModel model(float[] positions, float[] joints, float[] weights) {
+        final AnimatedModel ret = new AnimatedModel(buffer(positions));
+        ret.setJointIds(buffer(joints)).setVertexWeights(buffer(weights));
+        final float[] identity = new float[16];
+        Mat4.identity(identity, 0);
+        final Joint root = new Joint(0, "root", identity.clone(), identity.clone());
+        root.addChild(new Joint(1, "child", identity.clone(), identity.clone()));
+        ret.setRootJoint(root, 2, 2, false);
+        ret.setDrawMode(GLES20.GL_TRIANGLES);
+        Mat4.identity(ret.getModelMatrix(), 0);
+        return ret;
+    }
+
+    /**
+     * @return palette of two bones, translated by (x0, y0, z0) and (x1, y1, z1)
+     */
+    private static float[] palette(float x0, float y0, float z0, float x1, float y1, float z1) {
+        final float[] ret = new float[32];
+        Mat4.identity(ret, 0);
+        Mat4.identity(ret, 16);
+        ret[12] = x0;
+        ret[13] = y0;
+        ret[14] = z0;
+        ret[28] = x1;
+        ret[29] = y1;
+        ret[30] = z1;
+        return ret;
+    }
+
+    private static FloatBuffer buffer(float... values) {
+        final FloatBuffer ret = ByteBuffer.allocateDirect(values.length * 4).order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        ret.put(values).position(0);
+        return ret;
+    }
+}
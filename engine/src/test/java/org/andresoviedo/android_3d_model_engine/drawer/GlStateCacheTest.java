@@ -0,0 +1,173 @@
+package org.andresoviedo.android_3d_model_engine.drawer;
+
+import android.opengl.GLES20;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class GlStateCacheTest {
+
+    private final List<String> calls = new ArrayList<>();
+    private GlStateCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new GlStateCache(new RecordingGl(calls));
+    }
+
+    @Test
+    public void redundantCallsAreSkipped() {
+        cache.useProgram(3);
+        cache.useProgram(3);
+        cache.enable(GLES20.GL_DEPTH_TEST);
+        cache.enable(GLES20.GL_DEPTH_TEST);
+        cache.blendFunc(GLES20.GL_ONE, GLES20.GL_ONE);
+        cache.blendFunc(GLES20.GL_ONE, GLES20.GL_ONE);
+        cache.cullFace(GLES20.GL_BACK);
+        cache.cullFace(GLES20.GL_BACK);
+
+        assertEquals(4, calls.size());
+        cache.beginFrame();
+        assertEquals(4, cache.getLastFrameIssuedCalls());
+        assertEquals(4, cache.getLastFrameSkippedCalls());
+    }
+
+    @Test
+    public void changesAreIssued() {
+        cache.useProgram(3);
+        cache.useProgram(4);
+        cache.enable(GLES20.GL_BLEND);
+        cache.disable(GLES20.GL_BLEND);
+        cache.enable(GLES20.GL_BLEND);
+        cache.blendFunc(GLES20.GL_ONE, GLES20.GL_ONE);
+        cache.blendFunc(GLES20.GL_ONE, GLES20.GL_ZERO);
+
+        assertEquals(7, calls.size());
+        assertEquals("glDisable " + GLES20.GL_BLEND, calls.get(3));
+    }
+
+    @Test
+    public void capabilitiesAreTrackedSeparately() {
+        cache.enable(GLES20.GL_BLEND);
+        cache.enable(GLES20.GL_CULL_FACE);
+        cache.enable(GLES20.GL_BLEND);
+        cache.disable(GLES20.GL_CULL_FACE);
+
+        assertEquals(3, calls.size());
+    }
+
+    @Test
+    public void texturesAreTrackedPerUnit() {
+        cache.activeTexture(GLES20.GL_TEXTURE0);
+        cache.bindTexture(GLES20.GL_TEXTURE_2D, 7);
+        cache.activeTexture(GLES20.GL_TEXTURE1);
+        cache.bindTexture(GLES20.GL_TEXTURE_2D, 7);
+        cache.bindTexture(GLES20.GL_TEXTURE_2D, 7);
+        cache.activeTexture(GLES20.GL_TEXTURE0);
+        cache.bindTexture(GLES20.GL_TEXTURE_2D, 7);
+
+        // 3 active texture and 2 binds
+        assertEquals(5, calls.size());
+    }
+
+    @Test
+    public void textureParametersAreTrackedPerTexture() {
+        cache.activeTexture(GLES20.GL_TEXTURE0);
+        cache.bindTexture(GLES20.GL_TEXTURE_2D, 1);
+        cache.texParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        cache.texParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        cache.bindTexture(GLES20.GL_TEXTURE_2D, 2);
+        cache.texParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        cache.bindTexture(GLES20.GL_TEXTURE_2D, 1);
+        cache.texParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+
+        assertEquals("glTexParameteri " + GLES20.GL_TEXTURE_MIN_FILTER + " " + GLES20.GL_LINEAR, calls.get(2));
+        // active texture, 3 binds and 2 parameters
+        assertEquals(6, calls.size());
+    }
+
+    @Test
+    public void untrackedCallsAreAlwaysIssued() {
+        // no active texture known yet
+        cache.bindTexture(GLES20.GL_TEXTURE_2D, 1);
+        cache.bindTexture(GLES20.GL_TEXTURE_2D, 1);
+        cache.activeTexture(GLES20.GL_TEXTURE0);
+        cache.bindTexture(GLES20.GL_TEXTURE_CUBE_MAP, 1);
+        cache.bindTexture(GLES20.GL_TEXTURE_CUBE_MAP, 1);
+
+        assertEquals(5, calls.size());
+    }
+
+    @Test
+    public void invalidateForgetsTheState() {
+        cache.useProgram(3);
+        cache.enable(GLES20.GL_DEPTH_TEST);
+        cache.activeTexture(GLES20.GL_TEXTURE0);
+        cache.bindTexture(GLES20.GL_TEXTURE_2D, 1);
+        cache.texParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_REPEAT);
+
+        cache.invalidate();
+        calls.clear();
+        cache.useProgram(3);
+        cache.enable(GLES20.GL_DEPTH_TEST);
+        cache.activeTexture(GLES20.GL_TEXTURE0);
+        cache.bindTexture(GLES20.GL_TEXTURE_2D, 1);
+        cache.texParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_REPEAT);
+
+        assertEquals(5, calls.size());
+    }
+
+    private static final class RecordingGl implements GlStateCache.Gl {
+
+        private final List<String> calls;
+
+        private RecordingGl(List<String> calls) {
+            this.calls = calls;
+        }
+
+        @Override
+        public void glUseProgram(int program) {
+            calls.add("glUseProgram " + program);
+        }
+
+        @Override
+        public void glEnable(int cap) {
+            calls.add("glEnable " + cap);
+        }
+
+        @Override
+        public void glDisable(int cap) {
+            calls.add("glDisable " + cap);
+        }
+
+        @Override
+        public void glBlendFunc(int sfactor, int dfactor) {
+            calls.add("glBlendFunc " + sfactor + " " + dfactor);
+        }
+
+        @Override
+        public void glCullFace(int mode) {
+            calls.add("glCullFace " + mode);
+        }
+
+        @Override
+        public void glActiveTexture(int texture) {
+            calls.add("glActiveTexture " + texture);
+        }
+
+        @Override
+        public void glBindTexture(int target, int texture) {
+            calls.add("glBindTexture " + target + " " + texture);
+        }
+
+        @Override
+        public void glTexParameteri(int target, int pname, int param) {
+            calls.add("glTexParameteri " + pname + " " + param);
+        }
+    }
+}
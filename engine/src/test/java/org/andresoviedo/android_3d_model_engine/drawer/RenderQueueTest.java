@@ -0,0 +1,113 @@
+package org.andresoviedo.android_3d_model_engine.drawer;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RenderQueueTest {
+
+    @Test
+    public void opaqueItemsGoFirst() {
+        final RenderQueue queue = new RenderQueue();
+        queue.add(0, 1, -1, true, 1f);
+        queue.add(1, 1, -1, false, 5f);
+        queue.add(2, 1, -1, true, 2f);
+        queue.add(3, 1, -1, false, 3f);
+        queue.sort();
+
+        assertArrayEquals(new int[]{3, 1, 2, 0}, sorted(queue));
+    }
+
+    @Test
+    public void opaqueItemsAreGroupedByStateThenFrontToBack() {
+        final RenderQueue queue = new RenderQueue();
+        queue.add(0, 2, 5, false, 1f);
+        queue.add(1, 1, 5, false, 10f);
+        queue.add(2, 2, 5, false, 0.5f);
+        queue.add(3, 1, 5, false, 2f);
+        queue.add(4, 1, 4, false, 20f);
+        queue.sort();
+
+        assertArrayEquals(new int[]{4, 3, 1, 2, 0}, sorted(queue));
+    }
+
+    @Test
+    public void transparentItemsAreBackToFrontWhateverTheState() {
+        final RenderQueue queue = new RenderQueue();
+        queue.add(0, 1, -1, true, 1f);
+        queue.add(1, 2, 3, true, 8f);
+        queue.add(2, 1, -1, true, 4f);
+        queue.sort();
+
+        assertArrayEquals(new int[]{1, 2, 0}, sorted(queue));
+    }
+
+    @Test
+    public void itemsBehindTheCameraSortAsNearest() {
+        final RenderQueue queue = new RenderQueue();
+        queue.add(0, 1, -1, false, 1f);
+        queue.add(1, 1, -1, false, -3f);
+        queue.sort();
+
+        assertArrayEquals(new int[]{1, 0}, sorted(queue));
+    }
+
+    @Test
+    public void equalKeysKeepTheirOrder() {
+        final RenderQueue queue = new RenderQueue();
+        for (int i = 0; i < 5; i++) {
+            queue.add(i, 1, 1, false, 2f);
+        }
+        queue.add(5, 0, 1, false, 2f);
+        queue.sort();
+
+        assertArrayEquals(new int[]{5, 0, 1, 2, 3, 4}, sorted(queue));
+    }
+
+    @Test
+    public void radixSortMatchesComparisonSort() {
+        final Random random = new Random(7);
+        final RenderQueue queue = new RenderQueue();
+        for (int frame = 0; frame < 3; frame++) {
+            queue.clear();
+            final int count = 100 + frame * 400;
+            final long[] keys = new long[count];
+            for (int i = 0; i < count; i++) {
+                final int program = random.nextInt(4);
+                final int texture = random.nextInt(6) - 1;
+                final boolean transparent = random.nextInt(4) == 0;
+                final float depth = random.nextFloat() * 100;
+                keys[i] = RenderQueue.key(program, texture, transparent, depth);
+                queue.add(i, program, texture, transparent, depth);
+            }
+            queue.sort();
+
+            assertEquals(count, queue.size());
+            final long[] expected = keys.clone();
+            Arrays.sort(expected);
+            for (int q = 0; q < count; q++) {
+                assertEquals("position " + q, expected[q], keys[queue.get(q)]);
+            }
+        }
+    }
+
+    @Test
+    public void keysFitInTheSortedBits() {
+        final long key = RenderQueue.key(1023, 4094, true, Float.MAX_VALUE);
+        assertTrue(key > 0);
+        assertTrue(key < 1L << 47);
+    }
+
+    private static int[] sorted(RenderQueue queue) {
+        final int[] ret = new int[queue.size()];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = queue.get(i);
+        }
+        return ret;
+    }
+}
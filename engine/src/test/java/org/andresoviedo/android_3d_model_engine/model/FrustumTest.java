@@ -0,0 +1,100 @@
+package org.andresoviedo.android_3d_model_engine.model;
+
+import org.andresoviedo.util.math.Mat4;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FrustumTest {
+
+    /**
+     * Matrix.frustumM(-1, 1, -1, 1, 1, 10): looking down -z, |x| and |y| up to -z, z from -1 to -10
+     */
+    private static final float[] PROJECTION = {1, 0, 0, 0, 0, 1, 0, 0, 0, 0, -11f / 9, -1, 0, 0, -20f / 9, 0};
+
+    @Test
+    public void boxesInside() {
+        final Frustum frustum = frustum(PROJECTION);
+        assertEquals(Frustum.INSIDE, frustum.classify(0, 0, -5, 0.5f, 0.5f, 0.5f));
+        assertEquals(Frustum.INSIDE, frustum.classify(3, -3, -5, 1, 1, 1));
+        assertEquals(Frustum.INSIDE, frustum.classify(0, 0, -9, 0.5f, 0.5f, 0.5f));
+    }
+
+    @Test
+    public void boxesOutsideEveryPlane() {
+        final Frustum frustum = frustum(PROJECTION);
+        // left, right, bottom, top
+        assertEquals(Frustum.OUTSIDE, frustum.classify(-10, 0, -5, 1, 1, 1));
+        assertEquals(Frustum.OUTSIDE, frustum.classify(10, 0, -5, 1, 1, 1));
+        assertEquals(Frustum.OUTSIDE, frustum.classify(0, -10, -5, 1, 1, 1));
+        assertEquals(Frustum.OUTSIDE, frustum.classify(0, 10, -5, 1, 1, 1));
+        // near, i.e. behind the camera, & far
+        assertEquals(Frustum.OUTSIDE, frustum.classify(0, 0, 2, 0.5f, 0.5f, 0.5f));
+        assertEquals(Frustum.OUTSIDE, frustum.classify(0, 0, -0.5f, 0.2f, 0.2f, 0.2f));
+        assertEquals(Frustum.OUTSIDE, frustum.classify(0, 0, -20, 1, 1, 1));
+        assertFalse(frustum.intersects(0, 0, -20, 1, 1, 1));
+    }
+
+    @Test
+    public void boxesStraddlingEveryPlane() {
+        final Frustum frustum = frustum(PROJECTION);
+        // the side planes are at |x| = 5 and |y| = 5 at this depth
+        assertEquals(Frustum.INTERSECTING, frustum.classify(-5, 0, -5, 1, 1, 1));
+        assertEquals(Frustum.INTERSECTING, frustum.classify(5, 0, -5, 1, 1, 1));
+        assertEquals(Frustum.INTERSECTING, frustum.classify(0, -5, -5, 1, 1, 1));
+        assertEquals(Frustum.INTERSECTING, frustum.classify(0, 5, -5, 1, 1, 1));
+        assertEquals(Frustum.INTERSECTING, frustum.classify(0, 0, -1, 0.5f, 0.5f, 0.5f));
+        assertEquals(Frustum.INTERSECTING, frustum.classify(0, 0, -10, 0.5f, 0.5f, 0.5f));
+        // bigger than the frustum
+        assertEquals(Frustum.INTERSECTING, frustum.classify(0, 0, -5, 100, 100, 100));
+        assertTrue(frustum.intersects(5, 0, -5, 1, 1, 1));
+    }
+
+    @Test
+    public void viewMatrixMovesTheFrustum() {
+        // camera at z = 20, so the frustum goes from z = 19 to z = 10
+        final float[] view = identity();
+        view[14] = -20;
+        final float[] viewProjection = new float[16];
+        Mat4.multiply(viewProjection, 0, PROJECTION, 0, view, 0);
+        final Frustum frustum = frustum(viewProjection);
+
+        assertEquals(Frustum.INSIDE, frustum.classify(0, 0, 15, 0.5f, 0.5f, 0.5f));
+        assertEquals(Frustum.OUTSIDE, frustum.classify(0, 0, -5, 0.5f, 0.5f, 0.5f));
+        assertEquals(Frustum.INTERSECTING, frustum.classify(0, 0, 10, 0.5f, 0.5f, 0.5f));
+    }
+
+    @Test
+    public void modelMatrixPlacesTheLocalBox() {
+        final Frustum frustum = frustum(PROJECTION);
+        final float[] bounds = {-1, -1, -1, 1, 1, 1};
+        final float[] model = identity();
+        model[14] = -5;
+        assertTrue(frustum.intersects(bounds, model));
+
+        model[12] = -10;
+        assertFalse(frustum.intersects(bounds, model));
+
+        // rotated 45 degrees around y and scaled, the enclosing box reaches 2.8 from its center in x and z
+        final float[] rotated = new float[16];
+        final float half = (float) Math.sin(Math.PI / 8);
+        Mat4.compose(rotated, 0, -7.5f, 0, -5, 0, half, 0, (float) Math.cos(Math.PI / 8), 2, 2, 2);
+        assertTrue(frustum.intersects(bounds, rotated));
+        rotated[12] = -11;
+        assertFalse(frustum.intersects(bounds, rotated));
+    }
+
+    private static Frustum frustum(float[] viewProjection) {
+        final Frustum ret = new Frustum();
+        ret.set(viewProjection);
+        return ret;
+    }
+
+    private static float[] identity() {
+        final float[] ret = new float[16];
+        Mat4.identity(ret, 0);
+        return ret;
+    }
+}
@@ -0,0 +1,63 @@
+package org.andresoviedo.android_3d_model_engine.model;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class Object3DDataTest {
+
+    @Test
+    public void shortDrawOrderIsWidenedOnce() {
+        final ShortBuffer shorts = ByteBuffer.allocateDirect(6).order(ByteOrder.nativeOrder()).asShortBuffer();
+        shorts.put(0, (short) 0).put(1, (short) 40000).put(2, (short) 65535);
+        final Object3DData data = new Object3DData().setDrawOrder(shorts);
+
+        final IntBuffer ints = data.getDrawOrder();
+        assertEquals(3, ints.capacity());
+        assertEquals(0, ints.get(0));
+        assertEquals(40000, ints.get(1));
+        assertEquals(65535, ints.get(2));
+
+        ints.get();
+        final IntBuffer again = data.getDrawOrder();
+        assertSame(ints, again);
+        assertEquals(0, again.position());
+
+        data.setDrawOrder(shorts);
+        assertNotSame(ints, data.getDrawOrder());
+    }
+
+    @Test
+    public void geometryChangesFlagTheObject() {
+        final FloatBuffer vertices = ByteBuffer.allocateDirect(6 * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        vertices.put(new float[]{0, 0, 0, 2, 4, 8});
+        final Object3DData data = new Object3DData(vertices);
+
+        data.centerAndScale(1f);
+        assertTrue(data.isChanged());
+        assertEquals(0.5f, data.getLocalBounds()[5], 1e-6f);
+
+        data.setChanged(false);
+        data.setVertexNormalsArrayBuffer(vertices);
+        assertTrue(data.isChanged());
+
+        data.setChanged(false);
+        data.setDrawOrder(IntBuffer.allocate(3));
+        assertTrue(data.isChanged());
+    }
+
+    @Test
+    public void intDrawOrderIsNotCopied() {
+        final IntBuffer ints = IntBuffer.allocate(3);
+        assertSame(ints, new Object3DData().setDrawOrder(ints).getDrawOrder());
+    }
+}
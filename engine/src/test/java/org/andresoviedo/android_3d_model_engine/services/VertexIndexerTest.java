@@ -0,0 +1,122 @@
+package org.andresoviedo.android_3d_model_engine.services;
+
+import android.opengl.GLES20;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class VertexIndexerTest {
+
+    // unit cube, 2 triangles per side, one vertex per corner
+    private static final int[][] CUBE_FACES = {
+            {0, 1, 2, 0, 2, 3}, {4, 6, 5, 4, 7, 6}, {0, 4, 5, 0, 5, 1},
+            {3, 2, 6, 3, 6, 7}, {0, 3, 7, 0, 7, 4}, {1, 5, 6, 1, 6, 2}};
+    private static final float[][] CUBE_NORMALS = {{0, 0, -1}, {0, 0, 1}, {0, -1, 0}, {0, 1, 0}, {-1, 0, 0},
+            {1, 0, 0}};
+
+    @Test
+    public void sharedPositionsAreMerged() {
+        final FloatBuffer positions = cubePositions();
+        final VertexIndexer indexer = new VertexIndexer(36).add(positions, 3).add(null, 2);
+        assertEquals(8, indexer.index());
+        assertEquals(GLES20.GL_UNSIGNED_SHORT, indexer.getIndexType());
+        assertCornersPreserved(indexer, positions, 3);
+    }
+
+    @Test
+    public void verticesWithDifferentNormalsAreKept() {
+        final FloatBuffer positions = cubePositions();
+        final FloatBuffer normals = floats(36 * 3);
+        for (int side = 0; side < 6; side++) {
+            for (int k = 0; k < 6; k++) {
+                normals.put(CUBE_NORMALS[side]);
+            }
+        }
+        final VertexIndexer indexer = new VertexIndexer(36).add(positions, 3).add(normals, 3);
+        // 4 corners per side
+        assertEquals(24, indexer.index());
+        assertCornersPreserved(indexer, positions, 3);
+        assertCornersPreserved(indexer, normals, 3);
+    }
+
+    @Test
+    public void negativeZeroIsNotMerged() {
+        // vertices are compared bit by bit
+        final FloatBuffer positions = floats(9);
+        positions.put(new float[]{0, 0, 0, -0f, 0, 0, 0, 0, 0});
+        final VertexIndexer indexer = new VertexIndexer(3).add(positions, 3);
+        assertEquals(2, indexer.index());
+    }
+
+    @Test
+    public void intIndicesAboveShortRange() {
+        final int corners = 70000;
+        final FloatBuffer positions = floats(corners * 3);
+        for (int i = 0; i < corners; i++) {
+            positions.put(i * 3, i);
+        }
+        final VertexIndexer indexer = new VertexIndexer(corners).add(positions, 3);
+        assertEquals(corners, indexer.index());
+        assertEquals(GLES20.GL_UNSIGNED_INT, indexer.getIndexType());
+        assertTrue(indexer.getIndices() instanceof IntBuffer);
+        assertEquals(69999, ((IntBuffer) indexer.getIndices()).get(69999));
+    }
+
+    @Test
+    public void nullAttributeIsNotCompacted() {
+        final VertexIndexer indexer = new VertexIndexer(36).add(cubePositions(), 3);
+        indexer.index();
+        assertNull(indexer.compact(null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shortAttributeIsRejected() {
+        new VertexIndexer(36).add(floats(35 * 3), 3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unregisteredAttributeIsRejected() {
+        final VertexIndexer indexer = new VertexIndexer(36).add(cubePositions(), 3);
+        indexer.index();
+        indexer.compact(cubePositions());
+    }
+
+    /**
+     * Every corner read through the index buffer from the compact attribute has its original value
+     */
+    private static void assertCornersPreserved(VertexIndexer indexer, FloatBuffer attribute, int size) {
+        final FloatBuffer compact = indexer.compact(attribute);
+        final ShortBuffer indices = (ShortBuffer) indexer.getIndices();
+        assertEquals(attribute.capacity() / size, indices.capacity());
+        for (int corner = 0; corner < indices.capacity(); corner++) {
+            final int index = indices.get(corner) & 0xFFFF;
+            for (int c = 0; c < size; c++) {
+                assertEquals(attribute.get(corner * size + c), compact.get(index * size + c), 0);
+            }
+        }
+    }
+
+    private static FloatBuffer cubePositions() {
+        final FloatBuffer ret = floats(36 * 3);
+        for (int[] side : CUBE_FACES) {
+            for (int corner : side) {
+                ret.put(corner & 1).put((corner >> 1 & 1) ^ (corner & 1)).put(corner >> 2);
+            }
+        }
+        ret.position(0);
+        return ret;
+    }
+
+    private static FloatBuffer floats(int count) {
+        return ByteBuffer.allocateDirect(count * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+}
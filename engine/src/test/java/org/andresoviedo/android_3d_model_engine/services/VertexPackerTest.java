@@ -0,0 +1,132 @@
+package org.andresoviedo.android_3d_model_engine.services;
+
+import org.andresoviedo.android_3d_model_engine.model.Object3DData;
+import org.andresoviedo.android_3d_model_engine.model.VertexLayout;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class VertexPackerTest {
+
+    @Test
+    public void layoutOffsetsAndStride() {
+        final VertexLayout layout = new VertexLayout(new int[]{3, 3, 0, 2});
+        assertEquals(8, layout.getVertexSize());
+        assertEquals(32, layout.getStride());
+        assertEquals(3, layout.getAttributeCount());
+        assertEquals(0, layout.getOffset(VertexLayout.POSITION));
+        assertEquals(3, layout.getOffset(VertexLayout.NORMAL));
+        assertEquals(-1, layout.getOffset(VertexLayout.COLOR));
+        assertEquals(6, layout.getOffset(VertexLayout.TEXTURE_COORDS));
+        assertFalse(layout.has(VertexLayout.WEIGHTS));
+    }
+
+    @Test
+    public void attributesAreInterleaved() {
+        final Object3DData obj = new Object3DData(sequence(3 * 3, 0))
+                .setVertexNormalsArrayBuffer(sequence(3 * 3, 100))
+                .setTextureCoordsArrayBuffer(sequence(3 * 2, 200));
+
+        assertTrue(VertexPacker.pack(obj));
+
+        final VertexLayout layout = obj.getVertexLayout();
+        final FloatBuffer packed = obj.getInterleavedBuffer();
+        assertEquals(new VertexLayout(new int[]{3, 3, 0, 2}), layout);
+        assertEquals(3 * 8, packed.capacity());
+        assertAttribute(packed, layout, VertexLayout.POSITION, obj.getVertexArrayBuffer());
+        assertAttribute(packed, layout, VertexLayout.NORMAL, obj.getVertexNormalsArrayBuffer());
+        assertAttribute(packed, layout, VertexLayout.TEXTURE_COORDS, obj.getTextureCoordsArrayBuffer());
+    }
+
+    @Test
+    public void mismatchedAttributesAreLeftOut() {
+        // 4 colors for 3 vertices
+        final Object3DData obj = new Object3DData(sequence(3 * 3, 0))
+                .setVertexNormalsArrayBuffer(sequence(3 * 3, 100))
+                .setVertexColorsArrayBuffer(sequence(4 * 4, 300));
+
+        assertTrue(VertexPacker.pack(obj));
+        assertFalse(obj.getVertexLayout().has(VertexLayout.COLOR));
+        assertTrue(obj.getVertexLayout().has(VertexLayout.NORMAL));
+    }
+
+    @Test
+    public void positionsOnlyAreNotPacked() {
+        final Object3DData obj = new Object3DData(sequence(3 * 3, 0));
+        assertFalse(VertexPacker.pack(obj));
+        assertNull(obj.getInterleavedBuffer());
+        assertNull(obj.getVertexLayout());
+    }
+
+    @Test
+    public void repackRefreshesTheSameBuffer() {
+        final Object3DData obj = new Object3DData(sequence(3 * 3, 0))
+                .setVertexNormalsArrayBuffer(sequence(3 * 3, 100));
+        assertTrue(VertexPacker.pack(obj));
+        final FloatBuffer packed = obj.getInterleavedBuffer();
+
+        // i.e. the model was scaled or its normals rebuilt
+        obj.getVertexArrayBuffer().put(4, 42f);
+        obj.getVertexNormalsArrayBuffer().put(8, -1f);
+        assertTrue(VertexPacker.repack(obj));
+
+        assertSame(packed, obj.getInterleavedBuffer());
+        assertAttribute(packed, obj.getVertexLayout(), VertexLayout.POSITION, obj.getVertexArrayBuffer());
+        assertAttribute(packed, obj.getVertexLayout(), VertexLayout.NORMAL, obj.getVertexNormalsArrayBuffer());
+    }
+
+    @Test
+    public void repackFollowsReplacedBuffers() {
+        final Object3DData obj = new Object3DData(sequence(3 * 3, 0))
+                .setVertexNormalsArrayBuffer(sequence(3 * 3, 100));
+        assertTrue(VertexPacker.pack(obj));
+        final FloatBuffer packed = obj.getInterleavedBuffer();
+
+        // more vertices and a new attribute: the layout no longer fits
+        obj.setVertexArrayBuffer(sequence(6 * 3, 0));
+        obj.setVertexNormalsArrayBuffer(sequence(6 * 3, 100));
+        obj.setTextureCoordsArrayBuffer(sequence(6 * 2, 200));
+        assertTrue(VertexPacker.repack(obj));
+
+        assertNotSame(packed, obj.getInterleavedBuffer());
+        assertEquals(6 * 8, obj.getInterleavedBuffer().capacity());
+        assertAttribute(obj.getInterleavedBuffer(), obj.getVertexLayout(), VertexLayout.TEXTURE_COORDS,
+                obj.getTextureCoordsArrayBuffer());
+    }
+
+    @Test
+    public void repackWithoutPackingDoesNothing() {
+        final Object3DData obj = new Object3DData(sequence(3 * 3, 0))
+                .setVertexNormalsArrayBuffer(sequence(3 * 3, 100));
+        assertFalse(VertexPacker.repack(obj));
+        assertNull(obj.getInterleavedBuffer());
+    }
+
+    private static void assertAttribute(FloatBuffer packed, VertexLayout layout, int attribute, FloatBuffer expected) {
+        final int size = layout.getSize(attribute);
+        final int vertexCount = packed.capacity() / layout.getVertexSize();
+        for (int v = 0; v < vertexCount; v++) {
+            for (int c = 0; c < size; c++) {
+                assertEquals("vertex " + v + ", component " + c, expected.get(v * size + c),
+                        packed.get(v * layout.getVertexSize() + layout.getOffset(attribute) + c), 0f);
+            }
+        }
+    }
+
+    private static FloatBuffer sequence(int length, int first) {
+        final FloatBuffer ret = ByteBuffer.allocateDirect(length * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        for (int i = 0; i < length; i++) {
+            ret.put(i, first + i);
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,132 @@
+package org.andresoviedo.android_3d_model_engine.services.cache;
+
+import org.andresoviedo.android_3d_model_engine.animation.Animation;
+import org.andresoviedo.android_3d_model_engine.animation.JointTransform;
+import org.andresoviedo.android_3d_model_engine.animation.KeyFrame;
+import org.andresoviedo.android_3d_model_engine.model.AnimatedModel;
+import org.andresoviedo.android_3d_model_engine.model.Object3DData;
+import org.andresoviedo.android_3d_model_engine.services.collada.entities.Joint;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Writes skinned models to a cache file and reads them back
+ */
+public class ModelCacheFormatTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void skinnedModelKeepsSkeletonAndAnimation() throws IOException {
+        final AnimatedModel model = new AnimatedModel(floats(0, 0, 0, 1, 0, 0, 0, 1, 0));
+        model.setId("skinned");
+        model.setJointIds(floats(0, 0, 0, 0, 1, 0, 1, 0, 0));
+        model.setVertexWeights(floats(1, 0, 0, 0.5f, 0.5f, 0, 1, 0, 0));
+        final Joint root = new Joint(0, "root", matrix(1), matrix(2));
+        final Joint child = new Joint(1, "child", matrix(3), matrix(4));
+        root.addChild(child);
+        child.addChild(new Joint(-1, "end", matrix(5), null));
+        model.setRootJoint(root, 3, 2, false);
+        final Map<String, JointTransform> pose0 = new HashMap<>();
+        pose0.put("root", new JointTransform(matrix(6)));
+        pose0.put("child", new JointTransform(matrix(7)));
+        final Map<String, JointTransform> pose1 = new HashMap<>();
+        pose1.put("child", new JointTransform(matrix(8)));
+        model.doAnimation(new Animation(2.5f, new KeyFrame[]{new KeyFrame(0, pose0), new KeyFrame(1.5f, pose1)}));
+
+        final List<Object3DData> read = writeAndRead(model);
+        assertEquals(1, read.size());
+        assertTrue(read.get(0) instanceof AnimatedModel);
+        final AnimatedModel copy = (AnimatedModel) read.get(0);
+        assertEquals("skinned", copy.getId());
+        assertEquals(3, copy.getJointCount());
+        assertEquals(2, copy.getBoneCount());
+        assertBuffer(model.getJointIds(), copy.getJointIds());
+        assertBuffer(model.getVertexWeights(), copy.getVertexWeights());
+
+        final Joint copyRoot = copy.getRootJoint();
+        assertJoint(root, copyRoot);
+        final Joint copyChild = copyRoot.getChildren().get(0);
+        assertJoint(child, copyChild);
+        assertJoint(child.getChildren().get(0), copyChild.getChildren().get(0));
+        assertNull(copyChild.getChildren().get(0).getInverseBindTransform());
+        assertTrue(copy.getSkeleton() != null);
+
+        final Animation animation = copy.getAnimation();
+        assertEquals(2.5f, animation.getLength(), 0);
+        assertEquals(2, animation.getKeyFrames().length);
+        assertEquals(1.5f, animation.getKeyFrames()[1].getTimeStamp(), 0);
+        assertEquals(pose0.keySet(), animation.getKeyFrames()[0].getJointKeyFrames().keySet());
+        assertArrayEquals(matrix(7),
+                animation.getKeyFrames()[0].getJointKeyFrames().get("child").getLocalTransform(new float[16], 0), 0);
+        assertArrayEquals(matrix(8),
+                animation.getKeyFrames()[1].getJointKeyFrames().get("child").getLocalTransform(new float[16], 0), 0);
+    }
+
+    @Test
+    public void skinnedModelWithoutAnimation() throws IOException {
+        final AnimatedModel model = new AnimatedModel(floats(0, 0, 0));
+        model.setId("static");
+        final AnimatedModel copy = (AnimatedModel) writeAndRead(model).get(0);
+        assertNull(copy.getRootJoint());
+        assertNull(copy.getAnimation());
+    }
+
+    private List<Object3DData> writeAndRead(Object3DData model) throws IOException {
+        final List<Object3DData> datas = Collections.singletonList(model);
+        assertTrue(ModelCacheFormat.isCacheable(datas));
+        final File file = new File(folder.getRoot(), "model.bin");
+        ModelCacheFormat.write(file, "key", datas);
+        assertNull(ModelCacheFormat.read(file, "other key"));
+        return ModelCacheFormat.read(file, "key");
+    }
+
+    private static void assertJoint(Joint expected, Joint actual) {
+        assertEquals(expected.getIndex(), actual.getIndex());
+        assertEquals(expected.getName(), actual.getName());
+        assertArrayEquals(expected.getBindLocalTransform(), actual.getBindLocalTransform(), 0);
+        if (expected.getInverseBindTransform() != null) {
+            assertArrayEquals(expected.getInverseBindTransform(), actual.getInverseBindTransform(), 0);
+        }
+        assertEquals(expected.getChildren().size(), actual.getChildren().size());
+    }
+
+    private static void assertBuffer(FloatBuffer expected, FloatBuffer actual) {
+        assertEquals(expected.capacity(), actual.capacity());
+        for (int i = 0; i < expected.capacity(); i++) {
+            assertEquals(expected.get(i), actual.get(i), 0);
+        }
+    }
+
+    private static float[] matrix(float seed) {
+        final float[] ret = new float[16];
+        for (int i = 0; i < 16; i++) {
+            ret[i] = seed + i / 16f;
+        }
+        return ret;
+    }
+
+    private static FloatBuffer floats(float... values) {
+        final FloatBuffer ret = ByteBuffer.allocateDirect(values.length * 4).order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        ret.put(values).position(0);
+        return ret;
+    }
+}
@@ -0,0 +1,151 @@
+package org.andresoviedo.android_3d_model_engine.services.cache;
+
+import org.andresoviedo.android_3d_model_engine.model.Object3DData;
+import org.andresoviedo.android_3d_model_engine.services.wavefront.WavefrontLoader;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Keys, budget and eviction of the disk cache
+ */
+public class ModelCacheTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void modelsWithoutSizeOrModificationTimeAreNotCached() {
+        assertEquals("content://model|10|20|1", ModelCache.buildKey("content://model", 10, 20, 1));
+        assertNull(ModelCache.buildKey("content://model", 10, -1, 1));
+        assertNull(ModelCache.buildKey("content://model", -1, 20, 1));
+        assertNull(ModelCache.buildKey("content://model", -1, -1, 1));
+    }
+
+    @Test
+    public void storedModelsAreRead() throws IOException {
+        final ModelCache cache = new ModelCache(folder.newFolder(), ModelCache.DEFAULT_MAX_BYTES);
+        assertNull(cache.get("a"));
+        cache.put("a", model("a"));
+        final List<Object3DData> read = cache.get("a");
+        assertNotNull(read);
+        assertEquals("a", read.get(0).getId());
+        assertNull(cache.get("b"));
+    }
+
+    @Test
+    public void leastRecentlyUsedEntriesAreEvictedOverTheBudget() throws IOException {
+        final long size = entrySize();
+        final File dir = folder.newFolder();
+        final ModelCache cache = new ModelCache(dir, size * 3 + size / 2);
+        cache.put("a", model("a"));
+        cache.put("b", model("b"));
+        cache.put("c", model("c"));
+        // a is used again, so b is now the eldest
+        assertNotNull(cache.get("a"));
+
+        cache.put("d", model("d"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+        assertNotNull(cache.get("d"));
+        assertEquals(3, count(dir));
+    }
+
+    @Test
+    public void theEntryJustWrittenIsKeptEvenOverTheBudget() throws IOException {
+        final File dir = folder.newFolder();
+        final ModelCache cache = new ModelCache(dir, 1);
+        cache.put("a", model("a"));
+        cache.put("b", model("b"));
+        assertNull(cache.get("a"));
+        assertNotNull(cache.get("b"));
+        assertEquals(1, count(dir));
+    }
+
+    @Test
+    public void entriesSurviveARestart() throws IOException {
+        final long size = entrySize();
+        final File dir = folder.newFolder();
+        final ModelCache cache = new ModelCache(dir, size * 2 + size / 2);
+        cache.put("a", model("a"));
+        cache.put("b", model("b"));
+        // the modification time is the access time, so b was used after a
+        setLastModified(dir, "a", 1000);
+        setLastModified(dir, "b", 2000);
+
+        final ModelCache restarted = new ModelCache(dir, size * 2 + size / 2);
+        restarted.put("c", model("c"));
+        assertNull(restarted.get("a"));
+        assertNotNull(restarted.get("b"));
+        assertNotNull(restarted.get("c"));
+    }
+
+    @Test
+    public void modelsReadingOtherFilesAreNotStored() throws IOException {
+        final File dir = folder.newFolder();
+        final ModelCache cache = new ModelCache(dir, ModelCache.DEFAULT_MAX_BYTES);
+
+        final List<Object3DData> textured = model("textured");
+        textured.get(0).setTextureFile("texture.png");
+        cache.put("textured", textured);
+        assertNull(cache.get("textured"));
+
+        final WavefrontLoader loader = new WavefrontLoader("");
+        final byte[] obj = "mtllib model.mtl\nv 0 0 0\nv 1 0 0\nv 0 1 0\nusemtl red\nf 1 2 3\n"
+                .getBytes(StandardCharsets.UTF_8);
+        loader.loadModel(obj, 0, obj.length);
+        final Object3DData withMaterials = new Object3DData(loader.getVerts(), loader.getNormals(),
+                loader.getTexCoords(), loader.getFaces(), loader.getFaceMats(), loader.getMaterials());
+        assertNotNull(withMaterials.getMaterials());
+        cache.put("materials", Collections.singletonList(withMaterials));
+        assertNull(cache.get("materials"));
+        assertEquals(0, count(dir));
+    }
+
+    private long entrySize() throws IOException {
+        final File dir = folder.newFolder();
+        new ModelCache(dir, ModelCache.DEFAULT_MAX_BYTES).put("a", model("a"));
+        final File[] files = dir.listFiles();
+        assertEquals(1, files.length);
+        return files[0].length();
+    }
+
+    private static void setLastModified(File dir, String key, long time) throws IOException {
+        // the entry of a key is the only file that reads with it
+        for (File file : dir.listFiles()) {
+            if (ModelCacheFormat.read(file, key) != null) {
+                assertTrue(file.setLastModified(time));
+                return;
+            }
+        }
+        fail("no entry for " + key);
+    }
+
+    private static int count(File dir) {
+        return dir.listFiles().length;
+    }
+
+    private static List<Object3DData> model(String id) {
+        final FloatBuffer vertices = ByteBuffer.allocateDirect(9 * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        vertices.put(new float[]{0, 0, 0, 1, 0, 0, 0, 1, 0}).position(0);
+        final Object3DData ret = new Object3DData(vertices);
+        ret.setId(id);
+        return Collections.singletonList(ret);
+    }
+}
@@ -0,0 +1,25 @@
+package org.andresoviedo.android_3d_model_engine.services.wavefront;
+
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * OBJ files of the repository's models folder. Unit tests run from the module folder, but the project folder is
+ * tried too.
+ */
+final class ModelFiles {
+
+    private ModelFiles() {
+    }
+
+    static File[] list() {
+        for (String path : new String[]{"../models", "models"}) {
+            final File[] files = new File(path).listFiles((dir, name) -> name.toLowerCase().endsWith(".obj"));
+            if (files != null) {
+                Arrays.sort(files);
+                return files;
+            }
+        }
+        return new File[0];
+    }
+}
@@ -0,0 +1,44 @@
+package org.andresoviedo.android_3d_model_engine.services.wavefront;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Compares the sequential and the parallel scan of the repository's models. Run it as a Java application from the
+ * module or the project folder.
+ */
+public class WavefrontScannerBenchmark {
+
+    private static final int WARMUP = 5;
+    private static final int RUNS = 10;
+
+    public static void main(String[] args) throws IOException {
+        final int cores = Runtime.getRuntime().availableProcessors();
+        System.out.println("cores: " + cores);
+        for (File file : ModelFiles.list()) {
+            final byte[] data = Files.readAllBytes(file.toPath());
+            final double sequential = time(data, 1);
+            final double parallel = time(data, cores * 4);
+            System.out.printf("%-20s %8d KB  sequential %8.2f ms  parallel %8.2f ms  speedup %.2f%n",
+                    file.getName(), data.length / 1024, sequential, parallel, sequential / parallel);
+        }
+    }
+
+    private static double time(byte[] data, int chunks) {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < WARMUP + RUNS; i++) {
+            final long start = System.nanoTime();
+            if (chunks == 1) {
+                new WavefrontScanner().scan(data, 0, data.length);
+            } else {
+                WavefrontScanner.scanParallel(data, 0, data.length, chunks);
+            }
+            final long time = System.nanoTime() - start;
+            if (i >= WARMUP) {
+                best = Math.min(best, time);
+            }
+        }
+        return best / 1e6;
+    }
+}
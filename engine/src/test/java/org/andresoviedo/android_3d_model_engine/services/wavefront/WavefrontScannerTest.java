@@ -0,0 +1,109 @@
+package org.andresoviedo.android_3d_model_engine.services.wavefront;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the parallel scan gives the same result as the sequential one
+ */
+public class WavefrontScannerTest {
+
+    private static final String MODEL = "mtllib model.mtl\n"
+            + "v 0 0 0\nv 1 0 0\nv 1 1 0\nv 0 1 0\n"
+            + "vt 0 0\nvt 1 0\nvt 1 1\nvt 0 1\n"
+            + "vn 0 0 1\n"
+            + "usemtl red\n"
+            + "f 1/1/1 2/2/1 3/3/1\n"
+            + "f -4/-4/-1 -2/-2/-1 -1/-1/-1\n"
+            + "v 0 0 -1\nv 1 0 -1\nv 1 1 -1\nv 0 1 -1\n"
+            + "usemtl blue\n"
+            + "f -4 -3 -2 -1\n"
+            + "f 5 6 7\n"
+            + "# comment\n"
+            + "v -2.5e-1 3.25 1E2\n"
+            + "usemtl red\n"
+            + "f -1 1 2\n";
+
+    @Test
+    public void relativeIndicesAreResolved() {
+        final WavefrontScanner scanner = scan(MODEL, 1);
+        assertTrue(scanner.loaded);
+        assertEquals(9, scanner.verts.size / 3);
+        // quad is triangulated as a fan
+        assertEquals(6, scanner.faceVerts.size / 3);
+        assertArrayEquals(new int[]{0, 1, 2, 0, 2, 3, 4, 5, 6, 4, 6, 7, 4, 5, 6, 8, 0, 1},
+                Arrays.copyOf(scanner.faceVerts.array, scanner.faceVerts.size));
+        assertEquals(-0.25f, scanner.verts.array[24], 0);
+        assertEquals(100f, scanner.verts.array[26], 0);
+    }
+
+    @Test
+    public void parallelScanMatchesSequential() {
+        final WavefrontScanner expected = scan(MODEL, 1);
+        // every chunk count up to one chunk per line, so that chunks split everywhere
+        for (int chunks = 2; chunks <= 24; chunks++) {
+            assertSameScan("chunks " + chunks, expected, scan(MODEL, chunks));
+        }
+    }
+
+    @Test
+    public void parallelScanMatchesSequentialOnModels() throws IOException {
+        for (File file : ModelFiles.list()) {
+            final byte[] data = Files.readAllBytes(file.toPath());
+            final WavefrontScanner expected = new WavefrontScanner();
+            expected.scan(data, 0, data.length);
+            for (int chunks : new int[]{2, 7, 16}) {
+                assertSameScan(file.getName() + ", chunks " + chunks, expected,
+                        WavefrontScanner.scanParallel(data, 0, data.length, chunks));
+            }
+        }
+    }
+
+    private static WavefrontScanner scan(String model, int chunks) {
+        final byte[] data = model.getBytes(StandardCharsets.US_ASCII);
+        if (chunks == 1) {
+            final WavefrontScanner ret = new WavefrontScanner();
+            ret.scan(data, 0, data.length);
+            return ret;
+        }
+        return WavefrontScanner.scanParallel(data, 0, data.length, chunks);
+    }
+
+    private static void assertSameScan(String message, WavefrontScanner expected, WavefrontScanner actual) {
+        assertEquals(message, expected.loaded, actual.loaded);
+        assertSame(message + ": verts", expected.verts, actual.verts);
+        assertSame(message + ": normals", expected.normals, actual.normals);
+        assertSame(message + ": texCoords", expected.texCoords, actual.texCoords);
+        assertSame(message + ": faceVerts", expected.faceVerts, actual.faceVerts);
+        assertSame(message + ": faceTexs", expected.faceTexs, actual.faceTexs);
+        assertSame(message + ": faceNorms", expected.faceNorms, actual.faceNorms);
+        assertSame(message + ": materialFaces", expected.materialFaces, actual.materialFaces);
+        assertEquals(message + ": materialNames", expected.materialNames, actual.materialNames);
+        assertEquals(message + ": materialLib", expected.materialLib, actual.materialLib);
+        assertEquals(message + ": polygons", expected.polygons, actual.polygons);
+        assertEquals(message + ": triangles", expected.triangles, actual.triangles);
+        assertEquals(message + ": hasTCs3D", expected.hasTCs3D, actual.hasTCs3D);
+        assertArrayEquals(message + ": dims", expected.dims, actual.dims, 0);
+    }
+
+    private static void assertSame(String message, WavefrontScanner.FloatArray expected,
+                                   WavefrontScanner.FloatArray actual) {
+        assertArrayEquals(message, Arrays.copyOf(expected.array, expected.size),
+                Arrays.copyOf(actual.array, actual.size), 0);
+    }
+
+    private static void assertSame(String message, WavefrontScanner.IntArray expected,
+                                   WavefrontScanner.IntArray actual) {
+        assertArrayEquals(message, Arrays.copyOf(expected.array, expected.size),
+                Arrays.copyOf(actual.array, actual.size));
+    }
+}
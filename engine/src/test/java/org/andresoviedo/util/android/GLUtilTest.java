@@ -0,0 +1,73 @@
+package org.andresoviedo.util.android;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.function.IntSupplier;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GLUtilTest {
+
+    private static final int GL_INVALID_OPERATION = 0x0502;
+
+    // errors kept by the fake GL until read
+    private final Queue<Integer> errors = new ArrayDeque<>();
+    private IntSupplier glGetError;
+
+    @Before
+    public void setUp() {
+        glGetError = GLUtil.glGetError;
+        GLUtil.glGetError = () -> errors.isEmpty() ? 0 : errors.remove();
+        GLUtil.glErrorCounter = 0;
+    }
+
+    @After
+    public void tearDown() {
+        GLUtil.glGetError = glGetError;
+    }
+
+    @Test
+    public void sampledChecksLeaveTheErrorsQueued() {
+        errors.add(GL_INVALID_OPERATION);
+        assertFalse(GLUtil.checkGlError("glBindTexture", 64));
+        assertTrue(GLUtil.checkGlErrorNow("glBufferData"));
+        assertTrue(errors.isEmpty());
+    }
+
+    @Test
+    public void clearedErrorsAreNotSeenByTheNextCheck() {
+        errors.add(GL_INVALID_OPERATION);
+        assertFalse(GLUtil.checkGlError("glBindTexture", 64));
+
+        GLUtil.clearGlErrors();
+        // i.e. glBufferData succeeded
+        assertFalse(GLUtil.checkGlErrorNow("glBufferData"));
+
+        // and fails
+        errors.add(GL_INVALID_OPERATION);
+        assertTrue(GLUtil.checkGlErrorNow("glBufferData"));
+    }
+
+    @Test
+    public void everyErrorIsRead() {
+        errors.add(GL_INVALID_OPERATION);
+        errors.add(GL_INVALID_OPERATION);
+        GLUtil.clearGlErrors();
+        assertTrue(errors.isEmpty());
+    }
+
+    @Test
+    public void oneOfEverySamplingChecksCallsGlGetError() {
+        for (int i = 1; i < 64; i++) {
+            errors.add(GL_INVALID_OPERATION);
+            assertFalse(GLUtil.checkGlError("glDrawArrays", 64));
+        }
+        assertTrue(GLUtil.checkGlError("glDrawArrays", 64));
+        assertTrue(errors.isEmpty());
+    }
+}
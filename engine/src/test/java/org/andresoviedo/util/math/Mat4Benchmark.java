@@ -0,0 +1,138 @@
+package org.andresoviedo.util.math;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+/**
+ * Compares the matrix operations of {@link Mat4} and {@link Quat} against the straightforward code they replace. Run
+ * it as a Java application from the module or the project folder.
+ * <p>
+ * <code>android.opengl.Matrix</code> isn't implemented in local unit tests, so the baselines are plain Java versions
+ * of its loops. On a device <code>multiplyMM</code> and <code>multiplyMV</code> are native, so the comparison is
+ * only indicative.
+ */
+public class Mat4Benchmark {
+
+    private static final int WARMUP = 5;
+    private static final int RUNS = 10;
+    private static final int OPS = 1_000_000;
+    private static final int POINTS = 10_000;
+
+    // written by every operation, so the JIT can't drop them
+    private static float sink;
+
+    public static void main(String[] args) {
+        final Random random = new Random(1);
+        final float[] a = new float[16], b = new float[16], out = new float[16];
+        for (int i = 0; i < 16; i++) {
+            a[i] = random.nextFloat();
+            b[i] = random.nextFloat();
+        }
+        final float[] qa = new float[4], qb = new float[4], q = new float[4];
+        Quat.setAxisAngle(qa, 0, 10, 1, 0, 0);
+        Quat.setAxisAngle(qb, 0, 80, 0, 1, 0);
+        final float[] points = new float[POINTS * 3], transformed = new float[POINTS * 3];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = random.nextFloat();
+        }
+        final FloatBuffer buffer = ByteBuffer.allocateDirect(points.length * 4).order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        buffer.put(points);
+
+        print("multiply", OPS, time(() -> {
+            for (int i = 0; i < OPS; i++) {
+                Mat4.multiply(out, 0, a, 0, b, 0);
+                sink += out[i & 15];
+            }
+        }), time(() -> {
+            for (int i = 0; i < OPS; i++) {
+                multiplyMM(out, a, b);
+                sink += out[i & 15];
+            }
+        }));
+        print("compose", OPS, time(() -> {
+            for (int i = 0; i < OPS; i++) {
+                Mat4.compose(out, 0, i, 2, 3, qa[0], qa[1], qa[2], qa[3], 1, 2, 3);
+                sink += out[i & 15];
+            }
+        }), -1);
+        print("invertAffine", OPS, time(() -> {
+            for (int i = 0; i < OPS; i++) {
+                a[12] = i;
+                Mat4.invertAffine(out, 0, a, 0);
+                sink += out[i & 15];
+            }
+        }), -1);
+        print("slerp", OPS, time(() -> {
+            for (int i = 0; i < OPS; i++) {
+                Quat.slerp(q, 0, qa, 0, qb, 0, (i & 1023) / 1024f);
+                sink += q[i & 3];
+            }
+        }), -1);
+        print("nlerp", OPS, time(() -> {
+            for (int i = 0; i < OPS; i++) {
+                Quat.nlerp(q, 0, qa, 0, qb, 0, (i & 1023) / 1024f);
+                sink += q[i & 3];
+            }
+        }), -1);
+        print("transformPoints", POINTS, time(() -> {
+            Mat4.transformPoints(a, 0, buffer, 0, transformed, 0, POINTS);
+            sink += transformed[POINTS];
+        }), time(() -> {
+            // a point at a time, like a multiplyMV loop
+            final float[] point = new float[4], result = new float[4];
+            for (int i = 0; i < POINTS; i++) {
+                point[0] = buffer.get(i * 3);
+                point[1] = buffer.get(i * 3 + 1);
+                point[2] = buffer.get(i * 3 + 2);
+                point[3] = 1;
+                multiplyMV(result, a, point);
+                System.arraycopy(result, 0, transformed, i * 3, 3);
+            }
+            sink += transformed[POINTS];
+        }));
+        System.out.println("sink: " + sink);
+    }
+
+    private static void print(String name, int ops, double time, double baseline) {
+        if (baseline < 0) {
+            System.out.printf("%-16s %8.2f ns%n", name, time / ops);
+        } else {
+            System.out.printf("%-16s %8.2f ns  baseline %8.2f ns  speedup %.2f%n", name, time / ops, baseline / ops,
+                    baseline / time);
+        }
+    }
+
+    /**
+     * @return the best time of the runs, in nanoseconds
+     */
+    private static double time(Runnable runnable) {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < WARMUP + RUNS; i++) {
+            final long start = System.nanoTime();
+            runnable.run();
+            final long time = System.nanoTime() - start;
+            if (i >= WARMUP) {
+                best = Math.min(best, time);
+            }
+        }
+        return best;
+    }
+
+    private static void multiplyMM(float[] result, float[] lhs, float[] rhs) {
+        for (int i = 0; i < 4; i++) {
+            final float rhs0 = rhs[i * 4], rhs1 = rhs[i * 4 + 1], rhs2 = rhs[i * 4 + 2], rhs3 = rhs[i * 4 + 3];
+            for (int j = 0; j < 4; j++) {
+                result[i * 4 + j] = lhs[j] * rhs0 + lhs[4 + j] * rhs1 + lhs[8 + j] * rhs2 + lhs[12 + j] * rhs3;
+            }
+        }
+    }
+
+    private static void multiplyMV(float[] result, float[] lhs, float[] rhs) {
+        for (int j = 0; j < 4; j++) {
+            result[j] = lhs[j] * rhs[0] + lhs[4 + j] * rhs[1] + lhs[8 + j] * rhs[2] + lhs[12 + j] * rhs[3];
+        }
+    }
+}
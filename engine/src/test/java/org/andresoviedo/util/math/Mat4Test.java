@@ -0,0 +1,183 @@
+package org.andresoviedo.util.math;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class Mat4Test {
+
+    private static final float DELTA = 1e-5f;
+
+    private static final float[] IDENTITY = {1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1};
+
+    @Test
+    public void multiplyMatchesTheDefinition() {
+        final Random random = new Random(1);
+        final float[] a = random(random, 16), b = random(random, 16);
+        final float[] out = new float[20];
+        Mat4.multiply(out, 4, a, 0, b, 0);
+        for (int row = 0; row < 4; row++) {
+            for (int column = 0; column < 4; column++) {
+                float expected = 0;
+                for (int k = 0; k < 4; k++) {
+                    expected += a[k * 4 + row] * b[column * 4 + k];
+                }
+                assertEquals(expected, out[4 + column * 4 + row], DELTA);
+            }
+        }
+    }
+
+    @Test
+    public void multiplyIntoAnArgument() {
+        final Random random = new Random(2);
+        final float[] a = random(random, 16), b = random(random, 16);
+        final float[] expected = new float[16];
+        Mat4.multiply(expected, 0, a, 0, b, 0);
+
+        final float[] intoA = a.clone();
+        Mat4.multiply(intoA, 0, intoA, 0, b, 0);
+        assertArrayEquals(expected, intoA, 0);
+
+        final float[] intoB = b.clone();
+        Mat4.multiply(intoB, 0, a, 0, intoB, 0);
+        assertArrayEquals(expected, intoB, 0);
+
+        // the square of a matrix, in place
+        final float[] square = new float[16];
+        Mat4.multiply(square, 0, a, 0, a, 0);
+        final float[] inPlace = a.clone();
+        Mat4.multiply(inPlace, 0, inPlace, 0, inPlace, 0);
+        assertArrayEquals(square, inPlace, 0);
+    }
+
+    @Test
+    public void composeAndDecompose() {
+        final float[] rotation = new float[4];
+        Quat.setAxisAngle(rotation, 0, 30, 0, 0.6f, 0.8f);
+        final float[] m = new float[16];
+        Mat4.compose(m, 0, new float[]{1, 2, 3}, 0, rotation, 0, new float[]{2, 3, 4}, 0);
+
+        // translation * rotation * scale, applied to a point
+        final float[] point = {1, 1, 1};
+        Mat4.transformPoint(point, 0, m, 0, point, 0);
+        final float[] expected = {2, 3, 4};
+        Quat.rotate(expected, 0, rotation, 0, expected, 0);
+        Vec3.add(expected, 0, expected, 0, new float[]{1, 2, 3}, 0);
+        assertArrayEquals(expected, point, DELTA);
+
+        final float[] translations = new float[3], rotations = new float[4], scales = new float[3];
+        Mat4.decompose(m, 0, translations, 0, rotations, 0, scales, 0);
+        assertArrayEquals(new float[]{1, 2, 3}, translations, DELTA);
+        assertArrayEquals(new float[]{2, 3, 4}, scales, DELTA);
+        assertEquals(1, Math.abs(Vec4.dot(rotation, 0, rotations, 0)), DELTA);
+    }
+
+    @Test
+    public void mirroredMatricesGetANegativeScale() {
+        final float[] m = IDENTITY.clone();
+        m[0] = -2;
+        final float[] translations = new float[3], rotations = new float[4], scales = new float[3];
+        Mat4.decompose(m, 0, translations, 0, rotations, 0, scales, 0);
+        assertArrayEquals(new float[]{-2, 1, 1}, scales, DELTA);
+
+        final float[] composed = new float[16];
+        Mat4.compose(composed, 0, translations, 0, rotations, 0, scales, 0);
+        assertArrayEquals(m, composed, DELTA);
+    }
+
+    @Test
+    public void invertAffine() {
+        final float[] rotation = new float[4];
+        Quat.setAxisAngle(rotation, 0, 70, 1, 0, 0);
+        final float[] m = new float[16];
+        Mat4.compose(m, 0, 5, -1, 2, rotation[0], rotation[1], rotation[2], rotation[3], 0.5f, 2, 3);
+        // a shear too
+        m[4] += 0.3f;
+
+        final float[] inverse = new float[16];
+        assertTrue(Mat4.invertAffine(inverse, 0, m, 0));
+        final float[] product = new float[16];
+        Mat4.multiply(product, 0, m, 0, inverse, 0);
+        assertArrayEquals(IDENTITY, product, DELTA);
+        Mat4.multiply(product, 0, inverse, 0, m, 0);
+        assertArrayEquals(IDENTITY, product, DELTA);
+
+        // in place
+        final float[] inPlace = m.clone();
+        assertTrue(Mat4.invertAffine(inPlace, 0, inPlace, 0));
+        assertArrayEquals(inverse, inPlace, 0);
+    }
+
+    @Test
+    public void singularMatricesAreNotInverted() {
+        final float[] m = IDENTITY.clone();
+        m[10] = 0;
+        final float[] out = {7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7};
+        assertFalse(Mat4.invertAffine(out, 0, m, 0));
+        for (float value : out) {
+            assertEquals(7, value, 0);
+        }
+    }
+
+    @Test
+    public void pointsAreTranslatedAndVectorsAreNot() {
+        final float[] m = IDENTITY.clone();
+        m[0] = 2;
+        m[12] = 10;
+        final float[] v = {1, 2, 3};
+        final float[] point = new float[3];
+        Mat4.transformPoint(point, 0, m, 0, v, 0);
+        assertArrayEquals(new float[]{12, 2, 3}, point, 0);
+
+        // in place
+        Mat4.transformVector(v, 0, m, 0, v, 0);
+        assertArrayEquals(new float[]{2, 2, 3}, v, 0);
+    }
+
+    @Test
+    public void batchesMatchSinglePoints() {
+        final Random random = new Random(3);
+        final float[] m = random(random, 16);
+        final float[] src = random(random, 3 * 10);
+        final float[] expectedPoints = new float[src.length], expectedVectors = new float[src.length];
+        for (int i = 0; i < src.length; i += 3) {
+            Mat4.transformPoint(expectedPoints, i, m, 0, src, i);
+            Mat4.transformVector(expectedVectors, i, m, 0, src, i);
+        }
+
+        final float[] points = new float[src.length];
+        Mat4.transformPoints(m, 0, src, 0, points, 0, 10);
+        assertArrayEquals(expectedPoints, points, 0);
+
+        // from the third point of a buffer, whose position is left alone
+        final FloatBuffer buffer = FloatBuffer.wrap(src.clone());
+        buffer.position(5);
+        final float[] tail = new float[src.length - 6];
+        Mat4.transformPoints(m, 0, buffer, 6, tail, 0, 8);
+        assertEquals(5, buffer.position());
+        for (int i = 0; i < tail.length; i++) {
+            assertEquals(expectedPoints[6 + i], tail[i], 0);
+        }
+
+        // in place
+        Mat4.transformPoints(m, 0, buffer, 0, buffer, 0, 10);
+        assertArrayEquals(expectedPoints, buffer.array(), 0);
+        final FloatBuffer vectors = FloatBuffer.wrap(src.clone());
+        Mat4.transformVectors(m, 0, vectors, 0, vectors, 0, 10);
+        assertArrayEquals(expectedVectors, vectors.array(), 0);
+    }
+
+    private static float[] random(Random random, int size) {
+        final float[] ret = new float[size];
+        for (int i = 0; i < size; i++) {
+            ret[i] = random.nextFloat() * 2 - 1;
+        }
+        return ret;
+    }
+}
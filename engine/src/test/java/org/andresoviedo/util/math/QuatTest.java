@@ -0,0 +1,134 @@
+package org.andresoviedo.util.math;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class QuatTest {
+
+    private static final float DELTA = 1e-5f;
+
+    @Test
+    public void rotateAroundAnAxis() {
+        final float[] q = new float[4];
+        Quat.setAxisAngle(q, 0, 90, 0, 0, 1);
+        final float[] v = {1, 0, 0};
+        Quat.rotate(v, 0, q, 0, v, 0);
+        assertArrayEquals(new float[]{0, 1, 0}, v, DELTA);
+
+        // the same as the matrix
+        final float[] m = new float[16];
+        Quat.toMatrix(m, 0, q, 0);
+        final float[] w = {0.3f, -2, 5};
+        final float[] expected = new float[3];
+        Mat4.transformVector(expected, 0, m, 0, w, 0);
+        Quat.rotate(w, 0, q, 0, w, 0);
+        assertArrayEquals(expected, w, DELTA);
+    }
+
+    @Test
+    public void multiplyIsTheProductOfTheRotations() {
+        final float[] a = new float[4], b = new float[4];
+        Quat.setAxisAngle(a, 0, 40, 1, 0, 0);
+        Quat.setAxisAngle(b, 0, 25, 0, 0.6f, 0.8f);
+        final float[] ma = new float[16], mb = new float[16], expected = new float[16];
+        Quat.toMatrix(ma, 0, a, 0);
+        Quat.toMatrix(mb, 0, b, 0);
+        Mat4.multiply(expected, 0, ma, 0, mb, 0);
+
+        final float[] ab = new float[4];
+        Quat.multiply(ab, 0, a, 0, b, 0);
+        final float[] m = new float[16];
+        Quat.toMatrix(m, 0, ab, 0);
+        assertArrayEquals(expected, m, DELTA);
+
+        // into an argument
+        final float[] intoA = a.clone();
+        Quat.multiply(intoA, 0, intoA, 0, b, 0);
+        assertArrayEquals(ab, intoA, 0);
+        final float[] intoB = b.clone();
+        Quat.multiply(intoB, 0, a, 0, intoB, 0);
+        assertArrayEquals(ab, intoB, 0);
+
+        // the conjugate undoes the rotation
+        final float[] inverse = new float[4];
+        Quat.conjugate(inverse, 0, a, 0);
+        Quat.multiply(inverse, 0, a, 0, inverse, 0);
+        assertArrayEquals(new float[]{0, 0, 0, 1}, inverse, DELTA);
+    }
+
+    @Test
+    public void fromMatrixIsTheInverseOfToMatrix() {
+        final float[] m = new float[16];
+        final float[] q = new float[4], copy = new float[4];
+        // angles for every branch of the extraction
+        final float[][] axes = {{1, 0, 0}, {0, 1, 0}, {0, 0, 1}, {0.48f, 0.6f, 0.64f}};
+        for (float[] axis : axes) {
+            for (float angle : new float[]{10, 170, 200}) {
+                Quat.setAxisAngle(q, 0, angle, axis[0], axis[1], axis[2]);
+                Quat.toMatrix(m, 0, q, 0);
+                Quat.fromMatrix(copy, 0, m, 0);
+                assertEquals(1, Math.abs(Vec4.dot(q, 0, copy, 0)), DELTA);
+            }
+        }
+    }
+
+    @Test
+    public void slerpKeepsAConstantSpeed() {
+        final float[] a = new float[4], b = new float[4], out = new float[4], expected = new float[4];
+        Quat.identity(a, 0);
+        Quat.setAxisAngle(b, 0, 120, 0, 1, 0);
+        for (float alpha : new float[]{0, 0.25f, 0.5f, 0.9f, 1}) {
+            Quat.slerp(out, 0, a, 0, b, 0, alpha);
+            Quat.setAxisAngle(expected, 0, 120 * alpha, 0, 1, 0);
+            assertArrayEquals("alpha " + alpha, expected, out, DELTA);
+            assertEquals(1, Vec4.length(out, 0), DELTA);
+        }
+    }
+
+    @Test
+    public void slerpTakesTheShortestPath() {
+        final float[] a = new float[4], b = new float[4], out = new float[4], expected = new float[4];
+        Quat.identity(a, 0);
+        Quat.setAxisAngle(b, 0, 90, 1, 0, 0);
+        Quat.slerp(expected, 0, a, 0, b, 0, 0.5f);
+        // -b is the same rotation
+        Vec4.set(b, 0, -b[0], -b[1], -b[2], -b[3]);
+        Quat.slerp(out, 0, a, 0, b, 0, 0.5f);
+        assertArrayEquals(expected, out, DELTA);
+    }
+
+    @Test
+    public void slerpOfCloseRotations() {
+        final float[] a = new float[4], b = new float[4], out = new float[4], expected = new float[4];
+        Quat.setAxisAngle(a, 0, 30, 0, 0, 1);
+        Quat.setAxisAngle(b, 0, 30.5f, 0, 0, 1);
+        Quat.slerp(out, 0, a, 0, b, 0, 0.5f);
+        Quat.setAxisAngle(expected, 0, 30.25f, 0, 0, 1);
+        assertArrayEquals(expected, out, DELTA);
+        assertEquals(1, Vec4.length(out, 0), DELTA);
+    }
+
+    @Test
+    public void slerpIntoAnArgument() {
+        final float[] a = new float[4], b = new float[4], expected = new float[4];
+        Quat.setAxisAngle(a, 0, 10, 1, 0, 0);
+        Quat.setAxisAngle(b, 0, 80, 0, 1, 0);
+        Quat.slerp(expected, 0, a, 0, b, 0, 0.3f);
+
+        final float[] intoA = a.clone();
+        Quat.slerp(intoA, 0, intoA, 0, b, 0, 0.3f);
+        assertArrayEquals(expected, intoA, 0);
+        final float[] intoB = b.clone();
+        Quat.slerp(intoB, 0, a, 0, intoB, 0, 0.3f);
+        assertArrayEquals(expected, intoB, 0);
+
+        // at an offset, i.e. the rotations of a pose
+        final float[] pose = new float[12];
+        System.arraycopy(a, 0, pose, 0, 4);
+        System.arraycopy(b, 0, pose, 8, 4);
+        Quat.slerp(pose, 4, pose, 0, pose, 8, 0.3f);
+        assertArrayEquals(expected, new float[]{pose[4], pose[5], pose[6], pose[7]}, 0);
+    }
+}